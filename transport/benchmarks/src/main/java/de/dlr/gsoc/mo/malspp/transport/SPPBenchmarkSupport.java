@@ -0,0 +1,212 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+
+/**
+ * Common set-up of the benchmarks: system properties, mapping configuration
+ * and a benchmark service with a single SEND operation carrying a Blob.
+ */
+final class SPPBenchmarkSupport {
+
+    static final String PROTOCOL = "malspp";
+    static final int QUALIFIER = 247;
+    static final short SENDER_APID = 100;
+    static final short RECEIVER_APID = 200;
+    static final URI SENDER_URI = new URI(PROTOCOL + ":" + QUALIFIER + "/" + SENDER_APID);
+    static final URI RECEIVER_URI = new URI(PROTOCOL + ":" + QUALIFIER + "/" + RECEIVER_APID);
+    static final short SEQUENCE_COUNTER_WRAP = 16384;
+    static final long SEGMENT_COUNTER_WRAP = 4294967296L;
+
+    private static final String ESF_PROPERTY = "org.ccsds.moims.mo.mal.encoding.protocol." + PROTOCOL;
+    private static final String ESF_CLASS = "de.dlr.gsoc.mo.malspp.encoding.SPPElementStreamFactory";
+    private static final String MAPPING_RESOURCE = "/benchmark-mapping.xml";
+    private static final String LIMIT_TOKEN = "@LIMIT@";
+    private static final UShort AREA = new UShort(4242);
+    private static final UOctet AREA_VERSION = new UOctet((short) 1);
+    private static final UShort SERVICE = new UShort(1);
+    private static final UShort BLOB_OPERATION = new UShort(1);
+    private static final UShort EMPTY_OPERATION = new UShort(2);
+    private static final Map<Integer, String> MAPPING_FILES = new HashMap<>();
+    private static MALSendOperation blobOperation;
+    private static MALSendOperation emptyOperation;
+
+    private SPPBenchmarkSupport() {
+    }
+
+    /**
+     * Registers the benchmark area with the MAL on first use.
+     *
+     * @param withBody True for the operation carrying one Blob, false for the
+     *                 operation without body.
+     * @return The SEND operation of the benchmark service.
+     * @throws MALException
+     */
+    static synchronized MALOperation operation(final boolean withBody) throws MALException {
+        if (null == blobOperation) {
+            MALHelper.init(MALContextFactory.getElementFactoryRegistry());
+            final MALService service = new MALService(SERVICE, new Identifier("Benchmark"));
+            blobOperation = new MALSendOperation(BLOB_OPERATION, new Identifier("sendBlob"), false, new UShort(0),
+                new MALOperationStage(MALSendOperation.SEND_STAGE, new Object[]{Blob.SHORT_FORM}, new Object[0]));
+            emptyOperation = new MALSendOperation(EMPTY_OPERATION, new Identifier("sendEmpty"), false, new UShort(0),
+                new MALOperationStage(MALSendOperation.SEND_STAGE, new Object[0], new Object[0]));
+            service.addSendOperation(blobOperation);
+            service.addSendOperation(emptyOperation);
+            final MALArea area = new MALArea(AREA, new Identifier("Benchmark"), AREA_VERSION);
+            area.addService(service);
+            MALContextFactory.registerArea(area);
+        }
+        return withBody ? blobOperation : emptyOperation;
+    }
+
+    /**
+     * Creates the transport properties of an application. The Space Packet
+     * socket factory is only set if given, so that benchmarks not creating a
+     * transport do not depend on it.
+     *
+     * @param packetDataFieldSizeLimit Packet data field size limit written to the
+     *                                 mapping configuration, at most 65536.
+     * @param apid                     APID of the application.
+     * @param socketFactory            Class of the Space Packet socket factory or
+     *                                 null.
+     * @return The properties.
+     * @throws IOException
+     */
+    static Map<String, Object> properties(final int packetDataFieldSizeLimit, final short apid,
+        final Class<? extends SPPSocketFactory> socketFactory) throws IOException {
+        System.setProperty(ESF_PROPERTY, ESF_CLASS);
+        if (null != socketFactory) {
+            System.setProperty(SPPSocketFactory.FACTORY_CLASS, socketFactory.getName());
+        }
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("de.dlr.gsoc.mo.malspp.MAPPING_CONFIGURATION_FILE", mappingFile(packetDataFieldSizeLimit));
+        properties.put("de.dlr.gsoc.mo.malspp.METRICS_JMX", "false");
+        properties.put("org.ccsds.moims.mo.malspp.apidQualifier", Integer.toString(QUALIFIER));
+        properties.put("org.ccsds.moims.mo.malspp.apid", Short.toString(apid));
+        properties.put("org.ccsds.moims.mo.malspp.appendIdToUri", "false");
+        return properties;
+    }
+
+    /**
+     * Creates the header of a message from the sender to the receiver
+     * application. All optional fields are set, so that they are encoded if the
+     * respective flags are set.
+     *
+     * @param transactionId The transaction id.
+     * @param withBody      True for the operation carrying one Blob.
+     * @return The header.
+     * @throws MALException
+     */
+    static SPPMessageHeader header(final long transactionId, final boolean withBody) throws MALException {
+        final MALOperation op = operation(withBody);
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("esa"));
+        domain.add(new Identifier("benchmark"));
+        return new SPPMessageHeader(SENDER_URI, new Blob(new byte[]{1, 2, 3}), RECEIVER_URI, new Time(System
+            .currentTimeMillis()), QoSLevel.BESTEFFORT, new UInteger(1), domain, new Identifier("Network"),
+            SessionType.LIVE, new Identifier("Session"), InteractionType.SEND, MALSendOperation.SEND_STAGE,
+            transactionId, AREA, SERVICE, op.getNumber(), AREA_VERSION, Boolean.FALSE);
+    }
+
+    /**
+     * @param size Number of octets.
+     * @return An array of the given size with varying content.
+     */
+    static byte[] octets(final int size) {
+        final byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) (i * 31);
+        }
+        return value;
+    }
+
+    /**
+     * Writes an APID whitelist to the working directory, where SPPReader and
+     * SPPWriter expect it.
+     *
+     * @param fileName Name of the whitelist file.
+     * @param ranges   Content of the whitelist file.
+     * @throws IOException
+     */
+    static void writeWhitelist(final String fileName, final String ranges) throws IOException {
+        try (final OutputStream os = new FileOutputStream(fileName)) {
+            os.write(ranges.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static synchronized String mappingFile(final int packetDataFieldSizeLimit) throws IOException {
+        // Configuration caches mapping configurations by file name, so every limit
+        // needs its own file.
+        String fileName = MAPPING_FILES.get(packetDataFieldSizeLimit);
+        if (null == fileName) {
+            final ByteArrayOutputStream template = new ByteArrayOutputStream();
+            try (final InputStream is = SPPBenchmarkSupport.class.getResourceAsStream(MAPPING_RESOURCE)) {
+                final byte[] buffer = new byte[4096];
+                int n;
+                while ((n = is.read(buffer)) != -1) {
+                    template.write(buffer, 0, n);
+                }
+            }
+            // 0 stands for the maximum in the mapping configuration
+            final int limit = packetDataFieldSizeLimit < SPPTransport.MAX_SPACE_PACKET_SIZE ? packetDataFieldSizeLimit
+                : 0;
+            final String mapping = new String(template.toByteArray(), StandardCharsets.UTF_8).replace(LIMIT_TOKEN,
+                Integer.toString(limit));
+            final File file = File.createTempFile("malspp-benchmark-" + packetDataFieldSizeLimit + "-", ".xml");
+            file.deleteOnExit();
+            try (final OutputStream os = new FileOutputStream(file)) {
+                os.write(mapping.getBytes(StandardCharsets.UTF_8));
+            }
+            fileName = file.getAbsolutePath();
+            MAPPING_FILES.put(packetDataFieldSizeLimit, fileName);
+        }
+        return fileName;
+    }
+}
@@ -0,0 +1,94 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPCrc16;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * CRC of a Space Packet computed one octet at a time, as SPPHelper used to,
+ * against the slicing-by-8 computation of SPPCrc16.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPCrcBenchmark {
+
+    private static final int[] LOOK_UP_TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            LOOK_UP_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    /**
+     * Length of the packet data field: a short packet, the OPS-SAT packet data
+     * field size limit, a kilobyte and the largest length leaving room for the
+     * CRC.
+     */
+    @Param({"64", "248", "1024", "65534"})
+    public int length;
+
+    private byte[] header;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        header = SPPBenchmarkSupport.octets(6);
+        data = SPPBenchmarkSupport.octets(length);
+    }
+
+    @Benchmark
+    public int byteAtATime() {
+        int crc = 0xFFFF;
+        for (int i = 0; i < header.length; i++) {
+            crc = ((crc << 8) & 0xFF00) ^ LOOK_UP_TABLE[(((crc >> 8) ^ header[i]) & 0x00FF)];
+        }
+        for (int i = 0; i < data.length; i++) {
+            crc = ((crc << 8) & 0xFF00) ^ LOOK_UP_TABLE[(((crc >> 8) ^ data[i]) & 0x00FF)];
+        }
+        return crc;
+    }
+
+    @Benchmark
+    public int slicingBy8() {
+        return SPPCrc16.compute(header, data, 0, data.length);
+    }
+}
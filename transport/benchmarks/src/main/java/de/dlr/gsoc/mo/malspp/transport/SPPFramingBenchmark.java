@@ -0,0 +1,142 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPHelper;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPReader;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Framing of Space Packets on a byte stream as done by the TCP sockets, with
+ * and without CRC. The APID whitelists are written to the working directory,
+ * which therefore should not be the one of a deployed application.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPFramingBenchmark {
+
+    private static final String PROCESSED_FILENAME = "processed_apids.txt";
+    private static final String CRC_ENABLED_PROPERTY = "org.ccsds.moims.mo.malspp.crcenabled";
+    private static final int FRAMES = 64;
+
+    @Param({"false", "true"})
+    public boolean crc;
+
+    /**
+     * Length of the packet data field. 65534 is the largest length leaving room
+     * for the CRC.
+     */
+    @Param({"248", "65534"})
+    public int length;
+
+    private SpacePacket packet;
+    private SPPWriter writer;
+    private SPPReader reader;
+
+    @Setup
+    public void setup() throws IOException {
+        SPPBenchmarkSupport.writeWhitelist(PROCESSED_FILENAME, "0-2047");
+        SPPBenchmarkSupport.writeWhitelist(SPPHelper.CRC_FILENAME, "0-2047");
+        System.setProperty(CRC_ENABLED_PROPERTY, Boolean.toString(crc));
+        packet = new SpacePacket(new SpacePacketHeader(SPPTransport.SPP_VERSION, 1, 1,
+            SPPBenchmarkSupport.RECEIVER_APID, 0b11, 0), SPPBenchmarkSupport.QUALIFIER, SPPBenchmarkSupport.octets(
+                length), 0, length);
+        writer = new SPPWriter(new NullOutputStream());
+        // the reader cycles through frames written by a writer of the same configuration
+        final ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        final SPPWriter framer = new SPPWriter(frames);
+        for (int i = 0; i < FRAMES; i++) {
+            framer.send(packet);
+        }
+        reader = new SPPReader(new LoopingInputStream(frames.toByteArray()));
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        writer.send(packet);
+    }
+
+    @Benchmark
+    public SpacePacket read() throws IOException {
+        return reader.receive();
+    }
+
+    private static class NullOutputStream extends OutputStream {
+
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    }
+
+    /**
+     * Endless stream repeating the given octets.
+     */
+    private static class LoopingInputStream extends InputStream {
+
+        private final byte[] data;
+        private int position;
+
+        LoopingInputStream(final byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            final int b = data[position] & 0xFF;
+            position = (position + 1) % data.length;
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            final int n = Math.min(len, data.length - position);
+            System.arraycopy(data, position, b, off, n);
+            position = (position + n) % data.length;
+            return n;
+        }
+    }
+}
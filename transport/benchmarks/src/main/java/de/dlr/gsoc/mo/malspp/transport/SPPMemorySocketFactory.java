@@ -0,0 +1,84 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+
+/**
+ * Space Packet socket factory connecting all sockets it creates in the same
+ * process, like a bus: A packet sent on one socket is received on all others.
+ * This takes the network out of transport benchmarks.
+ */
+public class SPPMemorySocketFactory extends SPPSocketFactory {
+
+    private static final CopyOnWriteArrayList<MemorySocket> SOCKETS = new CopyOnWriteArrayList<>();
+
+    @Override
+    public SPPSocket createSocket(final Map properties) throws Exception {
+        final MemorySocket socket = new MemorySocket();
+        SOCKETS.add(socket);
+        return socket;
+    }
+
+    private static class MemorySocket implements SPPSocket {
+
+        private final BlockingQueue<SpacePacket> received = new LinkedBlockingQueue<>();
+
+        @Override
+        public void send(final SpacePacket packet) throws Exception {
+            // The body of a sent packet may be a pooled array that is reused as soon
+            // as send() returns, so every receiver gets its own copy.
+            final SpacePacketHeader header = packet.getHeader();
+            for (final MemorySocket socket : SOCKETS) {
+                if (socket != this) {
+                    final byte[] body = new byte[packet.getLength()];
+                    System.arraycopy(packet.getBody(), packet.getOffset(), body, 0, body.length);
+                    socket.received.add(new SpacePacket(new SpacePacketHeader(header.getPacketVersionNumber(), header
+                        .getPacketType(), header.getSecondaryHeaderFlag(), header.getApid(), header
+                            .getSequenceFlags(), header.getSequenceCount()), packet.getApidQualifier(), body, 0,
+                        body.length));
+                }
+            }
+        }
+
+        @Override
+        public SpacePacket receive() throws Exception {
+            return received.take();
+        }
+
+        @Override
+        public void close() throws Exception {
+            SOCKETS.remove(this);
+        }
+
+        @Override
+        public String getDescription() {
+            return "memory";
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a message carrying one Blob on the sending side, up to its Space
+ * Packets, and on the receiving side, up to its decoded body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPMessageBenchmark {
+
+    @Param({"248", "65536"})
+    public int limit;
+
+    @Param({"64", "4096"})
+    public int bodySize;
+
+    private Map properties;
+    private MALElementStreamFactory esf;
+    private MALOperation operation;
+    private Blob blob;
+    private long transactionId;
+    private SPPHeaderTemplates templates;
+    private SPPCounter sequenceCounter;
+    private SPPCounter segmentCounter;
+    private SPPBufferPool pool;
+    private SpacePacket[] packets;
+
+    @Setup
+    public void setup() throws IOException, MALException {
+        final SPPConfigurationCache.Entry configuration = new SPPConfigurationCache(SPPBenchmarkSupport.PROTOCOL,
+            SPPBenchmarkSupport.properties(limit, SPPBenchmarkSupport.SENDER_APID, null)).get(
+                SPPBenchmarkSupport.QUALIFIER, SPPBenchmarkSupport.RECEIVER_APID);
+        properties = configuration.getProperties();
+        esf = configuration.getStreamFactory();
+        operation = SPPBenchmarkSupport.operation(true);
+        blob = new Blob(SPPBenchmarkSupport.octets(bodySize));
+        templates = new SPPHeaderTemplates(16);
+        sequenceCounter = new SPPCounter(SPPBenchmarkSupport.SEQUENCE_COUNTER_WRAP);
+        segmentCounter = new SPPCounter(SPPBenchmarkSupport.SEGMENT_COUNTER_WRAP);
+        pool = new SPPBufferPool(4 * 1024 * 1024);
+        // received packets are kept for the whole run and therefore not pooled
+        packets = create().encode().createSpacePackets(sequenceCounter, segmentCounter, limit);
+    }
+
+    @Benchmark
+    public SPPMessage create() throws MALException {
+        final SPPMessageHeader header = SPPBenchmarkSupport.header(++transactionId, true);
+        final MALEncodingContext ctx = new MALEncodingContext(header, operation, -1, properties, properties);
+        return new SPPMessage(header, SPPEndpoint.createMessageBody(new Object[]{blob}, esf, ctx), properties,
+            properties, esf, null);
+    }
+
+    @Benchmark
+    public SpacePacket[] createSpacePackets() throws MALException {
+        final SpacePacket[] spacePackets = create().encode(templates).createSpacePackets(sequenceCounter,
+            segmentCounter, limit, pool);
+        pool.release(spacePackets[0].getBody());
+        return spacePackets;
+    }
+
+    @Benchmark
+    public Object receive() throws MALException {
+        final SPPMessageHeader header = new SPPMessageHeader(packets[0], esf, properties);
+        return new SPPMessage(header, packets, properties, properties, esf, null).getBody().getBodyElement(0, null);
+    }
+}
@@ -0,0 +1,111 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding the secondary header of a message without body, with
+ * all optional header fields present. Encoded messages are returned as Object,
+ * as SPPMessage.Encoded is not visible to the generated benchmark code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPMessageHeaderBenchmark {
+
+    private Map properties;
+    private MALElementStreamFactory esf;
+    private SPPMessage message;
+    private SPPHeaderTemplates templates;
+    private SpacePacket packet;
+    private SPPHeaderView view;
+
+    @Setup
+    public void setup() throws IOException, MALException {
+        final SPPConfigurationCache.Entry configuration = new SPPConfigurationCache(SPPBenchmarkSupport.PROTOCOL,
+            SPPBenchmarkSupport.properties(SPPTransport.MAX_SPACE_PACKET_SIZE, SPPBenchmarkSupport.SENDER_APID, null))
+            .get(SPPBenchmarkSupport.QUALIFIER, SPPBenchmarkSupport.RECEIVER_APID);
+        properties = configuration.getProperties();
+        esf = configuration.getStreamFactory();
+        final SPPMessageHeader header = SPPBenchmarkSupport.header(1L, false);
+        final MALEncodingContext ctx = new MALEncodingContext(header, SPPBenchmarkSupport.operation(false), -1,
+            properties, properties);
+        message = new SPPMessage(header, SPPEndpoint.createMessageBody(new Object[0], esf, ctx), properties,
+            properties, esf, null);
+        templates = new SPPHeaderTemplates(16);
+        packet = message.encode().createSpacePackets(new SPPCounter(SPPBenchmarkSupport.SEQUENCE_COUNTER_WRAP),
+            new SPPCounter(SPPBenchmarkSupport.SEGMENT_COUNTER_WRAP), SPPTransport.MAX_SPACE_PACKET_SIZE)[0];
+        view = new SPPHeaderView();
+    }
+
+    /**
+     * Encodes the whole secondary header, as writeSecondaryHeader() is reached
+     * through encode() only.
+     */
+    @Benchmark
+    public Object encode() throws MALException {
+        return message.encode();
+    }
+
+    /**
+     * Encodes the secondary header from a template, which leaves only the
+     * transaction id, the priority and the timestamp to be encoded.
+     */
+    @Benchmark
+    public Object encodeWithTemplate() throws MALException {
+        return message.encode(templates);
+    }
+
+    @Benchmark
+    public SPPMessageHeader decode() throws MALException {
+        return new SPPMessageHeader(packet, esf, properties);
+    }
+
+    /**
+     * Reads the fixed fields needed for filtering and reassembly without
+     * decoding the header.
+     */
+    @Benchmark
+    public long peek() {
+        view.wrap(packet);
+        return view.getTransactionId() + view.getSegmentCounter() + view.getService();
+    }
+}
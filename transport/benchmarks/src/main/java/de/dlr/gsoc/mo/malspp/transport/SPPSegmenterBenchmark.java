@@ -0,0 +1,115 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Splitting a message into Space Packets and reassembling it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPSegmenterBenchmark {
+
+    // size of a secondary header without optional fields and segment counter
+    private static final int SECONDARY_HEADER_LENGTH = 21;
+
+    /**
+     * Packet data field size limit: 248 octets as used on the space link, 65536
+     * as the maximum.
+     */
+    @Param({"248", "65536"})
+    public int limit;
+
+    @Param({"200", "16384", "262144"})
+    public int bodySize;
+
+    private SpacePacketHeader primaryHeader;
+    private byte[] part1;
+    private byte[] part2;
+    private byte[] body;
+    private SPPCounter sequenceCounter;
+    private SPPCounter segmentCounter;
+    private SPPBufferPool pool;
+    private SPPSegmenter segmenter;
+    private SPPSegmentKey key;
+    private SpacePacket[] packets;
+    private long[] counters;
+
+    @Setup
+    public void setup() throws MALException {
+        primaryHeader = new SpacePacketHeader(SPPTransport.SPP_VERSION, 1, 1, SPPBenchmarkSupport.RECEIVER_APID, 0b11,
+            0);
+        part1 = new byte[SECONDARY_HEADER_LENGTH];
+        part2 = new byte[0];
+        body = SPPBenchmarkSupport.octets(bodySize);
+        sequenceCounter = new SPPCounter(SPPBenchmarkSupport.SEQUENCE_COUNTER_WRAP);
+        segmentCounter = new SPPCounter(SPPBenchmarkSupport.SEGMENT_COUNTER_WRAP);
+        pool = new SPPBufferPool(4 * 1024 * 1024);
+        segmenter = new SPPSegmenter(0, 256);
+        key = new SPPSegmentKey(1L, SPPBenchmarkSupport.SENDER_URI, SPPBenchmarkSupport.RECEIVER_URI);
+        // Packets handed to process() are not pooled, as they are kept for the whole run.
+        packets = SPPSegmenter.split(limit, SPPBenchmarkSupport.QUALIFIER, primaryHeader, part1, part2, body,
+            sequenceCounter, segmentCounter);
+        counters = new long[packets.length];
+        final SPPHeaderView view = new SPPHeaderView();
+        for (int i = 0; i < packets.length; i++) {
+            view.wrap(packets[i]);
+            counters[i] = view.getSegmentCounter();
+        }
+    }
+
+    @Benchmark
+    public SpacePacket[] split() throws MALException {
+        final SpacePacket[] spacePackets = SPPSegmenter.split(limit, SPPBenchmarkSupport.QUALIFIER, primaryHeader,
+            part1, part2, body, 0, body.length, sequenceCounter, segmentCounter, pool);
+        pool.release(spacePackets[0].getBody());
+        return spacePackets;
+    }
+
+    @Benchmark
+    public SpacePacket[] process() {
+        SpacePacket[] message = null;
+        for (int i = 0; i < packets.length; i++) {
+            message = segmenter.process(key, packets[i], counters[i]);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,148 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.ccsds.moims.mo.testbed.util.sppimpl.shm.ClientSHMSPPSocket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.shm.SHMSPPSocketFactory;
+import org.ccsds.moims.mo.testbed.util.sppimpl.tcp.ClientTCPSPPSocket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.tcp.ServerTCPSPPSocket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.tcp.TCPSPPSocketFactory;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of a Space Packet between a client and a server socket echoing
+ * it, over TCP on localhost and over shared memory rings. Both ends run in the
+ * benchmark process, so this measures the socket path but not the scheduling
+ * between processes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPSocketBenchmark {
+
+    private static final String PROCESSED_FILENAME = "processed_apids.txt";
+    private static final String TCP_PORT = "40960";
+
+    @Param({"tcp", "shm"})
+    public String socket;
+
+    @Param({"64", "248"})
+    public int length;
+
+    private SPPSocket server;
+    private SPPSocket client;
+    private Thread echo;
+    private SpacePacket packet;
+    private File directory;
+
+    @Setup
+    public void setup() throws Exception {
+        SPPBenchmarkSupport.writeWhitelist(PROCESSED_FILENAME, "0-2047");
+        SPPBenchmarkSupport.writeWhitelist(SPPHelper.CRC_FILENAME, "0-2047");
+        final Map<String, String> serverProperties = new HashMap<>();
+        final Map<String, String> clientProperties = new HashMap<>();
+        if ("tcp".equals(socket)) {
+            serverProperties.put(TCPSPPSocketFactory.IS_SERVER, "true");
+            serverProperties.put(ServerTCPSPPSocket.PORT_PROP, TCP_PORT);
+            clientProperties.put(ClientTCPSPPSocket.HOSTNAME, "localhost");
+            clientProperties.put(ClientTCPSPPSocket.PORT, TCP_PORT);
+            server = new TCPSPPSocketFactory().createSocket(serverProperties);
+            client = new TCPSPPSocketFactory().createSocket(clientProperties);
+        } else {
+            directory = Files.createTempDirectory("malspp-shm").toFile();
+            serverProperties.put(SHMSPPSocketFactory.IS_SERVER, "true");
+            serverProperties.put(SHMSPPSocketFactory.DIRECTORY, directory.getPath());
+            clientProperties.put(SHMSPPSocketFactory.DIRECTORY, directory.getPath());
+            clientProperties.put(ClientSHMSPPSocket.PEER, "benchmark");
+            server = new SHMSPPSocketFactory().createSocket(serverProperties);
+            client = new SHMSPPSocketFactory().createSocket(clientProperties);
+        }
+        echo = new Thread() {
+            @Override
+            public void run() {
+                setName("Echo_malspp");
+                try {
+                    SpacePacket received;
+                    while (null != (received = server.receive())) {
+                        server.send(received);
+                    }
+                } catch (final Exception ex) {
+                    // socket closed
+                }
+            }
+        };
+        echo.setDaemon(true);
+        echo.start();
+        packet = new SpacePacket(new SpacePacketHeader(SPPTransport.SPP_VERSION, 1, 1,
+            SPPBenchmarkSupport.RECEIVER_APID, 0b11, 0), SPPBenchmarkSupport.QUALIFIER, SPPBenchmarkSupport.octets(
+                length), 0, length);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        echo.join(1000);
+        if (null != directory) {
+            final File[] files = directory.listFiles();
+            if (null != files) {
+                for (final File file : files) {
+                    Files.deleteIfExists(file.toPath());
+                }
+            }
+            Files.deleteIfExists(directory.toPath());
+        }
+    }
+
+    @Benchmark
+    public SpacePacket roundTrip() throws Exception {
+        client.send(packet);
+        final SpacePacket received = client.receive();
+        if (null == received) {
+            throw new IOException("Socket closed.");
+        }
+        return received;
+    }
+}
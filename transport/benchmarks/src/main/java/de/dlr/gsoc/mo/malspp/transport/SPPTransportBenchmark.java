@@ -0,0 +1,141 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending a message from one transport to another over in-memory Space Packet
+ * sockets, from creating the message until it is handed to the receiving
+ * listener. Includes encoding, splitting, the send and receive threads,
+ * reassembly, decoding and dispatching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SPPTransportBenchmark {
+
+    private static final long RECEIVE_TIMEOUT = 10;
+
+    @Param({"248", "65536"})
+    public int limit;
+
+    @Param({"64", "4096"})
+    public int bodySize;
+
+    private final Semaphore delivered = new Semaphore(0);
+    private SPPTransport sendingTransport;
+    private SPPTransport receivingTransport;
+    private MALEndpoint sendingEndpoint;
+    private MALOperation operation;
+    private Blob blob;
+    private Blob authenticationId;
+    private IdentifierList domain;
+    private long transactionId;
+
+    @Setup
+    public void setup() throws Exception {
+        operation = SPPBenchmarkSupport.operation(true);
+        blob = new Blob(SPPBenchmarkSupport.octets(bodySize));
+        authenticationId = new Blob(new byte[]{1, 2, 3});
+        domain = new IdentifierList();
+        domain.add(new Identifier("esa"));
+        domain.add(new Identifier("benchmark"));
+        final Map sendingProperties = SPPBenchmarkSupport.properties(limit, SPPBenchmarkSupport.SENDER_APID,
+            SPPMemorySocketFactory.class);
+        final Map receivingProperties = SPPBenchmarkSupport.properties(limit, SPPBenchmarkSupport.RECEIVER_APID,
+            SPPMemorySocketFactory.class);
+        sendingTransport = new SPPTransport(SPPBenchmarkSupport.PROTOCOL, sendingProperties);
+        receivingTransport = new SPPTransport(SPPBenchmarkSupport.PROTOCOL, receivingProperties);
+        sendingEndpoint = sendingTransport.createEndpoint(null, sendingProperties);
+        final MALEndpoint receivingEndpoint = receivingTransport.createEndpoint(null, receivingProperties);
+        receivingEndpoint.setMessageListener(new MALMessageListener() {
+            @Override
+            public void onMessage(final MALEndpoint endpoint, final MALMessage msg) {
+                delivered.release();
+            }
+
+            @Override
+            public void onMessages(final MALEndpoint endpoint, final MALMessage[] msgList) {
+                delivered.release(msgList.length);
+            }
+
+            @Override
+            public void onInternalError(final MALEndpoint endpoint, final Throwable err) {
+            }
+
+            @Override
+            public void onTransmitError(final MALEndpoint endpoint, final MALMessageHeader header,
+                final MALStandardError err, final Map qosProperties) {
+            }
+        });
+        receivingEndpoint.startMessageDelivery();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        sendingTransport.close();
+        receivingTransport.close();
+    }
+
+    @Benchmark
+    public void sendReceive() throws Exception {
+        final MALMessage msg = sendingEndpoint.createMessage(authenticationId, SPPBenchmarkSupport.RECEIVER_URI,
+            new Time(System.currentTimeMillis()), QoSLevel.BESTEFFORT, new UInteger(1), domain, new Identifier(
+                "Network"), SessionType.LIVE, new Identifier("Session"), ++transactionId, Boolean.FALSE, operation,
+            MALSendOperation.SEND_STAGE, null, blob);
+        sendingEndpoint.sendMessage(msg);
+        if (!delivered.tryAcquire(RECEIVE_TIMEOUT, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Message not delivered within " + RECEIVE_TIMEOUT + " s.");
+        }
+    }
+}
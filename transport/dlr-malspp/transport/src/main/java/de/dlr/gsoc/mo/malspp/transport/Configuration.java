@@ -34,6 +34,7 @@ import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.Identifier;
 import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.ShortList;
 import org.ccsds.moims.mo.mal.structures.Time;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.structures.UShort;
@@ -41,6 +42,7 @@ import org.ccsds.moims.mo.mal.structures.UShort;
 public class Configuration {
 
     private static final Map<String, Map<AppId, Map>> mappingConfigurations = new HashMap<>();
+    private static volatile int mappingGeneration;
     private final Map properties;
 
     // Mapping configuration parameter property names (per APID/APID qualifier)
@@ -60,6 +62,42 @@ public class Configuration {
     // Timeout for Space Packet sequences
     private static final String PROPERTY_TIMEOUT = "de.dlr.gsoc.mo.malspp.TIMEOUT";
     private static final long DEFAULT_TIMEOUT = 0;
+    // Bounds for the store of segment counters of unfinished interactions
+    private static final String PROPERTY_SEGMENT_COUNTER_LIMIT = "de.dlr.gsoc.mo.malspp.SEGMENT_COUNTER_LIMIT";
+    private static final String PROPERTY_SEGMENT_COUNTER_TTL = "de.dlr.gsoc.mo.malspp.SEGMENT_COUNTER_TTL";
+    private static final int DEFAULT_SEGMENT_COUNTER_LIMIT = 1024;
+    private static final long DEFAULT_SEGMENT_COUNTER_TTL = 600000;
+    private static final String PROPERTY_REASSEMBLY_LIMIT = "de.dlr.gsoc.mo.malspp.REASSEMBLY_LIMIT";
+    private static final int DEFAULT_REASSEMBLY_LIMIT = 256;
+    // Receive pipeline
+    private static final String PROPERTY_DECODE_THREADS = "de.dlr.gsoc.mo.malspp.DECODE_THREADS";
+    private static final String PROPERTY_PIPELINE_QUEUE_SIZE = "de.dlr.gsoc.mo.malspp.PIPELINE_QUEUE_SIZE";
+    private static final int DEFAULT_DECODE_THREADS = 0;
+    private static final int DEFAULT_PIPELINE_QUEUE_SIZE = 64;
+    // Delivery of received messages to the endpoints
+    private static final String PROPERTY_DISPATCH_THREADS = "de.dlr.gsoc.mo.malspp.DISPATCH_THREADS";
+    private static final String PROPERTY_DISPATCH_QUEUE_LIMIT = "de.dlr.gsoc.mo.malspp.DISPATCH_QUEUE_LIMIT";
+    private static final int DEFAULT_DISPATCH_THREADS = 6;
+    private static final int DEFAULT_DISPATCH_QUEUE_LIMIT = 256;
+    // Lanes of the queue of received messages
+    private static final String PROPERTY_LANE_WEIGHTS = "de.dlr.gsoc.mo.malspp.LANE_WEIGHTS";
+    private static final String PROPERTY_LANE_CAPACITY = "de.dlr.gsoc.mo.malspp.LANE_CAPACITY";
+    private static final String PROPERTY_BULK_APIDS = "de.dlr.gsoc.mo.malspp.BULK_APIDS";
+    private static final String DEFAULT_LANE_WEIGHTS = "8,4,1";
+    private static final int DEFAULT_LANE_CAPACITY = 15;
+    // Asynchronous writing of sent Space Packets
+    private static final String PROPERTY_SEND_QUEUE_SIZE = "de.dlr.gsoc.mo.malspp.SEND_QUEUE_SIZE";
+    private static final String PROPERTY_SEND_BATCH_SIZE = "de.dlr.gsoc.mo.malspp.SEND_BATCH_SIZE";
+    private static final int DEFAULT_SEND_QUEUE_SIZE = 0;
+    private static final int DEFAULT_SEND_BATCH_SIZE = 16;
+    private static final String PROPERTY_SEND_BUFFER_POOL = "de.dlr.gsoc.mo.malspp.SEND_BUFFER_POOL";
+    private static final int DEFAULT_SEND_BUFFER_POOL = 8388608;
+    private static final String PROPERTY_IN_PROCESS_DIRECT = "de.dlr.gsoc.mo.malspp.IN_PROCESS_DIRECT";
+    // Runtime metrics
+    private static final String PROPERTY_METRICS_JMX = "de.dlr.gsoc.mo.malspp.METRICS_JMX";
+    private static final String PROPERTY_METRICS_INTERVAL = "de.dlr.gsoc.mo.malspp.METRICS_INTERVAL";
+    private static final String PROPERTY_METRICS_FILE = "de.dlr.gsoc.mo.malspp.METRICS_FILE";
+    private static final long DEFAULT_METRICS_INTERVAL = 0;
     // 'Undocumented' configuration parameters to limit the range of used instance
     // identifiers
     private static final String PROPERTY_NUM_IDENTIFIERS = "de.dlr.gsoc.mo.malspp.NUM_IDENTIFIERS";
@@ -117,7 +155,7 @@ public class Configuration {
         this.properties = properties;
     }
 
-    private String mappingConfigurationFile() {
+    protected String mappingConfigurationFile() {
         return (String) properties.get(PROPERTY_MAPPING_CONFIGURATION_FILE);
     }
 
@@ -166,6 +204,111 @@ public class Configuration {
             PROPERTY_TIMEOUT));
     }
 
+    protected int segmentCounterLimit() {
+        return properties.get(PROPERTY_SEGMENT_COUNTER_LIMIT) == null ? DEFAULT_SEGMENT_COUNTER_LIMIT : Integer
+            .parseInt((String) properties.get(PROPERTY_SEGMENT_COUNTER_LIMIT));
+    }
+
+    protected long segmentCounterTtl() {
+        return properties.get(PROPERTY_SEGMENT_COUNTER_TTL) == null ? DEFAULT_SEGMENT_COUNTER_TTL : Long.parseLong(
+            (String) properties.get(PROPERTY_SEGMENT_COUNTER_TTL));
+    }
+
+    protected int reassemblyLimit() {
+        return properties.get(PROPERTY_REASSEMBLY_LIMIT) == null ? DEFAULT_REASSEMBLY_LIMIT : Integer.parseInt(
+            (String) properties.get(PROPERTY_REASSEMBLY_LIMIT));
+    }
+
+    protected int decodeThreads() {
+        return properties.get(PROPERTY_DECODE_THREADS) == null ? DEFAULT_DECODE_THREADS : Integer.parseInt(
+            (String) properties.get(PROPERTY_DECODE_THREADS));
+    }
+
+    protected int pipelineQueueSize() {
+        return properties.get(PROPERTY_PIPELINE_QUEUE_SIZE) == null ? DEFAULT_PIPELINE_QUEUE_SIZE : Integer.parseInt(
+            (String) properties.get(PROPERTY_PIPELINE_QUEUE_SIZE));
+    }
+
+    protected int dispatchThreads() {
+        return properties.get(PROPERTY_DISPATCH_THREADS) == null ? DEFAULT_DISPATCH_THREADS : Integer.parseInt(
+            (String) properties.get(PROPERTY_DISPATCH_THREADS));
+    }
+
+    protected int dispatchQueueLimit() {
+        return properties.get(PROPERTY_DISPATCH_QUEUE_LIMIT) == null ? DEFAULT_DISPATCH_QUEUE_LIMIT : Integer.parseInt(
+            (String) properties.get(PROPERTY_DISPATCH_QUEUE_LIMIT));
+    }
+
+    /**
+     * @return Weights of the control, normal and bulk lane.
+     */
+    protected int[] laneWeights() {
+        final String weightsString = properties.get(PROPERTY_LANE_WEIGHTS) == null ? DEFAULT_LANE_WEIGHTS
+            : (String) properties.get(PROPERTY_LANE_WEIGHTS);
+        final String[] parts = weightsString.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException(PROPERTY_LANE_WEIGHTS);
+        }
+        final int[] weights = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            weights[i] = Integer.parseInt(parts[i].trim());
+        }
+        return weights;
+    }
+
+    protected int laneCapacity() {
+        return properties.get(PROPERTY_LANE_CAPACITY) == null ? DEFAULT_LANE_CAPACITY : Integer.parseInt(
+            (String) properties.get(PROPERTY_LANE_CAPACITY));
+    }
+
+    /**
+     * @return APIDs whose messages are always delivered through the bulk lane.
+     */
+    protected ShortList bulkApids() {
+        final ShortList apids = new ShortList();
+        final String apidsString = (String) properties.get(PROPERTY_BULK_APIDS);
+        if (null != apidsString) {
+            for (final String apid : apidsString.split(",")) {
+                if (!apid.trim().isEmpty()) {
+                    apids.add(Short.parseShort(apid.trim()));
+                }
+            }
+        }
+        return apids;
+    }
+
+    protected int sendQueueSize() {
+        return properties.get(PROPERTY_SEND_QUEUE_SIZE) == null ? DEFAULT_SEND_QUEUE_SIZE : Integer.parseInt(
+            (String) properties.get(PROPERTY_SEND_QUEUE_SIZE));
+    }
+
+    protected int sendBatchSize() {
+        return properties.get(PROPERTY_SEND_BATCH_SIZE) == null ? DEFAULT_SEND_BATCH_SIZE : Integer.parseInt(
+            (String) properties.get(PROPERTY_SEND_BATCH_SIZE));
+    }
+
+    protected int sendBufferPool() {
+        return properties.get(PROPERTY_SEND_BUFFER_POOL) == null ? DEFAULT_SEND_BUFFER_POOL : Integer.parseInt(
+            (String) properties.get(PROPERTY_SEND_BUFFER_POOL));
+    }
+
+    protected boolean inProcessDirect() {
+        return getBooleanProperty(PROPERTY_IN_PROCESS_DIRECT);
+    }
+
+    protected boolean metricsJmx() {
+        return getBooleanProperty(PROPERTY_METRICS_JMX);
+    }
+
+    protected long metricsInterval() {
+        return properties.get(PROPERTY_METRICS_INTERVAL) == null ? DEFAULT_METRICS_INTERVAL : Long.parseLong(
+            (String) properties.get(PROPERTY_METRICS_INTERVAL));
+    }
+
+    protected String metricsFile() {
+        return (String) properties.get(PROPERTY_METRICS_FILE);
+    }
+
     protected short numIdentifiers() {
         return properties.get(PROPERTY_NUM_IDENTIFIERS) == null ? DEFAULT_NUM_IDENTIFIERS : Short.parseShort(
             (String) properties.get(PROPERTY_NUM_IDENTIFIERS));
@@ -249,20 +392,12 @@ public class Configuration {
      *                         configuration.
      * @return A map containing the effective configuration.
      */
-    protected synchronized Map getEffectiveProperties(final int primaryQualifier, final short primaryApid)
+    protected Map getEffectiveProperties(final int primaryQualifier, final short primaryApid)
         throws MALException {
         // Read config file only once. If different configurations are needed for
         // multiple
         // transports, they can be told apart by the different config filename.
-        final String fn = mappingConfigurationFile();
-        if (!mappingConfigurations.containsKey(fn)) {
-            try {
-                mappingConfigurations.put(fn, loadMappingConf(fn));
-            } catch (final XMLStreamException | FileNotFoundException ex) {
-                throw new MALException(ex.getMessage(), ex);
-            }
-        }
-        final Map<AppId, Map> mappingConfs = mappingConfigurations.get(fn);
+        final Map<AppId, Map> mappingConfs = getMappingConfiguration(mappingConfigurationFile());
         // Mix it in this order so it is possible to dynamically reconfigure the mapping
         // configuration parameters.
         AppId appId = new AppId(primaryQualifier, primaryApid);
@@ -279,6 +414,44 @@ public class Configuration {
         return mix(mappingConfs.get(appId), properties);
     }
 
+    private static Map<AppId, Map> getMappingConfiguration(final String fn) throws MALException {
+        synchronized (mappingConfigurations) {
+            if (!mappingConfigurations.containsKey(fn)) {
+                try {
+                    mappingConfigurations.put(fn, loadMappingConf(fn));
+                } catch (final XMLStreamException | FileNotFoundException ex) {
+                    throw new MALException(ex.getMessage(), ex);
+                }
+            }
+            return mappingConfigurations.get(fn);
+        }
+    }
+
+    /**
+     * Reads a mapping configuration file again after it has been changed. Effective
+     * configurations cached by SPPConfigurationCache are rebuilt on next use.
+     *
+     * @param fn Name of the mapping configuration file.
+     * @throws MALException If the file cannot be read.
+     */
+    public static void reloadMappingConfiguration(final String fn) throws MALException {
+        synchronized (mappingConfigurations) {
+            try {
+                mappingConfigurations.put(fn, loadMappingConf(fn));
+            } catch (final XMLStreamException | FileNotFoundException ex) {
+                throw new MALException(ex.getMessage(), ex);
+            }
+            mappingGeneration++;
+        }
+    }
+
+    /**
+     * @return A number that changes whenever a mapping configuration file has been reloaded.
+     */
+    protected static int getMappingGeneration() {
+        return mappingGeneration;
+    }
+
     private static Map<AppId, Map> loadMappingConf(final String filename) throws XMLStreamException,
         FileNotFoundException {
         final XMLInputFactory xif = XMLInputFactory.newInstance();
@@ -465,7 +638,7 @@ public class Configuration {
 
         @Override
         public int hashCode() {
-            return 5;
+            return 31 * qualifier + apid;
         }
 
         @Override
@@ -0,0 +1,156 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Set of APIDs, separate for each APID qualifier, that can be queried without locking.
+ *
+ * The APIDs of a qualifier are kept in a bitmap of at least 2048 bits, which covers all APIDs a
+ * Space Packet can carry. Adding or removing an APID publishes a new copy of all bitmaps, so that
+ * accepts() only reads an immutable snapshot. An APID may be added several times, e.g. by several
+ * endpoints, and is kept until it has been removed as often as it has been added.
+ */
+public class SPPApidFilter {
+
+    private static final int MIN_WORDS = 2048 / 64;
+    private final Map<Long, Integer> references = new HashMap<>(); // guarded by this
+    private volatile Snapshot snapshot = new Snapshot(new int[0], new long[0][], new long[MIN_WORDS]);
+
+    /**
+     * Checks if an APID has been added for the given qualifier. Does not block.
+     *
+     * @param qualifier APID qualifier.
+     * @param apid      APID, interpreted as unsigned value.
+     * @return True if the APID has been added more often than removed.
+     */
+    public boolean accepts(final int qualifier, final short apid) {
+        final Snapshot s = snapshot;
+        for (int i = 0; i < s.qualifiers.length; i++) {
+            if (s.qualifiers[i] == qualifier) {
+                final int bit = apid & 0xFFFF;
+                final long[] bitmap = s.bitmaps[i];
+                return (bit >>> 6) < bitmap.length && (bitmap[bit >>> 6] & (1L << bit)) != 0;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if an APID has been added for any qualifier. Does not block. Used when received
+     * Space Packets do not carry their APID qualifier.
+     *
+     * @param apid APID, interpreted as unsigned value.
+     * @return True if the APID has been added more often than removed for some qualifier.
+     */
+    public boolean acceptsApid(final short apid) {
+        final long[] bitmap = snapshot.union;
+        final int bit = apid & 0xFFFF;
+        return (bit >>> 6) < bitmap.length && (bitmap[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public synchronized void add(final int qualifier, final short apid) {
+        final Long key = key(qualifier, apid);
+        final Integer count = references.get(key);
+        references.put(key, null == count ? 1 : count + 1);
+        if (null == count) {
+            publish();
+        }
+    }
+
+    public synchronized void remove(final int qualifier, final short apid) {
+        final Long key = key(qualifier, apid);
+        final Integer count = references.get(key);
+        if (null == count) {
+            return;
+        }
+        if (count > 1) {
+            references.put(key, count - 1);
+        } else {
+            references.remove(key);
+            publish();
+        }
+    }
+
+    public synchronized void clear() {
+        references.clear();
+        publish();
+    }
+
+    /**
+     * @return Number of distinct pairs of qualifier and APID currently accepted.
+     */
+    public synchronized int size() {
+        return references.size();
+    }
+
+    private static Long key(final int qualifier, final short apid) {
+        return ((long) qualifier << 16) | (apid & 0xFFFF);
+    }
+
+    private void publish() {
+        final Map<Integer, long[]> bitmaps = new HashMap<>();
+        for (final Long key : references.keySet()) {
+            final int qualifier = (int) (key >> 16);
+            final int bit = (int) (key & 0xFFFF);
+            long[] bitmap = bitmaps.get(qualifier);
+            if (null == bitmap) {
+                bitmap = new long[MIN_WORDS];
+            }
+            if ((bit >>> 6) >= bitmap.length) {
+                bitmap = Arrays.copyOf(bitmap, (bit >>> 6) + 1);
+            }
+            bitmap[bit >>> 6] |= 1L << bit;
+            bitmaps.put(qualifier, bitmap);
+        }
+        final int[] qualifiers = new int[bitmaps.size()];
+        final long[][] words = new long[bitmaps.size()][];
+        long[] union = new long[MIN_WORDS];
+        int i = 0;
+        for (final Map.Entry<Integer, long[]> entry : bitmaps.entrySet()) {
+            qualifiers[i] = entry.getKey();
+            words[i] = entry.getValue();
+            if (words[i].length > union.length) {
+                union = Arrays.copyOf(union, words[i].length);
+            }
+            for (int w = 0; w < words[i].length; w++) {
+                union[w] |= words[i][w];
+            }
+            i++;
+        }
+        snapshot = new Snapshot(qualifiers, words, union);
+    }
+
+    private static class Snapshot {
+
+        private final int[] qualifiers;
+        private final long[][] bitmaps;
+        private final long[] union; // APIDs of all qualifiers
+
+        private Snapshot(final int[] qualifiers, final long[][] bitmaps, final long[] union) {
+            this.qualifiers = qualifiers;
+            this.bitmaps = bitmaps;
+            this.union = union;
+        }
+    }
+}
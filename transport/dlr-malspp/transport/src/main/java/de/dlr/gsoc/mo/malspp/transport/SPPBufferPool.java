@@ -0,0 +1,119 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte arrays with a size of a power of two.
+ *
+ * Each size class retains at most as many released arrays as fit into the configured number of
+ * bytes, but at least one. Requests for arrays larger than that number of bytes are not pooled.
+ * Arrays must not be used any more after they have been released.
+ */
+public class SPPBufferPool {
+
+    private static final int MIN_SHIFT = 6; // smallest array handed out has 64 bytes
+    private final int maxBytes;
+    private final ConcurrentLinkedQueue<byte[]>[] pools;
+    private final AtomicInteger[] sizes;
+
+    /**
+     * @param maxBytes Maximum number of bytes retained per size class. 0 disables pooling.
+     */
+    public SPPBufferPool(final int maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxBytes = maxBytes;
+        final int classes = 0 == maxBytes ? 0 : Math.max(0, sizeClass(maxBytes) - MIN_SHIFT + 1);
+        @SuppressWarnings("unchecked")
+        final ConcurrentLinkedQueue<byte[]>[] newPools
+            = (ConcurrentLinkedQueue<byte[]>[]) new ConcurrentLinkedQueue<?>[classes];
+        this.pools = newPools;
+        this.sizes = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+            sizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * @param length Minimum length of the array.
+     * @return A pooled array or a new one of at least the given length.
+     */
+    public byte[] acquire(final int length) {
+        final int i = index(length);
+        if (i < 0) {
+            return new byte[length];
+        }
+        final byte[] buffer = pools[i].poll();
+        if (null == buffer) {
+            return new byte[1 << (i + MIN_SHIFT)];
+        }
+        sizes[i].decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Returns an array to the pool. Arrays not acquired from this pool may be passed, too.
+     *
+     * @param buffer The array, which must not be used by the caller any more.
+     */
+    public void release(final byte[] buffer) {
+        if (null == buffer || Integer.bitCount(buffer.length) != 1) {
+            return;
+        }
+        final int i = index(buffer.length);
+        if (i < 0 || (1 << (i + MIN_SHIFT)) != buffer.length) {
+            return;
+        }
+        final int retained = Math.max(1, maxBytes >>> (i + MIN_SHIFT));
+        if (sizes[i].incrementAndGet() > retained) {
+            sizes[i].decrementAndGet();
+            return;
+        }
+        pools[i].offer(buffer);
+    }
+
+    /**
+     * @return The number of arrays currently retained.
+     */
+    public int size() {
+        int size = 0;
+        for (final AtomicInteger s : sizes) {
+            size += s.get();
+        }
+        return size;
+    }
+
+    private int index(final int length) {
+        final int i = sizeClass(length) - MIN_SHIFT;
+        return i < pools.length ? Math.max(0, i) : -1;
+    }
+
+    /**
+     * @return The exponent of the smallest power of two not less than length.
+     */
+    private static int sizeClass(final int length) {
+        return length <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
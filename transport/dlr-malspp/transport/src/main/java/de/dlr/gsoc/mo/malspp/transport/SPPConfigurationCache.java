@@ -0,0 +1,115 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+
+/**
+ * Cache of the effective configuration and element stream factory per application (APID qualifier
+ * and APID).
+ *
+ * Resolving per-application parameters requires mixing the mapping configuration into a new map
+ * and creating a new element stream factory. This is done once per application and base property
+ * map; afterwards lookups do not lock and do not allocate maps. Entries are rebuilt when the
+ * mapping configuration has been reloaded (see Configuration.reloadMappingConfiguration()). The base
+ * properties do not change after the cache has been created.
+ */
+public class SPPConfigurationCache {
+
+    private final String protocol;
+    private final Map properties;
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param protocol   Protocol used for creating the element stream factories.
+     * @param properties Base properties the mapping configuration parameters are mixed into.
+     */
+    public SPPConfigurationCache(final String protocol, final Map properties) {
+        this.protocol = protocol;
+        this.properties = properties;
+    }
+
+    /**
+     * Gets the effective configuration for an application.
+     *
+     * @param qualifier APID qualifier of the application.
+     * @param apid      APID of the application.
+     * @return The effective configuration.
+     * @throws MALException If the mapping configuration cannot be read or no element stream factory
+     *                      can be created.
+     */
+    public Entry get(final int qualifier, final short apid) throws MALException {
+        final Integer key = (qualifier << 16) | (apid & 0xFFFF);
+        final int currentGeneration = Configuration.getMappingGeneration();
+        Entry entry = entries.get(key);
+        if (null == entry || entry.generation != currentGeneration) {
+            final Map effectiveProperties = Collections.unmodifiableMap(new Configuration(properties)
+                .getEffectiveProperties(qualifier, apid));
+            entry = new Entry(effectiveProperties, MALElementStreamFactory.newFactory(protocol, effectiveProperties),
+                currentGeneration);
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return The number of cached applications.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Effective configuration of a single application.
+     */
+    public static class Entry {
+
+        private final Map properties;
+        private final Configuration configuration;
+        private final MALElementStreamFactory streamFactory;
+        private final int generation;
+
+        Entry(final Map properties, final MALElementStreamFactory streamFactory, final int generation) {
+            this.properties = properties;
+            this.configuration = new Configuration(properties);
+            this.streamFactory = streamFactory;
+            this.generation = generation;
+        }
+
+        /**
+         * @return The effective properties. The map is unmodifiable.
+         */
+        public Map getProperties() {
+            return properties;
+        }
+
+        public Configuration getConfiguration() {
+            return configuration;
+        }
+
+        public MALElementStreamFactory getStreamFactory() {
+            return streamFactory;
+        }
+    }
+}
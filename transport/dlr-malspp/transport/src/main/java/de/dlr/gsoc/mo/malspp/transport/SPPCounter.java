@@ -41,6 +41,31 @@ public class SPPCounter {
         this.wrap = wrap;
     }
 
+    /**
+     * Reserves count consecutive counter values. The i-th of them (starting at 0) is given by
+     * valueAt(first, i), where first is the returned value.
+     *
+     * @param count The number of counter values to reserve. Must not be negative.
+     * @return The first reserved counter value.
+     */
+    public synchronized long reserve(final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException();
+        }
+        final long first = (counter + 1) % wrap;
+        counter = (counter + count) % wrap;
+        return first;
+    }
+
+    /**
+     * @param first The first counter value of a range returned by reserve().
+     * @param index Index of the counter value within the range.
+     * @return The counter value, wrapped around correctly.
+     */
+    public long valueAt(final long first, final int index) {
+        return (first + index) % wrap;
+    }
+
     /**
      * Increment the counter by delta steps, wrapping around correctly and returning an iterator for
      * accessing the corresponding counter values. The number of generated values is delta.
@@ -19,6 +19,7 @@
  */
 package de.dlr.gsoc.mo.malspp.transport;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +55,7 @@ import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALMessageListener;
 import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
 import org.ccsds.moims.mo.mal.transport.MALTransmitMultipleErrorException;
+import org.ccsds.moims.mo.testbed.util.spp.SPPBatchSocket;
 import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
 
@@ -63,18 +65,20 @@ public class SPPEndpoint implements MALEndpoint {
     private static final String ENDPOINT_CLOSED = "Trying to interact with a closed endpoint.";
     private static final String HEADER_FIELD_IS_NULL = "At least one non-nullable MAL header field is null.";
     private static final String INVALID_URI = "Invalid URI format.";
+    private static final int HEADER_TEMPLATES = 256; // maximum number of cached secondary header templates
     private final URI uri;
     private final String protocol;
     private final SPPTransport transport;
     private final String localName;
     private final Map qosProperties;
     private final Map effectiveQosProperties;
+    private final SPPConfigurationCache configurations;
+    private final SPPHeaderTemplates headerTemplates = new SPPHeaderTemplates(HEADER_TEMPLATES);
+    private final boolean isTCpacket;
     private final SPPSocket sppSocket;
     private MALMessageListener listener;
     private boolean isClosed;
     private boolean isDeliveryStopped;
-    // private final LinkedBlockingQueue<SpacePacket[]> outgoingQueue;
-    // private final Thread outgoingThread;
 
     public SPPEndpoint(final String protocol, final SPPTransport transport, final String localName, final URI uri,
         final Map qosProperties, final SPPSocket sppSocket) throws MALException {
@@ -88,14 +92,13 @@ public class SPPEndpoint implements MALEndpoint {
         this.localName = localName == null ? Integer.toString(hashCode()) : localName;
         this.qosProperties = qosProperties;
         this.effectiveQosProperties = Configuration.mix(transport.getProperties(), qosProperties);
+        this.configurations = new SPPConfigurationCache(protocol, effectiveQosProperties);
+        this.isTCpacket = new Configuration(effectiveQosProperties).isTCpacket();
 
         this.sppSocket = sppSocket;
         this.uri = uri;
         this.isClosed = false;
         this.isDeliveryStopped = true;
-        // this.outgoingQueue = new LinkedBlockingQueue<SpacePacket[]>(5);
-        // this.outgoingThread = this.constructOutgoingThread();
-        // this.outgoingThread.start();
     }
 
     @Override
@@ -115,23 +118,6 @@ public class SPPEndpoint implements MALEndpoint {
         isDeliveryStopped = true;
     }
 
-    /*
-     * private Thread constructOutgoingThread() { return new Thread() {
-     * 
-     * @Override public void run() { this.setName("OutgoingThread_malspp");
-     * 
-     * while (!isInterrupted()) { final SpacePacket[] spacePackets;
-     * 
-     * try { spacePackets = outgoingQueue.take();
-     * 
-     * if (null != spacePackets) { for (SpacePacket sp : spacePackets) { try {
-     * sppSocket.send(sp); } catch (Exception ex) {
-     * Logger.getLogger(SPPEndpoint.class.getName()).log(Level.SEVERE, null, ex); }
-     * } } } catch (InterruptedException ex) {
-     * Logger.getLogger(SPPEndpoint.class.getName()).log(Level.SEVERE, null, ex); }
-     * } } }; }
-     */
-
     // <editor-fold defaultstate="collapsed" desc="public MALMessage
     // createMessage(...) - 4x + 2x">
     @Override
@@ -212,17 +198,37 @@ public class SPPEndpoint implements MALEndpoint {
         final MALOperation op, final Object[] body, final MALEncodedBody encBody, final boolean isEncoded,
         final Map qosProperties) throws IllegalArgumentException, MALException {
         // get effective properties, resolving per-application parameters
-        final Configuration config = new Configuration(Configuration.mix(this.effectiveQosProperties, qosProperties));
-        final SPPURI primarySPPURI = new SPPURI(config.isTCpacket() ? uriTo : uriFrom);
-        final Map props = config.getEffectiveProperties(primarySPPURI.getQualifier(), primarySPPURI.getAPID());
+        final Map props;
+        final MALElementStreamFactory esf;
+        if (null == qosProperties || qosProperties.isEmpty()) {
+            // no per-message QoS properties: use the cached per-application configuration
+            final SPPURI primarySPPURI = SPPURI.valueOf(isTCpacket ? uriTo : uriFrom);
+            final SPPConfigurationCache.Entry effective = configurations.get(primarySPPURI.getQualifier(),
+                primarySPPURI.getAPID());
+            props = effective.getProperties();
+            esf = effective.getStreamFactory();
+        } else {
+            final Configuration config = new Configuration(Configuration.mix(this.effectiveQosProperties,
+                qosProperties));
+            final SPPURI primarySPPURI = SPPURI.valueOf(config.isTCpacket() ? uriTo : uriFrom);
+            props = config.getEffectiveProperties(primarySPPURI.getQualifier(), primarySPPURI.getAPID());
+            esf = MALElementStreamFactory.newFactory(protocol, props);
+        }
         final MALEncodingContext ctx = new MALEncodingContext(msgHeader, op, -1, this.effectiveQosProperties, props);
-        final MALElementStreamFactory esf = MALElementStreamFactory.newFactory(protocol, props);
         final SPPMessageBody msgBody = isEncoded ? createMessageBody(encBody, esf, ctx) : createMessageBody(body, esf,
             ctx);
         return new SPPMessage(msgHeader, msgBody, props, this.qosProperties, esf, transport);
     }
     // </editor-fold>
 
+    /**
+     * @return The cache of effective configurations used for messages without
+     *         per-message QoS properties.
+     */
+    protected SPPConfigurationCache getConfigurations() {
+        return configurations;
+    }
+
     /**
      * Creates an error message in reply to another MAL message. If returning an
      * error message is not allowed by the interaction type and stage of the
@@ -338,6 +344,17 @@ public class SPPEndpoint implements MALEndpoint {
         if (msg == null) {
             throw new IllegalArgumentException(ILLEGAL_NULL_ARGUMENT);
         }
+        checkHeader(msg);
+        final Outgoing outgoing = prepare(msg);
+        if (null != outgoing) {
+            transmit(new Outgoing[]{outgoing});
+            if (null != outgoing.error) {
+                throw outgoing.error;
+            }
+        }
+    }
+
+    private static void checkHeader(final MALMessage msg) throws MALTransmitErrorException {
         final MALMessageHeader header = msg.getHeader();
         if (null == header.getURIFrom() || null == header.getURITo() || null == header.getQoSlevel() || null == header
             .getSession() || null == header.getInteractionType() || null == header.getInteractionStage() || null ==
@@ -346,28 +363,40 @@ public class SPPEndpoint implements MALEndpoint {
             final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, HEADER_FIELD_IS_NULL);
             throw new MALTransmitErrorException(header, error, msg.getQoSProperties());
         }
+    }
+
+    /**
+     * Checks the URIs of a message and encodes it. Messages to a local destination
+     * are delivered directly.
+     *
+     * @param msg The message to send.
+     * @return The encoded message or null, if it has been delivered locally.
+     * @throws MALTransmitErrorException
+     */
+    private Outgoing prepare(final MALMessage msg) throws MALTransmitErrorException {
+        final MALMessageHeader header = msg.getHeader();
 
         final SPPURI sppURIFrom;
         final SPPURI sppURITo;
         try {
             // Check validity of URIs here by creating SPPURI objects.
-            sppURIFrom = new SPPURI(header.getURIFrom());
-            sppURITo = new SPPURI(header.getURITo());
+            sppURIFrom = SPPURI.valueOf(header.getURIFrom());
+            sppURITo = SPPURI.valueOf(header.getURITo());
         } catch (final IllegalArgumentException ex) {
             final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, INVALID_URI);
             throw new MALTransmitErrorException(header, error, msg.getQoSProperties());
         }
 
-        final SPPURI epURI = new SPPURI(uri);
-        // boolean isLocalDestination = (sppURITo.getQualifier() ==
-        // epURI.getQualifier()) && (sppURITo.getAPID() == epURI.getAPID());
-        final boolean isLocalDestination = null != transport.getEndpoint(header.getURITo());
-
         try {
+            final boolean isLocalDestination = null != transport.getEndpoint(header.getURITo());
             if (isLocalDestination) {
                 try {
+                    if (msg.getBody() instanceof SPPMessageBody) {
+                        ((SPPMessageBody) msg.getBody()).prepareInProcessBody();
+                    }
                     transport.injectReceivedMessage(msg);
-                    return;
+                    transport.completeInteraction(header);
+                    return null;
                 } catch (final Exception ex) {
                     Logger.getLogger(SPPEndpoint.class.getName()).log(Level.SEVERE,
                         "Maybe the configuration file is not being read!", ex);
@@ -381,27 +410,108 @@ public class SPPEndpoint implements MALEndpoint {
             final boolean isTCpacket = config.isTCpacket();
             final int primaryQualifier = isTCpacket ? sppURITo.getQualifier() : sppURIFrom.getQualifier();
             final short primaryApid = isTCpacket ? sppURITo.getAPID() : sppURIFrom.getAPID();
+            // Encoding does not depend on any counter and is done before taking the
+            // socket lock.
+            return new Outgoing(msg, primaryQualifier, primaryApid, config.packetDataFieldSizeLimit(),
+                ((SPPMessage) msg).encode(headerTemplates));
+        } catch (final MALTransmitErrorException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, ex.getMessage());
+            throw new MALTransmitErrorException(msg.getHeader(), error, msg.getQoSProperties());
+        }
+    }
 
-            // Needs to be synchronized to avoid getting packets out of order
-            synchronized (sppSocket) {
-                final SPPCounter sequenceCounter = transport.getSequenceCounter(primaryQualifier, primaryApid);
-                final SPPCounter segmentCounter = transport.getSegmentCounter(header);
-                final int packetDataFieldSizeLimit = config.packetDataFieldSizeLimit();
-
-                // Line hitting the exception is below!!
-                final SpacePacket[] spacePackets = ((SPPMessage) msg).createSpacePackets(sequenceCounter,
-                    segmentCounter, packetDataFieldSizeLimit);
-
-                // this.outgoingQueue.put(spacePackets);
-
-                for (final SpacePacket sp : spacePackets) {
-                    sppSocket.send(sp);
+    /**
+     * Claims the counters for encoded messages, splits them into Space Packets and
+     * sends them or hands them to the transport's packet writer. Errors are stored
+     * in the respective Outgoing object.
+     *
+     * Room in the packet writer's queue is reserved before taking the socket lock,
+     * so a full queue only holds up this sender.
+     *
+     * @param outgoings The encoded messages.
+     */
+    private void transmit(final Outgoing[] outgoings) {
+        final SPPPacketWriter writer = transport.getPacketWriter();
+        if (null == writer) {
+            transmit(outgoings, 0, outgoings.length, null);
+            return;
+        }
+        final int chunk = writer.getCapacity();
+        for (int from = 0; from < outgoings.length; from += chunk) {
+            final int to = Math.min(outgoings.length, from + chunk);
+            try {
+                writer.reserve(to - from);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                for (int i = from; i < outgoings.length; i++) {
+                    final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, ex
+                        .getMessage());
+                    outgoings[i].error = new MALTransmitErrorException(outgoings[i].msg.getHeader(), error,
+                        outgoings[i].msg.getQoSProperties());
                 }
+                return;
+            }
+            transmit(outgoings, from, to, writer);
+        }
+    }
 
+    /**
+     * @param writer The packet writer with room reserved for the messages, or null to
+     *               write them to the socket in this thread.
+     */
+    private void transmit(final Outgoing[] outgoings, final int from, final int to,
+        final SPPPacketWriter writer) {
+        final SPPBufferPool pool = transport.getBufferPool();
+        final SPPMetrics metrics = transport.getMetrics();
+        int enqueued = 0;
+        // Needs to be synchronized to avoid getting packets out of order
+        synchronized (sppSocket) {
+            final long locked = System.nanoTime();
+            for (int i = from; i < to; i++) {
+                final Outgoing outgoing = outgoings[i];
+                final MALMessageHeader header = outgoing.msg.getHeader();
+                try {
+                    final SPPCounter sequenceCounter = transport.getSequenceCounter(outgoing.primaryQualifier,
+                        outgoing.primaryApid);
+                    final SPPCounter segmentCounter = transport.getSegmentCounter(header);
+                    final SpacePacket[] spacePackets = outgoing.encoded.createSpacePackets(sequenceCounter,
+                        segmentCounter, outgoing.packetDataFieldSizeLimit, pool);
+                    metrics.recordSent(outgoing.primaryQualifier, outgoing.primaryApid, spacePackets);
+                    if (null != writer) {
+                        // the writer releases the array and completes the interaction
+                        writer.enqueue(spacePackets, header);
+                        enqueued++;
+                    } else {
+                        try {
+                            if (sppSocket instanceof SPPBatchSocket) {
+                                ((SPPBatchSocket) sppSocket).send(spacePackets);
+                            } else {
+                                for (final SpacePacket sp : spacePackets) {
+                                    sppSocket.send(sp);
+                                }
+                            }
+                        } finally {
+                            pool.release(spacePackets[0].getBody());
+                        }
+                    }
+                } catch (final Exception ex) {
+                    final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, ex
+                        .getMessage());
+                    outgoing.error = new MALTransmitErrorException(header, error, outgoing.msg.getQoSProperties());
+                }
+            }
+            metrics.recordSendLock(System.nanoTime() - locked);
+        }
+        if (null != writer) {
+            writer.cancel(to - from - enqueued);
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            if (null == outgoings[i].error) {
+                transport.completeInteraction(outgoings[i].msg.getHeader());
             }
-        } catch (final Exception ex) {
-            final MALStandardError error = new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, ex.getMessage());
-            throw new MALTransmitErrorException(msg.getHeader(), error, msg.getQoSProperties());
         }
     }
 
@@ -414,14 +524,29 @@ public class SPPEndpoint implements MALEndpoint {
             throw new IllegalArgumentException(ILLEGAL_NULL_ARGUMENT);
         }
 
+        // encode all messages first, then claim counters and send them in one go
         final List<MALTransmitErrorException> transmitErrors = new LinkedList<>();
+        final List<Outgoing> outgoings = new ArrayList<>(msgList.length);
         for (final MALMessage msg : msgList) {
+            if (msg == null) {
+                throw new IllegalArgumentException(ILLEGAL_NULL_ARGUMENT);
+            }
             try {
-                sendMessage(msg);
+                checkHeader(msg);
+                final Outgoing outgoing = prepare(msg);
+                if (null != outgoing) {
+                    outgoings.add(outgoing);
+                }
             } catch (final MALTransmitErrorException ex) {
                 transmitErrors.add(ex);
             }
         }
+        transmit(outgoings.toArray(new Outgoing[outgoings.size()]));
+        for (final Outgoing outgoing : outgoings) {
+            if (null != outgoing.error) {
+                transmitErrors.add(outgoing.error);
+            }
+        }
         if (!transmitErrors.isEmpty()) {
             throw new MALTransmitMultipleErrorException(transmitErrors.toArray(new MALTransmitErrorException[0]));
         }
@@ -459,7 +584,7 @@ public class SPPEndpoint implements MALEndpoint {
         stopMessageDelivery();
         isClosed = true;
         if (getLocalName() == null) {
-            transport.invalidateURI(getURI());
+            transport.invalidateEndpoint(this);
         }
     }
 
@@ -481,4 +606,26 @@ public class SPPEndpoint implements MALEndpoint {
     protected boolean isDeliveryStopped() {
         return isDeliveryStopped;
     }
+
+    /**
+     * An encoded message waiting for its counters and transmission.
+     */
+    private static class Outgoing {
+
+        private final MALMessage msg;
+        private final int primaryQualifier;
+        private final short primaryApid;
+        private final int packetDataFieldSizeLimit;
+        private final SPPMessage.Encoded encoded;
+        private MALTransmitErrorException error;
+
+        Outgoing(final MALMessage msg, final int primaryQualifier, final short primaryApid,
+            final int packetDataFieldSizeLimit, final SPPMessage.Encoded encoded) {
+            this.msg = msg;
+            this.primaryQualifier = primaryQualifier;
+            this.primaryApid = primaryApid;
+            this.packetDataFieldSizeLimit = packetDataFieldSizeLimit;
+            this.encoded = encoded;
+        }
+    }
 }
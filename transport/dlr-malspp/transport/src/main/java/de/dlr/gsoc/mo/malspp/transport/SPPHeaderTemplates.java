@@ -0,0 +1,163 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+
+/**
+ * Bounded cache of encoded secondary headers of outgoing messages.
+ *
+ * Apart from the transaction id, the segment counter, the priority and the timestamp the secondary
+ * header of a message only depends on its sender, destination, operation, interaction stage, the
+ * header flags and a few header fields that rarely change. A template holds the encoded first part
+ * of the header (up to the segment counter), in which only the transaction id is replaced, and the
+ * encoded fields following the timestamp. When the cache is full it is emptied.
+ */
+public class SPPHeaderTemplates {
+
+    private final int capacity;
+    private final ConcurrentHashMap<Key, Template> templates = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity Maximum number of cached templates.
+     */
+    public SPPHeaderTemplates(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+    }
+
+    public Template get(final Key key) {
+        return templates.get(key);
+    }
+
+    public void put(final Key key, final Template template) {
+        if (templates.size() >= capacity) {
+            templates.clear();
+        }
+        templates.put(key, template);
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    /**
+     * Encoded parts of a secondary header that can be reused for all messages with the same key.
+     */
+    public static class Template {
+
+        private final byte[] part1;
+        private final int transactionIdOffset;
+        private final byte[] suffix;
+
+        /**
+         * @param part1               Encoded secondary header up to (excluding) the segment
+         *                            counter.
+         * @param transactionIdOffset Offset of the eight bytes of the transaction id in part1.
+         * @param suffix              Encoded fields following the timestamp.
+         */
+        public Template(final byte[] part1, final int transactionIdOffset, final byte[] suffix) {
+            if (transactionIdOffset < 0 || transactionIdOffset + 8 > part1.length) {
+                throw new IllegalArgumentException();
+            }
+            this.part1 = part1;
+            this.transactionIdOffset = transactionIdOffset;
+            this.suffix = suffix;
+        }
+
+        /**
+         * @return A copy of the first part of the secondary header with the transaction id
+         *         written into it.
+         */
+        public byte[] createPart1(final long transactionId) {
+            final byte[] bytes = part1.clone();
+            for (int i = 0; i < 8; i++) {
+                bytes[transactionIdOffset + i] = (byte) (transactionId >>> ((7 - i) * 8));
+            }
+            return bytes;
+        }
+
+        /**
+         * @return Encoded fields following the timestamp. Must not be modified.
+         */
+        public byte[] getSuffix() {
+            return suffix;
+        }
+    }
+
+    /**
+     * Everything a template depends on.
+     */
+    public static class Key {
+
+        private final MALElementStreamFactory esf;
+        private final boolean isTCpacket;
+        private final int flags;
+        private final Object[] fields;
+        private final int hash;
+
+        /**
+         * @param header     Header of the message.
+         * @param esf        Stream factory used for encoding the header.
+         * @param isTCpacket True, if packet type is telecommand, false if telemetry.
+         * @param flags      Header flags for the optional fields.
+         * @throws MALException If the SDU type cannot be determined.
+         */
+        public Key(final SPPMessageHeader header, final MALElementStreamFactory esf, final boolean isTCpacket,
+            final int flags) throws MALException {
+            this.esf = esf;
+            this.isTCpacket = isTCpacket;
+            this.flags = flags;
+            this.fields = fields(header);
+            int h = 7;
+            h = 31 * h + System.identityHashCode(esf);
+            h = 31 * h + (isTCpacket ? 1 : 0);
+            h = 31 * h + flags;
+            this.hash = 31 * h + Arrays.hashCode(fields);
+        }
+
+        private static Object[] fields(final SPPMessageHeader header) throws MALException {
+            return new Object[]{header.getSDU(), header.getServiceArea(), header.getService(), header.getOperation(),
+                header.getAreaVersion(), header.getIsErrorMessage(), header.getQoSlevel(), header.getSession(),
+                header.getURIFrom(), header.getURITo(), header.getNetworkZone(), header.getSessionName(), header
+                .getDomain(), header.getAuthenticationId()};
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return esf == other.esf && isTCpacket == other.isTCpacket && flags == other.flags && hash == other.hash
+                && Arrays.equals(fields, other.fields);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+
+/**
+ * Reusable view of the fixed-position fields of the MAL/SPP secondary header of a received Space
+ * Packet, which are read directly from the packet data field without decoding or allocating
+ * anything.
+ *
+ * The fixed part of the secondary header consists of version and SDU type, service area,
+ * service, operation, area version, error flag, QoS level, session, secondary APID, secondary APID
+ * qualifier, transaction id, the flags and, depending on the flags, source and destination
+ * identifier, followed by the segment counter if the packet is segmented. The optional fields
+ * following it (priority, timestamp, network zone, session name, domain, authentication id) are
+ * not covered, because their length depends on the encoding.
+ *
+ * An instance may only be used by one thread at a time.
+ */
+public class SPPHeaderView {
+
+    private static final int SERVICE_AREA_IDX = 1;
+    private static final int SERVICE_IDX = 3;
+    private static final int OPERATION_IDX = 5;
+    private static final int AREA_VERSION_IDX = 7;
+    private static final int ERROR_QOS_SESSION_SCNDAPID_IDX = 8;
+    private static final int SECONDARY_APID_QUALIFIER_IDX = 10;
+    private static final int TRANSACTION_ID_IDX = 12;
+    private static final int FLAGS_IDX = 20;
+    private static final int COUNTER_LENGTH = 4;
+    private byte[] data;
+    private int base;
+    private boolean isTCpacket;
+    private boolean isSegmented;
+    private int primaryApid;
+    private int primaryApidQualifier;
+    private int sourceIdentifierIdx;
+    private int destinationIdentifierIdx;
+    private int segmentCounterIdx;
+    private int optionalFieldsIdx;
+
+    /**
+     * Points the view to a Space Packet.
+     *
+     * @param spacePacket The received Space Packet.
+     * @return False if the packet data field is too short to hold the fixed part of the
+     *         secondary header. The view must not be used then.
+     */
+    public boolean wrap(final SpacePacket spacePacket) {
+        final SpacePacketHeader header = spacePacket.getHeader();
+        data = spacePacket.getBody();
+        base = spacePacket.getOffset();
+        isTCpacket = header.getPacketType() == 1;
+        isSegmented = header.getSequenceFlags() != 0b11;
+        primaryApid = header.getApid();
+        primaryApidQualifier = spacePacket.getApidQualifier();
+        if (spacePacket.getLength() <= FLAGS_IDX) {
+            return false;
+        }
+        int idx = FLAGS_IDX + 1;
+        final int flags = getFlags();
+        sourceIdentifierIdx = (flags & 0b10000000) != 0 ? idx++ : -1;
+        destinationIdentifierIdx = (flags & 0b01000000) != 0 ? idx++ : -1;
+        segmentCounterIdx = isSegmented ? idx : -1;
+        optionalFieldsIdx = isSegmented ? idx + COUNTER_LENGTH : idx;
+        return optionalFieldsIdx <= spacePacket.getLength();
+    }
+
+    public boolean isTCpacket() {
+        return isTCpacket;
+    }
+
+    public boolean isSegmented() {
+        return isSegmented;
+    }
+
+    public int getVersion() {
+        return (data[base] & 0xFF) >>> 5;
+    }
+
+    public int getSDU() {
+        return data[base] & 0x1F;
+    }
+
+    public int getServiceArea() {
+        return getUShort(SERVICE_AREA_IDX);
+    }
+
+    public int getService() {
+        return getUShort(SERVICE_IDX);
+    }
+
+    public int getOperation() {
+        return getUShort(OPERATION_IDX);
+    }
+
+    public int getAreaVersion() {
+        return data[base + AREA_VERSION_IDX] & 0xFF;
+    }
+
+    public boolean isErrorMessage() {
+        return (getUShort(ERROR_QOS_SESSION_SCNDAPID_IDX) >>> 15) == 1;
+    }
+
+    /**
+     * @return The ordinal of the QoS level.
+     */
+    public int getQoSLevel() {
+        return (getUShort(ERROR_QOS_SESSION_SCNDAPID_IDX) >>> 13) & 0b11;
+    }
+
+    /**
+     * @return The ordinal of the session type.
+     */
+    public int getSession() {
+        return (getUShort(ERROR_QOS_SESSION_SCNDAPID_IDX) >>> 11) & 0b11;
+    }
+
+    public int getSecondaryApid() {
+        return getUShort(ERROR_QOS_SESSION_SCNDAPID_IDX) & 0b0000011111111111;
+    }
+
+    public int getSecondaryApidQualifier() {
+        return getUShort(SECONDARY_APID_QUALIFIER_IDX);
+    }
+
+    public long getTransactionId() {
+        long v = 0;
+        for (int i = 0; i < 8; i++) {
+            v = (v << 8) | (data[base + TRANSACTION_ID_IDX + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * @return The flags octet, telling which identifiers and optional fields are present.
+     */
+    public int getFlags() {
+        return data[base + FLAGS_IDX] & 0xFF;
+    }
+
+    /**
+     * @return The source identifier or -1 if not present.
+     */
+    public int getSourceIdentifier() {
+        return sourceIdentifierIdx < 0 ? -1 : data[base + sourceIdentifierIdx] & 0xFF;
+    }
+
+    /**
+     * @return The destination identifier or -1 if not present.
+     */
+    public int getDestinationIdentifier() {
+        return destinationIdentifierIdx < 0 ? -1 : data[base + destinationIdentifierIdx] & 0xFF;
+    }
+
+    /**
+     * @return The segment counter or -1 if the packet is not segmented.
+     */
+    public long getSegmentCounter() {
+        if (segmentCounterIdx < 0) {
+            return -1;
+        }
+        long v = 0;
+        for (int i = 0; i < COUNTER_LENGTH; i++) {
+            v = (v << 8) | (data[base + segmentCounterIdx + i] & 0xFF);
+        }
+        return v;
+    }
+
+    /**
+     * @return Position of the first optional field (or of the body if there is none) relative to
+     *         the start of the packet data field.
+     */
+    public int getOptionalFieldsOffset() {
+        return optionalFieldsIdx;
+    }
+
+    public int getFromApidQualifier() {
+        return isTCpacket ? getSecondaryApidQualifier() : primaryApidQualifier;
+    }
+
+    public int getFromApid() {
+        return isTCpacket ? getSecondaryApid() : primaryApid;
+    }
+
+    public int getToApidQualifier() {
+        return isTCpacket ? primaryApidQualifier : getSecondaryApidQualifier();
+    }
+
+    public int getToApid() {
+        return isTCpacket ? primaryApid : getSecondaryApid();
+    }
+
+    private int getUShort(final int idx) {
+        return ((data[base + idx] & 0xFF) << 8) | (data[base + idx + 1] & 0xFF);
+    }
+}
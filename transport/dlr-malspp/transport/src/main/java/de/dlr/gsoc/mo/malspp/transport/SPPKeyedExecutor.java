@@ -0,0 +1,267 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes tasks on a pool of worker threads such that tasks with the same key run one after
+ * another in submission order, while tasks with different keys run in parallel.
+ *
+ * Each key with pending tasks has its own queue. A queue is drained by at most one worker at a
+ * time and is removed as soon as it runs empty. No lock is taken when submitting or running tasks.
+ * execute() waits while the queue of the key already holds the maximum number of tasks, which
+ * passes the back pressure of a slow key on to the submitter. Tasks submitted by the worker threads
+ * themselves or by executeUnbounded() never wait: beyond the limit they are queued all the same and
+ * counted as overflow.
+ */
+public class SPPKeyedExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(SPPKeyedExecutor.class.getName());
+    private static final String TASK_FAILED = "Task failed.";
+    private static final String OVERFLOW = "More than {0} tasks pending for key {1}.";
+    private static final long FULL_BACKOFF = 1000000; // nanoseconds to wait at most before checking a full key again
+    private final ExecutorService workers;
+    private final int limit;
+    private final ConcurrentHashMap<Long, KeyQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong overflowCount = new AtomicLong();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final AtomicInteger maxPendingCount = new AtomicInteger();
+    private final ThreadLocal<Boolean> isWorker = new ThreadLocal<>();
+
+    /**
+     * @param workers Number of worker threads.
+     * @param limit   Maximum number of pending tasks per key, beyond which submitting waits or, if
+     *                it must not wait, the tasks count as overflow. 0 for no limit.
+     */
+    public SPPKeyedExecutor(final int workers, final int limit) {
+        if (workers < 1 || limit < 0) {
+            throw new IllegalArgumentException();
+        }
+        final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+        this.workers = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return threadFactory.newThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        isWorker.set(Boolean.TRUE);
+                        r.run();
+                    }
+                });
+            }
+        });
+        this.limit = limit;
+    }
+
+    /**
+     * Submits a task. It runs after all previously submitted tasks with the same key have finished.
+     * Waits while the key already has the maximum number of pending tasks, unless called by a task,
+     * as a worker thread waiting for a key that may only be drained by itself or by other waiting
+     * worker threads would deadlock.
+     *
+     * @param key  Key determining the order, e.g. a transaction id.
+     * @param task The task to run.
+     * @throws InterruptedException If interrupted while waiting for room in the queue of the key.
+     */
+    public void execute(final long key, final Runnable task) throws InterruptedException {
+        final boolean bounded = !Boolean.TRUE.equals(isWorker.get());
+        while (!submit(key, task, bounded)) {
+            LockSupport.parkNanos(this, FULL_BACKOFF);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Submits a task like execute(), but never waits: beyond the limit of its key the task is queued
+     * all the same and counted as overflow. For tasks submitted by threads that must not be held up
+     * by a slow key, e.g. because the tasks of that key may be waiting for them.
+     *
+     * @param key  Key determining the order, e.g. a transaction id.
+     * @param task The task to run.
+     */
+    public void executeUnbounded(final long key, final Runnable task) {
+        submit(key, task, false);
+    }
+
+    /**
+     * @param bounded Whether to reject the task if the key already has the maximum number of
+     *                pending tasks.
+     * @return false if the task has been rejected.
+     */
+    private boolean submit(final long key, final Runnable task, final boolean bounded) {
+        while (true) {
+            KeyQueue queue = queues.get(key);
+            if (null == queue) {
+                final KeyQueue newQueue = new KeyQueue(key);
+                queue = queues.putIfAbsent(key, newQueue);
+                if (null == queue) {
+                    queue = newQueue;
+                }
+            }
+            final int state = queue.add(task, bounded);
+            if (state == KeyQueue.STARTED) {
+                workers.execute(queue);
+                return true;
+            }
+            if (state == KeyQueue.QUEUED) {
+                return true;
+            }
+            if (state == KeyQueue.FULL) {
+                return false;
+            }
+            // RETIRED: the queue has just been removed; try again with a new one
+        }
+    }
+
+    /**
+     * @return The number of keys with pending tasks.
+     */
+    public int size() {
+        return queues.size();
+    }
+
+    /**
+     * @return The number of tasks that have been submitted but have not finished, over all keys.
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return The largest number of tasks that have been pending at the same time, over all keys.
+     */
+    public int getMaxPendingCount() {
+        return maxPendingCount.get();
+    }
+
+    /**
+     * @return The number of tasks submitted without waiting while their key already had the maximum
+     *         number of pending tasks.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Stops the worker threads. Pending tasks are not run.
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Tasks of a single key. pending counts the tasks that have been added but not yet run; -1
+     * marks a queue that has been removed and must not be used anymore. waiter is the thread that
+     * has last found the queue full, woken up as soon as a task has run.
+     */
+    private class KeyQueue implements Runnable {
+
+        static final int STARTED = 0;
+        static final int QUEUED = 1;
+        static final int FULL = 2;
+        static final int RETIRED = 3;
+        private final long key;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile Thread waiter;
+
+        KeyQueue(final long key) {
+            this.key = key;
+        }
+
+        int add(final Runnable task, final boolean bounded) {
+            while (true) {
+                final int n = pending.get();
+                if (n < 0) {
+                    return RETIRED;
+                }
+                if (bounded && limit != 0 && n >= limit) {
+                    waiter = Thread.currentThread();
+                    if (pending.get() != n) {
+                        continue; // a task has run in the meantime and may not have seen the waiter
+                    }
+                    return FULL;
+                }
+                if (pending.compareAndSet(n, n + 1)) {
+                    if (limit != 0 && n >= limit) {
+                        overflowCount.incrementAndGet();
+                        if (n == limit) {
+                            LOGGER.log(Level.WARNING, OVERFLOW, new Object[]{limit, Long.toString(key)});
+                        }
+                    }
+                    final int total = pendingCount.incrementAndGet();
+                    int max = maxPendingCount.get();
+                    while (total > max && !maxPendingCount.compareAndSet(max, total)) {
+                        max = maxPendingCount.get();
+                    }
+                    tasks.offer(task);
+                    // The task that turns an idle queue busy has to schedule draining it.
+                    return n == 0 ? STARTED : QUEUED;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable task = tasks.poll();
+                while (null == task) {
+                    // counted by add() but not yet offered
+                    Thread.yield();
+                    task = tasks.poll();
+                }
+                try {
+                    task.run();
+                } catch (final Throwable ex) {
+                    // also errors, as the remaining tasks of the key would never run otherwise
+                    LOGGER.log(Level.WARNING, TASK_FAILED, ex);
+                }
+                pendingCount.decrementAndGet();
+                final int n = pending.decrementAndGet();
+                final Thread w = waiter;
+                if (null != w) {
+                    waiter = null;
+                    LockSupport.unpark(w);
+                }
+                if (n == 0) {
+                    // Either retire the queue or, if a task has been added in the meantime, leave
+                    // it to the drain scheduled by that add().
+                    if (pending.compareAndSet(0, -1)) {
+                        queues.remove(key, this);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
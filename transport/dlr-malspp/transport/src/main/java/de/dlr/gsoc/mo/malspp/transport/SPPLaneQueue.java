@@ -0,0 +1,177 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Blocking queue made of several bounded lanes that are drained by deficit round robin.
+ *
+ * In each round a lane may hand out as many elements as its weight, so a busy lane with a small
+ * weight cannot delay elements of a lane with a large weight by more than its weight, while it
+ * gets all capacity the other lanes leave unused.
+ *
+ * @param <E> Type of the elements.
+ */
+public class SPPLaneQueue<E> {
+
+    private final ArrayDeque<E>[] lanes;
+    private final int[] weights;
+    private final int[] deficits;
+    private final int[] maxSizes;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition[] notFull;
+    private int current;
+    private int count;
+
+    /**
+     * @param weights  Weight of each lane, i.e. the number of elements taken from the lane per
+     *                 round. The number of weights determines the number of lanes.
+     * @param capacity Maximum number of elements per lane.
+     */
+    public SPPLaneQueue(final int[] weights, final int capacity) {
+        if (weights.length == 0 || capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<E>[] newLanes = (ArrayDeque<E>[]) new ArrayDeque<?>[weights.length];
+        this.lanes = newLanes;
+        this.weights = weights.clone();
+        this.deficits = new int[weights.length];
+        this.maxSizes = new int[weights.length];
+        this.notFull = new Condition[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] < 1) {
+                throw new IllegalArgumentException();
+            }
+            lanes[i] = new ArrayDeque<>();
+            notFull[i] = lock.newCondition();
+        }
+        this.capacity = capacity;
+        this.current = 0;
+        this.deficits[0] = this.weights[0];
+    }
+
+    /**
+     * Adds an element to a lane, waiting while the lane is full.
+     *
+     * @param lane Index of the lane.
+     * @param e    The element, not null.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void put(final int lane, final E e) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (lanes[lane].size() >= capacity) {
+                notFull[lane].await();
+            }
+            lanes[lane].add(e);
+            if (lanes[lane].size() > maxSizes[lane]) {
+                maxSizes[lane] = lanes[lane].size();
+            }
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next element according to the lane weights, waiting while all lanes are empty.
+     *
+     * @return The element.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            while (true) {
+                final ArrayDeque<E> lane = lanes[current];
+                if (!lane.isEmpty() && deficits[current] > 0) {
+                    deficits[current]--;
+                    final E e = lane.poll();
+                    count--;
+                    notFull[current].signal();
+                    return e;
+                }
+                // lane used up its share or has nothing to send: on to the next lane
+                deficits[current] = 0;
+                current = (current + 1) % lanes.length;
+                if (!lanes[current].isEmpty()) {
+                    deficits[current] = weights[current];
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of elements in all lanes.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane Index of the lane.
+     * @return The number of elements in the lane.
+     */
+    public int size(final int lane) {
+        lock.lock();
+        try {
+            return lanes[lane].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @param lane Index of the lane.
+     * @return The largest number of elements that have been in the lane at the same time.
+     */
+    public int getMaxSize(final int lane) {
+        lock.lock();
+        try {
+            return maxSizes[lane];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return The number of lanes.
+     */
+    public int getLaneCount() {
+        return lanes.length;
+    }
+}
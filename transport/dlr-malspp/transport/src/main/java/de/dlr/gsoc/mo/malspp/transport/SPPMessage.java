@@ -21,7 +21,6 @@ package de.dlr.gsoc.mo.malspp.transport;
 
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
-import java.util.BitSet;
 import java.util.Map;
 
 import org.ccsds.moims.mo.mal.MALContextFactory;
@@ -44,12 +43,22 @@ public class SPPMessage implements MALMessage {
 
     // Error string
     private static final String TRANSACTION_ID_IS_NULL = "'Transaction Id' may not be null.";
+    // Header flags for the optional fields; bits of the flags octet of the secondary header
+    static final int SOURCE_ID_FLAG = 1 << 7;
+    static final int DESTINATION_ID_FLAG = 1 << 6;
+    static final int PRIORITY_FLAG = 1 << 5;
+    static final int TIMESTAMP_FLAG = 1 << 4;
+    static final int NETWORK_ZONE_FLAG = 1 << 3;
+    static final int SESSION_NAME_FLAG = 1 << 2;
+    static final int DOMAIN_FLAG = 1 << 1;
+    static final int AUTHENTICATION_ID_FLAG = 1;
     // Member variables
     private final SPPMessageHeader header;
     private final SPPMessageBody body;
     private final Map qosProperties;
     private final Map endpointQosProperties;
     private final MALElementStreamFactory esf;
+    private final boolean isReceived; // from Space Packets
 
     public SPPMessage(final SPPMessageHeader header, final SPPMessageBody body, final Map qosProperties,
         final Map endpointQosProperties, final MALElementStreamFactory esf, final SPPTransport transport) {
@@ -58,6 +67,7 @@ public class SPPMessage implements MALMessage {
         this.qosProperties = qosProperties;
         this.endpointQosProperties = endpointQosProperties;
         this.esf = esf;
+        this.isReceived = false;
     }
 
     public SPPMessage(final SPPMessageHeader header, final SpacePacket[] spacePackets, final Map qosProperties,
@@ -67,13 +77,11 @@ public class SPPMessage implements MALMessage {
         this.endpointQosProperties = endpointQosProperties;
         this.esf = esf;
         this.header = header;
+        this.isReceived = true;
 
-        // combine user (*not* packet) data fields of (segmented) Space Packets
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        for (final SpacePacket sp : spacePackets) {
-            baos.write(sp.getBody(), header.getOffset(), sp.getBody().length - header.getOffset());
-        }
-        final byte[] userDataField = baos.toByteArray();
+        // reference user (*not* packet) data fields of (segmented) Space Packets without
+        // combining them
+        final SPPSegmentedEncodedBody userDataField = new SPPSegmentedEncodedBody(spacePackets, header.getOffset());
 
         final MALOperation op;
         try {
@@ -83,11 +91,29 @@ public class SPPMessage implements MALMessage {
             throw new MALException("Could not resolve operation. " + header);
         }
         final MALEncodingContext ctx = new MALEncodingContext(header, op, -1, null, this.qosProperties);
-        final MALEncodedBody encodedBody = userDataField.length == 0 ? null : new MALEncodedBody(new Blob(
-            userDataField));
+        final MALEncodedBody encodedBody = userDataField.getLength() == 0 ? null : userDataField;
         body = SPPEndpoint.createMessageBody(encodedBody, esf, ctx);
     }
 
+    /**
+     * @return Whether the message has been received in Space Packets, as opposed
+     *         to created in this process.
+     */
+    protected boolean isReceived() {
+        return isReceived;
+    }
+
+    /**
+     * Lets the body of a received message stop referencing the received Space
+     * Packets (see SPPMessageBody.detach()). Called once the message has been
+     * dispatched, as the listener may keep it for long.
+     */
+    protected void detach() {
+        if (null != body) {
+            body.detach();
+        }
+    }
+
     /**
      * Create Space Packet(s) from the MAL message according to CCSDS 524.1.
      *
@@ -102,62 +128,113 @@ public class SPPMessage implements MALMessage {
      */
     protected SpacePacket[] createSpacePackets(final SPPCounter sequenceCounter, final SPPCounter segmentCounter,
         final int packetDataFieldSizeLimit) throws MALException {
+        return encode().createSpacePackets(sequenceCounter, segmentCounter, packetDataFieldSizeLimit);
+    }
+
+    /**
+     * Encodes the secondary header and the body of the MAL message. This is the
+     * expensive part of creating Space Packets and does not need any counters, so
+     * it can be done before the counters are claimed.
+     *
+     * @return The encoded message, ready to be split into Space Packets.
+     * @throws MALException
+     */
+    protected Encoded encode() throws MALException {
+        return encode(null);
+    }
+
+    /**
+     * Like encode(), but takes the constant parts of the secondary header from a
+     * template if possible.
+     *
+     * @param templates The secondary header templates to use and fill. If null,
+     *                  the whole secondary header is encoded.
+     * @return The encoded message, ready to be split into Space Packets.
+     * @throws MALException
+     */
+    protected Encoded encode(final SPPHeaderTemplates templates) throws MALException {
+        final Configuration config = new Configuration(qosProperties);
+        final boolean isTCpacket = config.isTCpacket();
+        final int flags = (config.priorityFlag() ? PRIORITY_FLAG : 0) | (config.timestampFlag() ? TIMESTAMP_FLAG : 0)
+            | (config.networkZoneFlag() ? NETWORK_ZONE_FLAG : 0) | (config.sessionNameFlag() ? SESSION_NAME_FLAG : 0)
+            | (config.domainFlag() ? DOMAIN_FLAG : 0) | (config.authenticationIdFlag() ? AUTHENTICATION_ID_FLAG : 0);
+        final Long transactionId = header.getTransactionId();
+        if (transactionId == null) {
+            throw new MALException(TRANSACTION_ID_IS_NULL);
+        }
+
         // create secondary header in 2 parts: before and after the segment counter
-        final ByteArrayOutputStream encSecondaryHeaderPart1 = new ByteArrayOutputStream();
+        final byte[] secondaryHeaderPart1;
         final ByteArrayOutputStream encSecondaryHeaderPart2 = new ByteArrayOutputStream();
-        final boolean isTCpacket = new Configuration(qosProperties).isTCpacket();
-
-        writeSecondaryHeader(encSecondaryHeaderPart1, encSecondaryHeaderPart2, isTCpacket);
+        if (null == templates) {
+            final ByteArrayOutputStream encSecondaryHeaderPart1 = new ByteArrayOutputStream();
+            writeSecondaryHeader(encSecondaryHeaderPart1, encSecondaryHeaderPart2, encSecondaryHeaderPart2,
+                isTCpacket, flags);
+            secondaryHeaderPart1 = encSecondaryHeaderPart1.toByteArray();
+        } else {
+            final SPPHeaderTemplates.Key key = new SPPHeaderTemplates.Key(header, esf, isTCpacket, flags);
+            SPPHeaderTemplates.Template template = templates.get(key);
+            if (null == template) {
+                final ByteArrayOutputStream encSecondaryHeaderPart1 = new ByteArrayOutputStream();
+                final ByteArrayOutputStream encSuffix = new ByteArrayOutputStream();
+                final int identifierFlags = writeSecondaryHeader(encSecondaryHeaderPart1, encSecondaryHeaderPart2,
+                    encSuffix, isTCpacket, flags);
+                secondaryHeaderPart1 = encSecondaryHeaderPart1.toByteArray();
+                // the transaction id is followed by the flags octet and the optional identifier octets
+                final int transactionIdOffset = secondaryHeaderPart1.length - 9 - Integer.bitCount(identifierFlags);
+                template = new SPPHeaderTemplates.Template(secondaryHeaderPart1.clone(), transactionIdOffset,
+                    encSuffix.toByteArray());
+                templates.put(key, template);
+                encSecondaryHeaderPart2.write(template.getSuffix(), 0, template.getSuffix().length);
+            } else {
+                secondaryHeaderPart1 = template.createPart1(transactionId);
+                writePriorityAndTimestamp(esf.createOutputStream(encSecondaryHeaderPart2), flags);
+                encSecondaryHeaderPart2.write(template.getSuffix(), 0, template.getSuffix().length);
+            }
+        }
 
-        // create encoded MAL message body
+        // create encoded MAL message body; it is copied only when splitting into Space Packets
         final byte[] encBody;
+        final int encBodyOffset;
+        final int encBodyLength;
         final MALEncodedBody malEncodedBody = body.getEncodedBody();
         if (malEncodedBody == null || malEncodedBody.getEncodedBody() == null) {
             encBody = new byte[]{};
+            encBodyOffset = 0;
+            encBodyLength = 0;
         } else {
             final Blob wholeBody = malEncodedBody.getEncodedBody();
-            encBody = new byte[wholeBody.getLength()];
-            System.arraycopy(wholeBody.getValue(), wholeBody.getOffset(), encBody, 0, wholeBody.getLength());
+            encBody = wholeBody.getValue();
+            encBodyOffset = wholeBody.getOffset();
+            encBodyLength = wholeBody.getLength();
         }
 
-        final SPPURI primarySPPURI = new SPPURI(isTCpacket ? header.getURITo() : header.getURIFrom());
-        final int primaryApidQualifier = primarySPPURI.getQualifier();
-        final int primaryApid = primarySPPURI.getAPID();
-
-        // Create template Space Packet header. Sequence flags and packet sequence count
-        // will be
-        // handled and set correctly in SPPSegmenter.split().
-        final SpacePacketHeader spHeader = new SpacePacketHeader(SPPTransport.SPP_VERSION, isTCpacket ? 1 : 0, 1,
-            primaryApid, 0b11, 0);
-
-        final SpacePacket[] spacePackets = SPPSegmenter.split(packetDataFieldSizeLimit, primaryApidQualifier, spHeader,
-            encSecondaryHeaderPart1.toByteArray(), encSecondaryHeaderPart2.toByteArray(), encBody, sequenceCounter,
-            segmentCounter);
-
-        for (final SpacePacket sp : spacePackets) {
-            // PENDING: Testbed assumes endpoint QoS properties to be delivered to the
-            // TRANSMIT
-            // request.
-            sp.setQosProperties(endpointQosProperties);
-        }
-        return spacePackets;
+        final SPPURI primarySPPURI = SPPURI.valueOf(isTCpacket ? header.getURITo() : header.getURIFrom());
+        return new Encoded(isTCpacket, primarySPPURI.getQualifier(), primarySPPURI.getAPID(), secondaryHeaderPart1,
+            encSecondaryHeaderPart2.toByteArray(), encBody, encBodyOffset, encBodyLength, endpointQosProperties);
     }
 
     /**
-     * Encodes the secondary header of the Space Packet to two stream. The first
+     * Encodes the secondary header of the Space Packet to three streams. The first
      * stream will contain all bytes up to (but excluding) the segment counter, the
-     * second stream will contain all bytes starting from the segment counter
-     * (excluding the counter) to the end of the header.
+     * second stream will contain the priority and the timestamp following the
+     * segment counter, the third stream the remaining fields. The second and third
+     * stream may be the same.
      *
      * @param os1        Output stream where the first part of the secondary Space
      *                   Packet header is written to.
-     * @param os2        Output stream where the second part of the secondary Space
-     *                   Packet header is written to.
+     * @param os2        Output stream where the priority and timestamp are written
+     *                   to.
+     * @param os3        Output stream where the fields following the timestamp are
+     *                   written to.
      * @param isTCpacket True, if packet type is telecommand, false if telemetry.
+     * @param flags      Header flags for priority, timestamp, network zone, session
+     *                   name, domain and authentication id.
+     * @return Header flags for source and destination identifier.
      * @throws MALException
      */
-    private void writeSecondaryHeader(final OutputStream os1, final OutputStream os2, final boolean isTCpacket)
-        throws MALException {
+    private int writeSecondaryHeader(final OutputStream os1, final OutputStream os2, final OutputStream os3,
+        final boolean isTCpacket, final int flags) throws MALException {
         final MALElementOutputStream eos1 = esf.createOutputStream(os1);
         final byte sdu = header.getSDU();
         eos1.writeElement(new UOctet((short) (SPPTransport.MALSPP_VERSION << 5 | sdu)), null);
@@ -165,8 +242,8 @@ public class SPPMessage implements MALMessage {
         writeUShort(header.getService(), eos1);
         writeUShort(header.getOperation(), eos1);
         eos1.writeElement(header.getAreaVersion(), null);
-        final SPPURI sppURIFrom = new SPPURI(header.getURIFrom());
-        final SPPURI sppURITo = new SPPURI(header.getURITo());
+        final SPPURI sppURIFrom = SPPURI.valueOf(header.getURIFrom());
+        final SPPURI sppURITo = SPPURI.valueOf(header.getURITo());
         final short secondaryAPID = isTCpacket ? sppURIFrom.getAPID() : sppURITo.getAPID();
         final int secondaryQualifier = isTCpacket ? sppURIFrom.getQualifier() : sppURITo.getQualifier();
         final int error_qos_session_scndapid = ((header.getIsErrorMessage() ? 1 : 0) << 15) | ((byte) (header
@@ -188,26 +265,9 @@ public class SPPMessage implements MALMessage {
 
         final Short sourceIdentifier = sppURIFrom.getIdentifier();
         final Short destinationIdentifier = sppURITo.getIdentifier();
-
-        final Configuration config = new Configuration(qosProperties);
-        final boolean priorityFlag = config.priorityFlag();
-        final boolean timestampFlag = config.timestampFlag();
-        final boolean networkZoneFlag = config.networkZoneFlag();
-        final boolean sessionNameFlag = config.sessionNameFlag();
-        final boolean domainFlag = config.domainFlag();
-        final boolean authenticationIdFlag = config.authenticationIdFlag();
-
-        final BitSet bs = new BitSet(8);
-        // Bits in BitSet are numbered right to left.
-        bs.set(7, null != sourceIdentifier);
-        bs.set(6, null != destinationIdentifier);
-        bs.set(5, priorityFlag);
-        bs.set(4, timestampFlag);
-        bs.set(3, networkZoneFlag);
-        bs.set(2, sessionNameFlag);
-        bs.set(1, domainFlag);
-        bs.set(0, authenticationIdFlag);
-        eos1.writeElement(new UOctet((short) bs.toLongArray()[0]), null);
+        final int identifierFlags = (null != sourceIdentifier ? SOURCE_ID_FLAG : 0) | (null != destinationIdentifier
+            ? DESTINATION_ID_FLAG : 0);
+        eos1.writeElement(new UOctet((short) (identifierFlags | flags)), null);
 
         if (null != sourceIdentifier) {
             eos1.writeElement(new UOctet(sourceIdentifier), null);
@@ -216,26 +276,39 @@ public class SPPMessage implements MALMessage {
             eos1.writeElement(new UOctet(destinationIdentifier), null);
         }
 
-        // Second stream starts here; segment counter is encoded separately in
+        // Second part starts here; segment counter is encoded separately in
         // SPPSegmenter.split().
-        final MALElementOutputStream eos2 = esf.createOutputStream(os2);
-        if (priorityFlag) {
-            eos2.writeElement(header.getPriority(), null);
+        writePriorityAndTimestamp(esf.createOutputStream(os2), flags);
+        final MALElementOutputStream eos3 = esf.createOutputStream(os3);
+        if (0 != (flags & NETWORK_ZONE_FLAG)) {
+            eos3.writeElement(header.getNetworkZone(), null);
         }
-        if (timestampFlag) {
-            eos2.writeElement(header.getTimestamp(), null);
+        if (0 != (flags & SESSION_NAME_FLAG)) {
+            eos3.writeElement(header.getSessionName(), null);
         }
-        if (networkZoneFlag) {
-            eos2.writeElement(header.getNetworkZone(), null);
+        if (0 != (flags & DOMAIN_FLAG)) {
+            eos3.writeElement(header.getDomain(), null);
         }
-        if (sessionNameFlag) {
-            eos2.writeElement(header.getSessionName(), null);
+        if (0 != (flags & AUTHENTICATION_ID_FLAG)) {
+            eos3.writeElement(header.getAuthenticationId(), null);
         }
-        if (domainFlag) {
-            eos2.writeElement(header.getDomain(), null);
+        return identifierFlags;
+    }
+
+    /**
+     * Encodes the header fields following the segment counter that differ from
+     * message to message.
+     *
+     * @param eos   Stream to write the fields to.
+     * @param flags Header flags for the optional fields.
+     * @throws MALException
+     */
+    private void writePriorityAndTimestamp(final MALElementOutputStream eos, final int flags) throws MALException {
+        if (0 != (flags & PRIORITY_FLAG)) {
+            eos.writeElement(header.getPriority(), null);
         }
-        if (authenticationIdFlag) {
-            eos2.writeElement(header.getAuthenticationId(), null);
+        if (0 != (flags & TIMESTAMP_FLAG)) {
+            eos.writeElement(header.getTimestamp(), null);
         }
     }
 
@@ -289,4 +362,81 @@ public class SPPMessage implements MALMessage {
     public void free() throws MALException {
         // nothing to do
     }
+
+    /**
+     * Encoded secondary header and body of a MAL message.
+     */
+    protected static class Encoded {
+
+        private final boolean isTCpacket;
+        private final int primaryApidQualifier;
+        private final int primaryApid;
+        private final byte[] secondaryHeaderPart1;
+        private final byte[] secondaryHeaderPart2;
+        private final byte[] body;
+        private final int bodyOffset;
+        private final int bodyLength;
+        private final Map endpointQosProperties;
+
+        Encoded(final boolean isTCpacket, final int primaryApidQualifier, final int primaryApid,
+            final byte[] secondaryHeaderPart1, final byte[] secondaryHeaderPart2, final byte[] body,
+            final int bodyOffset, final int bodyLength, final Map endpointQosProperties) {
+            this.isTCpacket = isTCpacket;
+            this.primaryApidQualifier = primaryApidQualifier;
+            this.primaryApid = primaryApid;
+            this.secondaryHeaderPart1 = secondaryHeaderPart1;
+            this.secondaryHeaderPart2 = secondaryHeaderPart2;
+            this.body = body;
+            this.bodyOffset = bodyOffset;
+            this.bodyLength = bodyLength;
+            this.endpointQosProperties = endpointQosProperties;
+        }
+
+        /**
+         * Splits the encoded message into Space Packets, claiming the next values
+         * of the counters.
+         *
+         * @param sequenceCounter          The sequence counter to be used for
+         *                                 creating the Space Packet.
+         * @param segmentCounter           The segment counter to be used for
+         *                                 creating the Space Packet.
+         * @param packetDataFieldSizeLimit Limit of the packet data field size in
+         *                                 octets. 0 for maximum.
+         * @return An array of valid Space Packets encapsulating the MAL message.
+         * @throws MALException
+         */
+        protected SpacePacket[] createSpacePackets(final SPPCounter sequenceCounter, final SPPCounter segmentCounter,
+            final int packetDataFieldSizeLimit) throws MALException {
+            return createSpacePackets(sequenceCounter, segmentCounter, packetDataFieldSizeLimit, null);
+        }
+
+        /**
+         * Like createSpacePackets(sequenceCounter, segmentCounter,
+         * packetDataFieldSizeLimit), but all Space Packets share a single array taken
+         * from a pool, which may be released to the pool after the Space Packets have
+         * been sent.
+         *
+         * @param pool Pool to take the array from. If null, a new array is created.
+         */
+        protected SpacePacket[] createSpacePackets(final SPPCounter sequenceCounter, final SPPCounter segmentCounter,
+            final int packetDataFieldSizeLimit, final SPPBufferPool pool) throws MALException {
+            // Create template Space Packet header. Sequence flags and packet sequence count
+            // will be
+            // handled and set correctly in SPPSegmenter.split().
+            final SpacePacketHeader spHeader = new SpacePacketHeader(SPPTransport.SPP_VERSION, isTCpacket ? 1 : 0, 1,
+                primaryApid, 0b11, 0);
+
+            final SpacePacket[] spacePackets = SPPSegmenter.split(packetDataFieldSizeLimit, primaryApidQualifier,
+                spHeader, secondaryHeaderPart1, secondaryHeaderPart2, body, bodyOffset, bodyLength, sequenceCounter,
+                segmentCounter, pool);
+
+            for (final SpacePacket sp : spacePackets) {
+                // PENDING: Testbed assumes endpoint QoS properties to be delivered to the
+                // TRANSMIT
+                // request.
+                sp.setQosProperties(endpointQosProperties);
+            }
+            return spacePackets;
+        }
+    }
 }
@@ -19,14 +19,22 @@
  */
 package de.dlr.gsoc.mo.malspp.transport;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import org.ccsds.moims.mo.mal.MALContextFactory;
 import org.ccsds.moims.mo.mal.MALElementFactoryRegistry;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALStandardError;
 import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.Blob;
@@ -34,14 +42,32 @@ import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
 import org.ccsds.moims.mo.mal.transport.MALMessageBody;
 
+/**
+ * Body of a MAL message.
+ *
+ * The body of a received message is decoded on demand: Requesting a body element decodes it and
+ * all previous ones not decoded yet, but none of the following ones. While decoding the offset of
+ * each body element in the encoded body is recorded, so that getEncodedBodyElement() can return
+ * the encoded form of a body element without decoding it, if all previous ones have been decoded
+ * or it is the last one. If decoding a body element fails, the body cannot be decoded any further:
+ * the body elements before it remain available, every attempt to decode it or a following one
+ * fails.
+ */
 public class SPPMessageBody implements MALMessageBody {
 
     protected static final String NOT_SUPPORTED = "Operation not supported by MAL/SPP binding layer.";
     private static final String OUT_OF_BOUNDS = "Body element index out of bounds.";
-    private List<Object> bodyElements;
+    private static final String DECODE_FAILED = "Unable to decode element with index: ";
+    private List<Object> bodyElements; // all body elements or the prefix decoded so far
     private MALEncodedBody encodedBody;
     private boolean isEncoded;
     private boolean isDecoded;
+    private final boolean isReceived;
+    private int encodedLength;
+    private int[] elementOffsets; // element i spans from elementOffsets[i] to elementOffsets[i + 1]
+    private InputStream encodedStream;
+    private MALElementInputStream elementStream;
+    private MALException decodeError; // set once decoding has failed
     protected final MALEncodingContext ctx;
     private final MALElementStreamFactory esf;
     protected Object[] shortForms;
@@ -62,17 +88,28 @@ public class SPPMessageBody implements MALMessageBody {
             .getElementShortForms();
         this.isEncoded = false;
         this.isDecoded = true;
+        this.isReceived = false;
     }
 
     public SPPMessageBody(final MALEncodedBody encodedBody, final MALElementStreamFactory esf,
         final MALEncodingContext ctx) {
+        this(encodedBody, esf, ctx, ctx.getOperation().getOperationStage(ctx.getHeader().getInteractionStage())
+            .getElementShortForms());
+    }
+
+    /**
+     * Creates the body of a received message with the given short forms of its body elements
+     * instead of those of the operation stage given by the context.
+     */
+    SPPMessageBody(final MALEncodedBody encodedBody, final MALElementStreamFactory esf,
+        final MALEncodingContext ctx, final Object[] shortForms) {
         this.encodedBody = encodedBody;
         this.ctx = ctx;
         this.esf = esf;
-        this.shortForms = ctx.getOperation().getOperationStage(ctx.getHeader().getInteractionStage())
-            .getElementShortForms();
+        this.shortForms = shortForms;
         this.isEncoded = true;
         this.isDecoded = false;
+        this.isReceived = true;
     }
 
     @Override
@@ -82,42 +119,138 @@ public class SPPMessageBody implements MALMessageBody {
 
     @Override
     public Object getBodyElement(final int index, final Object element) throws MALException {
-        if (!isDecoded) {
-            // Decode all body elements, though only one body element is requested here. But there
-            // is no way of decoding a body element with an arbitrary index without decoding all
-            // previous ones. Ignore the prototype element given as parameter here and use the
-            // service provided list of short forms instead.
-            if (getElementCount() != 0) {
-                bodyElements = new ArrayList<>(getElementCount());
-                final MALElementFactoryRegistry elementFactoryRegistry = MALContextFactory.getElementFactoryRegistry();
-                final MALElementInputStream is = esf.createInputStream(encodedBody.getEncodedBody().getValue(),
-                    encodedBody.getEncodedBody().getOffset());
-                for (int i = 0; i < shortForms.length; i++) {
-                    final Object shortForm = shortForms[i];
-                    Object e = null;
-                    if (shortForm != null) {
-                        e = elementFactoryRegistry.lookupElementFactory(shortForm).createElement();
-                    }
-                    ctx.setBodyElementIndex(i);
-                    try {
-                        bodyElements.add(is.readElement(e, ctx));
-                    } catch (final org.ccsds.moims.mo.mal.MALException ex) {
-                        //                                                Logger.getLogger(SPPMessageBody.class.getName()).log(Level.INFO, "Unable to decode element with index: " + i, ex);
-                        throw new MALException("Unable to decode element with index: " + i, ex);
-                    }
-                }
-            }
-            isDecoded = true;
-        }
-        if (getElementCount() == 0) {
+        if (index < 0 || index >= getElementCount()) {
             throw new MALException(OUT_OF_BOUNDS);
         }
+        if (!isDecoded) {
+            // There is no way of decoding a body element with an arbitrary index without decoding
+            // all previous ones, but the following ones are left alone. Ignore the prototype
+            // element given as parameter here and use the service provided list of short forms
+            // instead.
+            decode(index + 1);
+        }
         return bodyElements.get(index);
     }
 
     @Override
     public MALEncodedElement getEncodedBodyElement(final int index) throws MALException {
-        throw new MALException(NOT_SUPPORTED);
+        if (index < 0 || index >= getElementCount()) {
+            throw new MALException(OUT_OF_BOUNDS);
+        }
+        if (!isReceived) {
+            final ByteArrayOutputStream os = new ByteArrayOutputStream();
+            final MALElementOutputStream eos = esf.createOutputStream(os);
+            ctx.setBodyElementIndex(index);
+            eos.writeElement(bodyElements.get(index), ctx);
+            eos.flush();
+            return new MALEncodedElement(new Blob(os.toByteArray()));
+        }
+        // The end of the last body element is the end of the encoded body, so it need not be
+        // decoded to find it.
+        final boolean isLast = index == getElementCount() - 1;
+        if (!isDecoded) {
+            decode(isLast ? index : index + 1);
+        }
+        final int start = elementOffsets[index];
+        final int length = (isLast ? encodedLength : elementOffsets[index + 1]) - start;
+        final byte[] encodedElement = new byte[length];
+        if (encodedBody instanceof SPPSegmentedEncodedBody) {
+            final DataInputStream is = new DataInputStream(((SPPSegmentedEncodedBody) encodedBody)
+                .createInputStream());
+            try {
+                if (is.skipBytes(start) != start) {
+                    throw new EOFException();
+                }
+                is.readFully(encodedElement);
+            } catch (final IOException ex) {
+                throw new MALException("Unable to read encoded element with index: " + index, ex);
+            }
+        } else {
+            final Blob blob = encodedBody.getEncodedBody();
+            System.arraycopy(blob.getValue(), blob.getOffset() + start, encodedElement, 0, length);
+        }
+        return new MALEncodedElement(new Blob(encodedElement));
+    }
+
+    /**
+     * Decodes the received body elements up to the given count, continuing where the previous
+     * call stopped, and records their offsets in the encoded body. The offsets are taken from
+     * the number of octets the element stream has consumed, which is exact for the MAL/SPP
+     * encoding as it does not read ahead.
+     *
+     * @param count Number of body elements that have to be decoded after this call.
+     * @throws MALException
+     */
+    private void decode(final int count) throws MALException {
+        if (null != bodyElements && bodyElements.size() >= count) {
+            return;
+        }
+        if (null != decodeError) {
+            throw new MALException(decodeError.getMessage(), decodeError.getCause());
+        }
+        if (null == elementStream) {
+            bodyElements = new ArrayList<>(getElementCount());
+            elementOffsets = new int[getElementCount() + 1];
+            if (encodedBody instanceof SPPSegmentedEncodedBody) {
+                // read across the received Space Packets without combining them first
+                encodedStream = ((SPPSegmentedEncodedBody) encodedBody).createInputStream();
+                encodedLength = ((SPPSegmentedEncodedBody) encodedBody).getLength();
+            } else {
+                final Blob blob = encodedBody.getEncodedBody();
+                encodedLength = blob.getLength();
+                encodedStream = new ByteArrayInputStream(blob.getValue(), blob.getOffset(), encodedLength);
+            }
+            elementStream = esf.createInputStream(encodedStream);
+        }
+        final MALElementFactoryRegistry elementFactoryRegistry = MALContextFactory.getElementFactoryRegistry();
+        for (int i = bodyElements.size(); i < count; i++) {
+            final Object shortForm = shortForms[i];
+            Object e = null;
+            if (shortForm != null) {
+                e = elementFactoryRegistry.lookupElementFactory(shortForm).createElement();
+            }
+            ctx.setBodyElementIndex(i);
+            try {
+                bodyElements.add(elementStream.readElement(e, ctx));
+                elementOffsets[i + 1] = encodedLength - encodedStream.available();
+            } catch (final MALException | IOException | RuntimeException ex) {
+                // the element stream stopped somewhere inside the element, so it cannot go on
+                decodeError = new MALException(DECODE_FAILED + i, ex);
+                encodedStream = null;
+                elementStream = null;
+                throw decodeError;
+            }
+        }
+        if (bodyElements.size() == getElementCount()) {
+            isDecoded = true;
+            encodedStream = null;
+            elementStream = null;
+        }
+    }
+
+    /**
+     * Copies an encoded body that references received Space Packets into an array of its own (see
+     * SPPSegmentedEncodedBody.detach()). If it is decoded only partly, decoding continues from a
+     * new stream at the recorded offset of the next element, as the current stream still
+     * references the Space Packets.
+     */
+    void detach() {
+        if (!(encodedBody instanceof SPPSegmentedEncodedBody)) {
+            return;
+        }
+        ((SPPSegmentedEncodedBody) encodedBody).detach();
+        if (null != elementStream) {
+            final SPPSegmentedInputStream is = ((SPPSegmentedEncodedBody) encodedBody).createInputStream();
+            is.skip(elementOffsets[bodyElements.size()]);
+            encodedStream = is;
+            try {
+                elementStream = esf.createInputStream(is);
+            } catch (final MALException ex) {
+                decodeError = new MALException(DECODE_FAILED + bodyElements.size(), ex);
+                encodedStream = null;
+                elementStream = null;
+            }
+        }
     }
 
     @Override
@@ -135,15 +268,16 @@ public class SPPMessageBody implements MALMessageBody {
     }
 
     /**
-     * Prepares the message body to be used for sending the message in-process.
-     *
-     * @throws MALException
+     * Prepares the message body to be handed to a receiver in the same process.
+     * Already decoded body elements are handed over as they are, without encoding
+     * and decoding them again. Only the list holding them is copied and made
+     * unmodifiable, so that the receiver does not see changes the sender makes to
+     * the array of body elements after sending. The body elements themselves must
+     * not be modified by the sender after sending.
      */
-    protected void prepareInProcessBody() throws MALException {
-        // TODO: This is inefficient, because although the message is already (partly) decoded, we
-        // discard the decoded message, trigger the encoding mechanism and then have to decode the
-        // message again when it is received in the same process.
-        getEncodedBody();
-        isDecoded = false;
+    protected void prepareInProcessBody() {
+        if (isDecoded && null != bodyElements) {
+            bodyElements = Collections.unmodifiableList(new ArrayList<>(bodyElements));
+        }
     }
 }
@@ -20,7 +20,6 @@
 package de.dlr.gsoc.mo.malspp.transport;
 
 import java.io.ByteArrayInputStream;
-import java.util.BitSet;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInvokeOperation;
@@ -125,98 +124,84 @@ public class SPPMessageHeader implements MALMessageHeader {
         if (sppHeader.getPacketVersionNumber() != SPPTransport.SPP_VERSION || sppHeader.getSecondaryHeaderFlag() != 1) {
             throw new MALException(MALFORMED_SPACE_PACKET);
         }
-        final short primaryApid = (short) sppHeader.getApid();
-        final int primaryApidQualifier = spacePacket.getApidQualifier();
-        final boolean isTCpacket = sppHeader.getPacketType() == 1;
-
-        final ByteArrayInputStream is = new ByteArrayInputStream(spacePacket.getBody());
-        offset = initMessageHeader(is, isTCpacket, sppHeader.getSequenceFlags(), primaryApid, primaryApidQualifier, esf,
-            msgQosProperties);
+        final SPPHeaderView view = new SPPHeaderView();
+        if (!view.wrap(spacePacket)) {
+            throw new MALException(MALFORMED_SPACE_PACKET);
+        }
+        final int optionalFieldsOffset = view.getOptionalFieldsOffset();
+        final ByteArrayInputStream is = new ByteArrayInputStream(spacePacket.getBody(), spacePacket.getOffset()
+            + optionalFieldsOffset, spacePacket.getLength() - optionalFieldsOffset);
+        offset = optionalFieldsOffset + initMessageHeader(view, is, esf, msgQosProperties);
     }
 
-    private int initMessageHeader(final ByteArrayInputStream is, final boolean isTCpacket, final int sequenceFlag,
-        final short primaryApid, final int primaryApidQualifier, final MALElementStreamFactory esf,
-        final Map msgQosProperties) throws MALException {
+    /**
+     * Initializes the header fields from the fixed-position fields given by the view and decodes
+     * the optional fields from the stream.
+     *
+     * @param view             View of the received Space Packet.
+     * @param is               Stream positioned at the first optional field.
+     * @param esf              Stream factory for decoding the optional fields.
+     * @param msgQosProperties QoS properties providing defaults for absent optional fields.
+     * @return The number of bytes read from the stream.
+     * @throws MALException
+     */
+    private int initMessageHeader(final SPPHeaderView view, final ByteArrayInputStream is,
+        final MALElementStreamFactory esf, final Map msgQosProperties) throws MALException {
         final int size = is.available();
-        final MALElementInputStream eis = esf.createInputStream(is);
 
-        final short version_sdu = ((UOctet) eis.readElement(new UOctet(), null)).getValue();
-        final int version = version_sdu >>> 5;
-        final byte sdu = (byte) (version_sdu & 0x1F);
-        if (version != SPPTransport.MALSPP_VERSION) {
+        if (view.getVersion() != SPPTransport.MALSPP_VERSION) {
             throw new MALException(VERSION_NOT_SUPPORTED);
         }
-        setInteraction(sdu);
-        setServiceArea(readUShort(eis));
-        setService(readUShort(eis));
-        setOperation(readUShort(eis));
-        setAreaVersion((UOctet) eis.readElement(new UOctet(), null));
-
-        final int error_qos_session_scndapid = readUShort(eis).getValue();
-        final int isErrorMessage = error_qos_session_scndapid >>> 15;
-        final int qosLevel = (error_qos_session_scndapid >>> 13) & 0b11;
-        final int session = (error_qos_session_scndapid >>> 11) & 0b11;
-        final short secondaryApid = (short) (error_qos_session_scndapid & 0b0000011111111111);
-        setIsErrorMessage(isErrorMessage == 1);
-        setQoSlevel(QoSLevel.fromOrdinal(qosLevel));
-        setSession(SessionType.fromOrdinal(session));
-        final int secondaryApidQualifier = readUShort(eis).getValue();
+        setInteraction((byte) view.getSDU());
+        setServiceArea(new UShort(view.getServiceArea()));
+        setService(new UShort(view.getService()));
+        setOperation(new UShort(view.getOperation()));
+        setAreaVersion(new UOctet((short) view.getAreaVersion()));
+        setIsErrorMessage(view.isErrorMessage());
+        setQoSlevel(QoSLevel.fromOrdinal(view.getQoSLevel()));
+        setSession(SessionType.fromOrdinal(view.getSession()));
         // MAL/SPP always specifies a transaction id, also for SEND interactions.
-        setTransactionId(readLong(eis));
-
-        final byte flags = (byte) ((UOctet) eis.readElement(new UOctet(), null)).getValue();
-        final BitSet bs = BitSet.valueOf(new byte[]{flags});
-
-        // Bits in BitSet are numbered right to left.
-        final Short sourceIdentifier = bs.get(7) ? ((UOctet) eis.readElement(new UOctet(), null)).getValue() : null;
-
-        final Short destinationIdentifier = bs.get(6) ? ((UOctet) eis.readElement(new UOctet(), null)).getValue() :
-            null;
-
-        if (isTCpacket) {
-            sppURIFrom = new SPPURI(secondaryApidQualifier, secondaryApid, sourceIdentifier);
-            sppURITo = new SPPURI(primaryApidQualifier, primaryApid, destinationIdentifier);
-        } else {
-            sppURIFrom = new SPPURI(primaryApidQualifier, primaryApid, sourceIdentifier);
-            sppURITo = new SPPURI(secondaryApidQualifier, secondaryApid, destinationIdentifier);
-        }
+        setTransactionId(view.getTransactionId());
+
+        final int sourceIdentifier = view.getSourceIdentifier();
+        final int destinationIdentifier = view.getDestinationIdentifier();
+        sppURIFrom = SPPURI.valueOf(view.getFromApidQualifier(), (short) view.getFromApid(), sourceIdentifier < 0
+            ? null : (short) sourceIdentifier);
+        sppURITo = SPPURI.valueOf(view.getToApidQualifier(), (short) view.getToApid(), destinationIdentifier < 0
+            ? null : (short) destinationIdentifier);
         setURIFrom(sppURIFrom.getURI());
         setURITo(sppURITo.getURI());
 
-        // Read segment counter only if it was encoded, but ignore its value.
-        // SPPSegmenter will
-        // read this field again and uses it for packet ordering. This could be solved
-        // in a more
-        // elegant way without reading the same field twice, but it's ok fo a prototype.
-        if (sequenceFlag != 0b11) { // packet is segmented and has segment counter (length: 4 bytes)
-            for (int i = 0; i < 4; i++) {
-                eis.readElement(new UOctet(), null); // ignore return value
-            }
-        }
-
+        // The segment counter has been skipped by the view. SPPSegmenter uses it for packet
+        // ordering.
+        final int flags = view.getFlags();
+        final MALElementInputStream eis = esf.createInputStream(is);
         final Configuration config = new Configuration(msgQosProperties);
-        final UInteger priority = bs.get(5) ? (UInteger) eis.readElement(new UInteger(), null) : config.priority();
+        final UInteger priority = (flags & SPPMessage.PRIORITY_FLAG) != 0 ? (UInteger) eis.readElement(
+            new UInteger(), null) : config.priority();
         setPriority(priority);
 
-        final Time timestamp = bs.get(4) ? (Time) eis.readElement(new Time(), null) : Configuration.DEFAULT_TIMESTAMP;
+        final Time timestamp = (flags & SPPMessage.TIMESTAMP_FLAG) != 0 ? (Time) eis.readElement(new Time(), null)
+            : Configuration.DEFAULT_TIMESTAMP;
         setTimestamp(timestamp);
 
-        final Identifier networkZone = bs.get(3) ? (Identifier) eis.readElement(new Identifier(), null) : config
-            .networkZone();
+        final Identifier networkZone = (flags & SPPMessage.NETWORK_ZONE_FLAG) != 0 ? (Identifier) eis.readElement(
+            new Identifier(), null) : config.networkZone();
         setNetworkZone(networkZone);
 
-        final Identifier sessionName = bs.get(2) ? (Identifier) eis.readElement(new Identifier(), null) : config
-            .sessionName();
+        final Identifier sessionName = (flags & SPPMessage.SESSION_NAME_FLAG) != 0 ? (Identifier) eis.readElement(
+            new Identifier(), null) : config.sessionName();
         setSessionName(sessionName);
 
-        final IdentifierList domain = bs.get(1) ? (IdentifierList) eis.readElement(new IdentifierList(), null) : config
-            .domain();
+        final IdentifierList domain = (flags & SPPMessage.DOMAIN_FLAG) != 0 ? (IdentifierList) eis.readElement(
+            new IdentifierList(), null) : config.domain();
         setDomain(domain);
 
-        final Blob authenticationId = bs.get(0) ? (Blob) eis.readElement(new Blob(), null) : config.authenticationId();
+        final Blob authenticationId = (flags & SPPMessage.AUTHENTICATION_ID_FLAG) != 0 ? (Blob) eis.readElement(
+            new Blob(), null) : config.authenticationId();
         setAuthenticationId(authenticationId);
 
-        // return offset
+        // return number of bytes read
         return size - is.available();
     }
 
@@ -302,42 +287,6 @@ public class SPPMessageHeader implements MALMessageHeader {
         interactionStage = SDU_STAGES[sdu];
     }
 
-    /**
-     * Helper method for reading an unsigned short value from a
-     * MALElementInputStream using a fixed encoding length of two bytes.
-     *
-     * @param is Stream to read value from.
-     * @return Unsigned short value read from stream.
-     * @throws MALException
-     */
-    private static UShort readUShort(final MALElementInputStream is) throws MALException {
-        int v = 0;
-        for (int i = 0; i < 2; i++) {
-            final short b = ((UOctet) is.readElement(new UOctet(), null)).getValue();
-            v <<= 8;
-            v |= b;
-        }
-        return new UShort(v);
-    }
-
-    /**
-     * Helper method for reading a signed long value from a MALElementInputStream
-     * using a fixed encoding length of eight bytes.
-     *
-     * @param is Stream to read value from.
-     * @return Signed long value read from stream.
-     * @throws MALException
-     */
-    private static Long readLong(final MALElementInputStream is) throws MALException {
-        long v = 0;
-        for (int i = 0; i < 8; i++) {
-            final short b = ((UOctet) is.readElement(new UOctet(), null)).getValue();
-            v <<= 8;
-            v |= b;
-        }
-        return v;
-    }
-
     protected Integer getOffset() {
         return offset;
     }
@@ -0,0 +1,244 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Counters of a transport that are updated on the receive and send paths: Space Packets and
+ * octets per APID qualifier and APID in both directions, discarded Space Packets by reason and
+ * the time spent holding the socket lock for sending.
+ *
+ * Recording does not lock: all counters are LongAdders, and the counters of an APID are looked up
+ * in an immutable snapshot of per-qualifier tables. Only the first Space Packet of a new APID
+ * qualifier publishes a new snapshot while holding a lock. Totals over all APIDs are kept in
+ * counters of their own, so reading them does not iterate the tables.
+ */
+public class SPPMetrics {
+
+    /**
+     * Reasons for discarding a received Space Packet.
+     */
+    public enum Discard {
+        /** The SPP implementation did not hand out the Space Packet, e.g. not in its whitelist. */
+        WHITELIST,
+        /** The Space Packet has no secondary header. */
+        NO_SECONDARY_HEADER,
+        /** The Space Packet is neither from nor to an APID of one of the endpoints. */
+        UNKNOWN_APID,
+        /** The Space Packet is too short for a MAL/SPP secondary header. */
+        MALFORMED
+    }
+
+    private static final int APIDS = 2048;
+    private final LongAdder[] discarded;
+    private final LongAdder sendLockNanos = new LongAdder();
+    private final LongAdder sendLockCount = new LongAdder();
+    private final ApidCounters totals = new ApidCounters();
+    private volatile Snapshot snapshot = new Snapshot(new int[0], new AtomicReferenceArray[0]);
+
+    public SPPMetrics() {
+        this.discarded = new LongAdder[Discard.values().length];
+        for (int i = 0; i < discarded.length; i++) {
+            discarded[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Counts a Space Packet that has been received.
+     *
+     * @param qualifier APID qualifier of the Space Packet.
+     * @param apid      APID of the Space Packet.
+     * @param length    Length of the packet data field.
+     */
+    public void recordReceived(final int qualifier, final int apid, final int length) {
+        final ApidCounters counters = counters(qualifier, apid);
+        counters.packetsIn.increment();
+        counters.bytesIn.add(length);
+        totals.packetsIn.increment();
+        totals.bytesIn.add(length);
+    }
+
+    /**
+     * Counts the Space Packets of a message that have been sent or handed to the packet writer.
+     *
+     * @param qualifier    APID qualifier of the Space Packets.
+     * @param apid         APID of the Space Packets.
+     * @param spacePackets The Space Packets.
+     */
+    public void recordSent(final int qualifier, final int apid, final SpacePacket[] spacePackets) {
+        long length = 0;
+        for (final SpacePacket spacePacket : spacePackets) {
+            length += spacePacket.getLength();
+        }
+        final ApidCounters counters = counters(qualifier, apid);
+        counters.packetsOut.add(spacePackets.length);
+        counters.bytesOut.add(length);
+        totals.packetsOut.add(spacePackets.length);
+        totals.bytesOut.add(length);
+    }
+
+    public void recordDiscarded(final Discard reason) {
+        discarded[reason.ordinal()].increment();
+    }
+
+    /**
+     * @param nanos Time the socket lock has been held for sending, in nanoseconds.
+     */
+    public void recordSendLock(final long nanos) {
+        sendLockNanos.add(nanos);
+        sendLockCount.increment();
+    }
+
+    public long getDiscardedCount(final Discard reason) {
+        return discarded[reason.ordinal()].sum();
+    }
+
+    /**
+     * @return Total time the socket lock has been held for sending, in nanoseconds.
+     */
+    public long getSendLockNanos() {
+        return sendLockNanos.sum();
+    }
+
+    /**
+     * @return Number of times the socket lock has been taken for sending.
+     */
+    public long getSendLockCount() {
+        return sendLockCount.sum();
+    }
+
+    /**
+     * @return For each APID qualifier and APID Space Packets have been received from or sent to,
+     *         keyed by "qualifier/APID": Space Packets received, octets received, Space Packets
+     *         sent, octets sent.
+     */
+    public Map<String, long[]> getApidCounters() {
+        final Snapshot s = snapshot;
+        final Map<String, long[]> result = new TreeMap<>();
+        for (int i = 0; i < s.qualifiers.length; i++) {
+            for (int apid = 0; apid < APIDS; apid++) {
+                final ApidCounters counters = s.tables[i].get(apid);
+                if (null != counters) {
+                    result.put(s.qualifiers[i] + "/" + apid, new long[]{counters.packetsIn.sum(), counters.bytesIn
+                        .sum(), counters.packetsOut.sum(), counters.bytesOut.sum()});
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Totals over all APIDs: Space Packets received, octets received, Space Packets sent,
+     *         octets sent.
+     */
+    public long[] getTotals() {
+        return new long[]{getPacketsReceived(), getBytesReceived(), getPacketsSent(), getBytesSent()};
+    }
+
+    /**
+     * @return Space Packets received over all APIDs.
+     */
+    public long getPacketsReceived() {
+        return totals.packetsIn.sum();
+    }
+
+    /**
+     * @return Octets received over all APIDs.
+     */
+    public long getBytesReceived() {
+        return totals.bytesIn.sum();
+    }
+
+    /**
+     * @return Space Packets sent over all APIDs.
+     */
+    public long getPacketsSent() {
+        return totals.packetsOut.sum();
+    }
+
+    /**
+     * @return Octets sent over all APIDs.
+     */
+    public long getBytesSent() {
+        return totals.bytesOut.sum();
+    }
+
+    private ApidCounters counters(final int qualifier, final int apid) {
+        AtomicReferenceArray<ApidCounters> table = null;
+        final Snapshot s = snapshot;
+        for (int i = 0; i < s.qualifiers.length; i++) {
+            if (s.qualifiers[i] == qualifier) {
+                table = s.tables[i];
+                break;
+            }
+        }
+        if (null == table) {
+            table = addQualifier(qualifier);
+        }
+        final int idx = apid & (APIDS - 1);
+        ApidCounters counters = table.get(idx);
+        if (null == counters) {
+            table.compareAndSet(idx, null, new ApidCounters());
+            counters = table.get(idx);
+        }
+        return counters;
+    }
+
+    private synchronized AtomicReferenceArray<ApidCounters> addQualifier(final int qualifier) {
+        final Snapshot s = snapshot;
+        for (int i = 0; i < s.qualifiers.length; i++) {
+            if (s.qualifiers[i] == qualifier) {
+                return s.tables[i];
+            }
+        }
+        final int n = s.qualifiers.length;
+        final int[] qualifiers = Arrays.copyOf(s.qualifiers, n + 1);
+        final AtomicReferenceArray<ApidCounters>[] tables = Arrays.copyOf(s.tables, n + 1);
+        qualifiers[n] = qualifier;
+        tables[n] = new AtomicReferenceArray<>(APIDS);
+        snapshot = new Snapshot(qualifiers, tables);
+        return tables[n];
+    }
+
+    private static class ApidCounters {
+
+        private final LongAdder packetsIn = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder packetsOut = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+    }
+
+    private static class Snapshot {
+
+        private final int[] qualifiers;
+        private final AtomicReferenceArray<ApidCounters>[] tables;
+
+        private Snapshot(final int[] qualifiers, final AtomicReferenceArray<ApidCounters>[] tables) {
+            this.qualifiers = qualifiers;
+            this.tables = tables;
+        }
+    }
+}
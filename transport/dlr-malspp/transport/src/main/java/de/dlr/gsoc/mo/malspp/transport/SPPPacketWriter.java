@@ -0,0 +1,243 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.testbed.util.spp.SPPBatchSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Writes Space Packets to an SPPSocket from a dedicated thread.
+ *
+ * Senders reserve room in the queue first, which is where they wait while it is full, and then
+ * enqueue the Space Packets of their messages in the order the packet sequence counts have been
+ * assigned, which never blocks. The writer thread drains the queue in batches, so senders neither
+ * wait for the socket nor for each other while writing. If the socket is an SPPBatchSocket, the
+ * Space Packets of a message are handed to it at once.
+ *
+ * As the sender has already returned, errors writing to the socket cannot be reported to it. They
+ * are logged and counted by getFailedCount(), and the segment counters of the interaction are only
+ * released once its final message has been written.
+ */
+public class SPPPacketWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(SPPPacketWriter.class.getName());
+    private static final String SEND_ERROR = "Error sending Space Packet.";
+    private static final String THREAD_INTERRUPTED = "Thread interrupted.";
+    private final SPPSocket socket;
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Semaphore room;
+    private final int capacity;
+    private final int batchSize;
+    private final SPPBufferPool pool;
+    private final SPPSegmentCounterStore segmentCounters;
+    private Thread writerThread;
+    private volatile long sentCount;
+    private volatile long failedCount;
+    private volatile long batchCount;
+
+    /**
+     * @param socket    The socket to write to.
+     * @param capacity  Maximum number of messages waiting to be written.
+     * @param batchSize Maximum number of messages written per batch.
+     * @param pool      Pool the array backing the Space Packets of a message is released to after
+     *                  they have been written. May be null.
+     * @param segmentCounters Store whose counters of an interaction are released after its final
+     *                  message has been written. May be null.
+     */
+    public SPPPacketWriter(final SPPSocket socket, final int capacity, final int batchSize,
+        final SPPBufferPool pool, final SPPSegmentCounterStore segmentCounters) {
+        if (capacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.socket = socket;
+        this.room = new Semaphore(capacity);
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.pool = pool;
+        this.segmentCounters = segmentCounters;
+    }
+
+    /**
+     * @return Maximum number of messages waiting to be written.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Reserves room for messages in the queue, waiting while it is full. Must not be called while
+     * holding a lock other senders need, and each reservation must be used by enqueue() or returned
+     * by cancel().
+     *
+     * @param messages Number of messages, at most getCapacity().
+     * @throws InterruptedException
+     */
+    public void reserve(final int messages) throws InterruptedException {
+        room.acquire(messages);
+    }
+
+    /**
+     * Returns reserved room that has not been used.
+     *
+     * @param messages Number of messages.
+     */
+    public void cancel(final int messages) {
+        room.release(messages);
+    }
+
+    /**
+     * Enqueues the Space Packets of a message into room reserved before. Does not block.
+     *
+     * @param spacePackets Space Packets of a single message.
+     * @param header       Header of the message, used to release the segment counters of its
+     *                     interaction once it has been written. May be null.
+     */
+    public void enqueue(final SpacePacket[] spacePackets, final MALMessageHeader header) {
+        queue.add(new Entry(spacePackets, header));
+    }
+
+    /**
+     * Starts the writer thread if it is not running yet.
+     */
+    public synchronized void start() {
+        if (null == writerThread) {
+            writerThread = constructWriterThread();
+            writerThread.start();
+        }
+    }
+
+    /**
+     * Stops the writer thread. Space Packets still waiting are discarded.
+     */
+    public synchronized void stop() {
+        if (null != writerThread) {
+            writerThread.interrupt();
+            writerThread = null;
+        }
+    }
+
+    /**
+     * @return The number of messages waiting to be written.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return The number of Space Packets written.
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return The number of Space Packets that could not be written.
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return The number of batches written.
+     */
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+    private Thread constructWriterThread() {
+        return new Thread() {
+            @Override
+            public void run() {
+                this.setName("WriterThread_malspp");
+                final List<Entry> batch = new ArrayList<>(batchSize);
+                while (!isInterrupted()) {
+                    try {
+                        batch.add(queue.take());
+                    } catch (final InterruptedException ex) {
+                        LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
+                        break;
+                    }
+                    queue.drainTo(batch, batchSize - 1);
+                    room.release(batch.size());
+                    for (final Entry entry : batch) {
+                        if (write(entry.spacePackets) && null != segmentCounters && null != entry.header) {
+                            segmentCounters.complete(entry.header);
+                        }
+                        if (null != pool && entry.spacePackets.length > 0) {
+                            pool.release(entry.spacePackets[0].getBody());
+                        }
+                    }
+                    batchCount++;
+                    batch.clear();
+                }
+            }
+        };
+    }
+
+    /**
+     * @return True if all Space Packets have been written.
+     */
+    private boolean write(final SpacePacket[] spacePackets) {
+        if (socket instanceof SPPBatchSocket) {
+            try {
+                ((SPPBatchSocket) socket).send(spacePackets);
+                sentCount += spacePackets.length;
+                return true;
+            } catch (final Exception ex) {
+                // it is unknown how many of them made it, so count them all as failed
+                LOGGER.log(Level.SEVERE, SEND_ERROR, ex);
+                failedCount += spacePackets.length;
+                return false;
+            }
+        }
+        for (int i = 0; i < spacePackets.length; i++) {
+            try {
+                socket.send(spacePackets[i]);
+                sentCount++;
+            } catch (final Exception ex) {
+                // The sender has already returned, so the error can only be logged. The
+                // remaining segments are useless to the receiver.
+                LOGGER.log(Level.SEVERE, SEND_ERROR, ex);
+                failedCount += spacePackets.length - i;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Entry {
+
+        private final SpacePacket[] spacePackets;
+        private final MALMessageHeader header;
+
+        private Entry(final SpacePacket[] spacePackets, final MALMessageHeader header) {
+            this.spacePackets = spacePackets;
+            this.header = header;
+        }
+    }
+}
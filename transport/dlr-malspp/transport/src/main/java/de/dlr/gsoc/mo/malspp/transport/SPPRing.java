@@ -0,0 +1,156 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer connecting two stages of the receive pipeline. Exactly one thread may put
+ * elements and exactly one thread may take them.
+ *
+ * @param <E> Type of the elements.
+ */
+public class SPPRing<E> {
+
+    private static final long PRODUCER_BACKOFF = 100000; // nanoseconds to wait while the ring is full
+    private final Object[] buffer;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); // index of the next element to take
+    private final AtomicLong tail = new AtomicLong(); // index of the next element to put
+    private volatile Thread waitingConsumer;
+    private volatile int maxSize;
+
+    /**
+     * @param capacity Minimum number of elements the ring can hold. Rounded up to the next power
+     *                 of two.
+     */
+    public SPPRing(final int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException();
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        this.buffer = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Puts an element into the ring if there is room. Must only be called by the producer.
+     *
+     * @param e The element, not null.
+     * @return False if the ring is full.
+     */
+    public boolean offer(final E e) {
+        final long t = tail.get();
+        final int size = (int) (t - head.get());
+        if (size == buffer.length) {
+            return false;
+        }
+        buffer[(int) t & mask] = e;
+        tail.set(t + 1); // volatile write, so that a waiting consumer is seen afterwards
+        if (size + 1 > maxSize) {
+            maxSize = size + 1;
+        }
+        final Thread consumer = waitingConsumer;
+        if (null != consumer) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Puts an element into the ring, waiting while it is full. Must only be called by the producer.
+     *
+     * @param e The element, not null.
+     * @throws InterruptedException If the producer is interrupted while waiting.
+     */
+    public void put(final E e) throws InterruptedException {
+        while (!offer(e)) {
+            LockSupport.parkNanos(this, PRODUCER_BACKOFF);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Takes an element from the ring. Must only be called by the consumer.
+     *
+     * @return The eldest element or null if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long h = head.get();
+        if (h == tail.get()) {
+            return null;
+        }
+        final int idx = (int) h & mask;
+        final E e = (E) buffer[idx];
+        buffer[idx] = null;
+        head.lazySet(h + 1);
+        return e;
+    }
+
+    /**
+     * Takes an element from the ring, waiting while it is empty. Must only be called by the
+     * consumer.
+     *
+     * @return The eldest element.
+     * @throws InterruptedException If the consumer is interrupted while waiting.
+     */
+    public E take() throws InterruptedException {
+        E e = poll();
+        while (null == e) {
+            waitingConsumer = Thread.currentThread();
+            e = poll(); // check again, the producer may have missed waitingConsumer
+            if (null == e) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    waitingConsumer = null;
+                    throw new InterruptedException();
+                }
+                e = poll();
+            }
+            waitingConsumer = null;
+        }
+        return e;
+    }
+
+    /**
+     * @return The current number of elements in the ring.
+     */
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+
+    /**
+     * @return The largest number of elements that have been in the ring at the same time.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of elements the ring can hold.
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+}
@@ -0,0 +1,203 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Bounded store of segment counters.
+ *
+ * A segment counter is identified by the 'Transaction Id', 'URI From' and 'URI To' of a MAL
+ * message. It is released as soon as a message with the final interaction stage or an error
+ * message of that interaction has been sent or received, in either direction. Counters of
+ * interactions that never complete are removed after they have not been used for a configurable
+ * time to live, or when the store exceeds its size limit, least recently used first.
+ */
+public class SPPSegmentCounterStore {
+
+    private final long wrap;
+    private final int limit;
+    private final long ttl;
+    private final LinkedHashMap<SPPSegmentKey, TimedCounter> counters;
+    private long releasedCount;
+    private long evictedCount;
+
+    /**
+     * Creates a new segment counter store.
+     *
+     * @param wrap  The value where the created counters wrap around to start at 0 again.
+     * @param limit The maximum number of counters held at the same time. 0 for no limit.
+     * @param ttl   Number of milliseconds after which an unused counter is removed. 0 for no time
+     *              to live.
+     */
+    public SPPSegmentCounterStore(final long wrap, final int limit, final long ttl) {
+        if (limit < 0 || ttl < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.wrap = wrap;
+        this.limit = limit;
+        this.ttl = ttl;
+        // access order makes the least recently used counter the eldest entry
+        this.counters = new LinkedHashMap<SPPSegmentKey, TimedCounter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<SPPSegmentKey, TimedCounter> eldest) {
+                if (SPPSegmentCounterStore.this.limit != 0 && size() > SPPSegmentCounterStore.this.limit) {
+                    evictedCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Finds the segment counter belonging to the interaction of a MAL message header. If the
+     * counter does not exist, it will be created, starting from 0.
+     *
+     * @param header The MAL message header.
+     * @return The segment counter associated with the header.
+     */
+    public SPPCounter get(final MALMessageHeader header) {
+        return get(header.getTransactionId(), header.getURIFrom(), header.getURITo());
+    }
+
+    protected synchronized SPPCounter get(final Long transactionId, final URI uriFrom, final URI uriTo) {
+        final long now = System.currentTimeMillis();
+        expire(now);
+        final SPPSegmentKey key = new SPPSegmentKey(transactionId, uriFrom, uriTo);
+        TimedCounter timedCounter = counters.get(key);
+        if (null == timedCounter) {
+            timedCounter = new TimedCounter(new SPPCounter(wrap));
+            counters.put(key, timedCounter);
+        }
+        timedCounter.lastUsed = now;
+        return timedCounter.counter;
+    }
+
+    /**
+     * Releases the segment counters of an interaction if the MAL message header denotes its final
+     * stage or an error. Both directions of the interaction are released.
+     *
+     * @param header The header of a sent or received MAL message.
+     */
+    public void complete(final MALMessageHeader header) {
+        if (isFinalStage(header)) {
+            release(header.getTransactionId(), header.getURIFrom(), header.getURITo());
+        }
+    }
+
+    protected synchronized void release(final Long transactionId, final URI uriFrom, final URI uriTo) {
+        if (null != counters.remove(new SPPSegmentKey(transactionId, uriFrom, uriTo))) {
+            releasedCount++;
+        }
+        if (null != counters.remove(new SPPSegmentKey(transactionId, uriTo, uriFrom))) {
+            releasedCount++;
+        }
+    }
+
+    /**
+     * Removes all counters that have not been used for longer than the time to live. As the map
+     * is kept in access order, iteration stops at the first counter that is still alive.
+     */
+    private void expire(final long now) {
+        if (ttl == 0) {
+            return;
+        }
+        final Iterator<TimedCounter> it = counters.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().lastUsed <= ttl) {
+                return;
+            }
+            it.remove();
+            evictedCount++;
+        }
+    }
+
+    /**
+     * @return The number of counters currently held.
+     */
+    public synchronized int size() {
+        return counters.size();
+    }
+
+    /**
+     * @return The number of counters released because their interaction completed.
+     */
+    public synchronized long getReleasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     * @return The number of counters removed because of the time to live or size limit.
+     */
+    public synchronized long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /**
+     * Checks if a MAL message header is the last one of its interaction, i.e. it is an error
+     * message or it carries the final stage of the interaction pattern.
+     *
+     * @param header The MAL message header.
+     * @return True, if no further message is expected for this interaction.
+     */
+    protected static boolean isFinalStage(final MALMessageHeader header) {
+        if (Boolean.TRUE.equals(header.getIsErrorMessage())) {
+            return true;
+        }
+        final short stage = header.getInteractionStage() == null ? 0 : header.getInteractionStage().getValue();
+        switch (header.getInteractionType().getOrdinal()) {
+            case InteractionType._SEND_INDEX:
+                return true;
+            case InteractionType._SUBMIT_INDEX:
+                return stage == MALSubmitOperation._SUBMIT_ACK_STAGE;
+            case InteractionType._REQUEST_INDEX:
+                return stage == MALRequestOperation._REQUEST_RESPONSE_STAGE;
+            case InteractionType._INVOKE_INDEX:
+                return stage == MALInvokeOperation._INVOKE_RESPONSE_STAGE;
+            case InteractionType._PROGRESS_INDEX:
+                return stage == MALProgressOperation._PROGRESS_RESPONSE_STAGE;
+            case InteractionType._PUBSUB_INDEX:
+                return stage == MALPubSubOperation._DEREGISTER_ACK_STAGE ||
+                    stage == MALPubSubOperation._PUBLISH_DEREGISTER_ACK_STAGE;
+        }
+        return false;
+    }
+
+    private static class TimedCounter {
+
+        private final SPPCounter counter;
+        private long lastUsed;
+
+        TimedCounter(final SPPCounter counter) {
+            this.counter = counter;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Objects;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Compact identifier of the segments of one direction of an interaction: 'Transaction Id', 'URI
+ * From' and 'URI To'. It identifies a segment counter on the sending side and the segments to
+ * recombine on the receiving side.
+ */
+public class SPPSegmentKey {
+
+    private final long transactionId;
+    private final String uriFrom;
+    private final String uriTo;
+    private final int hash;
+
+    public SPPSegmentKey(final MALMessageHeader header) {
+        this(header.getTransactionId(), header.getURIFrom(), header.getURITo());
+    }
+
+    public SPPSegmentKey(final Long transactionId, final URI uriFrom, final URI uriTo) {
+        this.transactionId = null == transactionId ? 0 : transactionId;
+        this.uriFrom = null == uriFrom ? null : uriFrom.getValue();
+        this.uriTo = null == uriTo ? null : uriTo.getValue();
+        int h = 7;
+        h = 53 * h + (int) (this.transactionId ^ (this.transactionId >>> 32));
+        h = 53 * h + Objects.hashCode(this.uriFrom);
+        h = 53 * h + Objects.hashCode(this.uriTo);
+        this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof SPPSegmentKey)) {
+            return false;
+        }
+        final SPPSegmentKey other = (SPPSegmentKey) obj;
+        return this.transactionId == other.transactionId && Objects.equals(this.uriFrom, other.uriFrom) && Objects
+            .equals(this.uriTo, other.uriTo);
+    }
+
+    @Override
+    public String toString() {
+        return "SPPSegmentKey{" + transactionId + ", " + uriFrom + " -> " + uriTo + '}';
+    }
+}
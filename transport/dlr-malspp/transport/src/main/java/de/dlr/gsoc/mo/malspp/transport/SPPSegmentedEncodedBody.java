@@ -0,0 +1,97 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+
+/**
+ * Encoded body of a received MAL message that references the bodies of its Space Packets instead
+ * of holding a copy of the combined user data fields.
+ *
+ * Decoding reads directly across the segments (see createInputStream()). A contiguous Blob is only
+ * created if getEncodedBody() is called, e.g. when the message is forwarded, or by detach().
+ */
+public class SPPSegmentedEncodedBody extends MALEncodedBody {
+
+    private SpacePacket[] spacePackets;
+    private int offset;
+    private final int length;
+    private Blob blob;
+
+    /**
+     * @param spacePackets Space Packets of a single MAL message in segment order.
+     * @param offset       Position of the user data field in each Space Packet body.
+     */
+    public SPPSegmentedEncodedBody(final SpacePacket[] spacePackets, final int offset) {
+        super(null);
+        this.spacePackets = spacePackets;
+        this.offset = offset;
+        this.length = SPPSegmentedInputStream.getLength(spacePackets, offset);
+    }
+
+    /**
+     * @return The combined length of the user data fields in octets.
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return A new stream reading the user data fields from the start.
+     */
+    public synchronized SPPSegmentedInputStream createInputStream() {
+        return new SPPSegmentedInputStream(spacePackets, offset);
+    }
+
+    @Override
+    public synchronized Blob getEncodedBody() {
+        if (null == blob) {
+            final byte[] userDataField = new byte[length];
+            createInputStream().read(userDataField, 0, length);
+            blob = new Blob(userDataField);
+        }
+        return blob;
+    }
+
+    /**
+     * Copies the user data fields into an array of their own and stops referencing the Space
+     * Packets. Their bodies may be slices of a receive buffer much larger than the message, which
+     * cannot be reused or collected as long as the body is referenced.
+     */
+    public synchronized void detach() {
+        boolean sliced = false;
+        for (final SpacePacket spacePacket : spacePackets) {
+            sliced |= spacePacket.getOffset() != 0 || spacePacket.getBody().length != spacePacket.getLength();
+        }
+        if (!sliced) {
+            return;
+        }
+        final byte[] userDataField = new byte[length];
+        createInputStream().read(userDataField, 0, length);
+        spacePackets = new SpacePacket[]{new SpacePacket(new SpacePacketHeader(), userDataField, 0, length)};
+        offset = 0;
+        if (null == blob) {
+            blob = new Blob(userDataField);
+        }
+    }
+}
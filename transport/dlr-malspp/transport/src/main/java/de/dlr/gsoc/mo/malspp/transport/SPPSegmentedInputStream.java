@@ -0,0 +1,136 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.InputStream;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Input stream reading the user data fields of several Space Packets one after another without
+ * copying them into a combined array.
+ */
+public class SPPSegmentedInputStream extends InputStream {
+
+    private final byte[][] buffers;
+    private final int[] starts; // start of the user data field in each buffer
+    private final int[] ends; // end of the packet data field in each buffer
+    private int idx; // index of the current buffer
+    private int pos; // position in the current buffer
+
+    /**
+     * @param spacePackets Space Packets of a single MAL message in segment order. Their packet
+     *                     data fields may be slices of larger arrays.
+     * @param offset       Position of the user data field in each packet data field, i.e. the
+     *                     length of the secondary header.
+     */
+    public SPPSegmentedInputStream(final SpacePacket[] spacePackets, final int offset) {
+        this.buffers = new byte[spacePackets.length][];
+        this.starts = new int[spacePackets.length];
+        this.ends = new int[spacePackets.length];
+        for (int i = 0; i < spacePackets.length; i++) {
+            buffers[i] = spacePackets[i].getBody();
+            starts[i] = spacePackets[i].getOffset() + offset;
+            ends[i] = spacePackets[i].getOffset() + spacePackets[i].getLength();
+        }
+        rewind();
+    }
+
+    private void rewind() {
+        this.idx = 0;
+        this.pos = buffers.length > 0 ? starts[0] : 0;
+        skipExhausted();
+    }
+
+    /**
+     * @param spacePackets Space Packets of a single MAL message.
+     * @param offset       Position of the user data field in each packet data field.
+     * @return The combined length of the user data fields.
+     */
+    public static int getLength(final SpacePacket[] spacePackets, final int offset) {
+        int length = 0;
+        for (final SpacePacket spacePacket : spacePackets) {
+            length += Math.max(0, spacePacket.getLength() - offset);
+        }
+        return length;
+    }
+
+    private void skipExhausted() {
+        while (idx < buffers.length && pos >= ends[idx]) {
+            idx++;
+            if (idx < buffers.length) {
+                pos = starts[idx];
+            }
+        }
+    }
+
+    @Override
+    public int read() {
+        if (idx >= buffers.length) {
+            return -1;
+        }
+        final int b = buffers[idx][pos++] & 0xFF;
+        skipExhausted();
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (idx >= buffers.length) {
+            return -1;
+        }
+        // Fill the whole requested range across buffer boundaries, as the decoder expects.
+        int n = 0;
+        while (n < len && idx < buffers.length) {
+            final int chunk = Math.min(len - n, ends[idx] - pos);
+            System.arraycopy(buffers[idx], pos, b, off + n, chunk);
+            n += chunk;
+            pos += chunk;
+            skipExhausted();
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) {
+        long skipped = 0;
+        while (skipped < n && idx < buffers.length) {
+            final int chunk = (int) Math.min(n - skipped, ends[idx] - pos);
+            pos += chunk;
+            skipped += chunk;
+            skipExhausted();
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        if (idx >= buffers.length) {
+            return 0;
+        }
+        int available = ends[idx] - pos;
+        for (int i = idx + 1; i < buffers.length; i++) {
+            available += Math.max(0, ends[i] - starts[i]);
+        }
+        return available;
+    }
+}
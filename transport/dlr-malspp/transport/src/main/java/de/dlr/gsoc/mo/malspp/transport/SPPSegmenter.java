@@ -19,37 +19,73 @@
  */
 package de.dlr.gsoc.mo.malspp.transport;
 
-import java.io.ByteArrayOutputStream;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Queue;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
 
-public class SPPSegmenter implements Iterator {
+/**
+ * Splits MAL messages into Space Packets and recombines received segmented Space Packets.
+ *
+ * One instance recombines the Space Packets of all interactions received on a transport. Each
+ * in-flight message (identified by an SPPSegmentKey) is held in a slot array indexed by the
+ * distance of a packet's segment counter to the counter of the first segment. Segments arriving
+ * before the first segment are kept relative to the lowest counter seen so far, up to MAX_SEGMENTS
+ * apart, and moved into place once the first segment arrives. Unsegmented packets bypass all
+ * bookkeeping. Incomplete messages are removed by removeTimedOut(), which is expected to be called
+ * periodically, or when more than the configured number of messages is in flight, least recently
+ * used first.
+ */
+public class SPPSegmenter {
 
     private static final String TOO_SMALL = "SPACE_PACKET_SIZE_LIMIT too small to accomodate secondary header and at least one octet of user data.";
     private static final int COUNTER_LENGTH = 4; // Number of bytes for the 'Segment Counter'.
+    private static final int INITIAL_SLOTS = 16;
+    /**
+     * Most segments a received message may have. Packet sequence counts wrap after 16384 packets,
+     * so larger messages cannot be told apart reliably anyway; the bound keeps a corrupt segment
+     * counter from growing the slot array without limit.
+     */
+    public static final int MAX_SEGMENTS = 16384;
     // Position of all the flag bits in the secondary header; if present 'Source'
     // and 'Destination
     // Identifier' follow immediately, then 'Segment Counter':
     private static final int FLAG_IDX = 20;
-    private final Queue<SpacePacket[]> readyMessages = new LinkedList<>();
-    private final SortedMap<Long, SpacePacket> packetStore = new TreeMap<>();
-    private final SortedSet<Long> startPacketCounters = new TreeSet<>();
-    private final SortedSet<Long> endPacketCounters = new TreeSet<>();
-    private Long unsegmentedPacketCounter;
-    private final SortedMap<Long, Long> timeouts = new TreeMap<>();
-    private final long timeout;
-
-    public SPPSegmenter(final long timeout) {
-        this.timeout = timeout;
+    private final long timeoutNanos;
+    private final int limit;
+    private final LinkedHashMap<SPPSegmentKey, PartialMessage> partialMessages;
+    private long timedOutCount;
+    private long discardedCount;
+    private long replacedCount;
+    private long oversizedCount;
+
+    /**
+     * Creates a new segmenter for recombining received Space Packets.
+     *
+     * @param timeout Number of milliseconds after which an incomplete message is discarded. 0 for
+     *                no timeout.
+     * @param limit   Maximum number of incomplete messages held at the same time. 0 for no limit.
+     */
+    public SPPSegmenter(final long timeout, final int limit) {
+        if (timeout < 0 || limit < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.timeoutNanos = timeout * 1000000L;
+        this.limit = limit;
+        // access order makes the least recently used message the eldest entry
+        this.partialMessages = new LinkedHashMap<SPPSegmentKey, PartialMessage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<SPPSegmentKey, PartialMessage> eldest) {
+                if (SPPSegmenter.this.limit != 0 && size() > SPPSegmenter.this.limit) {
+                    discardedCount += eldest.getValue().received;
+                    return true;
+                }
+                return false;
+            }
+        };
     }
 
     /**
@@ -66,8 +102,9 @@ public class SPPSegmenter implements Iterator {
      */
     private static long getSegmentCounter(final SpacePacket spacePacket) {
         final byte[] body = spacePacket.getBody();
-        final byte flags = body[FLAG_IDX];
-        final int counter_pos = FLAG_IDX + 1 + ((flags & 0b10000000) >>> 7) + ((flags & 0b01000000) >>> 6);
+        final int base = spacePacket.getOffset();
+        final byte flags = body[base + FLAG_IDX];
+        final int counter_pos = base + FLAG_IDX + 1 + ((flags & 0b10000000) >>> 7) + ((flags & 0b01000000) >>> 6);
 
         long counter = 0;
         for (int i = 0; i < COUNTER_LENGTH; i++) {
@@ -77,84 +114,139 @@ public class SPPSegmenter implements Iterator {
         return counter;
     }
 
-    private SpacePacket[] getCompleteSequence() {
-        // Check if an unsegmented packet has been received or if both start and end
-        // packet are
-        // present and the correct number of packets in-between has been received.
-        // Returns all
-        // packets belonging to a complete sequence, null otherwise.
-        if (null != unsegmentedPacketCounter) {
-            final SpacePacket[] ret = new SpacePacket[]{packetStore.remove(unsegmentedPacketCounter)};
-            unsegmentedPacketCounter = null;
-            return ret;
-        }
-        if (startPacketCounters.isEmpty() || endPacketCounters.isEmpty()) {
-            return null;
-        }
-        final long startCounter = startPacketCounters.first();
-        final long endCounter = endPacketCounters.first();
-        final long counterDiff = endCounter - startCounter;
-        if (counterDiff < 0) {
-            return null;
-        }
-        final SortedMap<Long, SpacePacket> subMap = packetStore.subMap(startCounter, endCounter + 1);
-        if (subMap.size() == counterDiff + 1) {
-            startPacketCounters.remove(startCounter);
-            endPacketCounters.remove(endCounter);
-            final SpacePacket[] ret = subMap.values().toArray(new SpacePacket[1]);
-            subMap.clear(); // writes through to packetStore
-            return ret;
-        }
-        return null;
+    /**
+     * Processes a received Space Packet.
+     *
+     * @param key         Identifies the interaction direction the Space Packet belongs to.
+     * @param spacePacket The received Space Packet.
+     * @return All Space Packets of a MAL message in segment order if the packet completed the
+     *         message, null otherwise.
+     */
+    public SpacePacket[] process(final SPPSegmentKey key, final SpacePacket spacePacket) {
+        final boolean isSegmented = spacePacket.getHeader().getSequenceFlags() != 0b11;
+        return process(key, spacePacket, isSegmented ? getSegmentCounter(spacePacket) : -1);
     }
 
-    private void storePacket(final SpacePacket spacePacket) {
-        long counter = -1;
+    /**
+     * Processes a received Space Packet whose segment counter has already been read.
+     *
+     * @param key         Identifies the interaction direction the Space Packet belongs to.
+     * @param spacePacket The received Space Packet.
+     * @param counter     Value of the 'Segment Counter' field, ignored for unsegmented packets.
+     * @return All Space Packets of a MAL message in segment order if the packet completed the
+     *         message, null otherwise.
+     */
+    public SpacePacket[] process(final SPPSegmentKey key, final SpacePacket spacePacket, final long counter) {
         final int seq = spacePacket.getHeader().getSequenceFlags();
-        if (seq != 0b11) { // packet is segmented and has a counter
-            counter = getSegmentCounter(spacePacket);
+        if (seq == 0b11) { // unsegmented, nothing to recombine
+            return new SpacePacket[]{spacePacket};
         }
-        packetStore.put(counter, spacePacket);
-        timeouts.put(System.currentTimeMillis(), counter);
-        switch (seq) {
-            case 0b11:
-                unsegmentedPacketCounter = counter;
-                break;
-            case 0b01:
-                startPacketCounters.add(counter);
-                break;
-            case 0b10:
-                endPacketCounters.add(counter);
-                break;
+        final long now = System.nanoTime();
+        synchronized (this) {
+            PartialMessage msg = partialMessages.get(key);
+            if (seq == 0b01) { // first segment
+                if (null != msg && msg.hasFirst) {
+                    // The previous message of this interaction direction misses segments and
+                    // will never be completed.
+                    discardedCount += msg.received;
+                    replacedCount++;
+                    msg = null;
+                }
+                if (null == msg) {
+                    msg = new PartialMessage(counter, true);
+                    partialMessages.put(key, msg);
+                } else {
+                    // segments that arrived earlier; those before the first one are left over
+                    discardedCount += msg.setFirst(counter);
+                }
+            } else if (null == msg) { // continuation or last segment before the first segment
+                msg = new PartialMessage(counter, false);
+                partialMessages.put(key, msg);
+            }
+            final int stored = msg.store(counter, seq == 0b10, spacePacket);
+            if (stored == PartialMessage.OVERSIZED) {
+                partialMessages.remove(key);
+                discardedCount += msg.received + 1;
+                oversizedCount++;
+                return null;
+            }
+            if (stored == PartialMessage.REJECTED) {
+                discardedCount++;
+                return null;
+            }
+            msg.lastActivity = now;
+            if (!msg.isComplete()) {
+                // kept until the message is complete, which may take long
+                msg.detach(counter);
+                return null;
+            }
+            partialMessages.remove(key);
+            return msg.toArray();
         }
     }
 
-    private void deleteTimedOutPackets() {
-        final long now = System.currentTimeMillis();
-        final SortedMap<Long, Long> timedOut = timeouts.headMap(now - timeout);
-        final Collection<Long> timedOutCounters = timedOut.values();
-        for (final long counter : timedOutCounters) {
-            packetStore.remove(counter);
-            startPacketCounters.remove(counter);
-            endPacketCounters.remove(counter);
+    /**
+     * Removes all incomplete messages that have not received a Space Packet within the timeout.
+     *
+     * @return The number of removed messages.
+     */
+    public synchronized int removeTimedOut() {
+        if (timeoutNanos == 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        int removed = 0;
+        final Iterator<PartialMessage> it = partialMessages.values().iterator();
+        while (it.hasNext()) {
+            final PartialMessage msg = it.next();
+            if (now - msg.lastActivity <= timeoutNanos) {
+                break; // access order: all following messages are more recent
+            }
+            it.remove();
+            discardedCount += msg.received;
+            removed++;
         }
-        timedOut.clear(); // writes through to timeouts
+        timedOutCount += removed;
+        return removed;
     }
 
-    public void process(final SpacePacket spacePacket) {
-        // TODO: Timeout can be made nicer. Here checking for timed out packets only
-        // happens
-        // when a new packet is processed, which can leave the last packet in memory
-        // although it
-        // might have timed out.
-        if (timeout != 0) {
-            deleteTimedOutPackets();
-        }
-        storePacket(spacePacket);
-        final SpacePacket[] ready = getCompleteSequence();
-        if (null != ready) {
-            readyMessages.add(ready);
-        }
+    /**
+     * @return The number of messages currently waiting for further segments.
+     */
+    public synchronized int size() {
+        return partialMessages.size();
+    }
+
+    /**
+     * @return The number of incomplete messages removed because of the timeout.
+     */
+    public synchronized long getTimedOutCount() {
+        return timedOutCount;
+    }
+
+    /**
+     * @return The number of received Space Packets discarded without being part of a complete
+     *         message.
+     */
+    public synchronized long getDiscardedCount() {
+        return discardedCount;
+    }
+
+    /**
+     * @return The number of incomplete messages discarded because a new first segment arrived for
+     *         the same interaction direction.
+     */
+    public synchronized long getReplacedCount() {
+        return replacedCount;
+    }
+
+    /**
+     * @return The number of incomplete messages discarded because a segment counter was more than
+     *         MAX_SEGMENTS away from the first segment or, before it arrived, from the other
+     *         segments.
+     */
+    public synchronized long getOversizedCount() {
+        return oversizedCount;
     }
 
     /**
@@ -177,8 +269,27 @@ public class SPPSegmenter implements Iterator {
     public static SpacePacket[] split(final int packetDataFieldSizeLimit, final int primaryApidQualifier,
         final SpacePacketHeader primaryHeader, final byte[] secondaryHeaderPart1, final byte[] secondaryHeaderPart2,
         final byte[] body, final SPPCounter sequenceCounter, final SPPCounter segmentCounter) throws MALException {
-        final Queue<SpacePacket> spacePackets = new LinkedList<>();
+        return split(packetDataFieldSizeLimit, primaryApidQualifier, primaryHeader, secondaryHeaderPart1,
+            secondaryHeaderPart2, body, 0, body.length, sequenceCounter, segmentCounter, null);
+    }
 
+    /**
+     * Like split(packetDataFieldSizeLimit, primaryApidQualifier, primaryHeader,
+     * secondaryHeaderPart1, secondaryHeaderPart2, body, sequenceCounter,
+     * segmentCounter), but takes the body from a part of an array and lays out all
+     * Space Packets one after another in a single array, which is taken from a pool
+     * if given. The returned Space Packets reference that array with their offset
+     * and length.
+     *
+     * @param bodyOffset Position of the body in the body array.
+     * @param bodyLength Length of the body.
+     * @param pool       Pool to take the array from. If null, a new array of the
+     *                   exact size is created.
+     */
+    public static SpacePacket[] split(final int packetDataFieldSizeLimit, final int primaryApidQualifier,
+        final SpacePacketHeader primaryHeader, final byte[] secondaryHeaderPart1, final byte[] secondaryHeaderPart2,
+        final byte[] body, final int bodyOffset, final int bodyLength, final SPPCounter sequenceCounter,
+        final SPPCounter segmentCounter, final SPPBufferPool pool) throws MALException {
         final int sndHdrLength = secondaryHeaderPart1.length + secondaryHeaderPart2.length;
         final int userDataFieldSizeLimit;
         if (!(sndHdrLength < packetDataFieldSizeLimit)) {
@@ -191,7 +302,7 @@ public class SPPSegmenter implements Iterator {
             // body. However, the standard (4.4.10) requires an error to be generated in
             // this case.
             throw new MALException(TOO_SMALL);
-        } else if (sndHdrLength + body.length <= packetDataFieldSizeLimit) {
+        } else if (sndHdrLength + bodyLength <= packetDataFieldSizeLimit) {
             // Message fits in one packet, no segment counter needed.
             userDataFieldSizeLimit = packetDataFieldSizeLimit - sndHdrLength;
         } else if (sndHdrLength + COUNTER_LENGTH >= packetDataFieldSizeLimit) {
@@ -207,27 +318,34 @@ public class SPPSegmenter implements Iterator {
             userDataFieldSizeLimit = packetDataFieldSizeLimit - sndHdrLength - COUNTER_LENGTH;
         }
 
-        int remaining = body.length;
+        int remaining = bodyLength;
         final int numberOfPackets = java.lang.Math.max((remaining - 1) / userDataFieldSizeLimit + 1, 1);
-        final Iterator<Long> sequenceCounterIter = sequenceCounter.increment(numberOfPackets);
-        final Iterator<Long> segmentCounterIter = (numberOfPackets > 1) ? segmentCounter.increment(numberOfPackets) :
-            null;
+        // only write segment counter if message does not fit in a single packet
+        final int counterLength = numberOfPackets > 1 ? COUNTER_LENGTH : 0;
+        final int totalLength = numberOfPackets * (sndHdrLength + counterLength) + bodyLength;
+        final byte[] buffer = null == pool ? new byte[totalLength] : pool.acquire(totalLength);
+        final long firstSequenceCount = sequenceCounter.reserve(numberOfPackets);
+        final long firstSegmentCount = numberOfPackets > 1 ? segmentCounter.reserve(numberOfPackets) : 0;
+        final SpacePacket[] spacePackets = new SpacePacket[numberOfPackets];
 
         int offset = 0;
-        final ByteArrayOutputStream os = new ByteArrayOutputStream();
-        do {
+        int pos = 0;
+        for (int n = 0; n < numberOfPackets; n++) {
             // combine secondary header and MAL message body to space packet body
-            os.write(secondaryHeaderPart1, 0, secondaryHeaderPart1.length);
-            // only write segment counter if message does not fit in a single packet
-            if (numberOfPackets > 1) {
-                final long c = segmentCounterIter.next(); // segmentCounterIter cannot be null here
+            final int start = pos;
+            System.arraycopy(secondaryHeaderPart1, 0, buffer, pos, secondaryHeaderPart1.length);
+            pos += secondaryHeaderPart1.length;
+            if (counterLength != 0) {
+                final long c = segmentCounter.valueAt(firstSegmentCount, n);
                 for (int i = COUNTER_LENGTH - 1; i >= 0; i--) {
-                    os.write((byte) (c >>> (i * 8)));
+                    buffer[pos++] = (byte) (c >>> (i * 8));
                 }
             }
-            os.write(secondaryHeaderPart2, 0, secondaryHeaderPart2.length);
+            System.arraycopy(secondaryHeaderPart2, 0, buffer, pos, secondaryHeaderPart2.length);
+            pos += secondaryHeaderPart2.length;
             final int segmentLength = java.lang.Math.min(userDataFieldSizeLimit, remaining);
-            os.write(body, offset, segmentLength);
+            System.arraycopy(body, bodyOffset + offset, buffer, pos, segmentLength);
+            pos += segmentLength;
             remaining -= segmentLength;
 
             // find out correct sequence flags according to offset and remaining bytes
@@ -244,30 +362,196 @@ public class SPPSegmenter implements Iterator {
             // clone template primary header and change relevant values
             final SpacePacketHeader spHeader = new SpacePacketHeader(primaryHeader.getPacketVersionNumber(),
                 primaryHeader.getPacketType(), primaryHeader.getSecondaryHeaderFlag(), primaryHeader.getApid(),
-                sequenceFlags, sequenceCounterIter.next().shortValue());
+                sequenceFlags, (short) sequenceCounter.valueAt(firstSequenceCount, n));
 
             // create space packet
-            final SpacePacket spacePacket = new SpacePacket(spHeader, primaryApidQualifier, os.toByteArray(), 0, os
-                .size());
-            spacePackets.add(spacePacket);
-            os.reset();
-        } while (remaining > 0);
-
-        return spacePackets.toArray(new SpacePacket[1]);
+            spacePackets[n] = new SpacePacket(spHeader, primaryApidQualifier, buffer, start, pos - start);
+        }
+        return spacePackets;
     }
 
-    @Override
-    public boolean hasNext() {
-        return !readyMessages.isEmpty();
-    }
+    /**
+     * Segments of a single message. A segment is stored at the index given by the distance of its
+     * counter to the counter of the first segment or, while the first segment has not arrived, to
+     * the lowest counter seen so far.
+     */
+    private static class PartialMessage {
 
-    @Override
-    public SpacePacket[] next() {
-        return readyMessages.remove();
-    }
+        private static final int STORED = 0;
+        private static final int REJECTED = 1; // the segment cannot belong to this message
+        private static final int OVERSIZED = 2; // the message would have too many segments
+        private long base; // counter of the segment stored at index 0
+        private boolean hasFirst; // base is the counter of the first segment
+        private SpacePacket[] slots = new SpacePacket[INITIAL_SLOTS];
+        private int received;
+        private int last = -1; // index of the last segment, -1 while unknown
+        private long lastActivity;
+
+        PartialMessage(final long counter, final boolean isFirst) {
+            this.base = counter;
+            this.hasFirst = isFirst;
+        }
+
+        /**
+         * Sets the counter of the first segment after other segments have been stored.
+         *
+         * @return The number of stored segments dropped because their counter is lower, or
+         *         because they are too far from the first segment.
+         */
+        int setFirst(final long counter) {
+            final int distance = (int) (counter - base); // signed, counters wrap after 32 bits
+            int dropped = 0;
+            if (distance > 0) {
+                dropped = moveDown(distance);
+            } else if (distance < 0 && !moveUp(-distance)) {
+                dropped = moveDown(slots.length);
+            }
+            base = counter;
+            hasFirst = true;
+            return dropped;
+        }
+
+        /**
+         * Stores a segment.
+         *
+         * @return STORED, REJECTED or OVERSIZED.
+         */
+        int store(final long counter, final boolean isLast, final SpacePacket spacePacket) {
+            int distance = (int) (counter - base); // signed, counters wrap after 32 bits
+            if (distance < 0) {
+                if (hasFirst) {
+                    return REJECTED;
+                }
+                if (!moveUp(-distance)) {
+                    return OVERSIZED;
+                }
+                base = counter;
+                distance = 0;
+            }
+            if (last != -1 && distance > last) {
+                return REJECTED;
+            }
+            if (distance >= MAX_SEGMENTS) {
+                return OVERSIZED;
+            }
+            final int idx = distance;
+            if (isLast) {
+                if (hasSegmentAfter(idx)) {
+                    return REJECTED;
+                }
+                last = idx;
+            }
+            ensureSlots(idx + 1);
+            if (null == slots[idx]) {
+                received++;
+            }
+            slots[idx] = spacePacket;
+            return STORED;
+        }
 
-    @Override
-    public void remove() {
-        throw new UnsupportedOperationException("Not supported.");
+        private boolean hasSegmentAfter(final int idx) {
+            for (int i = idx + 1; i < slots.length; i++) {
+                if (null != slots[i]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return One more than the highest index of a stored segment.
+         */
+        private int extent() {
+            int n = slots.length;
+            while (n > 0 && null == slots[n - 1]) {
+                n--;
+            }
+            return n;
+        }
+
+        private void ensureSlots(final int length) {
+            if (length > slots.length) {
+                int n = slots.length;
+                while (n < length) {
+                    n *= 2;
+                }
+                final SpacePacket[] grown = new SpacePacket[n];
+                System.arraycopy(slots, 0, grown, 0, slots.length);
+                slots = grown;
+            }
+        }
+
+        /**
+         * Moves the stored segments n slots up, making room for segments with lower counters.
+         *
+         * @return False if the segments would then be MAX_SEGMENTS or more apart.
+         */
+        private boolean moveUp(final int n) {
+            final int extent = extent();
+            if ((long) extent + n > MAX_SEGMENTS) {
+                return false;
+            }
+            ensureSlots(extent + n);
+            System.arraycopy(slots, 0, slots, n, extent);
+            Arrays.fill(slots, 0, Math.min(n, extent), null);
+            if (last != -1) {
+                last += n;
+            }
+            return true;
+        }
+
+        /**
+         * Drops the segments in the n lowest slots and moves the others down.
+         *
+         * @return The number of dropped segments.
+         */
+        private int moveDown(final int n) {
+            final int extent = extent();
+            int dropped = 0;
+            for (int i = 0; i < Math.min(n, extent); i++) {
+                if (null != slots[i]) {
+                    dropped++;
+                }
+            }
+            if (n < extent) {
+                System.arraycopy(slots, n, slots, 0, extent - n);
+                Arrays.fill(slots, extent - n, extent, null);
+            } else {
+                Arrays.fill(slots, 0, extent, null);
+            }
+            last = last >= n ? last - n : -1;
+            received -= dropped;
+            return dropped;
+        }
+
+        /**
+         * Replaces a stored segment by a copy with a body of its own, if its body is a slice of a
+         * larger array, e.g. the receive buffer of the SPP socket. Otherwise the segment would
+         * keep the whole array from being reused or collected.
+         */
+        void detach(final long counter) {
+            final int idx = (int) (counter - base);
+            final SpacePacket spacePacket = slots[idx];
+            final byte[] body = spacePacket.getBody();
+            final int offset = spacePacket.getOffset();
+            final int length = spacePacket.getLength();
+            if (offset == 0 && body.length == length) {
+                return;
+            }
+            final SpacePacket detached = new SpacePacket(spacePacket.getHeader(), spacePacket.getApidQualifier(),
+                Arrays.copyOfRange(body, offset, offset + length), 0, length);
+            detached.setQosProperties(spacePacket.getQosProperties());
+            slots[idx] = detached;
+        }
+
+        boolean isComplete() {
+            return hasFirst && last != -1 && received == last + 1;
+        }
+
+        SpacePacket[] toArray() {
+            final SpacePacket[] ret = new SpacePacket[last + 1];
+            System.arraycopy(slots, 0, ret, 0, ret.length);
+            return ret;
+        }
     }
 }
@@ -25,12 +25,12 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.MALException;
@@ -39,15 +39,11 @@ import org.ccsds.moims.mo.mal.MALStandardError;
 import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.structures.Blob;
-import org.ccsds.moims.mo.mal.structures.Identifier;
-import org.ccsds.moims.mo.mal.structures.IdentifierList;
 import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
-import org.ccsds.moims.mo.mal.structures.SessionType;
 import org.ccsds.moims.mo.mal.structures.ShortList;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.structures.URI;
-import org.ccsds.moims.mo.mal.structures.UShort;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
@@ -57,6 +53,7 @@ import org.ccsds.moims.mo.mal.transport.MALTransport;
 import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
 import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPHelper;
 
 public class SPPTransport implements MALTransport {
 
@@ -68,40 +65,53 @@ public class SPPTransport implements MALTransport {
     private static final String SPP_ERROR = "Error in Space Packet Protocol library.";
     private static final String SOCKET_ERROR = "Space Packet Socket error (ignore if socket closed on purpose).";
     private static final String THREAD_INTERRUPTED = "The Space Packet receive thread has been interrupted.";
+    private static final String HEADER_TOO_SHORT = "Discarding Space Packet too short for a MAL/SPP secondary header.";
     // Numeric constants
     private static final short SEQUENCE_COUNTER_WRAP = 16384;
     private static final long SEGMENT_COUNTER_WRAP = 4294967296L;
     protected static final byte MALSPP_VERSION = 0;
     protected static final byte SPP_VERSION = 0;
     protected static final int MAX_SPACE_PACKET_SIZE = 65536;
+    // Lanes of the queue of received messages
+    protected static final int LANE_CONTROL = 0;
+    protected static final int LANE_NORMAL = 1;
+    protected static final int LANE_BULK = 2;
     // Member variables
     private final String protocol;
     private final Map properties;
     private final SPPSocket sppSocket;
-    private final Map<String, SPPEndpoint> endpointsByName = new HashMap<>();
-    private final Map<URI, SPPEndpoint> endpointsByURI = new HashMap<>();
-    private final ShortList apids = new ShortList();
+    // both endpoint maps are only modified while holding apids, so they and apids always agree
+    private final ConcurrentMap<String, SPPEndpoint> endpointsByName = new ConcurrentHashMap<>();
+    private final ConcurrentMap<URI, SPPEndpoint> endpointsByURI = new ConcurrentHashMap<>();
+    private final SPPApidFilter apids = new SPPApidFilter(); // qualifiers and APIDs of all endpoint URIs
     private boolean isClosed;
     private Thread receiveThread; // is assigned on first endpoint creation
     private Thread messageHandlerThread; // is assigned on first endpoint creation
-
-    // We need to set the initial capacity to have the MAL mixing messages from
-    // different sources.
-    // For example, if I do a heavy query, I don't want to have the queue full of
-    // those messages,
-    // but instead, a mix of those combined with other messages. This let's them
-    // work in parallel.
-    private final LinkedBlockingQueue<MALMessage> receivedMessages = new LinkedBlockingQueue<>(15);
-    // private LinkedBlockingQueue<MALMessage> receivedMessages = new
-    // LinkedBlockingQueue<>();
-
-    private final HashMap<Long, LinkedBlockingQueue<MALMessage>> transMap = new HashMap<>();
+    private Thread segmentTimeoutThread; // is assigned on first endpoint creation if a timeout is set
+    private Thread[] decodeThreads; // is assigned on first endpoint creation if decode threads are configured
+    private SPPRing<SpacePacket>[] decodeRings;
+    private volatile SPPConfigurationCache receiveConfigurations; // is assigned on first endpoint creation
+
+    // We need to set the capacity to have the MAL mixing messages from different
+    // sources. For example, if I do a heavy query, I don't want to have the queue
+    // full of those messages, but instead, a mix of those combined with other
+    // messages. Therefore received messages are sorted into lanes (control, normal,
+    // bulk), each bounded on its own and drained by weighted round robin.
+    private final SPPLaneQueue<MALMessage> receivedMessages;
+    private final ShortList bulkApids;
 
     private final Map<SequenceCounterId, SPPCounter> sequenceCounters = new HashMap<>();
-    private final Map<SequenceCounterId, Queue<Short>> identifiers = new HashMap<>();
-    private final Map<SegmentCounterId, SPPCounter> segmentCounters = new HashMap<>();
-    private final ExecutorService executor = Executors.newFixedThreadPool(6);
-    private final Object MUTEX = new Object();
+    private final ConcurrentMap<SequenceCounterId, Queue<Short>> identifiers = new ConcurrentHashMap<>();
+    private final SPPSegmentCounterStore segmentCounters;
+    private final SPPSegmenter segmenter;
+    private final long segmentTimeout;
+    private final SPPKeyedExecutor dispatcher;
+    private final SPPPacketWriter packetWriter; // null for writing in the sending thread
+    private final SPPBufferPool bufferPool; // arrays backing the Space Packets being sent
+    private final boolean inProcessDirect;
+    private final AtomicLong inProcessCount = new AtomicLong();
+    private final SPPMetrics metrics = new SPPMetrics();
+    private final SPPTransportMonitor monitor;
 
     public SPPTransport(final String protocol, final Map properties) throws MALException {
         try {
@@ -113,6 +123,20 @@ public class SPPTransport implements MALTransport {
         this.protocol = protocol;
         this.properties = properties;
         this.isClosed = false;
+        final Configuration config = new Configuration(properties);
+        this.segmentCounters = new SPPSegmentCounterStore(SEGMENT_COUNTER_WRAP, config.segmentCounterLimit(), config
+            .segmentCounterTtl());
+        this.segmentTimeout = config.timeout();
+        this.segmenter = new SPPSegmenter(segmentTimeout, config.reassemblyLimit());
+        this.dispatcher = new SPPKeyedExecutor(config.dispatchThreads(), config.dispatchQueueLimit());
+        this.receivedMessages = new SPPLaneQueue<>(config.laneWeights(), config.laneCapacity());
+        this.bulkApids = config.bulkApids();
+        this.bufferPool = new SPPBufferPool(config.sendBufferPool());
+        this.inProcessDirect = config.inProcessDirect();
+        this.packetWriter = config.sendQueueSize() > 0 ? new SPPPacketWriter(sppSocket, config.sendQueueSize(),
+            config.sendBatchSize(), bufferPool, segmentCounters) : null;
+        this.monitor = new SPPTransportMonitor(this, metrics, protocol);
+        monitor.start(config.metricsJmx(), config.metricsInterval(), config.metricsFile());
     }
 
     @Override
@@ -120,13 +144,6 @@ public class SPPTransport implements MALTransport {
         if (isClosed) {
             throw new MALException(TRANSPORT_CLOSED);
         }
-        if (endpointsByName.containsKey(localName)) {
-            final SPPEndpoint ep = endpointsByName.get(localName);
-            if (ep.isClosed()) {
-                ep.reopen();
-            }
-            return ep;
-        }
 
         // PENDING: Not all needed endpoint QoS properties seem to be present in
         // qosProperties. As
@@ -144,48 +161,50 @@ public class SPPTransport implements MALTransport {
         final Map props = Configuration.mix(properties, qosProperties);
         final Configuration config = new Configuration(props);
 
-        // PENDING: appendIdToUri property not yet in specification.
-        final Short identifier = config.appendIdToUri() ? claimIdentifier(config.qualifier(), config.apid(), config
-            .numIdentifiers(), config.startIdentifier()) : null;
-
-        SPPURI uri = null;
-
-        if (localName != null) {
-            try {
-                uri = new SPPURI(new URI(localName));
-            } catch (final java.lang.IllegalArgumentException ex) {
-                // Do nothing!
+        // Looking up the name and registering a new endpoint are done while holding apids, so that
+        // concurrent calls with the same name return the same endpoint.
+        final SPPEndpoint endpoint;
+        final SPPEndpoint oldEndpoint;
+        synchronized (apids) {
+            final SPPEndpoint ep = null == localName ? null : endpointsByName.get(localName);
+            if (null != ep) {
+                if (ep.isClosed()) {
+                    ep.reopen();
+                }
+                return ep;
             }
-        }
 
-        if (uri == null) {
-            uri = new SPPURI(config.qualifier(), config.apid(), identifier);
-        }
+            // PENDING: appendIdToUri property not yet in specification.
+            final Short identifier = config.appendIdToUri() ? claimIdentifier(config.qualifier(), config.apid(),
+                config.numIdentifiers(), config.startIdentifier()) : null;
 
-        synchronized (apids) {
-            apids.add(config.apid());
-        }
+            SPPURI uri = null;
 
-        // SPPURI uri = new SPPURI(config.qualifier(), config.apid(), identifier);
-
-        final SPPEndpoint endpoint = new SPPEndpoint(protocol, this, localName, uri.getURI(), qosProperties, sppSocket);
+            if (localName != null) {
+                try {
+                    uri = SPPURI.valueOf(new URI(localName));
+                } catch (final java.lang.IllegalArgumentException ex) {
+                    // Do nothing!
+                }
+            }
 
-        SPPEndpoint oldEndpoint = null;
+            if (uri == null) {
+                uri = SPPURI.valueOf(config.qualifier(), config.apid(), identifier);
+            }
 
-        if (localName != null) {
-            oldEndpoint = endpointsByName.put(localName, endpoint);
+            endpoint = new SPPEndpoint(protocol, this, localName, uri.getURI(), qosProperties, sppSocket);
 
-            if (null != oldEndpoint) {
-                oldEndpoint.close();
-                oldEndpoint = null;
+            oldEndpoint = endpointsByURI.put(endpoint.getURI(), endpoint);
+            if (null == oldEndpoint) {
+                apids.add(uri.getQualifier(), uri.getAPID());
+            }
+            if (localName != null) {
+                endpointsByName.put(localName, endpoint);
             }
         }
-
-        oldEndpoint = endpointsByURI.put(endpoint.getURI(), endpoint);
-
         if (null != oldEndpoint) {
+            // taken over by the new endpoint, so its URI stays valid
             oldEndpoint.close();
-            oldEndpoint = null;
         }
 
         synchronized (this) { // No need to make this more efficient; createEndpoint() is not called often.
@@ -194,9 +213,29 @@ public class SPPTransport implements MALTransport {
                 messageHandlerThread.start();
             }
             if (null == receiveThread) {
-                receiveThread = constructReceiveThread(sppSocket, props);
+                receiveConfigurations = new SPPConfigurationCache(protocol, props);
+                final int numDecodeThreads = config.decodeThreads();
+                if (numDecodeThreads > 0) {
+                    @SuppressWarnings("unchecked")
+                    final SPPRing<SpacePacket>[] rings = (SPPRing<SpacePacket>[]) new SPPRing<?>[numDecodeThreads];
+                    decodeRings = rings;
+                    decodeThreads = new Thread[numDecodeThreads];
+                    for (int i = 0; i < numDecodeThreads; i++) {
+                        decodeRings[i] = new SPPRing<>(config.pipelineQueueSize());
+                        decodeThreads[i] = constructDecodeThread(i, decodeRings[i], props, receiveConfigurations);
+                        decodeThreads[i].start();
+                    }
+                }
+                receiveThread = constructReceiveThread(sppSocket, props, receiveConfigurations, decodeRings);
                 receiveThread.start();
             }
+            if (null != packetWriter) {
+                packetWriter.start();
+            }
+            if (null == segmentTimeoutThread && 0 != segmentTimeout) {
+                segmentTimeoutThread = constructSegmentTimeoutThread();
+                segmentTimeoutThread.start();
+            }
         }
         return endpoint;
     }
@@ -231,25 +270,33 @@ public class SPPTransport implements MALTransport {
         if (null == localName) {
             throw new IllegalArgumentException(ILLEGAL_NULL_ARGUMENT);
         }
-        final SPPEndpoint endpoint = endpointsByName.get(localName);
+        final SPPEndpoint endpoint;
+        synchronized (apids) {
+            endpoint = endpointsByName.remove(localName);
+        }
         if (null != endpoint) {
-            endpointsByName.remove(localName);
             endpoint.close();
-            invalidateURI(endpoint.getURI());
+            invalidateEndpoint(endpoint);
         }
     }
 
     /**
-     * Invalidates a URI by deleting references to an endpoint and freeing up its
-     * identifier. References by its local name won't be deleted. If this is desired
-     * it should be done before calling this method.
+     * Invalidates the URI of an endpoint by deleting the reference to the endpoint
+     * and freeing up its identifier. Nothing is done if the URI has been taken over
+     * by a different endpoint in the meantime. References by its local name won't
+     * be deleted. If this is desired it should be done before calling this method.
      *
-     * @param uri The URI to be invalidated.
+     * @param endpoint The endpoint whose URI is to be invalidated.
      * @throws MALException
      */
-    protected void invalidateURI(final URI uri) throws MALException {
-        endpointsByURI.remove(uri);
-        final SPPURI sppURI = new SPPURI(uri);
+    protected void invalidateEndpoint(final SPPEndpoint endpoint) throws MALException {
+        final SPPURI sppURI = SPPURI.valueOf(endpoint.getURI());
+        synchronized (apids) {
+            if (!endpointsByURI.remove(endpoint.getURI(), endpoint)) {
+                return;
+            }
+            apids.remove(sppURI.getQualifier(), sppURI.getAPID());
+        }
         freeIdentifier(sppURI.getAPID(), sppURI.getQualifier(), sppURI.getIdentifier());
     }
 
@@ -301,16 +348,34 @@ public class SPPTransport implements MALTransport {
             }
         }
         isClosed = true;
-        endpointsByName.clear();
-        endpointsByURI.clear();
+        synchronized (apids) {
+            endpointsByName.clear();
+            endpointsByURI.clear();
+            apids.clear();
+        }
         if (null != receiveThread) {
             receiveThread.interrupt();
             receiveThread = null;
         }
+        if (null != decodeThreads) {
+            for (final Thread decodeThread : decodeThreads) {
+                decodeThread.interrupt();
+            }
+            decodeThreads = null;
+        }
         if (null != messageHandlerThread) {
             messageHandlerThread.interrupt();
             messageHandlerThread = null;
         }
+        if (null != segmentTimeoutThread) {
+            segmentTimeoutThread.interrupt();
+            segmentTimeoutThread = null;
+        }
+        dispatcher.shutdown();
+        if (null != packetWriter) {
+            packetWriter.stop();
+        }
+        monitor.stop();
         try {
             sppSocket.close();
         } catch (final Exception ex) {
@@ -327,6 +392,106 @@ public class SPPTransport implements MALTransport {
         return properties;
     }
 
+    /**
+     * @return The writer sending Space Packets asynchronously or null, if they are
+     *         sent by the sending thread itself.
+     */
+    protected SPPPacketWriter getPacketWriter() {
+        return packetWriter;
+    }
+
+    /**
+     * @return Counters updated on the receive and send paths.
+     */
+    protected SPPMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return The monitor exposing the metrics of this transport.
+     */
+    protected SPPTransportMonitor getMonitor() {
+        return monitor;
+    }
+
+    protected SPPSegmenter getSegmenter() {
+        return segmenter;
+    }
+
+    protected SPPKeyedExecutor getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return The pool of arrays the Space Packets being sent are laid out in. An
+     *         array is released after all of its Space Packets have been written.
+     */
+    protected SPPBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return The number of Space Packets waiting for each decode thread. Empty if
+     *         the receive thread decodes itself.
+     */
+    protected int[] getDecodeQueueDepths() {
+        final SPPRing<SpacePacket>[] rings = decodeRings;
+        final int[] depths = new int[null == rings ? 0 : rings.length];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = rings[i].size();
+        }
+        return depths;
+    }
+
+    /**
+     * @return The largest number of Space Packets that have been waiting for each
+     *         decode thread. Empty if the receive thread decodes itself.
+     */
+    protected int[] getDecodeQueueMaxDepths() {
+        final SPPRing<SpacePacket>[] rings = decodeRings;
+        final int[] depths = new int[null == rings ? 0 : rings.length];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = rings[i].getMaxSize();
+        }
+        return depths;
+    }
+
+    /**
+     * @return The number of received messages waiting in each lane for the message
+     *         handler thread, indexed by LANE_CONTROL, LANE_NORMAL, LANE_BULK.
+     */
+    protected int[] getLaneQueueDepths() {
+        final int[] depths = new int[receivedMessages.getLaneCount()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = receivedMessages.size(i);
+        }
+        return depths;
+    }
+
+    /**
+     * @return The largest number of received messages that have been waiting in
+     *         each lane for the message handler thread, indexed by LANE_CONTROL,
+     *         LANE_NORMAL, LANE_BULK.
+     */
+    protected int[] getLaneQueueMaxDepths() {
+        final int[] depths = new int[receivedMessages.getLaneCount()];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = receivedMessages.getMaxSize(i);
+        }
+        return depths;
+    }
+
+    /**
+     * Reads the mapping configuration file of this transport again. The effective configurations
+     * cached for the receive thread and the endpoints are rebuilt on next use. The transport
+     * properties themselves are fixed when the transport is created.
+     *
+     * @throws MALException If the mapping configuration file cannot be read.
+     */
+    protected void reloadMappingConfiguration() throws MALException {
+        Configuration.reloadMappingConfiguration(new Configuration(properties).mappingConfigurationFile());
+    }
+
     /**
      * Like claimIdentifier(apid, qualifier, id, numIdentifiers, startIdentifier)
      * with id == null, i.e. an arbitrary available identifier is returned.
@@ -378,15 +543,17 @@ public class SPPTransport implements MALTransport {
     private short claimIdentifier(final int qualifier, final short apid, final Short id, final short numIdentifiers,
         final short startIdentifier) throws MALException {
         final SequenceCounterId counterId = new SequenceCounterId(qualifier, apid);
-        Queue<Short> ids = identifiers.get(counterId);
-        if (null == ids) {
-            final Short[] pool = new Short[numIdentifiers];
-            for (int i = 0; i < numIdentifiers; i++) { // create pool of valid identifiers
-                pool[i] = (short) (i + startIdentifier);
-            }
-            ids = new ArrayBlockingQueue<>(numIdentifiers, false, Arrays.asList(pool));
-            identifiers.put(counterId, ids);
-        }
+        final Queue<Short> ids = identifiers.computeIfAbsent(counterId,
+            new Function<SequenceCounterId, Queue<Short>>() {
+                @Override
+                public Queue<Short> apply(final SequenceCounterId id) {
+                    final Short[] pool = new Short[numIdentifiers];
+                    for (int i = 0; i < numIdentifiers; i++) { // create pool of valid identifiers
+                        pool[i] = (short) (i + startIdentifier);
+                    }
+                    return new ArrayBlockingQueue<>(numIdentifiers, false, Arrays.asList(pool));
+                }
+            });
         if (null == id) {
             try {
                 return ids.remove();
@@ -412,36 +579,93 @@ public class SPPTransport implements MALTransport {
     private void freeIdentifier(final short apid, final Integer qualifier, final short id) {
         final SequenceCounterId counterId = new SequenceCounterId(qualifier, apid);
         final Queue<Short> ids = identifiers.get(counterId);
-        if (null != ids && !ids.contains(id)) {
-            ids.add(id);
+        if (null == ids) {
+            return;
+        }
+        synchronized (ids) { // against freeing the same identifier twice
+            if (!ids.contains(id)) {
+                ids.add(id);
+            }
         }
     }
 
     /**
      * Listens to an SPPSocket and delivers the received messages to the appropriate
-     * endpoint's listener. This method is executed in loop for each receive thread.
+     * endpoint's listener. This method is executed in loop for each receive thread
+     * if no decode threads are configured.
      *
      * @param sppSocket     SPP socket to listen to.
      * @param qosProperties QoS properties.
-     * @param segmenters    Segmenters responsible for reconstructing segmented
-     *                      Space qosProperties.
+     * @param configurations Effective configurations per application, derived
+     *                      from qosProperties.
      * @param currentThread Current thread, in which the receive() method is
      *                      executed.
+     * @param view          Header view owned by the current thread.
      */
     private MALMessage receive(final SPPSocket sppSocket, final Map qosProperties,
-        final Map<SegmentCounterId, SPPSegmenter> segmenters, final Thread currentThread) {
-        // TODO: Queue received messages for stopped delivery and QoS level QUEUED.
+        final SPPConfigurationCache configurations, final Thread currentThread, final SPPHeaderView view) {
+        final SpacePacket spacePacket = receivePacket(sppSocket, currentThread);
+        return null == spacePacket ? null : decode(spacePacket, qosProperties, configurations, view);
+    }
 
+    /**
+     * Reads the next Space Packet from an SPPSocket. This is the I/O stage of the
+     * receive pipeline.
+     *
+     * @param sppSocket     SPP socket to listen to.
+     * @param currentThread Current thread, in which the method is executed.
+     * @return The received Space Packet or null if it has to be discarded.
+     */
+    private SpacePacket receivePacket(final SPPSocket sppSocket, final Thread currentThread) {
         try {
             final SpacePacket spacePacket = sppSocket.receive(); // blocks until a space packet has been received
             if (spacePacket == null) {
                 LOGGER.log(Level.FINE, "Discarding message as it is not inside the whitelist.");
+                metrics.recordDiscarded(SPPMetrics.Discard.WHITELIST);
                 return null;
             }
+            metrics.recordReceived(spacePacket.getApidQualifier(), spacePacket.getHeader().getApid(), spacePacket
+                .getLength());
             if (spacePacket.getHeader().getSecondaryHeaderFlag() != 1) {
                 LOGGER.log(Level.FINE, "Discarding message as it has no secondary header.");
+                metrics.recordDiscarded(SPPMetrics.Discard.NO_SECONDARY_HEADER);
                 return null;
             }
+            return spacePacket;
+        } catch (final SocketException ex) {
+            LOGGER.log(Level.SEVERE, SOCKET_ERROR, ex);
+            currentThread.interrupt();
+        } catch (final InterruptedException ex) {
+            LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
+            currentThread.interrupt();
+        } catch (final Exception ex) {
+            // TODO: Is there any other way of handling reception exceptions?
+            LOGGER.log(Level.WARNING, SPP_ERROR, ex);
+        }
+        return null;
+    }
+
+    /**
+     * Filters a received Space Packet by APID, recombines segmented messages and
+     * decodes the MAL header of completed messages. This is the decode and
+     * reassembly stage of the receive pipeline. Filtering and recombination only
+     * look at the fixed-position header fields through the given view, so the
+     * full MAL header including the optional fields is decoded once per delivered
+     * message and not for discarded packets or each segment.
+     *
+     * @param spacePacket    The received Space Packet.
+     * @param qosProperties  QoS properties.
+     * @param configurations Effective configurations per application, derived
+     *                       from qosProperties.
+     * @param view           Header view owned by the current thread.
+     * @return The received MAL message if the Space Packet completed one, null
+     *         otherwise.
+     */
+    private MALMessage decode(final SpacePacket spacePacket, final Map qosProperties,
+        final SPPConfigurationCache configurations, final SPPHeaderView view) {
+        // TODO: Queue received messages for stopped delivery and QoS level QUEUED.
+
+        try {
             // PENDING: SPP TCP implementation allocates a new Space Packet with a body size
             // of
             // 65536 bytes. If the received Space Packet is smaller, the body byte array is
@@ -456,77 +680,56 @@ public class SPPTransport implements MALTransport {
              * spacePacket.getLength()); spacePacket.setBody(trimmedBody);
              */
 
-            // retrieve effective QoS properties resolving per-application parameters
-            final Configuration config = new Configuration(qosProperties);
-            // short apid = config.apid();
-
-            short apid;
-
-            final Map effectiveProperties = config.getEffectiveProperties(spacePacket.getApidQualifier(),
-                (short) spacePacket.getHeader().getApid());
-            // Selection of correct segment counter needs MAL header information.
-            final MALElementStreamFactory esf = MALElementStreamFactory.newFactory(protocol, effectiveProperties);
-            final SPPMessageHeader messageHeader = new SPPMessageHeader(spacePacket, esf, effectiveProperties);
-
-            // We need to iterate between all the available endpoints before discarding
-            // it...
-            boolean discard = true;
-
-            final short from = messageHeader.getSPPURIFrom().getAPID();
-            final short to = messageHeader.getSPPURITo().getAPID();
+            if (!view.wrap(spacePacket)) {
+                LOGGER.log(Level.WARNING, HEADER_TOO_SHORT);
+                metrics.recordDiscarded(SPPMetrics.Discard.MALFORMED);
+                return null;
+            }
 
-            // Iterate through all the endpoints
-            /*
-             * for (Map.Entry<URI, SPPEndpoint> entry : endpointsByURI.entrySet()) { URI key
-             * = entry.getKey(); // SPPEndpoint value = entry.getValue();
-             * 
-             * // Get the APID from the key: String[] strs = key.getValue().split("/"); apid
-             * = Short.parseShort(strs[1]);
-             * 
-             * // Don't discard if one of the enpoint apids is the from or to apid if(from
-             * == apid || to == apid){ discard = false; break; } }
-             */
-            // Iterate through all the apids
-            synchronized (apids) {
-                for (int i = 0; i < apids.size(); i++) {
-                    apid = apids.get(i);
-
-                    // Don't discard if one of the enpoint apids is the from or to apid
-                    if (from == apid || to == apid) {
-                        discard = false;
-                        break;
-                    }
-                }
+            // Don't discard if one of the endpoint URIs has the from or to APID. Without the APID
+            // qualifier on the wire the received one is the default qualifier, so only the APIDs are
+            // compared then.
+            final boolean discard;
+            if (SPPHelper.isAPIDqualifierInMessage) {
+                discard = !apids.accepts(view.getFromApidQualifier(), (short) view.getFromApid())
+                    && !apids.accepts(view.getToApidQualifier(), (short) view.getToApid());
+            } else {
+                discard = !apids.acceptsApid((short) view.getFromApid()) && !apids.acceptsApid((short) view
+                    .getToApid());
             }
 
             if (discard) {
                 LOGGER.log(Level.FINE, "Discarding message...");
+                metrics.recordDiscarded(SPPMetrics.Discard.UNKNOWN_APID);
                 return null;
             }
 
-            final SegmentCounterId segmentCounterId = new SegmentCounterId(messageHeader);
-            SPPSegmenter segmenter;
-
-            segmenter = segmenters.get(segmentCounterId);
-            if (null == segmenter) {
-                segmenter = new SPPSegmenter(config.timeout());
-                segmenters.put(segmentCounterId, segmenter);
-                // TODO: Delete segmenter when it is no longer needed, otherwise memory runs
-                // full.
+            final SpacePacket[] spacePackets;
+            if (view.isSegmented()) {
+                final int sourceId = view.getSourceIdentifier();
+                final int destinationId = view.getDestinationIdentifier();
+                final URI from = SPPURI.valueOf(view.getFromApidQualifier(), (short) view.getFromApid(),
+                    sourceId < 0 ? null : (short) sourceId).getURI();
+                final URI to = SPPURI.valueOf(view.getToApidQualifier(), (short) view.getToApid(),
+                    destinationId < 0 ? null : (short) destinationId).getURI();
+                spacePackets = segmenter.process(new SPPSegmentKey(view.getTransactionId(), from, to), spacePacket,
+                    view.getSegmentCounter());
+                if (null == spacePackets) {
+                    return null;
+                }
+            } else {
+                spacePackets = new SpacePacket[]{spacePacket};
             }
 
-            segmenter.process(spacePacket);
-            if (!segmenter.hasNext()) {
-                return null;
-            }
+            // retrieve effective QoS properties resolving per-application parameters
+            final SPPConfigurationCache.Entry effective = configurations.get(spacePacket.getApidQualifier(),
+                (short) spacePacket.getHeader().getApid());
+            final Map effectiveProperties = effective.getProperties();
+            final MALElementStreamFactory esf = effective.getStreamFactory();
+            final SPPMessageHeader messageHeader = new SPPMessageHeader(spacePackets[0], esf, effectiveProperties);
 
-            return new SPPMessage(messageHeader, segmenter.next(), effectiveProperties, qosProperties, esf, this);
-        } catch (final SocketException ex) {
-            LOGGER.log(Level.SEVERE, SOCKET_ERROR, ex);
-            currentThread.interrupt();
-        } catch (final InterruptedException ex) {
-            LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
-            currentThread.interrupt();
+            segmentCounters.complete(messageHeader);
+            return new SPPMessage(messageHeader, spacePackets, effectiveProperties, qosProperties, esf, this);
         } catch (final Exception ex) {
             // TODO: Is there any other way of handling reception exceptions?
             LOGGER.log(Level.WARNING, SPP_ERROR, ex);
@@ -637,26 +840,107 @@ public class SPPTransport implements MALTransport {
      * Constructs a receive thread associated with the socket, when a new socket
      * needs to be created. The thread is not started.
      *
-     * @param socket        The SPP socket the receive thread shall listen to.
-     * @param qosProperties QoS properties.
+     * If decode rings are given, the receive thread only reads Space Packets from
+     * the socket and distributes them to the decode threads. All Space Packets of
+     * one application (APID qualifier and APID) go to the same decode thread, so
+     * the segments of a message are recombined in order. Otherwise the receive
+     * thread also decodes and recombines the Space Packets itself.
+     *
+     * @param socket         The SPP socket the receive thread shall listen to.
+     * @param qosProperties  QoS properties.
+     * @param configurations Effective configurations per application.
+     * @param decodeRings    Rings feeding the decode threads, null for decoding in
+     *                       the receive thread.
      * @return The newly created receive thread.
      */
-    private Thread constructReceiveThread(final SPPSocket socket, final Map qosProperties) throws MALException {
+    private Thread constructReceiveThread(final SPPSocket socket, final Map qosProperties,
+        final SPPConfigurationCache configurations, final SPPRing<SpacePacket>[] decodeRings) throws MALException {
         return new Thread() {
-            private final Map<SegmentCounterId, SPPSegmenter> segmenters = new HashMap<>();
+            private final SPPHeaderView view = new SPPHeaderView();
 
             @Override
             public void run() {
                 this.setName("ReceiveThread_malspp");
                 while (!isInterrupted()) {
-                    final MALMessage msg = receive(socket, qosProperties, segmenters, this);
-                    if (null != msg) {
-                        try {
-                            receivedMessages.put(msg);
-                        } catch (final InterruptedException ex) {
-                            LOGGER.log(Level.INFO, THREAD_INTERRUPTED, ex);
-                            break;
+                    try {
+                        if (null == decodeRings) {
+                            final MALMessage msg = receive(socket, qosProperties, configurations, this, view);
+                            if (null != msg) {
+                                enqueueReceivedMessage(msg);
+                            }
+                        } else {
+                            final SpacePacket spacePacket = receivePacket(socket, this);
+                            if (null != spacePacket) {
+                                final int shard = ((spacePacket.getApidQualifier() << 11) ^ spacePacket.getHeader()
+                                    .getApid()) & Integer.MAX_VALUE;
+                                decodeRings[shard % decodeRings.length].put(spacePacket);
+                            }
                         }
+                    } catch (final InterruptedException ex) {
+                        LOGGER.log(Level.INFO, THREAD_INTERRUPTED, ex);
+                        break;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Constructs a decode thread taking Space Packets from a ring filled by the
+     * receive thread. The thread is not started.
+     *
+     * @param index          Number of the decode thread.
+     * @param ring           Ring the decode thread takes Space Packets from.
+     * @param qosProperties  QoS properties.
+     * @param configurations Effective configurations per application.
+     * @return The newly created decode thread.
+     */
+    private Thread constructDecodeThread(final int index, final SPPRing<SpacePacket> ring, final Map qosProperties,
+        final SPPConfigurationCache configurations) {
+        return new Thread() {
+            private final SPPHeaderView view = new SPPHeaderView();
+
+            @Override
+            public void run() {
+                this.setName("DecodeThread_malspp_" + index);
+                while (!isInterrupted()) {
+                    try {
+                        final MALMessage msg = decode(ring.take(), qosProperties, configurations, view);
+                        if (null != msg) {
+                            enqueueReceivedMessage(msg);
+                        }
+                    } catch (final InterruptedException ex) {
+                        LOGGER.log(Level.INFO, THREAD_INTERRUPTED, ex);
+                        break;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Constructs a thread periodically discarding incomplete segmented messages that
+     * have timed out. The thread is not started.
+     *
+     * @return The newly created segment timeout thread.
+     */
+    private Thread constructSegmentTimeoutThread() {
+        return new Thread() {
+            @Override
+            public void run() {
+                this.setName("SegmentTimeoutThread_malspp");
+                final long interval = Math.max(1, segmentTimeout / 2);
+                while (!isInterrupted()) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (final InterruptedException ex) {
+                        LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
+                        break;
+                    }
+                    final int removed = segmenter.removeTimedOut();
+                    if (removed > 0) {
+                        LOGGER.log(Level.FINE, "Discarded {0} incomplete segmented message(s) after timeout.",
+                            removed);
                     }
                 }
             }
@@ -679,44 +963,11 @@ public class SPPTransport implements MALTransport {
                 while (!isInterrupted()) {
                     try {
                         final MALMessage msg = receivedMessages.take();
-
-                        final Long transId = msg.getHeader().getTransactionId();
-
-                        LinkedBlockingQueue<MALMessage> msgs = null;
-
-                        synchronized (MUTEX) {
-                            msgs = transMap.get(transId);
-
-                            if (msgs != null) {
-                                msgs.add(msg);
-                                continue;
-                            }
+                        if (msg instanceof SPPMessage && ((SPPMessage) msg).isReceived()) {
+                            dispatch(msg, qosProperties);
+                        } else {
+                            dispatchUnbounded(msg, qosProperties);
                         }
-
-                        msgs = new LinkedBlockingQueue<>();
-                        msgs.add(msg);
-                        transMap.put(transId, msgs);
-
-                        executor.submit(new Runnable() {
-                            @Override
-                            public void run() {
-                                final LinkedBlockingQueue<MALMessage> msgsIn = transMap.get(transId);
-
-                                MALMessage msg = msgsIn.poll();
-                                while (msg != null) {
-                                    handleReceivedMessage(msg, qosProperties);
-
-                                    synchronized (MUTEX) {
-                                        msg = msgsIn.poll();
-
-                                        if (msg == null) {
-                                            transMap.remove(transId);
-                                        }
-                                    }
-                                }
-                            }
-                        });
-
                     } catch (final InterruptedException ex) {
                         LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
                         break;
@@ -727,17 +978,133 @@ public class SPPTransport implements MALTransport {
     }
 
     /**
-     * Injects a message in the list of received messages. This is useful if a
-     * message is not received on the SPP socket but shall be put in the message
-     * queue by some other means (e.g. because it has been dispatched in the same
-     * process). You need to make sure the message is usable in the same way as if
-     * it was received on the socket.
+     * Hands a message received on the socket to the dispatch threads for
+     * delivery to its endpoint. Messages of the same transaction are delivered
+     * one after another. Waits while the transaction already has the maximum
+     * number of messages waiting for delivery, which in turn holds up the
+     * lanes of received messages and with them reading from the socket.
+     *
+     * @param msg           The MAL message to be delivered.
+     * @param qosProperties QoS properties.
+     * @throws InterruptedException
+     */
+    private void dispatch(final MALMessage msg, final Map qosProperties) throws InterruptedException {
+        final Long transId = msg.getHeader().getTransactionId();
+        dispatcher.execute(null == transId ? 0 : transId, createDelivery(msg, qosProperties));
+    }
+
+    /**
+     * Like dispatch(), but never waits. For messages sent within the process.
+     *
+     * @param msg           The MAL message to be delivered.
+     * @param qosProperties QoS properties.
+     */
+    private void dispatchUnbounded(final MALMessage msg, final Map qosProperties) {
+        final Long transId = msg.getHeader().getTransactionId();
+        dispatcher.executeUnbounded(null == transId ? 0 : transId, createDelivery(msg, qosProperties));
+    }
+
+    /**
+     * @return A task delivering the message to its endpoint.
+     */
+    private Runnable createDelivery(final MALMessage msg, final Map qosProperties) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                handleReceivedMessage(msg, qosProperties);
+                if (msg instanceof SPPMessage) {
+                    ((SPPMessage) msg).detach();
+                }
+            }
+        };
+    }
+
+    /**
+     * Injects a message as if it was received. This is useful if a message is not
+     * received on the SPP socket but by some other means (e.g. because it has been
+     * dispatched in the same process). You need to make sure the message is usable
+     * in the same way as if it was received on the socket.
+     *
+     * Unless disabled by configuration, the message is handed to the dispatch
+     * threads directly instead of waiting in the queue of received messages, so
+     * that messages sent within the process neither take up room meant for
+     * messages received on the socket nor wait behind them. Handing it over to
+     * the dispatch threads never waits, also when it has been queued, as
+     * listeners sending to an endpoint of this transport run on the dispatch
+     * threads themselves: a dispatch thread waiting for room in the queue of a
+     * transaction another one is stuck delivering could deadlock.
      *
      * @param msg The MAL message to be injected.
      * @throws InterruptedException
      */
     protected void injectReceivedMessage(final MALMessage msg) throws InterruptedException {
-        receivedMessages.put(msg);
+        inProcessCount.incrementAndGet();
+        if (inProcessDirect) {
+            dispatchUnbounded(msg, properties);
+        } else {
+            enqueueReceivedMessage(msg);
+        }
+    }
+
+    /**
+     * @return The number of messages injected, i.e. delivered within the process.
+     */
+    protected long getInProcessCount() {
+        return inProcessCount.get();
+    }
+
+    /**
+     * Puts a message in the lane of the received messages queue it belongs to,
+     * waiting while the lane is full.
+     *
+     * @param msg The received MAL message.
+     * @throws InterruptedException
+     */
+    private void enqueueReceivedMessage(final MALMessage msg) throws InterruptedException {
+        receivedMessages.put(selectLane(msg.getHeader()), msg);
+    }
+
+    /**
+     * Selects the lane of the received messages queue for a message (see
+     * selectLane(MALMessageHeader, ShortList)).
+     *
+     * @param header Header of the message.
+     * @return One of LANE_CONTROL, LANE_NORMAL, LANE_BULK.
+     */
+    protected int selectLane(final MALMessageHeader header) {
+        return selectLane(header, bulkApids);
+    }
+
+    /**
+     * Selects the lane of the received messages queue for a message.
+     *
+     * The lane only depends on the interaction, not on its stage, so all
+     * messages of an interaction are delivered in the order they were received
+     * and the bulk messages of an interaction can never get into the control
+     * lane. Messages sent from one of the bulk APIDs, as well as PROGRESS and
+     * PUBSUB interactions, which may carry many updates, go to the bulk lane.
+     * SUBMIT, REQUEST and INVOKE interactions, i.e. short commands, go to the
+     * control lane. SEND messages go to the normal lane.
+     *
+     * @param header    Header of the message.
+     * @param bulkApids APIDs whose messages go to the bulk lane.
+     * @return One of LANE_CONTROL, LANE_NORMAL, LANE_BULK.
+     */
+    protected static int selectLane(final MALMessageHeader header, final ShortList bulkApids) {
+        if (!bulkApids.isEmpty() && bulkApids.contains(SPPURI.valueOf(header.getURIFrom()).getAPID())) {
+            return LANE_BULK;
+        }
+        switch (header.getInteractionType().getOrdinal()) {
+            case InteractionType._SUBMIT_INDEX:
+            case InteractionType._REQUEST_INDEX:
+            case InteractionType._INVOKE_INDEX:
+                return LANE_CONTROL;
+            case InteractionType._PROGRESS_INDEX:
+            case InteractionType._PUBSUB_INDEX:
+                return LANE_BULK;
+            default:
+                return LANE_NORMAL;
+        }
     }
 
     /**
@@ -773,20 +1140,16 @@ public class SPPTransport implements MALTransport {
     }
 
     /**
-     * Finds the segment counter belonging to a specific combination of MAL message
-     * header fields.
+     * Finds the segment counter belonging to the interaction of a MAL message header.
      *
-     * Each combination of 'Interaction Type', 'Transaction Id', 'URI From', 'URI
-     * To', 'Session', 'Session Name', 'Domain', 'Network', 'Service Area',
-     * 'Service' and 'Operation' has its own segment counter associated. If the
-     * counter does not exist, it will be created, starting from 0. The counter is
-     * only incremented for messages that need to be split because they are too
-     * large for a single Space Packet.
+     * Each combination of 'Transaction Id', 'URI From' and 'URI To' has its own segment counter
+     * associated. If the counter does not exist, it will be created, starting from 0. The counter
+     * is only incremented for messages that need to be split because they are too large for a
+     * single Space Packet.
      *
-     * This means for each new interaction a new counter will be created, possibly
-     * leading to running out of memory. One way to fix this would be to delete the
-     * counter after completion of the interaction. However, this is not implemented
-     * at the moment.
+     * Counters are held in a bounded store. They are deleted once the interaction completes (see
+     * completeInteraction()) and otherwise after the configured time to live or when the
+     * configured number of counters is exceeded.
      *
      * @param header The MAL message header used to derive a unique identifier for
      *               the segment counter from.
@@ -795,18 +1158,24 @@ public class SPPTransport implements MALTransport {
      *         none exists.
      */
     protected SPPCounter getSegmentCounter(final MALMessageHeader header) {
-        // TODO: Delete counter after completion of the interaction to prevent high
-        // memory usage.
-        final SegmentCounterId counterId = new SegmentCounterId(header);
-        SPPCounter counter;
-        synchronized (segmentCounters) {
-            counter = segmentCounters.get(counterId);
-            if (null == counter) {
-                counter = new SPPCounter(SEGMENT_COUNTER_WRAP);
-                segmentCounters.put(counterId, counter);
-            }
-        }
-        return counter;
+        return segmentCounters.get(header);
+    }
+
+    /**
+     * Notifies the transport that a MAL message has been sent or received. If the message
+     * completes its interaction, the associated segment counters are deleted.
+     *
+     * @param header The header of the sent or received MAL message.
+     */
+    protected void completeInteraction(final MALMessageHeader header) {
+        segmentCounters.complete(header);
+    }
+
+    /**
+     * @return The store holding the segment counters of this transport.
+     */
+    protected SPPSegmentCounterStore getSegmentCounterStore() {
+        return segmentCounters;
     }
 
     /**
@@ -854,100 +1223,4 @@ public class SPPTransport implements MALTransport {
         }
 
     }
-
-    /**
-     * Class for uniquely identifying a segment counter through a URI.
-     *
-     * The policy is to have one segment counter for each combination of Interaction
-     * Type, Transaction Id, URI From, URI To, Session, Session Name, Domain,
-     * Network, Service Area, Service, Operation.
-     */
-    protected static class SegmentCounterId {
-
-        private final InteractionType interactionType;
-        private final Long transactionId;
-        private final URI uriFrom;
-        private final URI uriTo;
-        private final SessionType session;
-        private final Identifier sessionName;
-        private final IdentifierList domain;
-        private final Identifier network;
-        private final UShort serviceArea;
-        private final UShort service;
-        private final UShort operation;
-
-        SegmentCounterId(final MALMessageHeader header) {
-            interactionType = header.getInteractionType();
-            transactionId = header.getTransactionId();
-            uriFrom = header.getURIFrom();
-            uriTo = header.getURITo();
-            session = header.getSession();
-            sessionName = header.getSessionName();
-            domain = header.getDomain();
-            network = header.getNetworkZone();
-            serviceArea = header.getServiceArea();
-            service = header.getService();
-            operation = header.getOperation();
-        }
-
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = 53 * hash + Objects.hashCode(this.interactionType);
-            hash = 53 * hash + Objects.hashCode(this.transactionId);
-            hash = 53 * hash + Objects.hashCode(this.uriFrom);
-            hash = 53 * hash + Objects.hashCode(this.uriTo);
-            hash = 53 * hash + Objects.hashCode(this.session);
-            hash = 53 * hash + Objects.hashCode(this.sessionName);
-            hash = 53 * hash + Objects.hashCode(this.domain);
-            hash = 53 * hash + Objects.hashCode(this.network);
-            hash = 53 * hash + Objects.hashCode(this.serviceArea);
-            hash = 53 * hash + Objects.hashCode(this.service);
-            hash = 53 * hash + Objects.hashCode(this.operation);
-            return hash;
-        }
-
-        @Override
-        public boolean equals(final Object obj) {
-            if (obj == null) {
-                return false;
-            }
-            if (getClass() != obj.getClass()) {
-                return false;
-            }
-            final SegmentCounterId other = (SegmentCounterId) obj;
-            if (!Objects.equals(this.interactionType, other.interactionType)) {
-                return false;
-            }
-            if (!Objects.equals(this.transactionId, other.transactionId)) {
-                return false;
-            }
-            if (!Objects.equals(this.uriFrom, other.uriFrom)) {
-                return false;
-            }
-            if (!Objects.equals(this.uriTo, other.uriTo)) {
-                return false;
-            }
-            if (!Objects.equals(this.session, other.session)) {
-                return false;
-            }
-            if (!Objects.equals(this.sessionName, other.sessionName)) {
-                return false;
-            }
-            if (!Objects.equals(this.domain, other.domain)) {
-                return false;
-            }
-            if (!Objects.equals(this.network, other.network)) {
-                return false;
-            }
-            if (!Objects.equals(this.serviceArea, other.serviceArea)) {
-                return false;
-            }
-            if (!Objects.equals(this.service, other.service)) {
-                return false;
-            }
-            return Objects.equals(this.operation, other.operation);
-        }
-
-    }
 }
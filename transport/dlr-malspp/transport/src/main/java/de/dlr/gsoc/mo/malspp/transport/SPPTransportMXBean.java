@@ -0,0 +1,217 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Map;
+
+/**
+ * Management interface of an SPPTransport, registered with the platform MBean server as
+ * "de.dlr.gsoc.mo.malspp:type=SPPTransport,protocol=&lt;protocol&gt;,id=&lt;n&gt;". Counters are cumulative
+ * since the transport was created, depths are current values.
+ */
+public interface SPPTransportMXBean {
+
+    long getPacketsReceived();
+
+    long getBytesReceived();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    /**
+     * @return Received Space Packets keyed by "qualifier/APID".
+     */
+    Map<String, Long> getPacketsReceivedByApid();
+
+    /**
+     * @return Received octets of packet data fields keyed by "qualifier/APID".
+     */
+    Map<String, Long> getBytesReceivedByApid();
+
+    /**
+     * @return Sent Space Packets keyed by "qualifier/APID".
+     */
+    Map<String, Long> getPacketsSentByApid();
+
+    /**
+     * @return Sent octets of packet data fields keyed by "qualifier/APID".
+     */
+    Map<String, Long> getBytesSentByApid();
+
+    /**
+     * @return Space Packets with a CRC error, counted by all SPP readers of the process.
+     */
+    long getCrcErrors();
+
+    long getDiscardedWhitelist();
+
+    long getDiscardedNoSecondaryHeader();
+
+    long getDiscardedUnknownApid();
+
+    long getDiscardedMalformed();
+
+    /**
+     * @return Incomplete segmented messages discarded after the timeout.
+     */
+    long getReassemblyTimeouts();
+
+    /**
+     * @return Space Packets of segmented messages that could not be completed.
+     */
+    long getReassemblyDiscarded();
+
+    /**
+     * @return Incomplete segmented messages discarded because a new first segment arrived for the same interaction.
+     */
+    long getReassemblyReplaced();
+
+    /**
+     * @return Incomplete segmented messages discarded because a segment counter exceeded the maximum segment count.
+     */
+    long getReassemblyOversized();
+
+    /**
+     * @return Segmented messages currently being recombined.
+     */
+    int getPartialMessages();
+
+    /**
+     * @return Segment counters of interactions that have not completed yet.
+     */
+    int getSegmentCounters();
+
+    /**
+     * @return Segment counters removed after SEGMENT_COUNTER_TTL or because SEGMENT_COUNTER_LIMIT was exceeded.
+     */
+    long getSegmentCounterEvictions();
+
+    /**
+     * @return Received messages waiting in all lanes for the message handler thread.
+     */
+    int getLaneQueueDepth();
+
+    /**
+     * @return Received messages waiting in each lane (control, normal, bulk) for the message
+     *         handler thread.
+     */
+    int[] getLaneQueueDepths();
+
+    /**
+     * @return Largest number of received messages that have been waiting in each lane (control,
+     *         normal, bulk) for the message handler thread.
+     */
+    int[] getLaneQueueMaxDepths();
+
+    /**
+     * @return Received messages handed to the dispatch threads but not yet delivered.
+     */
+    int getDispatchQueueDepth();
+
+    /**
+     * @return Largest number of received messages that have been handed to the dispatch threads but
+     *         not yet delivered.
+     */
+    int getDispatchQueueMaxDepth();
+
+    /**
+     * @return Messages sent within the process queued for delivery while their transaction
+     *         already had DISPATCH_QUEUE_LIMIT messages waiting.
+     */
+    long getDispatchOverflow();
+
+    /**
+     * @return Space Packets waiting for all decode threads.
+     */
+    int getDecodeQueueDepth();
+
+    /**
+     * @return Space Packets waiting for each decode thread. Empty if the receive thread decodes.
+     */
+    int[] getDecodeQueueDepths();
+
+    /**
+     * @return Largest number of Space Packets that have been waiting for each decode thread. Empty
+     *         if the receive thread decodes.
+     */
+    int[] getDecodeQueueMaxDepths();
+
+    /**
+     * @return Messages waiting for the packet writer thread.
+     */
+    int getSendQueueDepth();
+
+    /**
+     * @return Total time the socket lock has been held for sending, in nanoseconds.
+     */
+    long getSendLockNanos();
+
+    long getSendLockCount();
+
+    /**
+     * @return Space Packets the packet writer thread could not write. Such errors are not reported to the sender.
+     */
+    long getSendFailures();
+
+    long getInProcessMessages();
+
+    /**
+     * @return APIDs in the whitelist of processed Space Packets, shared by all transports of the process.
+     */
+    int getProcessedApids();
+
+    /**
+     * @return APIDs in the whitelist of Space Packets carrying a CRC, shared by all transports of the process.
+     */
+    int getCrcApids();
+
+    /**
+     * @return Times the whitelists have been reloaded after they were loaded first.
+     */
+    long getWhitelistReloads();
+
+    /**
+     * @return Lookups of SPP URIs answered from the URI cache, shared by all transports of the process.
+     */
+    long getUriCacheHits();
+
+    /**
+     * @return Lookups of SPP URIs that had to parse or build the URI, shared by all transports of the
+     *         process.
+     */
+    long getUriCacheMisses();
+
+    /**
+     * @return Ratio of SPP URI lookups answered from the URI cache, 0 if there have been no lookups.
+     */
+    double getUriCacheHitRate();
+
+    /**
+     * Reads the whitelist files again.
+     */
+    void reloadWhitelists();
+
+    /**
+     * Reads the mapping configuration file of the transport again. Effective configurations are
+     * rebuilt on next use.
+     */
+    void reloadMappingConfiguration();
+}
@@ -0,0 +1,446 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPApidWhitelist;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPHelper;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPReader;
+
+/**
+ * Exposes the metrics and queue depths of a transport through JMX and, if an interval is
+ * configured, writes a snapshot of them periodically to a CSV file or to the log.
+ */
+public class SPPTransportMonitor implements SPPTransportMXBean {
+
+    private static final Logger LOGGER = Logger.getLogger(SPPTransportMonitor.class.getName());
+    private static final String JMX_ERROR = "Unable to register transport metrics with the MBean server.";
+    private static final String WRITE_ERROR = "Unable to write transport metrics snapshot.";
+    private static final String THREAD_INTERRUPTED = "Thread interrupted.";
+    private static final String DOMAIN = "de.dlr.gsoc.mo.malspp";
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    private static final String[] COLUMNS = {"timestamp", "packetsReceived", "bytesReceived", "packetsSent",
+                                             "bytesSent", "crcErrors", "discardedWhitelist",
+                                             "discardedNoSecondaryHeader", "discardedUnknownApid", "discardedMalformed",
+                                             "reassemblyTimeouts", "reassemblyDiscarded", "reassemblyReplaced",
+                                             "reassemblyOversized", "partialMessages", "segmentCounters",
+                                             "segmentCounterEvictions", "laneQueueDepth", "laneQueueMaxDepth",
+                                             "dispatchQueueDepth", "dispatchQueueMaxDepth", "dispatchOverflow",
+                                             "decodeQueueDepth", "decodeQueueMaxDepth", "sendQueueDepth",
+                                             "sendLockNanos", "sendLockCount", "sendFailures", "inProcessMessages",
+                                             "processedApids", "crcApids", "whitelistReloads", "uriCacheHits",
+                                             "uriCacheMisses"};
+    private final SPPTransport transport;
+    private final SPPMetrics metrics;
+    private final String protocol;
+    private ObjectName name;
+    private Thread snapshotThread;
+
+    public SPPTransportMonitor(final SPPTransport transport, final SPPMetrics metrics, final String protocol) {
+        this.transport = transport;
+        this.metrics = metrics;
+        this.protocol = protocol;
+    }
+
+    /**
+     * Registers the monitor with the platform MBean server and starts the snapshot thread as
+     * configured. Failing to register is logged and otherwise ignored.
+     *
+     * @param jmx      True to register with the platform MBean server.
+     * @param interval Milliseconds between snapshots, 0 for none.
+     * @param file     File the snapshots are appended to as CSV. Null to log them.
+     */
+    public synchronized void start(final boolean jmx, final long interval, final String file) {
+        if (jmx && null == name) {
+            try {
+                final ObjectName objectName = new ObjectName(DOMAIN + ":type=SPPTransport,protocol=" + ObjectName
+                    .quote(String.valueOf(protocol)) + ",id=" + INSTANCES.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+                name = objectName;
+            } catch (final JMException ex) {
+                LOGGER.log(Level.WARNING, JMX_ERROR, ex);
+            }
+        }
+        if (interval > 0 && null == snapshotThread) {
+            snapshotThread = constructSnapshotThread(interval, null == file ? null : new File(file));
+            snapshotThread.start();
+        }
+    }
+
+    /**
+     * Stops the snapshot thread and unregisters the monitor.
+     */
+    public synchronized void stop() {
+        if (null != snapshotThread) {
+            snapshotThread.interrupt();
+            snapshotThread = null;
+        }
+        if (null != name) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(name);
+            } catch (final JMException ex) {
+                LOGGER.log(Level.FINE, JMX_ERROR, ex);
+            }
+            name = null;
+        }
+    }
+
+    /**
+     * @return The name the monitor is registered with, null if it is not registered.
+     */
+    public synchronized ObjectName getName() {
+        return name;
+    }
+
+    /**
+     * @return The names of the values of a snapshot.
+     */
+    public static String[] getColumns() {
+        return COLUMNS.clone();
+    }
+
+    /**
+     * @return The current values in the order of getColumns().
+     */
+    public long[] snapshot() {
+        final long[] totals = metrics.getTotals();
+        return new long[]{System.currentTimeMillis(), totals[0], totals[1], totals[2], totals[3], getCrcErrors(),
+                          getDiscardedWhitelist(), getDiscardedNoSecondaryHeader(), getDiscardedUnknownApid(),
+                          getDiscardedMalformed(), getReassemblyTimeouts(), getReassemblyDiscarded(),
+                          getReassemblyReplaced(), getReassemblyOversized(), getPartialMessages(), getSegmentCounters(),
+                          getSegmentCounterEvictions(), getLaneQueueDepth(), max(getLaneQueueMaxDepths()),
+                          getDispatchQueueDepth(), getDispatchQueueMaxDepth(), getDispatchOverflow(),
+                          getDecodeQueueDepth(), max(getDecodeQueueMaxDepths()), getSendQueueDepth(),
+                          getSendLockNanos(), getSendLockCount(), getSendFailures(), getInProcessMessages(),
+                          getProcessedApids(), getCrcApids(), getWhitelistReloads(), getUriCacheHits(),
+                          getUriCacheMisses()};
+    }
+
+    @Override
+    public long getPacketsReceived() {
+        return metrics.getPacketsReceived();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return metrics.getBytesReceived();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return metrics.getPacketsSent();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return metrics.getBytesSent();
+    }
+
+    @Override
+    public Map<String, Long> getPacketsReceivedByApid() {
+        return byApid(0);
+    }
+
+    @Override
+    public Map<String, Long> getBytesReceivedByApid() {
+        return byApid(1);
+    }
+
+    @Override
+    public Map<String, Long> getPacketsSentByApid() {
+        return byApid(2);
+    }
+
+    @Override
+    public Map<String, Long> getBytesSentByApid() {
+        return byApid(3);
+    }
+
+    @Override
+    public long getCrcErrors() {
+        return SPPReader.getCrcErrorCount();
+    }
+
+    @Override
+    public long getDiscardedWhitelist() {
+        return metrics.getDiscardedCount(SPPMetrics.Discard.WHITELIST);
+    }
+
+    @Override
+    public long getDiscardedNoSecondaryHeader() {
+        return metrics.getDiscardedCount(SPPMetrics.Discard.NO_SECONDARY_HEADER);
+    }
+
+    @Override
+    public long getDiscardedUnknownApid() {
+        return metrics.getDiscardedCount(SPPMetrics.Discard.UNKNOWN_APID);
+    }
+
+    @Override
+    public long getDiscardedMalformed() {
+        return metrics.getDiscardedCount(SPPMetrics.Discard.MALFORMED);
+    }
+
+    @Override
+    public long getReassemblyTimeouts() {
+        return transport.getSegmenter().getTimedOutCount();
+    }
+
+    @Override
+    public long getReassemblyDiscarded() {
+        return transport.getSegmenter().getDiscardedCount();
+    }
+
+    @Override
+    public long getReassemblyReplaced() {
+        return transport.getSegmenter().getReplacedCount();
+    }
+
+    @Override
+    public long getReassemblyOversized() {
+        return transport.getSegmenter().getOversizedCount();
+    }
+
+    @Override
+    public int getPartialMessages() {
+        return transport.getSegmenter().size();
+    }
+
+    @Override
+    public int getSegmentCounters() {
+        return transport.getSegmentCounterStore().size();
+    }
+
+    @Override
+    public long getSegmentCounterEvictions() {
+        return transport.getSegmentCounterStore().getEvictedCount();
+    }
+
+    @Override
+    public int getLaneQueueDepth() {
+        return sum(transport.getLaneQueueDepths());
+    }
+
+    @Override
+    public int[] getLaneQueueDepths() {
+        return transport.getLaneQueueDepths();
+    }
+
+    @Override
+    public int[] getLaneQueueMaxDepths() {
+        return transport.getLaneQueueMaxDepths();
+    }
+
+    @Override
+    public int getDispatchQueueDepth() {
+        return transport.getDispatcher().getPendingCount();
+    }
+
+    @Override
+    public int getDispatchQueueMaxDepth() {
+        return transport.getDispatcher().getMaxPendingCount();
+    }
+
+    @Override
+    public long getDispatchOverflow() {
+        return transport.getDispatcher().getOverflowCount();
+    }
+
+    @Override
+    public int getDecodeQueueDepth() {
+        return sum(transport.getDecodeQueueDepths());
+    }
+
+    @Override
+    public int[] getDecodeQueueDepths() {
+        return transport.getDecodeQueueDepths();
+    }
+
+    @Override
+    public int[] getDecodeQueueMaxDepths() {
+        return transport.getDecodeQueueMaxDepths();
+    }
+
+    @Override
+    public int getSendQueueDepth() {
+        final SPPPacketWriter writer = transport.getPacketWriter();
+        return null == writer ? 0 : writer.size();
+    }
+
+    @Override
+    public long getSendLockNanos() {
+        return metrics.getSendLockNanos();
+    }
+
+    @Override
+    public long getSendLockCount() {
+        return metrics.getSendLockCount();
+    }
+
+    @Override
+    public long getSendFailures() {
+        final SPPPacketWriter writer = transport.getPacketWriter();
+        return null == writer ? 0 : writer.getFailedCount();
+    }
+
+    @Override
+    public long getInProcessMessages() {
+        return transport.getInProcessCount();
+    }
+
+    @Override
+    public int getProcessedApids() {
+        return SPPApidWhitelist.get(SPPHelper.PROCESSED_FILENAME).size();
+    }
+
+    @Override
+    public int getCrcApids() {
+        return SPPApidWhitelist.get(SPPHelper.CRC_FILENAME).size();
+    }
+
+    @Override
+    public long getWhitelistReloads() {
+        return SPPApidWhitelist.get(SPPHelper.PROCESSED_FILENAME).getReloadCount() + SPPApidWhitelist.get(
+            SPPHelper.CRC_FILENAME).getReloadCount();
+    }
+
+    @Override
+    public long getUriCacheHits() {
+        return SPPURI.getCache().getHitCount();
+    }
+
+    @Override
+    public long getUriCacheMisses() {
+        return SPPURI.getCache().getMissCount();
+    }
+
+    @Override
+    public double getUriCacheHitRate() {
+        return SPPURI.getCache().getHitRate();
+    }
+
+    @Override
+    public void reloadWhitelists() {
+        SPPApidWhitelist.reloadAll();
+    }
+
+    @Override
+    public void reloadMappingConfiguration() {
+        try {
+            transport.reloadMappingConfiguration();
+        } catch (final MALException ex) {
+            LOGGER.log(Level.WARNING, ex.getMessage(), ex);
+            throw new IllegalStateException(ex.getMessage());
+        }
+    }
+
+    private static int sum(final int[] values) {
+        int sum = 0;
+        for (final int v : values) {
+            sum += v;
+        }
+        return sum;
+    }
+
+    private static int max(final int[] values) {
+        int max = 0;
+        for (final int v : values) {
+            max = Math.max(max, v);
+        }
+        return max;
+    }
+
+    private Map<String, Long> byApid(final int column) {
+        final Map<String, Long> result = new TreeMap<>();
+        for (final Map.Entry<String, long[]> entry : metrics.getApidCounters().entrySet()) {
+            result.put(entry.getKey(), entry.getValue()[column]);
+        }
+        return result;
+    }
+
+    private void write(final File file, final long[] values) throws IOException {
+        final boolean isNew = !file.exists() || file.length() == 0;
+        try (Writer writer = new FileWriter(file, true)) {
+            if (isNew) {
+                writer.write(join(COLUMNS));
+                writer.write('\n');
+            }
+            final StringBuilder line = new StringBuilder();
+            for (int i = 0; i < values.length; i++) {
+                line.append(i == 0 ? "" : ",").append(values[i]);
+            }
+            writer.write(line.append('\n').toString());
+        }
+    }
+
+    private static String join(final String[] columns) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            sb.append(i == 0 ? "" : ",").append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+    private Thread constructSnapshotThread(final long interval, final File file) {
+        return new Thread() {
+            @Override
+            public void run() {
+                this.setName("MetricsThread_malspp");
+                while (!isInterrupted()) {
+                    try {
+                        Thread.sleep(interval);
+                    } catch (final InterruptedException ex) {
+                        LOGGER.log(Level.INFO, THREAD_INTERRUPTED);
+                        break;
+                    }
+                    final long[] values = snapshot();
+                    if (null == file) {
+                        final StringBuilder sb = new StringBuilder("Transport metrics (").append(protocol).append(
+                            "):");
+                        for (int i = 1; i < values.length; i++) {
+                            sb.append(' ').append(COLUMNS[i]).append('=').append(values[i]);
+                        }
+                        LOGGER.log(Level.INFO, sb.toString());
+                    } else {
+                        try {
+                            write(file, values);
+                        } catch (final IOException ex) {
+                            LOGGER.log(Level.WARNING, WRITE_ERROR, ex);
+                        }
+                    }
+                }
+            }
+        };
+    }
+}
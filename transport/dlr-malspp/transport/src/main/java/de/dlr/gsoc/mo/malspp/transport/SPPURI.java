@@ -45,6 +45,8 @@ public class SPPURI {
     private static final String INVALID_URI = "Not a valid MAL/SPP URI.";
     private static final Pattern URI_PATTERN = Pattern.compile("\\A" + SCHEME_NAME +
         ":(\\d{1,5})/(\\d{1,4})(?:/(\\d{1,3}))?\\z");
+    private static final int CACHE_SIZE = 4096;
+    private static final SPPURICache CACHE = new SPPURICache(CACHE_SIZE);
 
     public SPPURI(final int qualifier, final short apid, final Short identifier) {
         init(qualifier, apid, identifier);
@@ -75,6 +77,35 @@ public class SPPURI {
             .group(3)));
     }
 
+    /**
+     * Like SPPURI(qualifier, apid, identifier), but returns a shared instance if the URI has been
+     * looked up before.
+     */
+    public static SPPURI valueOf(final int qualifier, final short apid, final Short identifier) {
+        return CACHE.get(qualifier, apid, identifier);
+    }
+
+    /**
+     * Like SPPURI(uri), but returns a shared instance if the URI has been looked up before.
+     */
+    public static SPPURI valueOf(final URI uri) {
+        return CACHE.get(uri.getValue());
+    }
+
+    /**
+     * Like SPPURI(uri), but returns a shared instance if the URI has been looked up before.
+     */
+    public static SPPURI valueOf(final String uri) {
+        return CACHE.get(uri);
+    }
+
+    /**
+     * @return The cache used by valueOf(), e.g. for reading its hit rate.
+     */
+    public static SPPURICache getCache() {
+        return CACHE;
+    }
+
     private void init(final int qualifier, final short apid, final Short identifier) {
         if (qualifier < 0 || qualifier > 65535 || apid < 0 || apid >= 2047 || (identifier != null && (identifier < 0 ||
             identifier > 255))) {
@@ -0,0 +1,133 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of SPPURI instances, which are immutable and therefore can be shared.
+ *
+ * URIs can be looked up both by their string representation and by APID qualifier, APID and
+ * identifier, so that neither the string needs to be parsed nor the string be built again for a
+ * URI that has been seen before. When the cache is full it is emptied, which is cheap and rare,
+ * because a transport only talks to a small number of applications.
+ */
+public class SPPURICache {
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, SPPURI> byString = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, SPPURI> byFields = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity Maximum number of cached URIs per kind of lookup.
+     */
+    public SPPURICache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException();
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param uri String representation of the URI.
+     * @return The cached SPPURI, or a new one if it has not been looked up before.
+     * @throws IllegalArgumentException If the string is not a valid MAL/SPP URI.
+     */
+    public SPPURI get(final String uri) {
+        SPPURI sppURI = byString.get(uri);
+        if (null != sppURI) {
+            hits.increment();
+            return sppURI;
+        }
+        misses.increment();
+        sppURI = new SPPURI(uri);
+        makeRoom();
+        byString.put(uri, sppURI);
+        byString.put(sppURI.getURI().getValue(), sppURI);
+        byFields.put(key(sppURI.getQualifier(), sppURI.getAPID(), sppURI.getIdentifier()), sppURI);
+        return sppURI;
+    }
+
+    /**
+     * @return The cached SPPURI, or a new one if it has not been looked up before.
+     * @throws IllegalArgumentException If the fields do not form a valid MAL/SPP URI.
+     */
+    public SPPURI get(final int qualifier, final short apid, final Short identifier) {
+        if (qualifier < 0 || qualifier > 65535) {
+            return new SPPURI(qualifier, apid, identifier); // invalid, throws
+        }
+        final Long key = key(qualifier, apid, identifier);
+        SPPURI sppURI = byFields.get(key);
+        if (null != sppURI) {
+            hits.increment();
+            return sppURI;
+        }
+        misses.increment();
+        sppURI = new SPPURI(qualifier, apid, identifier);
+        makeRoom();
+        byFields.put(key, sppURI);
+        byString.put(sppURI.getURI().getValue(), sppURI);
+        return sppURI;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Ratio of lookups answered from the cache, 0 if there have been no lookups.
+     */
+    public double getHitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum();
+        return 0 == total ? 0 : (double) h / total;
+    }
+
+    public int size() {
+        return Math.max(byString.size(), byFields.size());
+    }
+
+    public void clear() {
+        byString.clear();
+        byFields.clear();
+    }
+
+    private void makeRoom() {
+        if (byString.size() >= capacity || byFields.size() >= capacity) {
+            clear();
+        }
+    }
+
+    /**
+     * Packs the fields of a URI into a key that is unique also for invalid APIDs and identifiers,
+     * which are never cached.
+     */
+    private static Long key(final int qualifier, final short apid, final Short identifier) {
+        return ((long) qualifier << 40) | ((apid & 0xFFFFL) << 24) | (null == identifier ? 0x10000L : identifier
+            & 0xFFFF);
+    }
+}
@@ -0,0 +1,38 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.spp;
+
+/**
+ * Space Packet socket that can write a run of Space Packets at once, for
+ * example all segments of a message, instead of one by one.
+ */
+public interface SPPBatchSocket extends SPPSocket {
+
+    /**
+     * Sends the Space Packets in order, as if send(SpacePacket) was called
+     * for each of them, but flushes the underlying connection once per batch
+     * rather than once per Space Packet.
+     *
+     * @param packets The Space Packets to send.
+     * @throws Exception If not all Space Packets could be sent. Some of them
+     * may have been sent.
+     */
+    void send(SpacePacket[] packets) throws Exception;
+}
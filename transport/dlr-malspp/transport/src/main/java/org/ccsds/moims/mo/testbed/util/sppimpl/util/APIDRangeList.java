@@ -10,7 +10,9 @@ import java.util.ArrayList;
 /**
  * List of APID ranges used to form a composite range of possible APIDs consisting of several intervals.
  * @author yannick
+ * @deprecated Replaced by SPPApidWhitelist.
  */
+@Deprecated
 public class APIDRangeList extends ArrayList<APIDRange> {
     /**
      * Checks if a specified APID is inside the range of this list.
@@ -0,0 +1,268 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Set of APIDs read from a whitelist file, one APID or range "first-last" per
+ * line, as with SPPHelper.initWhitelist().
+ *
+ * The APIDs are held in a 2048 bit set which is replaced as a whole when the
+ * file is reloaded, so lookups neither lock nor see a partially loaded list.
+ * All users of a file share one instance, obtained by get(). Unless disabled
+ * by the system property "org.ccsds.moims.mo.malspp.whitelist.watch", a
+ * thread named WhitelistWatcher_malspp reloads a whitelist when its file is
+ * created, modified or replaced; reload() and reloadAll() do so explicitly.
+ */
+public final class SPPApidWhitelist {
+
+    public static final int APID_COUNT = 2048;
+    private static final Logger LOGGER = Logger.getLogger(SPPApidWhitelist.class.getName());
+    private static final String WATCH_PROPERTY = "org.ccsds.moims.mo.malspp.whitelist.watch";
+    /**
+     * Milliseconds without further changes before a changed file is reloaded,
+     * so that a file being written is not read halfway.
+     */
+    private static final long SETTLE_DELAY = 100;
+    private static final Map<Path, SPPApidWhitelist> INSTANCES = new HashMap<>();
+    private static WatchService watchService;
+    private static final Map<WatchKey, Path> WATCHED_DIRS = new HashMap<>();
+
+    private final Path path;
+    private final AtomicLong reloadCount = new AtomicLong();
+    private volatile long[] bits;
+
+    private SPPApidWhitelist(final Path path) {
+        this.path = path;
+        bits = new long[APID_COUNT / 64];
+    }
+
+    /**
+     * @param fileName Name of the whitelist file, relative to the working
+     * directory unless absolute.
+     * @return The whitelist of the file, loaded on first use. A missing file
+     * yields an empty whitelist.
+     * @throws NumberFormatException If the file is malformed when loaded
+     * first.
+     */
+    public static SPPApidWhitelist get(final String fileName) {
+        final Path path = new File(fileName).getAbsoluteFile().toPath().normalize();
+        synchronized (INSTANCES) {
+            final SPPApidWhitelist existing = INSTANCES.get(path);
+            if (null != existing) {
+                return existing;
+            }
+            // loaded before it is published, so no user sees it empty
+            final SPPApidWhitelist whitelist = new SPPApidWhitelist(path);
+            try {
+                whitelist.bits = parse(path.toFile());
+            } catch (final IOException ex) {
+                LOGGER.log(Level.WARNING, null, ex);
+            }
+            INSTANCES.put(path, whitelist);
+            if (Boolean.parseBoolean(System.getProperty(WATCH_PROPERTY, "true"))) {
+                watch(path.getParent());
+            }
+            return whitelist;
+        }
+    }
+
+    /**
+     * Reloads all whitelists obtained by get() so far.
+     */
+    public static void reloadAll() {
+        final List<SPPApidWhitelist> whitelists;
+        synchronized (INSTANCES) {
+            whitelists = new ArrayList<>(INSTANCES.values());
+        }
+        for (final SPPApidWhitelist whitelist : whitelists) {
+            whitelist.reload();
+        }
+    }
+
+    /**
+     * @param apid APID of a Space Packet.
+     * @return True if the APID is in the whitelist.
+     */
+    public boolean contains(final int apid) {
+        final long[] b = bits;
+        return (b[(apid >>> 6) & (b.length - 1)] & (1L << apid)) != 0;
+    }
+
+    /**
+     * Reads the file again and replaces the whitelist. If the file cannot be
+     * read or parsed, the current whitelist is kept.
+     *
+     * @return True if the whitelist has been replaced.
+     */
+    public synchronized boolean reload() {
+        final long[] reloaded;
+        try {
+            reloaded = parse(path.toFile());
+        } catch (final IOException | NumberFormatException ex) {
+            LOGGER.log(Level.WARNING, "Keeping whitelist of " + size() + " APIDs from " + path, ex);
+            return false;
+        }
+        bits = reloaded;
+        reloadCount.incrementAndGet();
+        LOGGER.log(Level.INFO, "Reloaded whitelist of {0} APIDs from {1}", new Object[]{size(), path});
+        return true;
+    }
+
+    /**
+     * @return Number of APIDs in the whitelist.
+     */
+    public int size() {
+        int size = 0;
+        for (final long word : bits) {
+            size += Long.bitCount(word);
+        }
+        return size;
+    }
+
+    /**
+     * @return Number of times the whitelist has been replaced after it was
+     * loaded first.
+     */
+    public long getReloadCount() {
+        return reloadCount.get();
+    }
+
+    /**
+     * @return The whitelist file.
+     */
+    public File getFile() {
+        return path.toFile();
+    }
+
+    private static long[] parse(final File f) throws IOException {
+        final long[] result = new long[APID_COUNT / 64];
+        try (BufferedReader br = new BufferedReader(new FileReader(f))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                final String[] range = line.split("-");
+                final int first = Integer.parseInt(range[0].trim());
+                final int second = range.length == 2 ? Integer.parseInt(range[1].trim()) : first;
+                if (range.length > 2) {
+                    throw new NumberFormatException("Invalid APID range: " + line);
+                }
+                final int min = Math.max(0, Math.min(first, second));
+                final int max = Math.min(APID_COUNT - 1, Math.max(first, second));
+                for (int apid = min; apid <= max; apid++) {
+                    result[apid >>> 6] |= 1L << apid;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Registers the directory with the watch service, starting the watcher
+     * thread on first use. Must be called holding the lock on INSTANCES.
+     */
+    private static void watch(final Path dir) {
+        if (WATCHED_DIRS.containsValue(dir)) {
+            return;
+        }
+        try {
+            if (null == watchService) {
+                watchService = FileSystems.getDefault().newWatchService();
+                final Thread watcher = constructWatcherThread(watchService);
+                watcher.setDaemon(true);
+                watcher.start();
+            }
+            final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            WATCHED_DIRS.put(key, dir);
+        } catch (final IOException | UnsupportedOperationException ex) {
+            LOGGER.log(Level.INFO, "Unable to watch " + dir + " for whitelist changes.", ex);
+        }
+    }
+
+    private static Thread constructWatcherThread(final WatchService service) {
+        return new Thread() {
+            @Override
+            public void run() {
+                this.setName("WhitelistWatcher_malspp");
+                try {
+                    while (true) {
+                        final Set<SPPApidWhitelist> changed = new LinkedHashSet<>();
+                        WatchKey key = service.take();
+                        while (null != key) {
+                            collect(key, changed);
+                            key = service.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS);
+                        }
+                        for (final SPPApidWhitelist whitelist : changed) {
+                            if (whitelist.path.toFile().exists()) {
+                                whitelist.reload();
+                            }
+                        }
+                    }
+                } catch (final InterruptedException | ClosedWatchServiceException ex) {
+                    LOGGER.log(Level.FINE, "Whitelist watcher stopped.", ex);
+                }
+            }
+        };
+    }
+
+    private static void collect(final WatchKey key, final Set<SPPApidWhitelist> changed) {
+        synchronized (INSTANCES) {
+            final Path dir = WATCHED_DIRS.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (null != dir && event.context() instanceof Path) {
+                    final SPPApidWhitelist whitelist = INSTANCES.get(dir.resolve((Path) event.context()));
+                    if (null != whitelist) {
+                        changed.add(whitelist);
+                    }
+                } else if (StandardWatchEventKinds.OVERFLOW == event.kind()) {
+                    changed.addAll(INSTANCES.values());
+                }
+            }
+            if (!key.reset()) {
+                WATCHED_DIRS.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+/**
+ * CRC-16-CCITT (polynomial 0x1021, initial value 0xFFFF, no reflection, no
+ * final XOR) as appended to the Space Packets of APIDs listed in the CRC
+ * whitelist.
+ *
+ * The CRC is computed eight octets at a time with slicing-by-8 tables, and
+ * incrementally: A CRC is started with INITIAL and updated with consecutive
+ * ranges of octets, e.g. first the primary header and then the packet data
+ * field, without combining them.
+ */
+public final class SPPCrc16 {
+
+    public static final int INITIAL = 0xFFFF;
+    private static final int POLYNOMIAL = 0x1021;
+
+    /**
+     * TABLES[k][x] is the CRC register after octet x followed by k zero octets
+     * has been shifted into a cleared register.
+     */
+    private static final int[][] TABLES = new int[8][256];
+
+    static {
+        for (int x = 0; x < 256; x++) {
+            int crc = x << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLES[0][x] = crc & 0xFFFF;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int x = 0; x < 256; x++) {
+                final int previous = TABLES[k - 1][x];
+                TABLES[k][x] = ((previous << 8) & 0xFF00) ^ TABLES[0][previous >>> 8];
+            }
+        }
+    }
+
+    private SPPCrc16() {
+    }
+
+    /**
+     * Continues a CRC over a range of octets.
+     *
+     * @param crc The CRC so far, INITIAL at the start.
+     * @param b The octets.
+     * @param off Start of the range.
+     * @param len Length of the range.
+     * @return The CRC including the range.
+     */
+    public static int update(int crc, final byte[] b, final int off, final int len) {
+        final int[] t0 = TABLES[0];
+        final int[] t1 = TABLES[1];
+        final int[] t2 = TABLES[2];
+        final int[] t3 = TABLES[3];
+        final int[] t4 = TABLES[4];
+        final int[] t5 = TABLES[5];
+        final int[] t6 = TABLES[6];
+        final int[] t7 = TABLES[7];
+        int i = off;
+        final int end = off + len;
+        for (final int blocks = end - 7; i < blocks; i += 8) {
+            crc = t7[((crc >>> 8) ^ b[i]) & 0xFF] ^ t6[(crc ^ b[i + 1]) & 0xFF] ^ t5[b[i + 2] & 0xFF]
+                ^ t4[b[i + 3] & 0xFF] ^ t3[b[i + 4] & 0xFF] ^ t2[b[i + 5] & 0xFF] ^ t1[b[i + 6] & 0xFF]
+                ^ t0[b[i + 7] & 0xFF];
+        }
+        for (; i < end; i++) {
+            crc = ((crc << 8) & 0xFF00) ^ t0[((crc >>> 8) ^ b[i]) & 0xFF];
+        }
+        return crc;
+    }
+
+    /**
+     * @param header The primary header.
+     * @param data Array holding the packet data field.
+     * @param offset Start of the packet data field.
+     * @param length Length of the packet data field.
+     * @return The CRC of the primary header followed by the packet data field.
+     */
+    public static int compute(final byte[] header, final byte[] data, final int offset, final int length) {
+        return update(update(INITIAL, header, 0, header.length), data, offset, length);
+    }
+}
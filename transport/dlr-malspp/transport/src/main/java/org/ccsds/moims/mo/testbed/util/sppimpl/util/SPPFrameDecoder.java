@@ -0,0 +1,167 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+
+/**
+ * Decodes Space Packets, optionally preceded by their APID qualifier and
+ * followed by a CRC, from a byte array holding them back to back.
+ *
+ * The decoded Space Packets reference the array instead of holding a copy of
+ * their packet data field, so the caller must not overwrite the part of the
+ * array a returned Space Packet covers.
+ */
+public class SPPFrameDecoder {
+
+    /**
+     * APID qualifier, primary header and the longest packet data field.
+     */
+    public static final int MAX_FRAME_LENGTH = 2 + 6 + 65536;
+    private static final Logger LOGGER = Logger.getLogger(SPPFrameDecoder.class.getName());
+    private static final int MAX_CONSECUTIVE_CRC_ERRORS = 3;
+    private static final AtomicLong CRC_ERROR_COUNT = new AtomicLong();
+
+    private final int headerLength;
+    private final boolean crcEnabled;
+    private final SPPApidWhitelist crcApids;
+    private final SPPApidWhitelist processedApids;
+    private int errorCount;
+
+    public SPPFrameDecoder() {
+        this(SPPHelper.getCrcEnabled(), SPPApidWhitelist.get(SPPHelper.CRC_FILENAME), SPPApidWhitelist.get(
+            SPPHelper.PROCESSED_FILENAME));
+    }
+
+    /**
+     * @param crcEnabled True if Space Packets of the APIDs in crcApids carry a
+     * CRC.
+     * @param crcApids APIDs of Space Packets carrying a CRC.
+     * @param processedApids APIDs of Space Packets to decode, all others are
+     * discarded.
+     */
+    public SPPFrameDecoder(final boolean crcEnabled, final SPPApidWhitelist crcApids,
+        final SPPApidWhitelist processedApids) {
+        headerLength = (SPPHelper.isAPIDqualifierInMessage ? 2 : 0) + 6;
+        this.crcEnabled = crcEnabled;
+        this.crcApids = crcApids;
+        this.processedApids = processedApids;
+    }
+
+    /**
+     * @return Number of octets needed to determine the length of a frame.
+     */
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * @param b Array holding at least getHeaderLength() octets of the frame.
+     * @param off Start of the frame.
+     * @return The length of the whole frame.
+     */
+    public int getFrameLength(final byte[] b, final int off) {
+        return headerLength + (((b[off + headerLength - 2] & 0xFF) << 8) | (b[off + headerLength - 1] & 0xFF)) + 1;
+    }
+
+    /**
+     * @param b Array holding at least getHeaderLength() octets of the frame.
+     * @param off Start of the frame.
+     * @return True if the APID of the Space Packet is in the list of
+     * processed APIDs, otherwise the Space Packet is to be discarded.
+     */
+    public boolean isProcessed(final byte[] b, final int off) {
+        return processedApids.contains(getApid(b, off));
+    }
+
+    private int getApid(final byte[] b, final int off) {
+        final int idx = off + headerLength - 6;
+        return ((b[idx] & 0x07) << 8) | (b[idx + 1] & 0xFF);
+    }
+
+    /**
+     * Decodes a complete frame.
+     *
+     * @param b Array holding the whole frame.
+     * @param off Start of the frame.
+     * @return The Space Packet, or null if its CRC is wrong.
+     * @throws IOException If the CRC of several Space Packets in a row is
+     * wrong.
+     */
+    public SpacePacket decode(final byte[] b, final int off) throws IOException {
+        final int apidQualifier;
+        if (SPPHelper.isAPIDqualifierInMessage) {
+            apidQualifier = ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+        } else {
+            apidQualifier = SPPHelper.defaultAPIDqualifier;
+        }
+        final int idx = off + headerLength - 6;
+        final int pk_ident = ((b[idx] & 0xFF) << 8) | (b[idx + 1] & 0xFF);
+        final int pkt_seq_ctrl = ((b[idx + 2] & 0xFF) << 8) | (b[idx + 3] & 0xFF);
+        final int apid = pk_ident & 0x07FF;
+        final boolean processCrc = crcEnabled && crcApids.contains(apid);
+        final int dataOffset = off + headerLength;
+        final int dataLength = getFrameLength(b, off) - headerLength - (processCrc ? 2 : 0);
+
+        if (processCrc) {
+            int readCRC = -1;
+            int CRC = -1;
+            if (dataLength >= 0) { // otherwise too short to hold the CRC
+                readCRC = ((b[dataOffset + dataLength] & 0xFF) << 8) | (b[dataOffset + dataLength + 1] & 0xFF);
+                // primary header and packet data field are contiguous in the frame
+                CRC = SPPCrc16.update(SPPCrc16.INITIAL, b, idx, 6 + dataLength);
+            }
+            if (dataLength < 0 || CRC != readCRC) {
+                final String error = "CRC Error:" + " expected=" + CRC + ", read=" + readCRC + " for " + " APID(" +
+                    apid + ")" + ", SSC=" + (pkt_seq_ctrl & 0x3FFF) + ", pkt_len=" + dataLength;
+                LOGGER.log(Level.WARNING, error);
+                CRC_ERROR_COUNT.incrementAndGet();
+                errorCount++;
+                if (errorCount >= MAX_CONSECUTIVE_CRC_ERRORS) {
+                    throw new IOException(error);
+                }
+                return null;
+            }
+        }
+        errorCount = 0;
+
+        final SpacePacketHeader sph = new SpacePacketHeader();
+        sph.setApid(apid);
+        sph.setSecondaryHeaderFlag((pk_ident >> 11) & 0x0001);
+        sph.setPacketType((pk_ident >> 12) & 0x0001);
+        sph.setPacketVersionNumber((pk_ident >> 13) & 0x0007);
+        sph.setSequenceCount(pkt_seq_ctrl & 0x3FFF);
+        sph.setSequenceFlags((pkt_seq_ctrl >> 14) & 0x0003);
+        return new SpacePacket(sph, apidQualifier, b, dataOffset, dataLength);
+    }
+
+    /**
+     * @return The number of Space Packets with a CRC error received by all
+     * decoders.
+     */
+    public static long getCrcErrorCount() {
+        return CRC_ERROR_COUNT.get();
+    }
+}
@@ -32,142 +32,128 @@
  */
 package org.ccsds.moims.mo.testbed.util.sppimpl.util;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
-import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
 
+/**
+ * Reads Space Packets from a stream.
+ *
+ * The stream is read in large chunks into a slab, and the received Space
+ * Packets are slices of it, so neither a read nor an array per Space Packet is
+ * needed. When the slab is used up, the octets not decoded yet are moved to a
+ * new slab and the old one is left to the garbage collector together with the
+ * last Space Packet referencing it. Slabs are not reused, as Space Packets
+ * handed out may still be waiting to be decoded by another thread. So that a
+ * few small Space Packets do not keep many slabs alive, the MAL/SPP transport
+ * copies what it keeps beyond dispatching a message: segments of messages that
+ * are not complete yet and the bodies of dispatched messages.
+ * Space Packets of APIDs that are not processed are skipped without being
+ * buffered if they are not completely buffered yet.
+ */
 public class SPPReader {
-    private static final Logger LOGGER = Logger.getLogger(SPPReader.class.getName());
     final protected static char[] HEX_ARRAY = "0123456789ABCDEF".toCharArray();
-    private final String PROCESSED_FILENAME = "processed_apids.txt";
-
-    private final byte[] apidQualifierBuffer;
-
-    private final byte[] inHeaderBuffer;
+    private static final int SLAB_SIZE = 2 * SPPFrameDecoder.MAX_FRAME_LENGTH;
 
-    private final byte[] inCrcBuffer;
     private final InputStream is;
-    private final boolean crcEnabled;
-    private final APIDRangeList crcApids;
-    private final APIDRangeList processedApids;
+    private final SPPFrameDecoder decoder;
+    private byte[] slab;
+    private int position; // start of the octets not decoded yet
+    private int limit; // end of the octets read
+    private long skip; // octets of a discarded Space Packet still to be read
     private SpacePacket packet;
-    private int errorCount;
 
     public SPPReader(final InputStream is) {
-        errorCount = 0;
-        this.is = is;
-        apidQualifierBuffer = new byte[2];
-        inHeaderBuffer = new byte[6];
-        inCrcBuffer = new byte[2];
-        crcEnabled = SPPHelper.getCrcEnabled();
-        crcApids = SPPHelper.initWhitelist(new File(SPPHelper.CRC_FILENAME));
-        processedApids = SPPHelper.initWhitelist(new File(PROCESSED_FILENAME));
+        this(is, new SPPFrameDecoder());
     }
 
-    private int read(final byte[] b, final int initialOffset, final int totalLength) throws IOException {
-        int n;
-        int len = 0;
-        do {
-            n = is.read(b, initialOffset + len, totalLength - len);
-            if (n != -1) {
-                len += n;
-            } else {
-                throw new IOException("End of input stream.");
-            }
-        } while (len < totalLength);
-        return len;
+    /**
+     * @param is Stream to read the Space Packets from.
+     * @param decoder Decoder of the Space Packets.
+     */
+    public SPPReader(final InputStream is, final SPPFrameDecoder decoder) {
+        this.is = is;
+        this.decoder = decoder;
+        slab = new byte[SLAB_SIZE];
     }
 
+    /**
+     * Reads the next Space Packet. Space Packets with a CRC error are skipped,
+     * unless several in a row are wrong.
+     *
+     * @return The Space Packet, or null if its APID is not processed.
+     * @throws IOException
+     */
     public synchronized SpacePacket receive() throws IOException {
-        final int apidQualifier;
-
-        if (SPPHelper.isAPIDqualifierInMessage) {
-            // 1- Read the APID qualifier
-            read(apidQualifierBuffer, 0, 2);
-            // Logger.getLogger(this.getClass().getName()).log(Level.INFO, "APID Qualifier: {0}",bytesToHex(apidQualifierBuffer));
-            apidQualifier = (((apidQualifierBuffer[0] & 0xFF) << 8) | (apidQualifierBuffer[1] & 0xFF));
-        } else {
-            apidQualifier = SPPHelper.defaultAPIDqualifier;
+        final int headerLength = decoder.getHeaderLength();
+        while (skip > 0) {
+            ensureRoom(1);
+            final int n = is.read(slab, limit, (int) Math.min(skip, slab.length - limit));
+            if (n == -1) {
+                throw new IOException("End of input stream.");
+            }
+            skip -= n;
         }
-
-        final SpacePacketHeader header = new SpacePacketHeader();
-        final SpacePacket outPacket = new SpacePacket(header, null, 0, 0);
-
-        outPacket.setApidQualifier(apidQualifier);
-
-        // 2- Read the Space Packet
-        read(inHeaderBuffer, 0, 6);
-        //        Logger.getLogger(this.getClass().getName()).log(Level.INFO, "Header: {0}",bytesToHex(inHeaderBuffer));
-        int pk_ident = inHeaderBuffer[0] & 0xFF;
-        pk_ident = (pk_ident << 8) | (inHeaderBuffer[1] & 0xFF);
-        final int vers_nb = (pk_ident >> 13) & 0x0007;
-        final int pkt_type = (pk_ident >> 12) & 0x0001;
-        final int sec_head_flag = (pk_ident >> 11) & 0x0001;
-        final int apid = pk_ident & 0x07FF;
-
-        final boolean processCrc = crcEnabled && crcApids.inRange(apid);
-
-        int pkt_seq_ctrl = inHeaderBuffer[2] & 0xFF;
-        pkt_seq_ctrl = (pkt_seq_ctrl << 8) | (inHeaderBuffer[3] & 0xFF);
-        final int segt_flag = (pkt_seq_ctrl >> 14) & 0x0003;
-        final int seq_count = pkt_seq_ctrl & 0x3FFF;
-
-        int pkt_length_value = inHeaderBuffer[4] & 0xFF;
-        pkt_length_value = ((pkt_length_value << 8) | (inHeaderBuffer[5] & 0xFF)) + 1;
-
-        if (processCrc) {
-            pkt_length_value = pkt_length_value - 2;
+        while (true) {
+            final int available = limit - position;
+            if (available < headerLength) {
+                fill(headerLength);
+                continue;
+            }
+            final int frameLength = decoder.getFrameLength(slab, position);
+            if (!decoder.isProcessed(slab, position)) {
+                if (available >= frameLength) {
+                    position += frameLength;
+                } else {
+                    skip = frameLength - available;
+                    position = limit;
+                }
+                return null;
+            }
+            if (available < frameLength) {
+                fill(frameLength);
+                continue;
+            }
+            final SpacePacket outPacket = decoder.decode(slab, position);
+            position += frameLength;
+            if (null != outPacket) {
+                packet = outPacket;
+                return outPacket;
+            }
+            // For singular CRC errors - discard this packet and go on with the next one
         }
-        final SpacePacketHeader sph = outPacket.getHeader();
-        sph.setApid(apid);
-        sph.setSecondaryHeaderFlag(sec_head_flag);
-        sph.setPacketType(pkt_type);
-        sph.setPacketVersionNumber(vers_nb);
-        sph.setSequenceCount(seq_count);
-        sph.setSequenceFlags(segt_flag);
-
-        final int dataLength = pkt_length_value;
+    }
 
-        if (dataLength > 65536) {
-            throw new IOException("The data length cannot be bigger than 65536!");
+    /**
+     * Reads at least one octet, making sure the slab can hold the given
+     * number of octets from the current position first.
+     */
+    private void fill(final int length) throws IOException {
+        ensureRoom(length);
+        final int n = is.read(slab, limit, slab.length - limit);
+        if (n == -1) {
+            throw new IOException("End of input stream.");
         }
+        limit += n;
+    }
 
-        outPacket.setLength(dataLength);
-        final byte[] data = new byte[outPacket.getLength()];
-        read(data, outPacket.getOffset(), dataLength);
-
-        outPacket.setBody(data);
-
-        if (!processedApids.inRange(apid)) {
-            return null;
+    private void ensureRoom(final int length) {
+        if (slab.length - position >= length && limit < slab.length) {
+            return;
         }
+        final byte[] target = new byte[SLAB_SIZE];
+        final int available = limit - position;
+        System.arraycopy(slab, position, target, 0, available);
+        slab = target;
+        position = 0;
+        limit = available;
+    }
 
-        // Read CRC
-        if (processCrc) {
-            is.read(inCrcBuffer);
-            int readCRC = inCrcBuffer[0] & 0xFF;
-            readCRC = (readCRC << 8) | (inCrcBuffer[1] & 0xFF);
-            this.packet = outPacket;
-            final int CRC = SPPHelper.computeCRC(inHeaderBuffer, data, outPacket.getOffset(), dataLength);
-            if (CRC != readCRC) {
-                final String error = "CRC Error:" + " expected=" + CRC + ", read=" + readCRC + " for " + " APID(" +
-                    apid + ")" + ", SSC=" + seq_count + "" + ", pkt_len=" + pkt_length_value + ", header=" + bytesToHex(
-                        inHeaderBuffer) + ", body=" + bytesToHex(data);
-                LOGGER.log(Level.WARNING, error);
-                errorCount++;
-                if (errorCount >= 3) {
-                    throw new IOException(error);
-                }
-                // For singular errors - discard this packet and receive another one
-                return receive();
-            }
-        }
-        errorCount = 0;
-        return outPacket;
+    /**
+     * @return The number of Space Packets with a CRC error received by all readers.
+     */
+    public static long getCrcErrorCount() {
+        return SPPFrameDecoder.getCrcErrorCount();
     }
 
     public SpacePacket getPacket() {
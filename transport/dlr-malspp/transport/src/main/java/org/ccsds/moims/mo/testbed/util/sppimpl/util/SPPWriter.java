@@ -32,7 +32,6 @@
  ****************************************************************************** */
 package org.ccsds.moims.mo.testbed.util.sppimpl.util;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -47,22 +46,74 @@ public class SPPWriter {
 
     private final byte[] outCrcBuffer;
     private final boolean crcEnabled;
-    private final APIDRangeList crcApids;
+    private final SPPApidWhitelist crcApids;
 
     //private Hashtable sequenceCounters;
     private final OutputStream os;
+    private final long maxFlushDelay;
+    private int flushedCount;
 
     public SPPWriter(final OutputStream os) {
+        this(os, 0);
+    }
+
+    /**
+     * @param os The stream to write to.
+     * @param maxFlushDelay Longest time in nanoseconds the first Space Packet
+     * of a batch is kept in the stream before it is flushed, or 0 to flush
+     * at the end of a batch only.
+     */
+    public SPPWriter(final OutputStream os, final long maxFlushDelay) {
         this.os = os;
+        this.maxFlushDelay = maxFlushDelay;
         apidQualifierBuffer = new byte[2];
         outHeaderBuffer = new byte[6];
         outCrcBuffer = new byte[2];
         crcEnabled = SPPHelper.getCrcEnabled();
-        crcApids = SPPHelper.initWhitelist(new File(SPPHelper.CRC_FILENAME));
+        crcApids = SPPApidWhitelist.get(SPPHelper.CRC_FILENAME);
         //sequenceCounters = new Hashtable();
     }
 
     public synchronized void send(final SpacePacket packet) throws IOException {
+        write(packet);
+        os.flush();
+    }
+
+    /**
+     * Writes a run of Space Packets in order and flushes the stream once at
+     * the end, or earlier if the maximum flush delay has expired.
+     *
+     * @param packets The Space Packets to write.
+     * @throws IOException
+     */
+    public synchronized void send(final SpacePacket[] packets) throws IOException {
+        flushedCount = 0;
+        long flushed = System.nanoTime();
+        for (int i = 0; i < packets.length; i++) {
+            write(packets[i]);
+            if (maxFlushDelay > 0 && i < packets.length - 1) {
+                final long now = System.nanoTime();
+                if (now - flushed >= maxFlushDelay) {
+                    os.flush();
+                    flushed = now;
+                    flushedCount = i + 1;
+                }
+            }
+        }
+        os.flush();
+        flushedCount = packets.length;
+    }
+
+    /**
+     * @return The number of Space Packets of the last batch that have been
+     * flushed. If sending the batch failed, the ones after them may not have
+     * been written.
+     */
+    public synchronized int getFlushedCount() {
+        return flushedCount;
+    }
+
+    private void write(final SpacePacket packet) throws IOException {
 
         if (SPPHelper.isAPIDqualifierInMessage) {
             // 1- Write the APID qualifier
@@ -89,7 +140,7 @@ public class SPPWriter {
           sequenceCounters.put(apid, counter);
         }*/
         final int pkt_seq_ctrl = (segt_flag << 14) | (packet.getHeader().getSequenceCount());
-        final boolean processCrc = crcEnabled && crcApids.inRange(TCPacket_apid);
+        final boolean processCrc = crcEnabled && crcApids.contains(TCPacket_apid);
         // Remove 1 byte as specified by the specification.
         //    int pkt_length_value = packet.getLength() - 1;
         final int pkt_length_value = (processCrc) ? packet.getLength() - 1 + 2 : packet.getLength() - 1;  // + 2 because of the appended CRC
@@ -106,15 +157,13 @@ public class SPPWriter {
 
         // There is no CRC in the SPP specification
         if (processCrc) {
-            final int CRC = SPPHelper.computeCRC(outHeaderBuffer, data, packet.getOffset(), packet.getLength());
+            final int CRC = SPPCrc16.compute(outHeaderBuffer, data, packet.getOffset(), packet.getLength());
 
             outCrcBuffer[0] = (byte) (CRC >> 8);
             outCrcBuffer[1] = (byte) (CRC & 0xFF);
             os.write(outCrcBuffer);
         }
 
-        os.flush();
-
         //counter = new Integer(counter.intValue() + 1);
     }
 }
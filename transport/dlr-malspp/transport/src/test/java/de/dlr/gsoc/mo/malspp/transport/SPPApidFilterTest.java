@@ -0,0 +1,80 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPApidFilterTest {
+
+    @Test
+    public void testAccepts1() {
+        SPPApidFilter f = new SPPApidFilter();
+        assertFalse(f.accepts(0, (short) 0));
+        f.add(0, (short) 0);
+        f.add(0, (short) 2047);
+        f.add(7, (short) 100);
+        assertTrue(f.accepts(0, (short) 0));
+        assertTrue(f.accepts(0, (short) 2047));
+        assertTrue(f.accepts(7, (short) 100));
+        assertFalse(f.accepts(0, (short) 100));
+        assertFalse(f.accepts(7, (short) 0));
+        assertFalse(f.accepts(1, (short) 0));
+        assertFalse(f.accepts(0, (short) 64));
+        assertEquals(3, f.size());
+    }
+
+    @Test
+    public void testAccepts2() {
+        SPPApidFilter f = new SPPApidFilter();
+        f.add(1, (short) 0xFFFF);
+        assertTrue(f.accepts(1, (short) 0xFFFF));
+        assertFalse(f.accepts(1, (short) 0x7FFF));
+    }
+
+    @Test
+    public void testRemove1() {
+        SPPApidFilter f = new SPPApidFilter();
+        f.add(3, (short) 10);
+        f.add(3, (short) 10);
+        f.remove(3, (short) 10);
+        assertTrue(f.accepts(3, (short) 10));
+        f.remove(3, (short) 10);
+        assertFalse(f.accepts(3, (short) 10));
+        f.remove(3, (short) 10);
+        assertEquals(0, f.size());
+        f.add(3, (short) 11);
+        f.clear();
+        assertFalse(f.accepts(3, (short) 11));
+    }
+
+    @Test
+    public void testAcceptsApid() {
+        SPPApidFilter f = new SPPApidFilter();
+        assertFalse(f.acceptsApid((short) 10));
+        f.add(3, (short) 10);
+        f.add(5, (short) 0xFFFF);
+        assertTrue(f.acceptsApid((short) 10));
+        assertTrue(f.acceptsApid((short) 0xFFFF));
+        assertFalse(f.acceptsApid((short) 11));
+        f.remove(3, (short) 10);
+        assertFalse(f.acceptsApid((short) 10));
+    }
+}
@@ -0,0 +1,62 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPBufferPoolTest {
+
+    @Test
+    public void testAcquire1() {
+        SPPBufferPool p = new SPPBufferPool(1024);
+        byte[] b1 = p.acquire(100);
+        assertEquals(128, b1.length);
+        assertEquals(64, p.acquire(0).length);
+        assertEquals(2000, p.acquire(2000).length);
+        p.release(b1);
+        assertEquals(1, p.size());
+        assertSame(b1, p.acquire(65));
+        assertEquals(0, p.size());
+    }
+
+    @Test
+    public void testRelease1() {
+        SPPBufferPool p = new SPPBufferPool(1024);
+        p.release(new byte[1024]);
+        p.release(new byte[1024]);
+        p.release(new byte[100]);
+        p.release(new byte[2048]);
+        assertEquals(1, p.size());
+        for (int i = 0; i < 20; i++) {
+            p.release(new byte[64]);
+        }
+        assertEquals(17, p.size());
+    }
+
+    @Test
+    public void testRelease2() {
+        SPPBufferPool p = new SPPBufferPool(0);
+        byte[] b = p.acquire(64);
+        p.release(b);
+        assertEquals(0, p.size());
+        assertNotSame(b, p.acquire(64));
+    }
+}
@@ -106,6 +106,27 @@ public class SPPCounterTest {
         assertTrue(checkIterator(exp2, iter2));
     }
 
+    @Test
+    public void testReserve1() {
+        SPPCounter c = new SPPCounter(10);
+        long first1 = c.reserve(5);
+        long first2 = c.reserve(15);
+        long first3 = c.reserve(0);
+        assertEquals(0, first1);
+        assertEquals(5, first2);
+        assertEquals(0, first3);
+        assertEquals(4, c.valueAt(first1, 4));
+        assertEquals(9, c.valueAt(first2, 4));
+        assertEquals(0, c.valueAt(first2, 5));
+        assertEquals(0, c.reserve(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReserve2() {
+        SPPCounter c = new SPPCounter(10);
+        c.reserve(-1);
+    }
+
     private boolean checkIterator(long[] expected, Iterator<Long> iterator) {
         int i = 0;
         for (; iterator.hasNext(); i++) {
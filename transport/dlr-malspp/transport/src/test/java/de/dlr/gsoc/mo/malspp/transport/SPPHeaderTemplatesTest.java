@@ -0,0 +1,43 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPHeaderTemplatesTest {
+
+    @Test
+    public void testCreatePart1() {
+        byte[] part1 = new byte[]{1, 2, 0, 0, 0, 0, 0, 0, 0, 0, 3};
+        SPPHeaderTemplates.Template t = new SPPHeaderTemplates.Template(part1, 2, new byte[]{4});
+        byte[] p1 = t.createPart1(0x0102030405060708L);
+        assertArrayEquals(new byte[]{1, 2, 1, 2, 3, 4, 5, 6, 7, 8, 3}, p1);
+        byte[] p2 = t.createPart1(-1L);
+        assertArrayEquals(new byte[]{1, 2, -1, -1, -1, -1, -1, -1, -1, -1, 3}, p2);
+        assertArrayEquals(new byte[]{1, 2, 1, 2, 3, 4, 5, 6, 7, 8, 3}, p1);
+        assertArrayEquals(new byte[]{4}, t.getSuffix());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTemplate1() {
+        new SPPHeaderTemplates.Template(new byte[10], 3, new byte[0]);
+    }
+}
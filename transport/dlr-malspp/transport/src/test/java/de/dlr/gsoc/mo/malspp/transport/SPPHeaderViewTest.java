@@ -0,0 +1,118 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPHeaderViewTest {
+
+    private static byte[] header(final int offset, final int flags, final int length) {
+        final byte[] data = new byte[offset + length];
+        data[offset] = (byte) (0b001 << 5 | 3); // version 1, SDU 3
+        data[offset + 1] = 0x12; // area
+        data[offset + 2] = 0x34;
+        data[offset + 3] = 0x00; // service
+        data[offset + 4] = 0x05;
+        data[offset + 5] = (byte) 0xFF; // operation
+        data[offset + 6] = (byte) 0xFE;
+        data[offset + 7] = 7; // area version
+        data[offset + 8] = (byte) 0b11010111; // error, QoS 2, session 2, secondary APID 0x7FF
+        data[offset + 9] = (byte) 0xFF;
+        data[offset + 10] = 0x01; // secondary qualifier
+        data[offset + 11] = 0x02;
+        for (int i = 0; i < 8; i++) {
+            data[offset + 12 + i] = (byte) (0x80 + i); // transaction id
+        }
+        data[offset + 20] = (byte) flags;
+        return data;
+    }
+
+    @Test
+    public void testWrap1() {
+        // TC packet, unsegmented, source and destination identifier, at an offset
+        final byte[] data = header(3, 0b11000000, 23);
+        data[3 + 21] = 42;
+        data[3 + 22] = 43;
+        final SpacePacket packet = new SpacePacket(new SpacePacketHeader(0, 1, 1, 100, 0b11, 0), 247, data, 3, 23);
+        final SPPHeaderView view = new SPPHeaderView();
+        assertTrue(view.wrap(packet));
+        assertEquals(1, view.getVersion());
+        assertEquals(3, view.getSDU());
+        assertEquals(0x1234, view.getServiceArea());
+        assertEquals(5, view.getService());
+        assertEquals(0xFFFE, view.getOperation());
+        assertEquals(7, view.getAreaVersion());
+        assertTrue(view.isErrorMessage());
+        assertEquals(2, view.getQoSLevel());
+        assertEquals(2, view.getSession());
+        assertEquals(0x7FF, view.getSecondaryApid());
+        assertEquals(0x0102, view.getSecondaryApidQualifier());
+        assertEquals(0x8081828384858687L, view.getTransactionId());
+        assertEquals(42, view.getSourceIdentifier());
+        assertEquals(43, view.getDestinationIdentifier());
+        assertFalse(view.isSegmented());
+        assertEquals(-1, view.getSegmentCounter());
+        assertEquals(23, view.getOptionalFieldsOffset());
+        assertTrue(view.isTCpacket());
+        assertEquals(0x0102, view.getFromApidQualifier());
+        assertEquals(0x7FF, view.getFromApid());
+        assertEquals(247, view.getToApidQualifier());
+        assertEquals(100, view.getToApid());
+    }
+
+    @Test
+    public void testWrap2() {
+        // TM packet, segmented, destination identifier only
+        final byte[] data = header(0, 0b01000000 | 0b00100000, 30);
+        data[21] = 9;
+        data[22] = (byte) 0xDE;
+        data[23] = (byte) 0xAD;
+        data[24] = (byte) 0xBE;
+        data[25] = (byte) 0xEF;
+        final SpacePacket packet = new SpacePacket(new SpacePacketHeader(0, 0, 1, 100, 0b00, 0), 247, data, 0, 30);
+        final SPPHeaderView view = new SPPHeaderView();
+        assertTrue(view.wrap(packet));
+        assertEquals(-1, view.getSourceIdentifier());
+        assertEquals(9, view.getDestinationIdentifier());
+        assertTrue(view.isSegmented());
+        assertEquals(0xDEADBEEFL, view.getSegmentCounter());
+        assertEquals(26, view.getOptionalFieldsOffset());
+        assertFalse(view.isTCpacket());
+        assertEquals(247, view.getFromApidQualifier());
+        assertEquals(100, view.getFromApid());
+        assertEquals(0x0102, view.getToApidQualifier());
+        assertEquals(0x7FF, view.getToApid());
+    }
+
+    @Test
+    public void testWrap3() {
+        // too short for the fixed fields, identifiers and segment counter
+        final SPPHeaderView view = new SPPHeaderView();
+        assertFalse(view.wrap(new SpacePacket(new SpacePacketHeader(0, 1, 1, 100, 0b11, 0), 247, new byte[20], 0,
+            20)));
+        final byte[] data = header(0, 0b10000000, 25);
+        assertFalse(view.wrap(new SpacePacket(new SpacePacketHeader(0, 1, 1, 100, 0b01, 0), 247, data, 0, 25)));
+        assertTrue(view.wrap(new SpacePacket(new SpacePacketHeader(0, 1, 1, 100, 0b11, 0), 247, data, 0, 25)));
+        assertEquals(22, view.getOptionalFieldsOffset());
+    }
+}
@@ -0,0 +1,268 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPKeyedExecutorTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor1() {
+        SPPKeyedExecutor e = new SPPKeyedExecutor(0, 0);
+    }
+
+    @Test
+    public void testExecute1() throws InterruptedException {
+        final int keys = 4;
+        final int n = 1000;
+        SPPKeyedExecutor e = new SPPKeyedExecutor(3, 8);
+        final List<List<Integer>> results = new ArrayList<>();
+        for (int k = 0; k < keys; k++) {
+            results.add(Collections.synchronizedList(new ArrayList<Integer>()));
+        }
+        final CountDownLatch done = new CountDownLatch(keys * n);
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < keys; k++) {
+                final int key = k;
+                final int value = i;
+                e.execute(key, new Runnable() {
+                    @Override
+                    public void run() {
+                        results.get(key).add(value);
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int k = 0; k < keys; k++) {
+            for (int i = 0; i < n; i++) {
+                assertEquals(Integer.valueOf(i), results.get(k).get(i));
+            }
+        }
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecute2() throws InterruptedException {
+        // a task submitting more tasks of its own key than the limit must not block
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(1, 1);
+        final CountDownLatch done = new CountDownLatch(4);
+        e.execute(7, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 3; i++) {
+                        e.execute(7, new Runnable() {
+                            @Override
+                            public void run() {
+                                done.countDown();
+                            }
+                        });
+                    }
+                } catch (final InterruptedException ex) {
+                    return;
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecute3() throws InterruptedException {
+        // a key over its limit must neither block an unbounded submitter nor the other keys
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(2, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(11);
+        for (int i = 0; i < 10; i++) {
+            e.executeUnbounded(1, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocked.await();
+                    } catch (final InterruptedException ex) {
+                        return;
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertEquals(8, e.getOverflowCount());
+        final CountDownLatch other = new CountDownLatch(1);
+        e.execute(2, new Runnable() {
+            @Override
+            public void run() {
+                other.countDown();
+                done.countDown();
+            }
+        });
+        assertTrue(other.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecuteBounded() throws InterruptedException {
+        // submitting to a key at its limit waits until one of its tasks has run
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(2, 2);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(3);
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (final InterruptedException ex) {
+                    return;
+                }
+                done.countDown();
+            }
+        };
+        e.execute(1, task);
+        e.execute(1, task);
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    e.execute(1, task);
+                    submitted.countDown();
+                } catch (final InterruptedException ex) {
+                    // test fails
+                }
+            }
+        };
+        submitter.start();
+        assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(2, e.getPendingCount());
+        final CountDownLatch other = new CountDownLatch(1);
+        e.execute(2, new Runnable() {
+            @Override
+            public void run() {
+                other.countDown();
+            }
+        });
+        assertTrue(other.await(10, TimeUnit.SECONDS));
+        blocked.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(3, e.getMaxPendingCount());
+        assertEquals(0, e.getOverflowCount());
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecuteBoundedInterrupted() throws InterruptedException {
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(1, 1);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        e.execute(1, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    blocked.await();
+                } catch (final InterruptedException ex) {
+                    // shut down
+                }
+            }
+        });
+        Thread.currentThread().interrupt();
+        try {
+            e.execute(1, new Runnable() {
+                @Override
+                public void run() {
+                }
+            });
+            fail("waited for a full key without being interrupted");
+        } catch (final InterruptedException ex) {
+            // expected
+        }
+        blocked.countDown();
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecute4() throws InterruptedException {
+        // a task throwing an error must not stop the tasks of its key
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(1, 0);
+        final CountDownLatch done = new CountDownLatch(1);
+        e.execute(3, new Runnable() {
+            @Override
+            public void run() {
+                throw new AssertionError("task error");
+            }
+        });
+        e.execute(3, new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0, e.getOverflowCount());
+        e.shutdown();
+    }
+
+    @Test
+    public void testExecute5() throws InterruptedException {
+        // tasks of two full keys submitting to each other, as listeners sending within the
+        // process do, must not deadlock the workers
+        final int n = 100;
+        final SPPKeyedExecutor e = new SPPKeyedExecutor(2, 1);
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch done = new CountDownLatch(2 * n);
+        for (int k = 0; k < 2; k++) {
+            final int other = 1 - k;
+            e.execute(k, new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        started.await(); // both keys busy
+                    } catch (final InterruptedException ex) {
+                        return;
+                    }
+                    try {
+                        for (int i = 0; i < n; i++) {
+                            e.execute(other, new Runnable() {
+                                @Override
+                                public void run() {
+                                    done.countDown();
+                                }
+                            });
+                        }
+                    } catch (final InterruptedException ex) {
+                        // test fails
+                    }
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        e.shutdown();
+    }
+}
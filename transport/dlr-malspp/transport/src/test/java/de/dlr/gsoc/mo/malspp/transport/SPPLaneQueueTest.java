@@ -0,0 +1,52 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPLaneQueueTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor1() {
+        SPPLaneQueue<String> q = new SPPLaneQueue<>(new int[]{1, 0}, 10);
+    }
+
+    @Test
+    public void testTake1() throws InterruptedException {
+        SPPLaneQueue<String> q = new SPPLaneQueue<>(new int[]{2, 1}, 10);
+        for (int i = 0; i < 4; i++) {
+            q.put(1, "b" + i);
+        }
+        q.put(0, "a0");
+        q.put(0, "a1");
+        q.put(0, "a2");
+        assertEquals(7, q.size());
+        assertEquals(3, q.size(0));
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 7; i++) {
+            order.append(q.take()).append(' ');
+        }
+        assertEquals("a0 a1 b0 a2 b1 b2 b3 ", order.toString());
+        assertEquals(0, q.size());
+        assertEquals(3, q.getMaxSize(0));
+        assertEquals(4, q.getMaxSize(1));
+    }
+}
@@ -0,0 +1,228 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPMessageBodyTest {
+
+    // "a", "bcd", "", "efgh", each preceded by its length
+    private static final byte[] ENCODED = new byte[]{1, 'a', 3, 'b', 'c', 'd', 0, 4, 'e', 'f', 'g', 'h'};
+    private static final String[] ELEMENTS = new String[]{"a", "bcd", "", "efgh"};
+    private final MALEncodingContext ctx = new MALEncodingContext(null, null, 0, null, null);
+
+    /**
+     * @return The encoded body in the middle of a larger array.
+     */
+    private static MALEncodedBody contiguous(final byte[] encoded) {
+        final byte[] data = new byte[3 + encoded.length + 5];
+        System.arraycopy(encoded, 0, data, 3, encoded.length);
+        return new MALEncodedBody(new Blob(data, 3, encoded.length));
+    }
+
+    /**
+     * @return The encoded body split across Space Packets with a secondary header of 2 octets.
+     */
+    private static MALEncodedBody segmented(final byte[] encoded) {
+        final int[] splits = new int[]{0, 2, 7, encoded.length};
+        final SpacePacket[] packets = new SpacePacket[splits.length - 1];
+        for (int i = 0; i < packets.length; i++) {
+            final int length = splits[i + 1] - splits[i];
+            final byte[] data = new byte[2 + length];
+            System.arraycopy(encoded, splits[i], data, 2, length);
+            packets[i] = new SpacePacket(new SpacePacketHeader(), data, 0, data.length);
+        }
+        return new SPPSegmentedEncodedBody(packets, 2);
+    }
+
+    private SPPMessageBody body(final MALEncodedBody encodedBody) {
+        return new SPPMessageBody(encodedBody, new LengthPrefixedFactory(), ctx, new Object[ELEMENTS.length]);
+    }
+
+    private static byte[] encoded(final MALEncodedElement element) throws MALException {
+        final Blob blob = element.getEncodedElement();
+        final byte[] b = new byte[blob.getLength()];
+        System.arraycopy(blob.getValue(), blob.getOffset(), b, 0, b.length);
+        return b;
+    }
+
+    private void testDecode(final MALEncodedBody encodedBody) throws Exception {
+        final SPPMessageBody body = body(encodedBody);
+        assertEquals("bcd", body.getBodyElement(1, null));
+        assertEquals("a", body.getBodyElement(0, null));
+        assertEquals("efgh", body.getBodyElement(3, null));
+        assertEquals("", body.getBodyElement(2, null));
+    }
+
+    private void testEncodedElements(final MALEncodedBody encodedBody) throws Exception {
+        final SPPMessageBody body = body(encodedBody);
+        // the last one without decoding it, then the others from the recorded offsets
+        assertArrayEquals(new byte[]{4, 'e', 'f', 'g', 'h'}, encoded(body.getEncodedBodyElement(3)));
+        assertArrayEquals(new byte[]{0}, encoded(body.getEncodedBodyElement(2)));
+        assertArrayEquals(new byte[]{1, 'a'}, encoded(body.getEncodedBodyElement(0)));
+        assertArrayEquals(new byte[]{3, 'b', 'c', 'd'}, encoded(body.getEncodedBodyElement(1)));
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            assertEquals(ELEMENTS[i], body.getBodyElement(i, null));
+        }
+    }
+
+    private void testDecodeFailure(final MALEncodedBody encodedBody) throws Exception {
+        final SPPMessageBody body = body(encodedBody);
+        assertEquals("a", body.getBodyElement(0, null));
+        for (int i = 0; i < 2; i++) {
+            try {
+                body.getBodyElement(1, null);
+                fail("truncated element decoded");
+            } catch (final MALException ex) {
+                // expected, also when trying again
+            }
+        }
+        try {
+            body.getEncodedBodyElement(2);
+            fail("element after a truncated one decoded");
+        } catch (final MALException ex) {
+            // expected
+        }
+        assertEquals("a", body.getBodyElement(0, null));
+    }
+
+    @Test
+    public void testDecode1() throws Exception {
+        testDecode(contiguous(ENCODED));
+    }
+
+    @Test
+    public void testDecode2() throws Exception {
+        testDecode(segmented(ENCODED));
+    }
+
+    @Test
+    public void testGetEncodedBodyElement1() throws Exception {
+        testEncodedElements(contiguous(ENCODED));
+    }
+
+    @Test
+    public void testGetEncodedBodyElement2() throws Exception {
+        testEncodedElements(segmented(ENCODED));
+    }
+
+    @Test
+    public void testDecodeFailure1() throws Exception {
+        testDecodeFailure(contiguous(new byte[]{1, 'a', 20, 'b', 'c', 'd', 0, 4, 'e', 'f', 'g', 'h'}));
+    }
+
+    @Test
+    public void testDecodeFailure2() throws Exception {
+        testDecodeFailure(segmented(new byte[]{1, 'a', 20, 'b', 'c', 'd', 0, 4, 'e', 'f', 'g', 'h'}));
+    }
+
+    @Test
+    public void testDetach() throws Exception {
+        // Space Packets sliced from a receive buffer, which is reused once the body has been detached
+        final byte[] buffer = new byte[40];
+        System.arraycopy(ENCODED, 0, buffer, 2, 5);
+        System.arraycopy(ENCODED, 5, buffer, 22, ENCODED.length - 5);
+        final SPPMessageBody body = body(new SPPSegmentedEncodedBody(new SpacePacket[]{
+            new SpacePacket(new SpacePacketHeader(), buffer, 0, 7),
+            new SpacePacket(new SpacePacketHeader(), buffer, 20, 2 + ENCODED.length - 5)}, 2));
+        assertEquals("bcd", body.getBodyElement(1, null));
+        body.detach();
+        Arrays.fill(buffer, (byte) 0);
+        assertEquals("efgh", body.getBodyElement(3, null));
+        assertArrayEquals(new byte[]{3, 'b', 'c', 'd'}, encoded(body.getEncodedBodyElement(1)));
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            assertEquals(ELEMENTS[i], body.getBodyElement(i, null));
+        }
+    }
+
+    /**
+     * Encodes each element as a string preceded by its length in one octet. Like the MAL/SPP
+     * encoding it does not read ahead.
+     */
+    private static class LengthPrefixedFactory extends MALElementStreamFactory {
+
+        @Override
+        protected void init(final String protocol, final Map properties) {
+        }
+
+        @Override
+        public MALElementInputStream createInputStream(final byte[] bytes, final int offset) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALElementInputStream createInputStream(final InputStream is) {
+            return new MALElementInputStream() {
+                @Override
+                public Object readElement(final Object element, final MALEncodingContext ctx)
+                    throws MALException {
+                    try {
+                        final int length = is.read();
+                        final byte[] b = new byte[Math.max(0, length)];
+                        int n = 0;
+                        while (n < b.length) {
+                            final int read = is.read(b, n, b.length - n);
+                            if (read < 0) {
+                                break;
+                            }
+                            n += read;
+                        }
+                        if (length < 0 || n < length) {
+                            throw new MALException("Truncated element.");
+                        }
+                        return new String(b, "US-ASCII");
+                    } catch (final IOException ex) {
+                        throw new MALException(ex.getMessage(), ex);
+                    }
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        @Override
+        public MALElementOutputStream createOutputStream(final OutputStream os) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Blob encode(final Object[] elements, final MALEncodingContext ctx) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Map;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPMetricsTest {
+
+    @Test
+    public void testConcurrentTotals() throws InterruptedException {
+        final SPPMetrics metrics = new SPPMetrics();
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final int apid = i % 2;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        metrics.recordReceived(247, apid, 3);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertArrayEquals(new long[]{80000, 240000, 0, 0}, metrics.getTotals());
+        assertEquals(80000, metrics.getPacketsReceived());
+        assertArrayEquals(new long[]{40000, 120000, 0, 0}, metrics.getApidCounters().get("247/0"));
+        assertArrayEquals(new long[]{40000, 120000, 0, 0}, metrics.getApidCounters().get("247/1"));
+    }
+
+    @Test
+    public void testRecord1() {
+        final SPPMetrics metrics = new SPPMetrics();
+        metrics.recordReceived(247, 100, 10);
+        metrics.recordReceived(247, 100, 20);
+        metrics.recordReceived(1, 2047, 5);
+        final SpacePacketHeader header = new SpacePacketHeader(0, 1, 1, 100, 0b11, 0);
+        metrics.recordSent(247, 1024, new SpacePacket[]{new SpacePacket(header, new byte[8], 0, 8), new SpacePacket(
+            header, new byte[8], 0, 7)});
+        final Map<String, long[]> counters = metrics.getApidCounters();
+        assertEquals(3, counters.size());
+        assertArrayEquals(new long[]{2, 30, 0, 0}, counters.get("247/100"));
+        assertArrayEquals(new long[]{1, 5, 0, 0}, counters.get("1/2047"));
+        assertArrayEquals(new long[]{0, 0, 2, 15}, counters.get("247/1024"));
+        assertArrayEquals(new long[]{3, 35, 2, 15}, metrics.getTotals());
+        assertEquals(3, metrics.getPacketsReceived());
+        assertEquals(35, metrics.getBytesReceived());
+        assertEquals(2, metrics.getPacketsSent());
+        assertEquals(15, metrics.getBytesSent());
+    }
+
+    @Test
+    public void testRecord2() {
+        final SPPMetrics metrics = new SPPMetrics();
+        metrics.recordDiscarded(SPPMetrics.Discard.WHITELIST);
+        metrics.recordDiscarded(SPPMetrics.Discard.UNKNOWN_APID);
+        metrics.recordDiscarded(SPPMetrics.Discard.UNKNOWN_APID);
+        metrics.recordSendLock(1000);
+        metrics.recordSendLock(500);
+        assertEquals(1, metrics.getDiscardedCount(SPPMetrics.Discard.WHITELIST));
+        assertEquals(2, metrics.getDiscardedCount(SPPMetrics.Discard.UNKNOWN_APID));
+        assertEquals(0, metrics.getDiscardedCount(SPPMetrics.Discard.MALFORMED));
+        assertEquals(1500, metrics.getSendLockNanos());
+        assertEquals(2, metrics.getSendLockCount());
+    }
+}
@@ -0,0 +1,71 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPRingTest {
+
+    @Test
+    public void testConstructor1() {
+        assertEquals(8, new SPPRing<Integer>(5).capacity());
+        assertEquals(8, new SPPRing<Integer>(8).capacity());
+    }
+
+    @Test
+    public void testOfferPoll1() {
+        SPPRing<Integer> r = new SPPRing<>(2);
+        assertNull(r.poll());
+        assertTrue(r.offer(1));
+        assertTrue(r.offer(2));
+        assertFalse(r.offer(3));
+        assertEquals(2, r.size());
+        assertEquals(Integer.valueOf(1), r.poll());
+        assertTrue(r.offer(3));
+        assertEquals(Integer.valueOf(2), r.poll());
+        assertEquals(Integer.valueOf(3), r.poll());
+        assertNull(r.poll());
+        assertEquals(2, r.getMaxSize());
+    }
+
+    @Test
+    public void testPutTake1() throws InterruptedException {
+        final SPPRing<Integer> r = new SPPRing<>(4);
+        final int n = 100000;
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < n; i++) {
+                        r.put(i);
+                    }
+                } catch (InterruptedException ex) {
+                }
+            }
+        };
+        producer.start();
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), r.take());
+        }
+        producer.join();
+        assertEquals(0, r.size());
+    }
+}
@@ -0,0 +1,84 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPSegmentCounterStoreTest {
+
+    private static final URI A = new URI("malspp:247/100/0");
+    private static final URI B = new URI("malspp:247/1024/1");
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor1() {
+        SPPSegmentCounterStore s = new SPPSegmentCounterStore(10, -1, 0);
+    }
+
+    @Test
+    public void testGet1() {
+        SPPSegmentCounterStore s = new SPPSegmentCounterStore(10, 0, 0);
+        SPPCounter c1 = s.get(1L, A, B);
+        SPPCounter c2 = s.get(1L, A, B);
+        SPPCounter c3 = s.get(1L, B, A);
+        SPPCounter c4 = s.get(2L, A, B);
+        assertSame(c1, c2);
+        assertNotSame(c1, c3);
+        assertNotSame(c1, c4);
+        assertEquals(3, s.size());
+    }
+
+    @Test
+    public void testRelease1() {
+        SPPSegmentCounterStore s = new SPPSegmentCounterStore(10, 0, 0);
+        SPPCounter c1 = s.get(1L, A, B);
+        s.get(1L, B, A);
+        s.get(2L, A, B);
+        s.release(1L, B, A);
+        assertEquals(1, s.size());
+        assertEquals(2, s.getReleasedCount());
+        assertNotSame(c1, s.get(1L, A, B));
+    }
+
+    @Test
+    public void testLimit1() {
+        SPPSegmentCounterStore s = new SPPSegmentCounterStore(10, 2, 0);
+        SPPCounter c1 = s.get(1L, A, B);
+        SPPCounter c2 = s.get(2L, A, B);
+        s.get(1L, A, B); // counter 2 becomes the least recently used one
+        s.get(3L, A, B);
+        assertEquals(2, s.size());
+        assertEquals(1, s.getEvictedCount());
+        assertSame(c1, s.get(1L, A, B));
+        assertNotSame(c2, s.get(2L, A, B));
+    }
+
+    @Test
+    public void testTtl1() throws InterruptedException {
+        SPPSegmentCounterStore s = new SPPSegmentCounterStore(10, 0, 20);
+        SPPCounter c1 = s.get(1L, A, B);
+        Thread.sleep(50);
+        s.get(2L, A, B);
+        assertEquals(1, s.size());
+        assertEquals(1, s.getEvictedCount());
+        assertNotSame(c1, s.get(1L, A, B));
+    }
+}
@@ -0,0 +1,78 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPSegmentedInputStreamTest {
+
+    private static final byte[][] BUFFERS = new byte[][]{{9, 9, 1, 2, 3}, {9, 9}, {9, 9, 4}, {9, 9, 5, 6}};
+
+    private static SpacePacket[] packets() {
+        SpacePacket[] spacePackets = new SpacePacket[BUFFERS.length];
+        for (int i = 0; i < BUFFERS.length; i++) {
+            spacePackets[i] = new SpacePacket(new SpacePacketHeader(), BUFFERS[i], 0, BUFFERS[i].length);
+        }
+        return spacePackets;
+    }
+
+    @Test
+    public void testRead1() {
+        SPPSegmentedInputStream is = new SPPSegmentedInputStream(packets(), 2);
+        assertEquals(6, SPPSegmentedInputStream.getLength(packets(), 2));
+        assertEquals(6, is.available());
+        byte[] b = new byte[5];
+        assertEquals(5, is.read(b, 0, 5));
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5}, b);
+        assertEquals(6, is.read());
+        assertEquals(-1, is.read());
+        assertEquals(-1, is.read(b, 0, 1));
+    }
+
+    @Test
+    public void testSkip1() {
+        SPPSegmentedInputStream is = new SPPSegmentedInputStream(packets(), 2);
+        assertEquals(4, is.skip(4));
+        assertEquals(2, is.available());
+        assertEquals(5, is.read());
+        assertEquals(1, is.skip(10));
+        assertEquals(0, is.available());
+    }
+
+    @Test
+    public void testReadSlices() {
+        // packet data fields as slices of a shared receive buffer
+        byte[] slab = new byte[]{7, 9, 9, 1, 2, 3, 9, 9, 9, 9, 4, 7, 7};
+        SpacePacket[] spacePackets = new SpacePacket[]{
+            new SpacePacket(new SpacePacketHeader(), slab, 1, 5),
+            new SpacePacket(new SpacePacketHeader(), slab, 6, 2),
+            new SpacePacket(new SpacePacketHeader(), slab, 8, 3)};
+        SPPSegmentedInputStream is = new SPPSegmentedInputStream(spacePackets, 2);
+        assertEquals(4, SPPSegmentedInputStream.getLength(spacePackets, 2));
+        assertEquals(4, is.available());
+        byte[] b = new byte[4];
+        assertEquals(4, is.read(b, 0, 4));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, b);
+        assertEquals(-1, is.read());
+    }
+}
@@ -0,0 +1,233 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.util.Arrays;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPSegmenterTest {
+
+    private static final SPPSegmentKey KEY = new SPPSegmentKey(1L, new URI("malspp:247/100/0"), new URI(
+        "malspp:247/1024/1"));
+
+    private static SpacePacket packet(final int sequenceFlags, final long counter) {
+        final byte[] body = new byte[26];
+        body[20] = 0; // no source or destination identifier
+        body[21] = (byte) (counter >>> 24);
+        body[22] = (byte) (counter >>> 16);
+        body[23] = (byte) (counter >>> 8);
+        body[24] = (byte) counter;
+        return new SpacePacket(new SpacePacketHeader(0, 1, 1, 100, sequenceFlags, 0), body, 0, body.length);
+    }
+
+    /**
+     * @return The Space Packet with its body copied into a larger array at the given offset.
+     */
+    private static SpacePacket slice(final byte[] buffer, final int offset, final SpacePacket spacePacket) {
+        System.arraycopy(spacePacket.getBody(), 0, buffer, offset, spacePacket.getLength());
+        return new SpacePacket(spacePacket.getHeader(), buffer, offset, spacePacket.getLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor1() {
+        SPPSegmenter s = new SPPSegmenter(-1, 0);
+    }
+
+    @Test
+    public void testProcess1() {
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        SpacePacket p = packet(0b11, 0);
+        assertArrayEquals(new SpacePacket[]{p}, s.process(KEY, p));
+        assertEquals(0, s.size());
+    }
+
+    @Test
+    public void testProcess2() {
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        SpacePacket p1 = packet(0b01, 0xFFFFFFFEL);
+        SpacePacket p2 = packet(0b00, 0xFFFFFFFFL);
+        SpacePacket p3 = packet(0b00, 0);
+        SpacePacket p4 = packet(0b10, 1);
+        assertNull(s.process(KEY, p1));
+        assertNull(s.process(KEY, p4));
+        assertNull(s.process(KEY, p3));
+        assertEquals(1, s.size());
+        assertArrayEquals(new SpacePacket[]{p1, p2, p3, p4}, s.process(KEY, p2));
+        assertEquals(0, s.size());
+    }
+
+    @Test
+    public void testProcess3() {
+        SPPSegmenter s = new SPPSegmenter(0, 1);
+        assertNull(s.process(KEY, packet(0b10, 5)));
+        assertNull(s.process(KEY, packet(0b01, 7)));
+        assertNull(s.process(new SPPSegmentKey(2L, null, null), packet(0b01, 0)));
+        assertEquals(1, s.size());
+        assertEquals(2, s.getDiscardedCount());
+    }
+
+    @Test
+    public void testProcessFirstLast() {
+        // segments overtaking the first segment are kept until it arrives
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        SpacePacket p1 = packet(0b01, 0xFFFFFFFEL);
+        SpacePacket p2 = packet(0b00, 0xFFFFFFFFL);
+        SpacePacket p3 = packet(0b00, 0);
+        SpacePacket p4 = packet(0b10, 1);
+        assertNull(s.process(KEY, p4));
+        assertNull(s.process(KEY, p2));
+        assertNull(s.process(KEY, p3));
+        assertEquals(1, s.size());
+        assertArrayEquals(new SpacePacket[]{p1, p2, p3, p4}, s.process(KEY, p1));
+        assertEquals(0, s.size());
+        assertEquals(0, s.getDiscardedCount());
+    }
+
+    @Test
+    public void testProcessBeforeFirst() {
+        // segments of an older message, whose first segment got lost, are dropped once the first
+        // segment of the next message arrives
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        SpacePacket p1 = packet(0b01, 8);
+        SpacePacket p2 = packet(0b10, 9);
+        assertNull(s.process(KEY, packet(0b00, 5)));
+        assertNull(s.process(KEY, p2));
+        assertNull(s.process(KEY, packet(0b10, 6)));
+        assertArrayEquals(new SpacePacket[]{p1, p2}, s.process(KEY, p1));
+        assertEquals(0, s.size());
+        assertEquals(2, s.getDiscardedCount());
+        assertEquals(0, s.getReplacedCount());
+        // once the first segment is there, segments with lower counters do not belong to the message
+        assertNull(s.process(KEY, packet(0b01, 20)));
+        assertNull(s.process(KEY, packet(0b00, 19)));
+        assertEquals(3, s.getDiscardedCount());
+    }
+
+    @Test
+    public void testProcessOversizedBeforeFirst() {
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        assertNull(s.process(KEY, packet(0b10, 10 + SPPSegmenter.MAX_SEGMENTS)));
+        assertNull(s.process(KEY, packet(0b00, 10)));
+        assertEquals(0, s.size());
+        assertEquals(1, s.getOversizedCount());
+        assertEquals(2, s.getDiscardedCount());
+        SpacePacket p1 = packet(0b01, 10);
+        SpacePacket p2 = packet(0b10, 9 + SPPSegmenter.MAX_SEGMENTS);
+        assertNull(s.process(KEY, p2));
+        assertNull(s.process(KEY, p1));
+        assertEquals(1, s.size());
+        assertEquals(2, s.getDiscardedCount());
+    }
+
+    @Test
+    public void testProcessOversized() {
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        assertNull(s.process(KEY, packet(0b01, 10)));
+        assertNull(s.process(KEY, packet(0b00, 11)));
+        // corrupt counter far beyond the first segment drops the whole message
+        assertNull(s.process(KEY, packet(0b00, 10 + SPPSegmenter.MAX_SEGMENTS)));
+        assertEquals(0, s.size());
+        assertEquals(1, s.getOversizedCount());
+        assertEquals(3, s.getDiscardedCount());
+        SpacePacket p1 = packet(0b01, 0);
+        SpacePacket p2 = packet(0b10, SPPSegmenter.MAX_SEGMENTS - 1);
+        assertNull(s.process(KEY, p1));
+        assertNull(s.process(KEY, p2));
+        assertEquals(1, s.size());
+    }
+
+    @Test
+    public void testProcessReplaced() {
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        assertNull(s.process(KEY, packet(0b01, 0)));
+        assertNull(s.process(KEY, packet(0b00, 1)));
+        SpacePacket p1 = packet(0b01, 5);
+        SpacePacket p2 = packet(0b10, 6);
+        assertNull(s.process(KEY, p1));
+        assertEquals(1, s.getReplacedCount());
+        assertEquals(2, s.getDiscardedCount());
+        assertArrayEquals(new SpacePacket[]{p1, p2}, s.process(KEY, p2));
+    }
+
+    @Test
+    public void testProcessDetached() {
+        // a segment waiting for the rest of its message must not keep the receive buffer alive
+        SPPSegmenter s = new SPPSegmenter(0, 0);
+        byte[] buffer = new byte[100];
+        SpacePacket p1 = slice(buffer, 10, packet(0b01, 3));
+        SpacePacket p2 = slice(buffer, 50, packet(0b10, 4));
+        assertNull(s.process(KEY, p1));
+        SpacePacket[] message = s.process(KEY, p2);
+        assertEquals(2, message.length);
+        assertEquals(0, message[0].getOffset());
+        assertArrayEquals(Arrays.copyOfRange(buffer, 10, 36), message[0].getBody());
+        assertSame(p1.getHeader(), message[0].getHeader());
+        assertSame(p2, message[1]); // completes the message, so it is handed on right away
+    }
+
+    @Test
+    public void testRemoveTimedOut1() throws InterruptedException {
+        SPPSegmenter s = new SPPSegmenter(1, 0);
+        assertNull(s.process(KEY, packet(0b01, 0)));
+        Thread.sleep(5);
+        assertEquals(1, s.removeTimedOut());
+        assertEquals(0, s.size());
+        assertEquals(1, s.getTimedOutCount());
+    }
+
+    @Test
+    public void testSplit1() throws Exception {
+        SPPCounter sequenceCounter = new SPPCounter(16384);
+        SPPCounter segmentCounter = new SPPCounter(4294967296L);
+        sequenceCounter.reserve(16383);
+        byte[] body = new byte[]{9, 1, 2, 3, 4, 5, 6, 7, 9};
+        SpacePacket[] sps = SPPSegmenter.split(8, 7, new SpacePacketHeader(0, 1, 1, 100, 0b11, 0), new byte[]{-1},
+            new byte[]{-2}, body, 1, 7, sequenceCounter, segmentCounter, new SPPBufferPool(1024));
+        assertEquals(4, sps.length);
+        int[] flags = new int[]{0b01, 0b00, 0b00, 0b10};
+        int[] counts = new int[]{16383, 0, 1, 2};
+        for (int i = 0; i < sps.length; i++) {
+            assertSame(sps[0].getBody(), sps[i].getBody());
+            assertEquals(i * 8, sps[i].getOffset());
+            assertEquals(i < 3 ? 8 : 7, sps[i].getLength());
+            assertEquals(7, sps[i].getApidQualifier());
+            assertEquals(flags[i], sps[i].getHeader().getSequenceFlags());
+            assertEquals(counts[i], sps[i].getHeader().getSequenceCount());
+        }
+        assertArrayEquals(new byte[]{-1, 0, 0, 0, 0, -2, 1, 2, -1, 0, 0, 0, 1, -2, 3, 4, -1, 0, 0, 0, 2, -2, 5, 6, -1,
+            0, 0, 0, 3, -2, 7}, java.util.Arrays.copyOf(sps[0].getBody(), 31));
+    }
+
+    @Test
+    public void testSplit2() throws Exception {
+        SPPCounter sequenceCounter = new SPPCounter(16384);
+        SPPCounter segmentCounter = new SPPCounter(4294967296L);
+        SpacePacket[] sps = SPPSegmenter.split(10, 7, new SpacePacketHeader(0, 1, 1, 100, 0b11, 0), new byte[]{-1},
+            new byte[]{-2}, new byte[]{1, 2}, sequenceCounter, segmentCounter);
+        assertEquals(1, sps.length);
+        assertEquals(0b11, sps[0].getHeader().getSequenceFlags());
+        assertArrayEquals(new byte[]{-1, -2, 1, 2}, sps[0].getBody());
+        assertEquals(0, segmentCounter.reserve(1));
+    }
+}
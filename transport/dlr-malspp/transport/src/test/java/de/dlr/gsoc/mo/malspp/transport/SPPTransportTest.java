@@ -0,0 +1,112 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.ShortList;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPTransportTest {
+
+    private static final ShortList NO_BULK_APIDS = new ShortList();
+
+    private static MALMessageHeader header(final String uriFrom, final InteractionType type, final int stage,
+        final boolean isError) {
+        return (MALMessageHeader) Proxy.newProxyInstance(MALMessageHeader.class.getClassLoader(), new Class<?>[]{
+            MALMessageHeader.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                    switch (method.getName()) {
+                        case "getURIFrom":
+                            return new URI(uriFrom);
+                        case "getInteractionType":
+                            return type;
+                        case "getInteractionStage":
+                            return new UOctet((short) stage);
+                        case "getIsErrorMessage":
+                            return isError;
+                        default:
+                            return null;
+                    }
+                }
+            });
+    }
+
+    private static MALMessageHeader header(final InteractionType type, final int stage) {
+        return header("malspp:247/100/0", type, stage, false);
+    }
+
+    @Test
+    public void testSelectLane1() {
+        // every stage of an interaction, errors included, goes to the same lane
+        for (int stage = 1; stage <= 3; stage++) {
+            assertEquals(SPPTransport.LANE_CONTROL, SPPTransport.selectLane(header(InteractionType.SUBMIT, stage),
+                NO_BULK_APIDS));
+            assertEquals(SPPTransport.LANE_CONTROL, SPPTransport.selectLane(header(InteractionType.INVOKE, stage),
+                NO_BULK_APIDS));
+        }
+        for (int stage = 1; stage <= 4; stage++) {
+            assertEquals(SPPTransport.LANE_BULK, SPPTransport.selectLane(header(InteractionType.PROGRESS, stage),
+                NO_BULK_APIDS));
+        }
+        assertEquals(SPPTransport.LANE_BULK, SPPTransport.selectLane(header("malspp:247/100/0",
+            InteractionType.PROGRESS, MALProgressOperation._PROGRESS_ACK_STAGE, true), NO_BULK_APIDS));
+        assertEquals(SPPTransport.LANE_NORMAL, SPPTransport.selectLane(header(InteractionType.SEND, 0),
+            NO_BULK_APIDS));
+    }
+
+    @Test
+    public void testSelectLane2() {
+        final ShortList bulkApids = new ShortList();
+        bulkApids.add((short) 1024);
+        assertEquals(SPPTransport.LANE_BULK, SPPTransport.selectLane(header("malspp:247/1024/0",
+            InteractionType.SUBMIT, 1, false), bulkApids));
+        assertEquals(SPPTransport.LANE_CONTROL, SPPTransport.selectLane(header("malspp:247/100/0",
+            InteractionType.SUBMIT, 1, false), bulkApids));
+    }
+
+    @Test
+    public void testSelectLane3() throws InterruptedException {
+        // a queued progress acknowledgement followed by a flood of updates must not delay a submit
+        final SPPLaneQueue<MALMessageHeader> q = new SPPLaneQueue<>(new int[]{8, 4, 1}, 1000);
+        final MALMessageHeader ack = header(InteractionType.PROGRESS, MALProgressOperation._PROGRESS_ACK_STAGE);
+        q.put(SPPTransport.selectLane(ack, NO_BULK_APIDS), ack);
+        for (int i = 0; i < 500; i++) {
+            final MALMessageHeader update = header(InteractionType.PROGRESS,
+                MALProgressOperation._PROGRESS_UPDATE_STAGE);
+            q.put(SPPTransport.selectLane(update, NO_BULK_APIDS), update);
+        }
+        final MALMessageHeader submit = header(InteractionType.SUBMIT, 1);
+        q.put(SPPTransport.selectLane(submit, NO_BULK_APIDS), submit);
+        assertSame(submit, q.take());
+        assertSame(ack, q.take());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(MALProgressOperation._PROGRESS_UPDATE_STAGE, q.take().getInteractionStage().getValue());
+        }
+    }
+}
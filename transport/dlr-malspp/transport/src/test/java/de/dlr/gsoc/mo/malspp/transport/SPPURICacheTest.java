@@ -0,0 +1,74 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package de.dlr.gsoc.mo.malspp.transport;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPURICacheTest {
+
+    @Test
+    public void testGet1() {
+        SPPURICache c = new SPPURICache(10);
+        SPPURI u1 = c.get("malspp:417/0/2");
+        SPPURI u2 = c.get(417, (short) 0, (short) 2);
+        SPPURI u3 = c.get("malspp:417/0/2");
+        assertSame(u1, u2);
+        assertSame(u1, u3);
+        assertEquals(1, c.getMissCount());
+        assertEquals(2, c.getHitCount());
+        assertEquals(2.0 / 3, c.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void testGet2() {
+        SPPURICache c = new SPPURICache(10);
+        SPPURI u1 = c.get(1, (short) 2, null);
+        SPPURI u2 = c.get(1, (short) 2, (short) 0);
+        assertNotSame(u1, u2);
+        assertNull(c.get("malspp:1/2").getIdentifier());
+        assertEquals(Short.valueOf((short) 0), c.get("malspp:1/2/0").getIdentifier());
+        assertEquals(2, c.getHitCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGet3() {
+        SPPURICache c = new SPPURICache(10);
+        c.get(1, (short) 2, (short) 1);
+        c.get(1 + (1 << 24), (short) 2, (short) 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGet4() {
+        SPPURICache c = new SPPURICache(10);
+        c.get(1, (short) 2, (short) -1);
+    }
+
+    @Test
+    public void testSize1() {
+        SPPURICache c = new SPPURICache(2);
+        c.get(1, (short) 1, null);
+        c.get(1, (short) 2, null);
+        assertEquals(2, c.size());
+        c.get(1, (short) 3, null);
+        assertEquals(1, c.size());
+        assertEquals(0.0, c.getHitRate(), 0.0);
+    }
+}
@@ -0,0 +1,126 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPApidWhitelistTest {
+
+    static {
+        System.setProperty("org.ccsds.moims.mo.malspp.whitelist.watch", "false");
+    }
+
+    private static File write(final File f, final String content) throws IOException {
+        try (Writer w = new FileWriter(f)) {
+            w.write(content);
+        }
+        return f;
+    }
+
+    @Test
+    public void testRangesAndSingleApids() throws IOException {
+        final File f = write(File.createTempFile("apids", ".txt"), "100-110\n 2047 \n\n5-3\n");
+        f.deleteOnExit();
+        final SPPApidWhitelist whitelist = SPPApidWhitelist.get(f.getPath());
+        assertSame(whitelist, SPPApidWhitelist.get(f.getAbsolutePath()));
+        assertEquals(11 + 1 + 3, whitelist.size());
+        assertFalse(whitelist.contains(99));
+        assertTrue(whitelist.contains(100));
+        assertTrue(whitelist.contains(110));
+        assertFalse(whitelist.contains(111));
+        assertTrue(whitelist.contains(2047));
+        assertTrue(whitelist.contains(3));
+        assertFalse(whitelist.contains(0));
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        final File f = write(File.createTempFile("apids", ".txt"), "0-2047\n");
+        f.deleteOnExit();
+        final SPPApidWhitelist whitelist = SPPApidWhitelist.get(f.getPath());
+        assertEquals(SPPApidWhitelist.APID_COUNT, whitelist.size());
+        assertEquals(0, whitelist.getReloadCount());
+
+        write(f, "64\n");
+        assertTrue(whitelist.reload());
+        assertEquals(1, whitelist.getReloadCount());
+        assertEquals(1, whitelist.size());
+        assertTrue(whitelist.contains(64));
+        assertFalse(whitelist.contains(63));
+
+        // unparsable file keeps the current whitelist
+        write(f, "64\nabc\n");
+        assertFalse(whitelist.reload());
+        assertEquals(1, whitelist.getReloadCount());
+        assertTrue(whitelist.contains(64));
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() {
+        final SPPApidWhitelist whitelist = SPPApidWhitelist.get(new File("missing_apids_" + System.nanoTime()
+                + ".txt").getAbsolutePath());
+        assertEquals(0, whitelist.size());
+        assertFalse(whitelist.contains(0));
+        assertFalse(whitelist.reload());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testMalformedFileFailsFirstLoad() throws IOException {
+        final File f = write(File.createTempFile("apids", ".txt"), "100\nabc\n");
+        f.deleteOnExit();
+        SPPApidWhitelist.get(f.getPath());
+    }
+
+    @Test
+    public void testConcurrentFirstLoad() throws Exception {
+        final File f = write(File.createTempFile("apids", ".txt"), "0-2047\n");
+        f.deleteOnExit();
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger sizes = new AtomicInteger();
+        final Thread[] getters = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            getters[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (final InterruptedException ex) {
+                        return;
+                    }
+                    sizes.addAndGet(SPPApidWhitelist.get(f.getPath()).size());
+                }
+            };
+            getters[i].start();
+        }
+        start.countDown();
+        for (final Thread getter : getters) {
+            getter.join();
+        }
+        assertEquals(threads * SPPApidWhitelist.APID_COUNT, sizes.get());
+    }
+}
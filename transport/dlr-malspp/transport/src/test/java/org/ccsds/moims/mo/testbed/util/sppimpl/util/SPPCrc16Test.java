@@ -0,0 +1,89 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPCrc16Test {
+
+    private static final int[] LOOK_UP_TABLE = new int[256];
+
+    static {
+        // table of the former byte-at-a-time implementation
+        final int[] terms = new int[]{0x1021, 0x2042, 0x4084, 0x8108, 0x1231, 0x2462, 0x48C4, 0x9188};
+        for (int i = 0; i < 256; i++) {
+            int tmp = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if ((i & (1 << bit)) != 0) {
+                    tmp ^= terms[bit];
+                }
+            }
+            LOOK_UP_TABLE[i] = tmp;
+        }
+    }
+
+    private static int reference(final byte[] header, final byte[] data, final int offset, final int length) {
+        int crc = 0xFFFF;
+        for (int i = 0; i < header.length; i++) {
+            crc = ((crc << 8) & 0xFF00) ^ LOOK_UP_TABLE[(((crc >> 8) ^ header[i]) & 0x00FF)];
+        }
+        for (int i = offset; i < offset + length; i++) {
+            crc = ((crc << 8) & 0xFF00) ^ LOOK_UP_TABLE[(((crc >> 8) ^ data[i]) & 0x00FF)];
+        }
+        return crc;
+    }
+
+    @Test
+    public void testCheckValue() {
+        final byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, SPPCrc16.update(SPPCrc16.INITIAL, check, 0, check.length));
+    }
+
+    @Test
+    public void testConformance() {
+        final Random random = new Random(42);
+        final byte[] header = new byte[6];
+        final byte[] data = new byte[65536 + 16];
+        random.nextBytes(data);
+        for (int length = 0; length <= 300; length++) {
+            random.nextBytes(header);
+            final int offset = random.nextInt(16);
+            assertEquals("length " + length, reference(header, data, offset, length),
+                SPPCrc16.compute(header, data, offset, length));
+        }
+        assertEquals(reference(header, data, 3, 65536), SPPCrc16.compute(header, data, 3, 65536));
+        assertEquals(reference(header, data, 0, 65536), SPPHelper.computeCRC(header, data, 0, 65536));
+    }
+
+    @Test
+    public void testIncremental() {
+        final Random random = new Random(7);
+        final byte[] data = new byte[1000];
+        random.nextBytes(data);
+        final int whole = SPPCrc16.update(SPPCrc16.INITIAL, data, 0, data.length);
+        for (int split = 0; split <= data.length; split += 37) {
+            final int first = SPPCrc16.update(SPPCrc16.INITIAL, data, 0, split);
+            assertEquals(whole, SPPCrc16.update(first, data, split, data.length - split));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.IOException;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPReaderTest.*;
+
+public class SPPFrameDecoderTest {
+
+    private final SPPFrameDecoder decoder = new SPPFrameDecoder(true, CRC_APIDS, PROCESSED_APIDS);
+
+    @Test
+    public void testDecode() throws IOException {
+        final byte[] b = new byte[5 + 8 + 40];
+        System.arraycopy(frame(CRC_APID, 1234, 40), 0, b, 5, 8 + 40);
+        assertEquals(6, decoder.getHeaderLength());
+        assertEquals(8 + 40, decoder.getFrameLength(b, 5));
+        assertTrue(decoder.isProcessed(b, 5));
+        final SpacePacket packet = decoder.decode(b, 5);
+        assertPacket(CRC_APID, 1234, 40, packet);
+        assertSame(b, packet.getBody());
+        assertEquals(5 + 6, packet.getOffset());
+        assertEquals(3, packet.getHeader().getSequenceFlags());
+        assertEquals(1, packet.getHeader().getSecondaryHeaderFlag());
+        assertEquals(SPPHelper.defaultAPIDqualifier, packet.getApidQualifier());
+    }
+
+    @Test
+    public void testNotProcessed() {
+        assertFalse(decoder.isProcessed(frame(SKIPPED_APID, 1, 10), 0));
+        assertTrue(decoder.isProcessed(frame(PLAIN_APID, 1, 10), 0));
+    }
+
+    @Test
+    public void testCrcDisabled() throws IOException {
+        // without CRC processing the CRC is part of the packet data field
+        final SpacePacket packet = new SPPFrameDecoder(false, CRC_APIDS, PROCESSED_APIDS).decode(frame(CRC_APID, 1,
+            10), 0);
+        assertEquals(12, packet.getLength());
+    }
+
+    @Test
+    public void testCrcErrors() throws IOException {
+        final byte[] corrupted = frame(CRC_APID, 1, 10);
+        corrupted[10] ^= 0x10;
+        assertNull(decoder.decode(corrupted, 0));
+        assertNull(decoder.decode(corrupted, 0));
+        // a correct Space Packet resets the count of consecutive errors
+        assertPacket(CRC_APID, 2, 10, decoder.decode(frame(CRC_APID, 2, 10), 0));
+        assertNull(decoder.decode(corrupted, 0));
+        assertNull(decoder.decode(corrupted, 0));
+        try {
+            decoder.decode(corrupted, 0);
+            fail();
+        } catch (final IOException ex) {
+            // third error in a row
+        }
+    }
+
+    @Test
+    public void testTooShortForCrc() throws IOException {
+        // packet data field of a single octet cannot hold a CRC
+        final byte[] b = frame(PLAIN_APID, 1, 1);
+        b[1] = (byte) CRC_APID;
+        assertNull(decoder.decode(b, 0));
+    }
+}
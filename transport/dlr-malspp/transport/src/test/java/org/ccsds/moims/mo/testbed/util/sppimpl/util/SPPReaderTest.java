@@ -0,0 +1,204 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPReaderTest {
+
+    static final int CRC_APID = 100;
+    static final int PLAIN_APID = 101;
+    static final int SKIPPED_APID = 200;
+    static final SPPApidWhitelist CRC_APIDS;
+    static final SPPApidWhitelist PROCESSED_APIDS;
+
+    static {
+        System.setProperty("org.ccsds.moims.mo.malspp.whitelist.watch", "false");
+        try {
+            CRC_APIDS = SPPApidWhitelist.get(write(CRC_APID + "\n").getPath());
+            PROCESSED_APIDS = SPPApidWhitelist.get(write(CRC_APID + "-" + PLAIN_APID + "\n").getPath());
+        } catch (final IOException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private static File write(final String content) throws IOException {
+        final File f = File.createTempFile("apids", ".txt");
+        f.deleteOnExit();
+        try (Writer w = new FileWriter(f)) {
+            w.write(content);
+        }
+        return f;
+    }
+
+    /**
+     * @return A frame without APID qualifier, followed by a CRC for CRC_APID.
+     */
+    static byte[] frame(final int apid, final int seq, final int dataLength) {
+        final int crcLength = apid == CRC_APID ? 2 : 0;
+        final byte[] b = new byte[6 + dataLength + crcLength];
+        b[0] = (byte) (0x08 | (apid >> 8));
+        b[1] = (byte) apid;
+        b[2] = (byte) (0xC0 | (seq >> 8));
+        b[3] = (byte) seq;
+        b[4] = (byte) ((dataLength + crcLength - 1) >> 8);
+        b[5] = (byte) (dataLength + crcLength - 1);
+        for (int i = 0; i < dataLength; i++) {
+            b[6 + i] = data(seq, i);
+        }
+        if (crcLength > 0) {
+            final int crc = SPPCrc16.update(SPPCrc16.INITIAL, b, 0, 6 + dataLength);
+            b[6 + dataLength] = (byte) (crc >> 8);
+            b[7 + dataLength] = (byte) crc;
+        }
+        return b;
+    }
+
+    static byte data(final int seq, final int i) {
+        return (byte) (seq * 31 + i);
+    }
+
+    static void assertPacket(final int apid, final int seq, final int dataLength, final SpacePacket packet) {
+        assertNotNull(packet);
+        assertEquals(apid, packet.getHeader().getApid());
+        assertEquals(seq, packet.getHeader().getSequenceCount());
+        assertEquals(dataLength, packet.getLength());
+        for (int i = 0; i < dataLength; i++) {
+            assertEquals(data(seq, i), packet.getBody()[packet.getOffset() + i]);
+        }
+    }
+
+    private static SPPReader reader(final int chunk, final byte[]... frames) throws IOException {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (final byte[] f : frames) {
+            os.write(f);
+        }
+        return new SPPReader(new ChunkedInputStream(os.toByteArray(), chunk), new SPPFrameDecoder(true, CRC_APIDS,
+            PROCESSED_APIDS));
+    }
+
+    @Test
+    public void testSplitFrame() throws IOException {
+        // every read returns at most 3 octets, so headers and data fields are split across reads
+        final SPPReader r = reader(3, frame(PLAIN_APID, 1, 20), frame(CRC_APID, 2, 7), frame(PLAIN_APID, 3, 1));
+        assertPacket(PLAIN_APID, 1, 20, r.receive());
+        assertPacket(CRC_APID, 2, 7, r.receive());
+        assertPacket(PLAIN_APID, 3, 1, r.receive());
+    }
+
+    @Test
+    public void testSkippedApid() throws IOException {
+        // skipped while only partly buffered and while completely buffered
+        for (final int chunk : new int[]{10, Integer.MAX_VALUE}) {
+            final SPPReader r = reader(chunk, frame(SKIPPED_APID, 1, 1000), frame(PLAIN_APID, 2, 30));
+            assertNull(r.receive());
+            assertPacket(PLAIN_APID, 2, 30, r.receive());
+        }
+    }
+
+    @Test
+    public void testCrcErrorResync() throws IOException {
+        final byte[] corrupted = frame(CRC_APID, 1, 50);
+        corrupted[20] ^= 0x01;
+        final long crcErrors = SPPReader.getCrcErrorCount();
+        final SPPReader r = reader(7, corrupted, frame(CRC_APID, 2, 50), frame(PLAIN_APID, 3, 5));
+        assertPacket(CRC_APID, 2, 50, r.receive());
+        assertPacket(PLAIN_APID, 3, 5, r.receive());
+        assertTrue(SPPReader.getCrcErrorCount() > crcErrors);
+    }
+
+    @Test(expected = IOException.class)
+    public void testConsecutiveCrcErrors() throws IOException {
+        final byte[][] frames = new byte[3][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame(CRC_APID, i, 10);
+            frames[i][8] ^= 0x01;
+        }
+        reader(Integer.MAX_VALUE, frames).receive();
+    }
+
+    @Test
+    public void testFrameLargerThanRemainingSlab() throws IOException {
+        // the slab holds two of these frames, the third one only partly and has to be moved
+        final int dataLength = 60000;
+        final List<SpacePacket> packets = new ArrayList<>();
+        final SPPReader r = reader(Integer.MAX_VALUE, frame(PLAIN_APID, 1, dataLength), frame(PLAIN_APID, 2,
+            dataLength), frame(PLAIN_APID, 3, dataLength), frame(CRC_APID, 4, 65534));
+        for (int seq = 1; seq <= 3; seq++) {
+            packets.add(r.receive());
+            assertPacket(PLAIN_APID, seq, dataLength, packets.get(seq - 1));
+        }
+        assertPacket(CRC_APID, 4, 65534, r.receive());
+        assertNotSame(packets.get(0).getBody(), packets.get(2).getBody());
+    }
+
+    @Test
+    public void testRetainedPacketsAfterCompaction() throws IOException {
+        // far more than a slab, read in chunks not aligned to the frames
+        final int count = 3000;
+        final byte[][] frames = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            frames[i] = frame(0 == i % 3 ? CRC_APID : PLAIN_APID, i, 100 + i % 50);
+        }
+        final SPPReader r = reader(4093, frames);
+        final List<SpacePacket> packets = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            packets.add(r.receive());
+        }
+        for (int i = 0; i < count; i++) {
+            assertPacket(0 == i % 3 ? CRC_APID : PLAIN_APID, i, 100 + i % 50, packets.get(i));
+        }
+    }
+
+    /**
+     * Returns at most a given number of octets per read.
+     */
+    private static class ChunkedInputStream extends InputStream {
+
+        private final ByteArrayInputStream is;
+        private final int chunk;
+
+        ChunkedInputStream(final byte[] b, final int chunk) {
+            this.is = new ByteArrayInputStream(b);
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return is.read();
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            return is.read(b, off, Math.min(len, chunk));
+        }
+    }
+}
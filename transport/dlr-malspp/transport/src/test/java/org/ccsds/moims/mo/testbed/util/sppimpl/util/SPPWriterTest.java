@@ -0,0 +1,167 @@
+/* 
+ * MAL/SPP Binding for CCSDS Mission Operations Framework
+ * Copyright (C) 2015 Deutsches Zentrum für Luft- und Raumfahrt e.V. (DLR).
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPReaderTest.*;
+
+public class SPPWriterTest {
+
+    static {
+        System.setProperty("org.ccsds.moims.mo.malspp.crcenabled", "false");
+    }
+
+    private static SpacePacket packet(final int seq, final int dataLength) {
+        final SpacePacketHeader header = new SpacePacketHeader();
+        header.setApid(PLAIN_APID);
+        header.setSecondaryHeaderFlag(1);
+        header.setSequenceFlags(3);
+        header.setSequenceCount(seq);
+        // the packet data field in the middle of a larger array
+        final byte[] body = new byte[dataLength + 8];
+        for (int i = 0; i < dataLength; i++) {
+            body[5 + i] = data(seq, i);
+        }
+        return new SpacePacket(header, body, 5, dataLength);
+    }
+
+    private static SpacePacket[] batch(final int count) {
+        final SpacePacket[] packets = new SpacePacket[count];
+        for (int i = 0; i < count; i++) {
+            packets[i] = packet(i, 10 + i);
+        }
+        return packets;
+    }
+
+    private static byte[] frames(final int count) throws IOException {
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            expected.write(frame(PLAIN_APID, i, 10 + i));
+        }
+        return expected.toByteArray();
+    }
+
+    @Test
+    public void testSend() throws IOException {
+        final RecordingStream os = new RecordingStream(0);
+        new SPPWriter(os).send(packet(3, 20));
+        assertArrayEquals(frame(PLAIN_APID, 3, 20), os.toByteArray());
+        assertEquals(Arrays.asList(26), os.flushes);
+    }
+
+    @Test
+    public void testSendBatch() throws IOException {
+        // contiguous frames in order, flushed once at the end
+        final RecordingStream os = new RecordingStream(0);
+        new SPPWriter(os, 3600000000000L).send(batch(50));
+        assertArrayEquals(frames(50), os.toByteArray());
+        assertEquals(Arrays.asList(os.size()), os.flushes);
+    }
+
+    @Test
+    public void testSendBatchWithoutDelay() throws IOException {
+        final RecordingStream os = new RecordingStream(0);
+        new SPPWriter(os, 0).send(batch(50));
+        assertArrayEquals(frames(50), os.toByteArray());
+        assertEquals(1, os.flushes.size());
+    }
+
+    @Test
+    public void testFlushAfterDelay() throws IOException {
+        // every write takes longer than the flush delay, so the partial batch is flushed after each
+        // Space Packet, always at the end of a frame
+        final RecordingStream os = new RecordingStream(2);
+        new SPPWriter(os, 1000000).send(batch(5));
+        assertArrayEquals(frames(5), os.toByteArray());
+        final List<Integer> expected = new ArrayList<>();
+        int end = 0;
+        for (int i = 0; i < 5; i++) {
+            end += frame(PLAIN_APID, i, 10 + i).length;
+            expected.add(end);
+        }
+        assertEquals(expected, os.flushes);
+    }
+
+    @Test
+    public void testFlushedCount() throws IOException {
+        final SPPWriter writer = new SPPWriter(new RecordingStream(2, 3), 1000000);
+        try {
+            writer.send(batch(5));
+            fail("failed flush not reported");
+        } catch (final IOException ex) {
+            // expected
+        }
+        // the fourth Space Packet was written but not flushed
+        assertEquals(3, writer.getFlushedCount());
+        final SPPWriter other = new SPPWriter(new RecordingStream(0));
+        other.send(batch(5));
+        assertEquals(5, other.getFlushedCount());
+    }
+
+    /**
+     * Records the number of octets written at each flush and takes some time for each write.
+     */
+    private static class RecordingStream extends ByteArrayOutputStream {
+
+        private final long writeMillis;
+        private final int failingFlush;
+        private final List<Integer> flushes = new ArrayList<>();
+
+        RecordingStream(final long writeMillis) {
+            this(writeMillis, -1);
+        }
+
+        /**
+         * @param failingFlush Index of the flush that throws an IOException, -1 for none.
+         */
+        RecordingStream(final long writeMillis, final int failingFlush) {
+            this.writeMillis = writeMillis;
+            this.failingFlush = failingFlush;
+        }
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            super.write(b, off, len);
+            if (writeMillis > 0) {
+                try {
+                    Thread.sleep(writeMillis);
+                } catch (final InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (flushes.size() == failingFlush) {
+                throw new IOException("broken stream");
+            }
+            flushes.add(size());
+        }
+    }
+}
@@ -44,13 +44,14 @@ public class SPPMessageReceiver implements
         try {
             final SpacePacket spacePacket = socket.receive();
 
-            // PENDING: SPP TCP implementation allocates a new Space Packet with a body size of
-            // 65536 bytes. If the received Space Packet is smaller, the body byte array is not
-            // trimmed to fit. Here: Create new byte array of right size, copy contents, and set
-            // array as new body of the Space Packet.
+            // The body of a received Space Packet is a slice of the reader's receive buffer.
+            // Here: Create new byte array of right size, copy contents, and set array as new
+            // body of the Space Packet.
             final byte[] trimmedBody = new byte[spacePacket.getLength()];
-            System.arraycopy(spacePacket.getBody(), 0, trimmedBody, 0, spacePacket.getLength());
+            System.arraycopy(spacePacket.getBody(), spacePacket.getOffset(), trimmedBody, 0, spacePacket
+                .getLength());
             spacePacket.setBody(trimmedBody);
+            spacePacket.setOffset(0);
 
             return spacePacket;
         } catch (final Exception ex) {
@@ -0,0 +1,121 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Client side of the shared memory Space Packet socket. Creates its two rings
+ * in the shared directory and waits for the server to pick them up. Sending
+ * blocks while the ring to the server is full, like a TCP send does while the
+ * socket buffer is full.
+ */
+public class ClientSHMSPPSocket implements SPPSocket {
+
+    private static final Logger LOGGER = Logger.getLogger(ClientSHMSPPSocket.class.getName());
+    public static final String PEER = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.peer";
+
+    private String peer;
+    private File directory;
+    private SPPSharedRing up;
+    private SPPSharedRing down;
+    private SPPIdleStrategy sendIdle;
+    private SPPIdleStrategy receiveIdle;
+    private volatile boolean exiting;
+
+    public ClientSHMSPPSocket() {
+        super();
+    }
+
+    public void init(final Map properties) throws Exception {
+        LOGGER.log(Level.FINE, "ClientSHMSPPSocket.init({0})", properties);
+        directory = SHMSPPSocketFactory.getDirectory(properties);
+        peer = (String) properties.get(PEER);
+        if (null == peer) {
+            // RuntimeMXBean name is pid@host on the usual JVMs
+            peer = "app-" + ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        }
+        final int capacity = SHMSPPSocketFactory.getCapacity(properties);
+        final long maxParkNanos = SHMSPPSocketFactory.getMaxParkNanos(properties);
+        sendIdle = new SPPIdleStrategy(maxParkNanos);
+        receiveIdle = new SPPIdleStrategy(maxParkNanos);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create shared memory directory " + directory);
+        }
+        down = SPPSharedRing.create(new File(directory, peer + SHMSPPSocketFactory.DOWN_SUFFIX), capacity);
+        down.attachConsumer();
+        up = SPPSharedRing.create(new File(directory, peer + SHMSPPSocketFactory.UP_SUFFIX), capacity);
+        up.attachProducer();
+        LOGGER.log(Level.INFO, "Created shared memory rings of {0} in {1}", new Object[]{peer, directory});
+    }
+
+    @Override
+    public void close() throws Exception {
+        exiting = true;
+        up.markClosed();
+        down.markClosed();
+        up.close();
+        down.close();
+        if (!up.getFile().delete() || !down.getFile().delete()) {
+            LOGGER.log(Level.WARNING, "Could not delete the shared memory rings of {0}", peer);
+        }
+    }
+
+    @Override
+    public SpacePacket receive() throws Exception {
+        while (!exiting) {
+            final SpacePacket packet = down.poll();
+            if (null != packet) {
+                receiveIdle.reset();
+                LOGGER.log(Level.FINE, "Received: {0}", packet);
+                return packet;
+            }
+            receiveIdle.idle();
+        }
+        return null;
+    }
+
+    @Override
+    public void send(final SpacePacket packet) throws Exception {
+        LOGGER.log(Level.FINE, "send({0})", packet);
+        synchronized (up) {
+            while (!up.offer(packet)) {
+                if (exiting) {
+                    throw new IOException("Socket closed.");
+                }
+                sendIdle.idle();
+            }
+            sendIdle.reset();
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return directory + "/" + peer;
+    }
+}
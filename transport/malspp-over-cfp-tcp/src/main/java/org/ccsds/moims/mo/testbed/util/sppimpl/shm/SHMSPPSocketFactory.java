@@ -0,0 +1,79 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.io.File;
+import java.util.Map;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocketFactory;
+
+/**
+ * Space Packet sockets exchanging packets through memory mapped ring files
+ * between processes on the same host, as a replacement for the TCP sockets on
+ * localhost. The server (the supervisor) plays the part of the TCP server: it
+ * receives from all clients (the apps) and sends every packet to all of them.
+ * Each client creates two rings in the shared directory, one per direction.
+ */
+public class SHMSPPSocketFactory extends SPPSocketFactory {
+
+    public static final String IS_SERVER = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.isServer";
+    public static final String DIRECTORY = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.directory";
+    public static final String CAPACITY = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.capacity";
+    public static final String MAX_PARK = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.maxParkMicros";
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+    public static final long DEFAULT_MAX_PARK = 1000;
+    /**
+     * Suffix of the ring a client sends on. It is created last, so its presence
+     * tells the server that both rings of the client are ready.
+     */
+    static final String UP_SUFFIX = ".up";
+    static final String DOWN_SUFFIX = ".down";
+
+    @Override
+    public SPPSocket createSocket(final Map properties) throws Exception {
+        final String isServerS = (String) properties.get(IS_SERVER);
+        final boolean isServer = Boolean.parseBoolean(isServerS);
+        if (isServer) {
+            final ServerSHMSPPSocket socket = new ServerSHMSPPSocket();
+            socket.init(properties);
+            return socket;
+        } else {
+            final ClientSHMSPPSocket socket = new ClientSHMSPPSocket();
+            socket.init(properties);
+            return socket;
+        }
+    }
+
+    static File getDirectory(final Map properties) {
+        final String directory = (String) properties.get(DIRECTORY);
+        return null != directory ? new File(directory) : new File(System.getProperty("java.io.tmpdir"), "malspp-shm");
+    }
+
+    static int getCapacity(final Map properties) {
+        final String capacity = (String) properties.get(CAPACITY);
+        return null != capacity ? Integer.parseInt(capacity) : DEFAULT_CAPACITY;
+    }
+
+    static long getMaxParkNanos(final Map properties) {
+        final String maxPark = (String) properties.get(MAX_PARK);
+        return 1000 * (null != maxPark ? Long.parseLong(maxPark) : DEFAULT_MAX_PARK);
+    }
+}
@@ -0,0 +1,72 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waiting for a shared memory ring without a cross-process wake-up: spin
+ * first, then yield, then park for doubling periods up to a maximum. The
+ * maximum bounds the added latency once the peer has been idle for a while.
+ */
+public class SPPIdleStrategy {
+
+    private static final int MAX_SPINS = 100;
+    private static final int MAX_YIELDS = 50;
+    private static final long MIN_PARK_NANOS = 1000;
+    private final long maxParkNanos;
+    private int spins;
+    private int yields;
+    private long parkNanos;
+
+    /**
+     * @param maxParkNanos Longest single park in nanoseconds.
+     */
+    public SPPIdleStrategy(final long maxParkNanos) {
+        this.maxParkNanos = Math.max(MIN_PARK_NANOS, maxParkNanos);
+        reset();
+    }
+
+    /**
+     * Waits a little longer than the previous call, unless reset() was called
+     * in between.
+     */
+    public void idle() {
+        if (spins < MAX_SPINS) {
+            spins++;
+        } else if (yields < MAX_YIELDS) {
+            yields++;
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(parkNanos);
+            parkNanos = Math.min(parkNanos << 1, maxParkNanos);
+        }
+    }
+
+    /**
+     * Starts over with spinning, to be called after work has been done.
+     */
+    public void reset() {
+        spins = 0;
+        yields = 0;
+        parkNanos = MIN_PARK_NANOS;
+    }
+}
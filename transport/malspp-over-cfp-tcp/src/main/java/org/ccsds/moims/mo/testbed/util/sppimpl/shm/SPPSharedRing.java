@@ -0,0 +1,355 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+
+/**
+ * Single producer, single consumer ring buffer of Space Packets in a memory
+ * mapped file, shared by two processes on the same host.
+ *
+ * The file starts with a header holding the capacity, the closed flag and the
+ * write (tail) and read (head) positions, each on its own cache line. The
+ * positions only grow; the ring index is the position modulo the capacity.
+ * Each record is the length of its payload followed by the payload (APID
+ * qualifier, primary header and packet data field) and padded to 8 octets. A
+ * record that does not fit before the end of the ring is preceded by a padding
+ * marker and written at the start.
+ *
+ * The producer publishes records with an ordered store of the tail after
+ * writing them, and the consumer frees them with an ordered store of the head
+ * after reading them. Both are read with volatile loads. Java 8 offers these
+ * accesses on off-heap memory only through sun.misc.Unsafe, which is looked up
+ * at runtime.
+ */
+public class SPPSharedRing {
+
+    private static final int MAGIC = 0x53505052; // "SPPR"
+    private static final int MAGIC_IDX = 0;
+    private static final int CAPACITY_IDX = 4;
+    private static final int CLOSED_IDX = 8;
+    private static final int TAIL_IDX = 64;
+    private static final int HEAD_IDX = 128;
+    private static final int DATA_IDX = 192;
+    private static final int LENGTH_FIELD = 4;
+    private static final int PAYLOAD_HEADER = 8; // APID qualifier and primary header
+    private static final int ALIGNMENT = 8;
+    private static final int PADDING = -1;
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String NO_UNSAFE = "Shared memory rings need sun.misc.Unsafe, which is not available.";
+    private static final String BAD_FILE = "Not a Space Packet ring: ";
+    private static final String BAD_CAPACITY = "Ring capacity must be a power of two of at least 4096 octets: ";
+    private static final String TOO_LARGE = "Space Packet too large for ring: ";
+    private static final MethodHandle GET_LONG_VOLATILE;
+    private static final MethodHandle PUT_ORDERED_LONG;
+    private static final MethodHandle GET_LONG;
+    private static final long ADDRESS_OFFSET;
+
+    static {
+        MethodHandle getLongVolatile = null;
+        MethodHandle putOrderedLong = null;
+        MethodHandle getLong = null;
+        long addressOffset = -1;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            final MethodHandles.Lookup lookup = MethodHandles.lookup();
+            getLongVolatile = lookup.findVirtual(unsafeClass, "getLongVolatile", MethodType.methodType(long.class,
+                Object.class, long.class)).bindTo(unsafe);
+            putOrderedLong = lookup.findVirtual(unsafeClass, "putOrderedLong", MethodType.methodType(void.class,
+                Object.class, long.class, long.class)).bindTo(unsafe);
+            getLong = lookup.findVirtual(unsafeClass, "getLong", MethodType.methodType(long.class, Object.class,
+                long.class)).bindTo(unsafe);
+            final MethodHandle objectFieldOffset = lookup.findVirtual(unsafeClass, "objectFieldOffset", MethodType
+                .methodType(long.class, Field.class)).bindTo(unsafe);
+            addressOffset = (long) objectFieldOffset.invokeExact(Buffer.class.getDeclaredField("address"));
+        } catch (final Throwable ex) {
+            getLongVolatile = null;
+        }
+        GET_LONG_VOLATILE = getLongVolatile;
+        PUT_ORDERED_LONG = putOrderedLong;
+        GET_LONG = getLong;
+        ADDRESS_OFFSET = addressOffset;
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer data;
+    private final long address;
+    private final int capacity;
+    private final int mask;
+    private long position; // tail for the producer, head for the consumer
+
+    private SPPSharedRing(final File file, final RandomAccessFile raf, final MappedByteBuffer buffer)
+        throws IOException {
+        this.file = file;
+        this.raf = raf;
+        this.buffer = buffer;
+        if (buffer.getInt(MAGIC_IDX) != MAGIC) {
+            raf.close();
+            throw new IOException(BAD_FILE + file);
+        }
+        capacity = buffer.getInt(CAPACITY_IDX);
+        mask = capacity - 1;
+        buffer.position(DATA_IDX);
+        data = buffer.slice();
+        buffer.position(0);
+        try {
+            address = (long) GET_LONG.invokeExact((Object) buffer, ADDRESS_OFFSET);
+        } catch (final Throwable ex) {
+            raf.close();
+            throw new IOException(NO_UNSAFE, ex);
+        }
+    }
+
+    /**
+     * Creates an empty ring, replacing an existing file. The file only appears
+     * under its name once it is initialised, so that a peer scanning for it
+     * never maps a half-written header.
+     *
+     * @param file     The ring file.
+     * @param capacity Capacity in octets, a power of two.
+     * @return The ring, ready to be used as producer or consumer.
+     * @throws IOException
+     */
+    public static SPPSharedRing create(final File file, final int capacity) throws IOException {
+        if (null == GET_LONG_VOLATILE) {
+            throw new IOException(NO_UNSAFE);
+        }
+        if (capacity < 4096 || Integer.bitCount(capacity) != 1) {
+            throw new IOException(BAD_CAPACITY + capacity);
+        }
+        final File tmp = new File(file.getPath() + TMP_SUFFIX);
+        final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        final MappedByteBuffer buffer;
+        try {
+            raf.setLength(0);
+            raf.setLength(DATA_IDX + capacity);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, DATA_IDX + capacity);
+            buffer.putInt(CAPACITY_IDX, capacity);
+            buffer.putInt(MAGIC_IDX, MAGIC);
+            buffer.force();
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        return new SPPSharedRing(file, raf, buffer);
+    }
+
+    /**
+     * Maps an existing ring. Producer and consumer continue at the positions
+     * stored in the file.
+     *
+     * @param file The ring file.
+     * @return The ring.
+     * @throws IOException
+     */
+    public static SPPSharedRing open(final File file) throws IOException {
+        if (null == GET_LONG_VOLATILE) {
+            throw new IOException(NO_UNSAFE);
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final MappedByteBuffer buffer;
+        try {
+            if (raf.length() < DATA_IDX) {
+                throw new IOException(BAD_FILE + file);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        } catch (final IOException ex) {
+            raf.close();
+            throw ex;
+        }
+        return new SPPSharedRing(file, raf, buffer);
+    }
+
+    /**
+     * Prepares the ring for being used as producer.
+     */
+    public void attachProducer() {
+        position = getVolatile(TAIL_IDX);
+    }
+
+    /**
+     * Prepares the ring for being used as consumer.
+     */
+    public void attachConsumer() {
+        position = getVolatile(HEAD_IDX);
+    }
+
+    /**
+     * Appends a Space Packet if there is enough free space. Only to be called by
+     * the producer.
+     *
+     * @param packet The Space Packet. Its body is copied into the ring.
+     * @return False if the ring is too full.
+     * @throws IOException If the Space Packet can never fit into the ring.
+     */
+    public boolean offer(final SpacePacket packet) throws IOException {
+        final int payloadLength = PAYLOAD_HEADER + packet.getLength();
+        final int recordLength = align(LENGTH_FIELD + payloadLength);
+        if (recordLength > capacity) {
+            throw new IOException(TOO_LARGE + packet.getLength());
+        }
+        long tail = position;
+        int index = (int) (tail & mask);
+        final int toEnd = capacity - index;
+        final int required = recordLength > toEnd ? recordLength + toEnd : recordLength;
+        if (tail + required - getVolatile(HEAD_IDX) > capacity) {
+            return false;
+        }
+        if (recordLength > toEnd) {
+            data.putInt(index, PADDING);
+            tail += toEnd;
+            index = 0;
+        }
+        final SpacePacketHeader header = packet.getHeader();
+        data.putInt(index, payloadLength);
+        data.putShort(index + 4, (short) packet.getApidQualifier());
+        data.putShort(index + 6, (short) ((header.getPacketVersionNumber() << 13) | (header.getPacketType() << 12)
+            | (header.getSecondaryHeaderFlag() << 11) | header.getApid()));
+        data.putShort(index + 8, (short) ((header.getSequenceFlags() << 14) | header.getSequenceCount()));
+        data.putShort(index + 10, (short) (packet.getLength() - 1));
+        data.position(index + LENGTH_FIELD + PAYLOAD_HEADER);
+        data.put(packet.getBody(), packet.getOffset(), packet.getLength());
+        position = tail + recordLength;
+        putOrdered(TAIL_IDX, position);
+        return true;
+    }
+
+    /**
+     * Takes the next Space Packet. Only to be called by the consumer.
+     *
+     * @return The Space Packet with a body of its own, or null if the ring is
+     *         empty.
+     */
+    public SpacePacket poll() {
+        long head = position;
+        if (head == getVolatile(TAIL_IDX)) {
+            return null;
+        }
+        int index = (int) (head & mask);
+        int payloadLength = data.getInt(index);
+        if (payloadLength == PADDING) {
+            head += capacity - index;
+            index = 0;
+            payloadLength = data.getInt(index);
+        }
+        final int apidQualifier = data.getShort(index + 4) & 0xFFFF;
+        final int identification = data.getShort(index + 6) & 0xFFFF;
+        final int sequenceControl = data.getShort(index + 8) & 0xFFFF;
+        final SpacePacketHeader header = new SpacePacketHeader(identification >>> 13, (identification >>> 12) & 1,
+            (identification >>> 11) & 1, identification & 0x7FF, sequenceControl >>> 14, sequenceControl & 0x3FFF);
+        final byte[] body = new byte[payloadLength - PAYLOAD_HEADER];
+        data.position(index + LENGTH_FIELD + PAYLOAD_HEADER);
+        data.get(body);
+        position = head + align(LENGTH_FIELD + payloadLength);
+        putOrdered(HEAD_IDX, position);
+        return new SpacePacket(header, apidQualifier, body, 0, body.length);
+    }
+
+    /**
+     * @return True if the ring holds no Space Packet. Only exact for the
+     *         consumer.
+     */
+    public boolean isEmpty() {
+        return getVolatile(HEAD_IDX) == getVolatile(TAIL_IDX);
+    }
+
+    /**
+     * @return Number of octets used by records not read yet.
+     */
+    public long getUsed() {
+        return getVolatile(TAIL_IDX) - getVolatile(HEAD_IDX);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Tells the peer that this side will not use the ring any more. Only the
+     * side that created the ring marks it, so that the other side can be
+     * restarted and continue with the same ring.
+     */
+    public void markClosed() {
+        putOrdered(CLOSED_IDX, 1);
+    }
+
+    /**
+     * Releases the file. The mapping stays valid until the ring is garbage
+     * collected.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    /**
+     * @return True if the side that created the ring has marked it closed.
+     */
+    public boolean isClosed() {
+        return getVolatile(CLOSED_IDX) != 0;
+    }
+
+    private long getVolatile(final int idx) {
+        try {
+            return (long) GET_LONG_VOLATILE.invokeExact((Object) null, address + idx);
+        } catch (final Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void putOrdered(final int idx, final long value) {
+        try {
+            PUT_ORDERED_LONG.invokeExact((Object) null, address + idx, value);
+        } catch (final Throwable ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static int align(final int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,252 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+
+/**
+ * Server side of the shared memory Space Packet socket. Picks up the rings of
+ * clients appearing in the shared directory, receives from all of them in
+ * turn and sends every packet to all of them, like ServerTCPSPPSocket does.
+ *
+ * A client that stops reading must not block the others: If its ring stays
+ * full for the send timeout, the packet is dropped for that client, and so are
+ * all following packets that do not fit until it reads again.
+ */
+public class ServerSHMSPPSocket implements SPPSocket {
+
+    private static final Logger LOGGER = Logger.getLogger(ServerSHMSPPSocket.class.getName());
+    public static final String SEND_TIMEOUT = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.sendTimeout";
+    public static final String SCAN_INTERVAL = "org.ccsds.moims.mo.malspp.test.sppimpl.shm.scanInterval";
+    public static final long DEFAULT_SEND_TIMEOUT = 1000;
+    public static final long DEFAULT_SCAN_INTERVAL = 100;
+
+    private File directory;
+    private long sendTimeoutNanos;
+    private long scanIntervalNanos;
+    private long maxParkNanos;
+    private long nextScan;
+    private int nextPeer;
+    private SPPIdleStrategy receiveIdle;
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+    private final Map<String, Peer> peersByName = new HashMap<>();
+    private volatile boolean exiting;
+
+    public ServerSHMSPPSocket() {
+        super();
+    }
+
+    public void init(final Map properties) throws Exception {
+        LOGGER.log(Level.FINE, "ServerSHMSPPSocket.init({0})", properties);
+        directory = SHMSPPSocketFactory.getDirectory(properties);
+        final String sendTimeout = (String) properties.get(SEND_TIMEOUT);
+        sendTimeoutNanos = 1000000 * (null != sendTimeout ? Long.parseLong(sendTimeout) : DEFAULT_SEND_TIMEOUT);
+        final String scanInterval = (String) properties.get(SCAN_INTERVAL);
+        scanIntervalNanos = 1000000 * (null != scanInterval ? Long.parseLong(scanInterval) : DEFAULT_SCAN_INTERVAL);
+        maxParkNanos = SHMSPPSocketFactory.getMaxParkNanos(properties);
+        receiveIdle = new SPPIdleStrategy(maxParkNanos);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create shared memory directory " + directory);
+        }
+        LOGGER.log(Level.INFO, "Listening for shared memory clients in {0}", directory);
+        scan();
+    }
+
+    @Override
+    public void close() throws Exception {
+        exiting = true;
+        for (final Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    @Override
+    public SpacePacket receive() throws Exception {
+        while (!exiting) {
+            if (System.nanoTime() - nextScan >= 0) {
+                scan();
+            }
+            final int n = peers.size();
+            for (int i = 0; i < n; i++) {
+                final int index = (nextPeer + i) % n;
+                final Peer peer;
+                try {
+                    peer = peers.get(index);
+                } catch (final IndexOutOfBoundsException ex) {
+                    break; // a peer has been removed while sending, start over
+                }
+                final SpacePacket packet = peer.up.poll();
+                if (null != packet) {
+                    nextPeer = index + 1;
+                    receiveIdle.reset();
+                    LOGGER.log(Level.FINE, "Received: {0}", packet);
+                    return packet;
+                }
+            }
+            receiveIdle.idle();
+        }
+        return null;
+    }
+
+    @Override
+    public void send(final SpacePacket packet) throws IOException {
+        LOGGER.log(Level.FINE, "send({0})", packet);
+        if (peers.isEmpty()) {
+            throw new IOException("SPP send called, but no connection established!");
+        }
+        for (final Peer peer : peers) {
+            peer.send(packet);
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return directory.toString();
+    }
+
+    /**
+     * Picks up new clients and forgets about closed ones. Only called by the
+     * receiving thread.
+     */
+    private void scan() {
+        nextScan = System.nanoTime() + scanIntervalNanos;
+        for (final Peer peer : peers) {
+            if (peer.up.isClosed() && peer.up.isEmpty()) {
+                removePeer(peer, "closed");
+            }
+        }
+        final String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(SHMSPPSocketFactory.UP_SUFFIX);
+            }
+        });
+        if (null == names) {
+            return;
+        }
+        for (final String fileName : names) {
+            final String name = fileName.substring(0, fileName.length() - SHMSPPSocketFactory.UP_SUFFIX.length());
+            final File upFile = new File(directory, fileName);
+            final Object fileKey;
+            try {
+                fileKey = Files.readAttributes(upFile.toPath(), BasicFileAttributes.class).fileKey();
+            } catch (final IOException ex) {
+                continue; // deleted in the meantime
+            }
+            final Peer known = peersByName.get(name);
+            if (null != known) {
+                if (null == fileKey || fileKey.equals(known.fileKey)) {
+                    continue;
+                }
+                // the client has been restarted without closing its rings
+                removePeer(known, "replaced");
+            }
+            try {
+                final SPPSharedRing up = SPPSharedRing.open(upFile);
+                final SPPSharedRing down = SPPSharedRing.open(new File(directory, name
+                    + SHMSPPSocketFactory.DOWN_SUFFIX));
+                up.attachConsumer();
+                down.attachProducer();
+                final Peer peer = new Peer(name, fileKey, up, down);
+                peersByName.put(name, peer);
+                peers.add(peer);
+                LOGGER.log(Level.INFO, "Accepted shared memory client: {0}", name);
+            } catch (final IOException ex) {
+                LOGGER.log(Level.WARNING, "Could not open the shared memory rings of " + name, ex);
+            }
+        }
+    }
+
+    private void removePeer(final Peer peer, final String reason) {
+        peers.remove(peer);
+        peersByName.remove(peer.name);
+        peer.close();
+        LOGGER.log(Level.INFO, "Removed shared memory client {0}: {1}", new Object[]{peer.name, reason});
+    }
+
+    private class Peer {
+
+        private final String name;
+        private final Object fileKey;
+        private final SPPSharedRing up;
+        private final SPPSharedRing down;
+        private final SPPIdleStrategy sendIdle;
+        private boolean isStalled;
+        private long dropped;
+
+        Peer(final String name, final Object fileKey, final SPPSharedRing up, final SPPSharedRing down) {
+            this.name = name;
+            this.fileKey = fileKey;
+            this.up = up;
+            this.down = down;
+            this.sendIdle = new SPPIdleStrategy(maxParkNanos);
+        }
+
+        synchronized void send(final SpacePacket packet) throws IOException {
+            if (down.isClosed()) {
+                return;
+            }
+            if (down.offer(packet)) {
+                if (isStalled) {
+                    LOGGER.log(Level.INFO, "Shared memory client {0} reads again, {1} packets dropped",
+                        new Object[]{name, dropped});
+                    isStalled = false;
+                }
+                return;
+            }
+            if (!isStalled) {
+                final long deadline = System.nanoTime() + sendTimeoutNanos;
+                sendIdle.reset();
+                while (System.nanoTime() - deadline < 0 && !exiting) {
+                    sendIdle.idle();
+                    if (down.offer(packet)) {
+                        return;
+                    }
+                }
+                LOGGER.log(Level.WARNING, "Shared memory client {0} does not read, dropping packets", name);
+                isStalled = true;
+                dropped = 0;
+            }
+            dropped++;
+        }
+
+        void close() {
+            try {
+                up.close();
+                down.close();
+            } catch (final IOException ex) {
+                LOGGER.log(Level.FINE, "Error when closing the rings of " + name, ex);
+            }
+        }
+    }
+}
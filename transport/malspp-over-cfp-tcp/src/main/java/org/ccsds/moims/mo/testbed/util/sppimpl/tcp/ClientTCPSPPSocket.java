@@ -34,29 +34,115 @@
  */
 package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
 
+import fr.dyade.aaa.common.Daemon;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import org.ccsds.moims.mo.testbed.util.spp.SPPBatchSocket;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPWriter;
 
-public class ClientTCPSPPSocket implements SPPSocket {
+/**
+ * Client side of the TCP Space Packet socket.
+ *
+ * The connection is established and, after it broke, re-established by a
+ * ConnectorDaemon thread, waiting between attempts for a delay growing from
+ * RECONNECT_MIN_DELAY to RETRYTIME with random jitter. While there is no
+ * connection, sent Space Packets are encoded into a spool bounded by
+ * SPOOL_SIZE octets and written in the order they were sent as soon as the
+ * connection is back, before any Space Packet sent later. What happens to a
+ * send that does not fit into the spool is given by SPOOL_OVERFLOW_POLICY.
+ * Space Packets written just before the connection broke may be lost. If it
+ * breaks in the middle of a batch, only the Space Packets that have not been
+ * flushed yet are spooled; if it breaks while the spool is written, the part
+ * of the spool being written is sent again.
+ */
+public class ClientTCPSPPSocket implements SPPBatchSocket, ClientTCPSPPSocketMXBean {
 
     private static final Logger LOGGER = java.util.logging.Logger.getLogger(ClientTCPSPPSocket.class.getName());
     public static final int DEFAULT_RETRY_TIME = 5000;
     public static final String RETRYTIME = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.retrytime";
     public static final String HOSTNAME = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.hostname";
     public static final String PORT = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.port";
+    public static final String MAX_FLUSH_DELAY = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.maxFlushDelayMicros";
+    public static final long DEFAULT_MAX_FLUSH_DELAY = 1000;
+    public static final String RECONNECT_MIN_DELAY = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.reconnectMinDelay";
+    public static final int DEFAULT_RECONNECT_MIN_DELAY = 100;
+    public static final String SPOOL_SIZE = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.spoolSize";
+    public static final int DEFAULT_SPOOL_SIZE = 4 * 1024 * 1024;
+    public static final String SPOOL_OVERFLOW_POLICY = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.spoolOverflowPolicy";
+    public static final String JMX = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.jmx";
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+    /**
+     * Most octets of the spool written to a new connection at a time, unless
+     * a single send is larger.
+     */
+    private static final int RESUME_CHUNK_SIZE = 65536;
+
+    /**
+     * What to do with a send while there is no connection and the spool is
+     * full.
+     */
+    public enum SpoolOverflowPolicy {
+        /**
+         * Wait until the connection is back and the spool has been written.
+         */
+        BLOCK,
+        /**
+         * Discard the oldest sends in the spool to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Throw an IOException to the sender.
+         */
+        FAIL
+    }
 
     private String host;
     private int port;
     private int retryTime;
-    private SPPChannel channel;
-    private boolean exiting;
+    private int reconnectMinDelay;
+    private long maxFlushDelayNanos;
+    private int spoolSize;
+    private SpoolOverflowPolicy overflowPolicy;
+    private ObjectName name;
+    private ConnectorDaemon connector;
+    private volatile SPPChannel channel;
+    private volatile SPPChannel resuming; // new connection the spool is being written to
+    private volatile boolean exiting;
+
+    /**
+     * Guards the channel for sending, the spool and the encoder, and is
+     * notified whenever the channel changes. It is held while writing to the
+     * socket, so the metrics are kept in volatile fields that are written
+     * under the lock or by the connector thread only, and read without it.
+     * The spool is written to a new connection in chunks without holding the
+     * lock; sends keep being spooled until it is empty.
+     */
+    private final Object lock = new Object();
+    private final ArrayDeque<byte[]> spool = new ArrayDeque<>();
+    private volatile int spoolDepth;
+    private volatile int spooledBytes;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final SPPWriter encoder = new SPPWriter(encoded);
+    private volatile long connections;
+    private volatile long connectFailures;
+    private volatile long droppedCount;
 
+    private SPPChannel receiveChannel;
     private final HashMap<Integer, Integer> lastSPPsMap = new HashMap<>();
 
     public ClientTCPSPPSocket() {
@@ -74,64 +160,109 @@ public class ClientTCPSPPSocket implements SPPSocket {
         } else {
             retryTime = DEFAULT_RETRY_TIME;
         }
+        final String reconnectMinDelayS = (String) properties.get(RECONNECT_MIN_DELAY);
+        reconnectMinDelay = Math.max(1, Math.min(retryTime, reconnectMinDelayS != null ? Integer.parseInt(
+            reconnectMinDelayS) : DEFAULT_RECONNECT_MIN_DELAY));
+        final String maxFlushDelayS = (String) properties.get(MAX_FLUSH_DELAY);
+        maxFlushDelayNanos = 1000 * (maxFlushDelayS != null ? Long.parseLong(maxFlushDelayS)
+            : DEFAULT_MAX_FLUSH_DELAY);
+        final String spoolSizeS = (String) properties.get(SPOOL_SIZE);
+        spoolSize = spoolSizeS != null ? Integer.parseInt(spoolSizeS) : DEFAULT_SPOOL_SIZE;
+        final String policyS = (String) properties.get(SPOOL_OVERFLOW_POLICY);
+        overflowPolicy = policyS != null ? SpoolOverflowPolicy.valueOf(policyS.trim().toUpperCase())
+            : SpoolOverflowPolicy.BLOCK;
+        final String jmxS = (String) properties.get(JMX);
+        if (jmxS == null || Boolean.parseBoolean(jmxS)) {
+            register();
+        }
+        connector = new ConnectorDaemon();
+        connector.start();
     }
 
+    /**
+     * Connects to the server right away instead of waiting for the connector
+     * thread. An existing connection is kept.
+     */
     public void connect(final String host, final int port) throws IOException {
         LOGGER.log(Level.FINE, "ClientTCPSPPSocket.connect({0},{1})", new Object[]{host, port});
         final Socket socket = new Socket(host, port);
-        channel = new SPPChannel(socket);
+        final SPPChannel connected = new SPPChannel(socket, maxFlushDelayNanos);
+        boolean resumed = false;
+        try {
+            resumed = resume(connected);
+        } finally {
+            if (!resumed) {
+                connected.close();
+            }
+        }
     }
 
     @Override
     public void close() throws Exception {
         this.exiting = true;
-        channel.close();
+        // closing the connection first makes a send blocked on it give up the lock
+        final SPPChannel current = channel;
+        if (current != null) {
+            current.close();
+        }
+        final SPPChannel pending = resuming;
+        if (pending != null) {
+            pending.close();
+        }
+        if (connector != null) {
+            connector.stop();
+        }
+        synchronized (lock) {
+            channel = null;
+            if (!spool.isEmpty()) {
+                LOGGER.log(Level.WARNING, "Closing with {0} unsent Space Packet sends in the spool.", spool.size());
+                spool.clear();
+                spoolDepth = 0;
+                spooledBytes = 0;
+            }
+            lock.notifyAll();
+        }
+        unregister();
     }
 
     @Override
     public SpacePacket receive() throws Exception {
         while (true) {
-            if (channel != null) {
-                try {
-                    final SpacePacket packet = channel.receive();
+            final SPPChannel current = awaitChannel();
+            if (current == null) {
+                return null;
+            }
+            if (current != receiveChannel) {
+                // sequence counts of a new connection are unrelated to the previous one
+                receiveChannel = current;
+                lastSPPsMap.clear();
+            }
+            try {
+                final SpacePacket packet = current.receive();
 
-                    if (packet == null) { // return null if packet is not NMF relevant
-                        return null;
-                    }
+                if (packet == null) { // return null if packet is not NMF relevant
+                    return null;
+                }
 
-                    final int packetAPID = packet.getHeader().getApid();
-                    final int sequenceCount = packet.getHeader().getSequenceCount();
-                    final int previous = (lastSPPsMap.get(packetAPID) != null) ? lastSPPsMap.get(packetAPID) : -1;
+                final int packetAPID = packet.getHeader().getApid();
+                final int sequenceCount = packet.getHeader().getSequenceCount();
+                final int previous = (lastSPPsMap.get(packetAPID) != null) ? lastSPPsMap.get(packetAPID) : -1;
 
-                    if (previous != -1 && previous != sequenceCount - 1 && previous != 16383 && sequenceCount != 0) { // Exclude also the transition zone
-                        LOGGER.log(Level.FINE, "Out-of-order detected! Sequence count: {0} - Last: {1} (For APID:{2})",
-                            new Object[]{sequenceCount, previous, packetAPID});
-                    }
+                if (previous != -1 && previous != sequenceCount - 1 && previous != 16383 && sequenceCount != 0) { // Exclude also the transition zone
+                    LOGGER.log(Level.FINE, "Out-of-order detected! Sequence count: {0} - Last: {1} (For APID:{2})",
+                        new Object[]{sequenceCount, previous, packetAPID});
+                }
 
-                    lastSPPsMap.put(packetAPID, sequenceCount);
+                lastSPPsMap.put(packetAPID, sequenceCount);
 
-                    LOGGER.log(Level.FINE, "Received: {0}", packet);
-                    return packet;
-                } catch (final IOException ex) {
-                    if (exiting) {
-                        return null;
-                    }
-                    LOGGER.log(Level.WARNING, "Failed socket receive - restarting the channel...", ex);
-                    channel.close();
-                    try {
-                        connect(host, port);
-                    } catch (final IOException ex2) {
-                        LOGGER.log(Level.WARNING, "Couldn't connect - sleeping for " + retryTime + " ms", ex2);
-                        Thread.sleep(DEFAULT_RETRY_TIME);
-                    }
-                }
-            } else {
-                try {
-                    connect(host, port);
-                } catch (final IOException ex2) {
-                    LOGGER.log(Level.WARNING, "Couldn't connect - sleeping for " + retryTime + " ms", ex2);
-                    Thread.sleep(DEFAULT_RETRY_TIME);
+                LOGGER.log(Level.FINE, "Received: {0}", packet);
+                return packet;
+            } catch (final IOException ex) {
+                if (exiting) {
+                    return null;
                 }
+                LOGGER.log(Level.WARNING, "Failed socket receive - reconnecting in the background...", ex);
+                broken(current);
             }
         }
     }
@@ -139,35 +270,330 @@ public class ClientTCPSPPSocket implements SPPSocket {
     @Override
     public void send(final SpacePacket packet) throws Exception {
         LOGGER.log(Level.FINE, "send({0})", packet);
+        send(packet, null);
+    }
 
-        while (true) {
-            if (channel != null) {
-                try {
-                    channel.send(packet);
-                    return;
-                } catch (final IOException ex) {
-                    LOGGER.log(Level.WARNING, "Failed socket send - restarting the channel...", ex);
-                    channel.close();
+    @Override
+    public void send(final SpacePacket[] packets) throws Exception {
+        LOGGER.log(Level.FINE, "send({0} packets)", packets.length);
+        send(null, packets);
+    }
+
+    /**
+     * Writes the Space Packets to the connection or, while there is none,
+     * appends a copy of them encoded to the spool.
+     */
+    private void send(final SpacePacket packet, final SpacePacket[] packets) throws IOException,
+        InterruptedException {
+        synchronized (lock) {
+            SpacePacket[] unsent = packets;
+            byte[] frame = null;
+            while (true) {
+                if (exiting) {
+                    throw new IOException("SPP send called, but the socket is closed!");
+                }
+                final SPPChannel current = channel;
+                if (current != null) { // the spool is empty while connected
                     try {
-                        connect(host, port);
-                    } catch (final IOException ex2) {
-                        LOGGER.log(Level.WARNING, "Couldn't connect - sleeping for " + retryTime + " ms", ex2);
-                        Thread.sleep(DEFAULT_RETRY_TIME);
+                        if (frame != null) {
+                            current.write(frame);
+                            current.flush();
+                        } else if (unsent != null) {
+                            current.send(unsent);
+                        } else {
+                            current.send(packet);
+                        }
+                        return;
+                    } catch (final IOException ex) {
+                        LOGGER.log(Level.WARNING, "Failed socket send - spooling until reconnected...", ex);
+                        broken(current);
+                        if (frame == null && unsent != null) {
+                            // the Space Packets flushed before the failure are not sent again
+                            unsent = Arrays.copyOfRange(unsent, current.getFlushedCount(), unsent.length);
+                        }
                     }
                 }
+                if (frame == null) {
+                    frame = encode(packet, unsent);
+                }
+                if (spool(frame)) {
+                    return;
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    /**
+     * Appends the encoded Space Packets to the spool, applying the overflow
+     * policy if they do not fit. Must be called holding the lock.
+     *
+     * @return False if the sender has to wait for the spool to be written.
+     */
+    private boolean spool(final byte[] frame) throws IOException {
+        if (spooledBytes + frame.length <= spoolSize) {
+            spool.addLast(frame);
+            spoolDepth = spool.size();
+            spooledBytes += frame.length;
+            return true;
+        }
+        if (overflowPolicy == SpoolOverflowPolicy.DROP_OLDEST) {
+            while (!spool.isEmpty() && spooledBytes + frame.length > spoolSize) {
+                spooledBytes -= spool.removeFirst().length;
+                droppedCount++;
+            }
+            if (frame.length > spoolSize) {
+                droppedCount++;
             } else {
-                try {
-                    connect(host, port);
-                } catch (final IOException ex) {
-                    LOGGER.log(Level.WARNING, "Couldn't connect - sleeping for " + retryTime + " ms", ex);
-                    Thread.sleep(DEFAULT_RETRY_TIME);
+                spool.addLast(frame);
+                spooledBytes += frame.length;
+            }
+            spoolDepth = spool.size();
+            if (droppedCount == 1 || droppedCount % 1000 == 0) {
+                LOGGER.log(Level.WARNING, "Spool is full. Dropping the oldest Space Packets ({0} sends so far).",
+                    droppedCount);
+            }
+            return true;
+        }
+        if (overflowPolicy == SpoolOverflowPolicy.FAIL || frame.length > spoolSize) {
+            throw new IOException("SPP send called, but there is no connection and the spool is full!");
+        }
+        return false;
+    }
+
+    private byte[] encode(final SpacePacket packet, final SpacePacket[] packets) throws IOException {
+        encoded.reset();
+        if (packets != null) {
+            encoder.send(packets);
+        } else {
+            encoder.send(packet);
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Writes the spool to a new connection and makes it the current one once
+     * the spool is empty. The spool is taken in chunks of RESUME_CHUNK_SIZE
+     * octets and written without holding the lock, so sends are spooled and
+     * the socket can be closed meanwhile.
+     *
+     * @return False if there already is a connection.
+     * @throws IOException If writing the spool failed; the part not written
+     * yet is kept for the next connection.
+     */
+    private boolean resume(final SPPChannel connected) throws IOException {
+        synchronized (lock) {
+            if (channel != null || resuming != null || exiting) {
+                return false;
+            }
+            resuming = connected;
+            connections++;
+        }
+        final List<byte[]> chunk = new ArrayList<>();
+        int sentCount = 0;
+        long sentBytes = 0;
+        boolean resumed = false;
+        try {
+            while (true) {
+                int chunkBytes = 0;
+                synchronized (lock) {
+                    if (exiting) {
+                        throw new IOException("Socket closed while sending the spool.");
+                    }
+                    if (spool.isEmpty()) {
+                        channel = connected;
+                        resumed = true;
+                        break;
+                    }
+                    while (!spool.isEmpty() && (chunk.isEmpty() || chunkBytes + spool.peekFirst().length
+                        <= RESUME_CHUNK_SIZE)) {
+                        final byte[] frame = spool.removeFirst();
+                        chunk.add(frame);
+                        chunkBytes += frame.length;
+                    }
+                    spoolDepth = spool.size();
+                    spooledBytes -= chunkBytes;
+                    lock.notifyAll();
                 }
+                for (final byte[] frame : chunk) {
+                    connected.write(frame);
+                }
+                connected.flush();
+                sentCount += chunk.size();
+                sentBytes += chunkBytes;
+                chunk.clear();
+            }
+        } finally {
+            synchronized (lock) {
+                if (!resumed && !exiting) {
+                    for (int i = chunk.size() - 1; i >= 0; i--) {
+                        spool.addFirst(chunk.get(i));
+                        spooledBytes += chunk.get(i).length;
+                    }
+                    spoolDepth = spool.size();
+                }
+                resuming = null;
+                lock.notifyAll();
             }
         }
+        if (sentCount > 0) {
+            LOGGER.log(Level.INFO, "Sent {0} spooled Space Packet sends ({1} octets) after connecting.",
+                new Object[]{sentCount, sentBytes});
+        }
+        return true;
+    }
+
+    /**
+     * Closes a connection that failed and, if it is the current one, lets the
+     * connector thread establish a new one.
+     */
+    private void broken(final SPPChannel failed) {
+        // closing first makes a send blocked on the connection give up the lock
+        failed.close();
+        synchronized (lock) {
+            if (channel == failed) {
+                channel = null;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return The current connection, after waiting for one if necessary, or
+     * null if the socket has been closed.
+     */
+    private SPPChannel awaitChannel() throws InterruptedException {
+        final SPPChannel current = channel;
+        if (current != null) {
+            return current;
+        }
+        synchronized (lock) {
+            while (channel == null && !exiting) {
+                lock.wait();
+            }
+            return channel;
+        }
+    }
+
+    @Override
+    public boolean isConnected() {
+        return channel != null;
+    }
+
+    @Override
+    public long getReconnectCount() {
+        return Math.max(0, connections - 1);
+    }
+
+    @Override
+    public long getConnectFailures() {
+        return connectFailures;
+    }
+
+    @Override
+    public int getSpoolDepth() {
+        return spoolDepth;
+    }
+
+    @Override
+    public int getSpooledBytes() {
+        return spooledBytes;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void register() {
+        try {
+            final ObjectName objectName = new ObjectName(ClientTCPSPPSocket.class.getPackage().getName() +
+                ":type=ClientTCPSPPSocket,name=" + ObjectName.quote(getDescription()) + ",id=" + INSTANCES
+                .incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            name = objectName;
+        } catch (final JMException ex) {
+            LOGGER.log(Level.WARNING, "Unable to register the socket with the MBean server.", ex);
+        }
+    }
+
+    private void unregister() {
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (final JMException ex) {
+                LOGGER.log(Level.FINE, "Unable to unregister the socket from the MBean server.", ex);
+            }
+            name = null;
+        }
     }
 
     @Override
     public String getDescription() {
         return host + '-' + port;
     }
+
+    /**
+     * Connects whenever there is no connection, waiting between failed
+     * attempts for a delay that doubles from reconnectMinDelay up to
+     * retryTime, of which a random half is added as jitter.
+     */
+    class ConnectorDaemon extends Daemon {
+
+        protected ConnectorDaemon() {
+            super("ConnectorDaemon", null);
+        }
+
+        @Override
+        public final void run() {
+            canStop = true;
+            int attempt = 0;
+            try {
+                while (running) {
+                    synchronized (lock) {
+                        while (running && (channel != null || resuming != null)) {
+                            lock.wait();
+                        }
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    try {
+                        connect(host, port);
+                        attempt = 0;
+                        LOGGER.log(Level.INFO, "Connected to {0} (reconnects: {1}).",
+                            new Object[]{getDescription(), getReconnectCount()});
+                        continue;
+                    } catch (final IOException ex) {
+                        connectFailures++; // written by this thread only
+                        final long delay = getDelay(attempt++);
+                        LOGGER.log(attempt == 1 ? Level.WARNING : Level.FINE, "Couldn't connect to " +
+                            getDescription() + " - retrying in " + delay + " ms", ex);
+                        Thread.sleep(delay);
+                    }
+                }
+            } catch (final InterruptedException ex) {
+                LOGGER.log(Level.FINE, "Connector interrupted.");
+            } finally {
+                finish();
+            }
+        }
+
+        private long getDelay(final int attempt) {
+            final long delay = Math.min(retryTime, (long) reconnectMinDelay << Math.min(attempt, 20));
+            return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        }
+
+        @Override
+        protected void close() {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }
+
+        @Override
+        protected void shutdown() {
+            close();
+        }
+    }
 }
@@ -0,0 +1,61 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+/**
+ * Management interface of a ClientTCPSPPSocket, registered with the platform
+ * MBean server as
+ * "org.ccsds.moims.mo.testbed.util.sppimpl.tcp:type=ClientTCPSPPSocket,name=&lt;host-port&gt;,id=&lt;n&gt;".
+ */
+public interface ClientTCPSPPSocketMXBean {
+
+    /**
+     * @return True while the socket is connected to the server and the
+     * spool has been written to the connection.
+     */
+    boolean isConnected();
+
+    /**
+     * @return Connections established after the first one.
+     */
+    long getReconnectCount();
+
+    /**
+     * @return Failed attempts to connect to the server.
+     */
+    long getConnectFailures();
+
+    /**
+     * @return Sends waiting in the spool for the connection to be
+     * re-established.
+     */
+    int getSpoolDepth();
+
+    /**
+     * @return Octets of encoded Space Packets in the spool.
+     */
+    int getSpooledBytes();
+
+    /**
+     * @return Sends discarded because the spool was full.
+     */
+    long getDroppedCount();
+}
@@ -0,0 +1,54 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPFrameDecoder;
+
+/**
+ * Pool of receive buffers, each large enough for two of the longest Space
+ * Packets including APID qualifier and CRC. Not thread safe, the server uses
+ * it from its selector thread only.
+ */
+class SPPBufferPool {
+
+    static final int BUFFER_SIZE = 2 * SPPFrameDecoder.MAX_FRAME_LENGTH;
+
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final int maxPooled;
+
+    SPPBufferPool(final int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    ByteBuffer borrow() {
+        final ByteBuffer buffer = buffers.pollFirst();
+        return null != buffer ? buffer : ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    void release(final ByteBuffer buffer) {
+        if (buffers.size() < maxPooled) {
+            buffer.clear();
+            buffers.addFirst(buffer);
+        }
+    }
+}
@@ -45,6 +45,12 @@ import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPWriter;
 
 public class SPPChannel {
 
+    /**
+     * Large enough for a batch of Space Packets to reach the socket in few
+     * writes.
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 65536;
+
     private final Socket socket;
 
     private final InputStream is;
@@ -56,11 +62,21 @@ public class SPPChannel {
     private final SPPWriter writer;
 
     public SPPChannel(final Socket socket) throws IOException {
+        this(socket, 0);
+    }
+
+    /**
+     * @param socket The connected socket.
+     * @param maxFlushDelay Longest time in nanoseconds a batch of Space
+     * Packets is written without flushing, or 0 for no limit.
+     * @throws IOException
+     */
+    public SPPChannel(final Socket socket, final long maxFlushDelay) throws IOException {
         this.socket = socket;
         is = new BufferedInputStream(socket.getInputStream());
-        os = new BufferedOutputStream(socket.getOutputStream());
+        os = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE);
         reader = new SPPReader(is);
-        writer = new SPPWriter(os);
+        writer = new SPPWriter(os, maxFlushDelay);
     }
 
     public SpacePacket receive() throws IOException {
@@ -71,6 +87,32 @@ public class SPPChannel {
         writer.send(packet);
     }
 
+    public void send(final SpacePacket[] packets) throws IOException {
+        writer.send(packets);
+    }
+
+    /**
+     * @return The number of Space Packets of the last batch that have been
+     * flushed to the socket, also if sending the batch failed afterwards.
+     */
+    public int getFlushedCount() {
+        return writer.getFlushedCount();
+    }
+
+    /**
+     * Writes Space Packets already encoded for the socket without flushing.
+     *
+     * @param frame The encoded Space Packets.
+     * @throws IOException
+     */
+    public void write(final byte[] frame) throws IOException {
+        os.write(frame);
+    }
+
+    public void flush() throws IOException {
+        os.flush();
+    }
+
     public void close() {
         try {
             if (is != null) {
@@ -0,0 +1,284 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import de.dlr.gsoc.mo.malspp.transport.SPPHeaderView;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPFrameDecoder;
+
+/**
+ * Non-blocking connection of ServerTCPSPPSocket to one client.
+ *
+ * Encoded Space Packets to send are written directly while nothing is queued
+ * and otherwise appended to a write queue bounded in octets, which the
+ * selector thread drains with gathering writes. Received octets are collected
+ * in a pooled buffer and decoded in place, so the received Space Packets are
+ * slices of it. A buffer no Space Packet has been taken from goes back to the
+ * pool once everything in it is decoded; one that Space Packets reference is
+ * filled up and then left to the garbage collector together with them.
+ */
+class SPPNioChannel {
+
+    /**
+     * Result of offering an encoded Space Packet to the channel.
+     */
+    enum Offer {
+        WRITTEN, QUEUED, PENDING, FULL, CLOSED
+    }
+
+    private static final int MAX_GATHER = 64;
+
+    private final SocketChannel socketChannel;
+    private final SelectionKey key;
+    private final SocketAddress remoteAddress;
+    private final int maxQueuedBytes;
+    private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private int queuedBytes;
+    private long lastProgress;
+    private long droppedCount;
+    private boolean dropping;
+    private boolean closed;
+    private ByteBuffer readBuffer; // position is the end of the octets read
+    private int parsed; // end of the octets decoded
+    private boolean shared; // Space Packets referencing readBuffer have been handed out
+    private final SPPFrameDecoder decoder;
+    private final SPPHeaderView view = new SPPHeaderView();
+
+    SPPNioChannel(final SocketChannel socketChannel, final SelectionKey key, final int maxQueuedBytes,
+        final SPPFrameDecoder decoder) {
+        this.socketChannel = socketChannel;
+        this.key = key;
+        this.remoteAddress = socketChannel.socket().getRemoteSocketAddress();
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Writes or queues an encoded Space Packet. May be called by any thread.
+     *
+     * @param packet Encoded Space Packet, not modified by the channel.
+     * @return PENDING if the selector has to wait for the channel to become
+     * writable, FULL if the packet does not fit into the write queue.
+     * @throws IOException
+     */
+    synchronized Offer offer(final byte[] packet) throws IOException {
+        if (closed) {
+            return Offer.CLOSED;
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(packet);
+        if (writeQueue.isEmpty()) {
+            socketChannel.write(buffer);
+            if (!buffer.hasRemaining()) {
+                return Offer.WRITTEN;
+            }
+            lastProgress = System.nanoTime();
+            enqueue(buffer);
+            return Offer.PENDING;
+        }
+        if (queuedBytes + buffer.remaining() > maxQueuedBytes) {
+            droppedCount++;
+            return Offer.FULL;
+        }
+        enqueue(buffer);
+        return Offer.QUEUED;
+    }
+
+    private void enqueue(final ByteBuffer buffer) {
+        writeQueue.addLast(buffer);
+        queuedBytes += buffer.remaining();
+    }
+
+    /**
+     * Writes as much of the write queue as the channel accepts. Called by the
+     * selector thread when the channel is writable.
+     *
+     * @throws IOException
+     */
+    synchronized void flush() throws IOException {
+        while (!writeQueue.isEmpty()) {
+            int count = 0;
+            final Iterator<ByteBuffer> it = writeQueue.iterator();
+            while (count < MAX_GATHER && it.hasNext()) {
+                gather[count++] = it.next();
+            }
+            final long written = socketChannel.write(gather, 0, count);
+            while (!writeQueue.isEmpty() && !writeQueue.peekFirst().hasRemaining()) {
+                writeQueue.pollFirst();
+            }
+            queuedBytes -= written;
+            if (written > 0) {
+                lastProgress = System.nanoTime();
+            }
+            if (gather[count - 1].hasRemaining()) {
+                break;
+            }
+        }
+        for (int i = 0; i < MAX_GATHER && null != gather[i]; i++) {
+            gather[i] = null;
+        }
+        if (writeQueue.isEmpty()) {
+            dropping = false;
+            // under the lock, so a concurrent offer() sees either the queue
+            // drained here or OP_WRITE still set
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Lets the selector wait for the channel to become writable, if there is
+     * anything queued. Must be called by the selector thread.
+     */
+    synchronized void interestWrite() {
+        if (!closed && !writeQueue.isEmpty()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * @return true on the first dropped Space Packet since the write queue
+     * was last drained.
+     */
+    synchronized boolean startDropping() {
+        final boolean first = !dropping;
+        dropping = true;
+        return first;
+    }
+
+    /**
+     * @param now Current System.nanoTime().
+     * @param timeout Write timeout in nanoseconds.
+     * @return true if queued data has not made any progress for the timeout.
+     */
+    synchronized boolean isStalled(final long now, final long timeout) {
+        return !writeQueue.isEmpty() && now - lastProgress > timeout;
+    }
+
+    /**
+     * Reads what is available and decodes all complete Space Packets. Called
+     * by the selector thread when the channel is readable.
+     *
+     * @param pool Pool of receive buffers.
+     * @param input Queue receiving the decoded Space Packets.
+     * @param routes Routing table learning the sources of the received Space
+     * Packets, or null.
+     * @throws IOException On end of stream or an undecodable Space Packet.
+     */
+    void read(final SPPBufferPool pool, final BlockingQueue<SpacePacket> input, final SPPRoutingTable routes)
+        throws IOException {
+        if (null == readBuffer) {
+            readBuffer = pool.borrow();
+            parsed = 0;
+        }
+        if (socketChannel.read(readBuffer) < 0) {
+            throw new IOException("End of input stream.");
+        }
+        final byte[] array = readBuffer.array();
+        final int limit = readBuffer.position();
+        final int headerLength = decoder.getHeaderLength();
+        int needed = headerLength;
+        while (limit - parsed >= headerLength) {
+            final int frameLength = decoder.getFrameLength(array, parsed);
+            if (limit - parsed < frameLength) {
+                needed = frameLength;
+                break;
+            }
+            if (decoder.isProcessed(array, parsed)) {
+                final SpacePacket packet = decoder.decode(array, parsed);
+                if (null != packet) {
+                    shared = true;
+                    if (null != routes) {
+                        routes.learn(view, packet, this);
+                    }
+                    input.offer(packet);
+                }
+            }
+            parsed += frameLength;
+        }
+        final int remaining = limit - parsed;
+        if (0 == remaining && !shared) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        } else if (readBuffer.capacity() - parsed < needed) {
+            if (!shared) {
+                System.arraycopy(array, parsed, array, 0, remaining);
+                readBuffer.position(remaining);
+            } else if (remaining > 0) {
+                // Space Packets reference this buffer, so move the incomplete
+                // one to a fresh buffer instead
+                readBuffer = pool.borrow();
+                readBuffer.put(array, parsed, remaining);
+            } else {
+                readBuffer = null;
+            }
+            parsed = 0;
+            shared = false;
+        }
+    }
+
+    /**
+     * @return Number of Space Packets dropped because the write queue was
+     * full.
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    SocketAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    /**
+     * Closes the connection and gives back the receive buffer, unless
+     * received Space Packets reference it. Must be
+     * called by the selector thread.
+     *
+     * @param pool Pool of receive buffers.
+     */
+    void close(final SPPBufferPool pool) {
+        synchronized (this) {
+            closed = true;
+            writeQueue.clear();
+            queuedBytes = 0;
+        }
+        key.cancel();
+        try {
+            socketChannel.close();
+        } catch (final IOException exc) {
+        }
+        if (null != readBuffer && !shared) {
+            pool.release(readBuffer);
+        }
+        readBuffer = null;
+    }
+}
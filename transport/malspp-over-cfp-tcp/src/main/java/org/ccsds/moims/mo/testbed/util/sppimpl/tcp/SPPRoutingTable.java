@@ -0,0 +1,208 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import de.dlr.gsoc.mo.malspp.transport.SPPHeaderView;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.APIDRange;
+
+/**
+ * Knows through which client connections of ServerTCPSPPSocket an SPP URI is
+ * reachable. Routes are learned from the source APID qualifier, APID and
+ * identifier of every received MAL/SPP packet. An SPP URI seen on more than
+ * one live connection, e.g. because two clients use the same APID, is
+ * reachable through all of them, and a destination whose identifier has not
+ * been seen is reachable through all connections its APID has been seen on.
+ * A route through a closed connection is removed, leaving the routes through
+ * the other connections. Static routes from the configuration bind APID
+ * ranges of any APID qualifier to the latest connection from a given host and
+ * are only used for destinations no route has been learned for.
+ */
+class SPPRoutingTable {
+
+    private static final Logger LOGGER = Logger.getLogger(SPPRoutingTable.class.getName());
+    private static final int NO_IDENTIFIER = 0x100;
+    private static final int ANY_IDENTIFIER = 0x1FF;
+
+    // unmodifiable lists of connections, replaced as a whole under the lock
+    private final ConcurrentHashMap<Long, List<SPPNioChannel>> learned = new ConcurrentHashMap<>();
+    private final Object lock = new Object();
+    private final List<StaticRoute> staticRoutes = new ArrayList<>();
+
+    /**
+     * @param routes Static routes as comma separated list of APID or APID
+     * range, '@' and host name or address, for example
+     * "100-110@192.168.0.10,200@localhost". May be null.
+     * @throws UnknownHostException
+     */
+    SPPRoutingTable(final String routes) throws UnknownHostException {
+        if (null == routes) {
+            return;
+        }
+        for (final String route : routes.split(",")) {
+            if (route.trim().isEmpty()) {
+                continue;
+            }
+            final String[] parts = route.trim().split("@");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid static route: " + route);
+            }
+            final String[] range = parts[0].trim().split("-");
+            final int first = Integer.parseInt(range[0].trim());
+            final int second = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+            staticRoutes.add(new StaticRoute(new APIDRange(Math.min(first, second), Math.max(first, second)),
+                InetAddress.getByName(parts[1].trim())));
+        }
+    }
+
+    /**
+     * Binds the static routes for the host of a new connection to it.
+     */
+    void connected(final SPPNioChannel channel) {
+        final SocketAddress address = channel.getRemoteAddress();
+        if (!(address instanceof InetSocketAddress)) {
+            return;
+        }
+        for (final StaticRoute route : staticRoutes) {
+            if (route.host.equals(((InetSocketAddress) address).getAddress())) {
+                route.channel = channel;
+            }
+        }
+    }
+
+    /**
+     * Removes all routes through a closed connection.
+     */
+    void disconnected(final SPPNioChannel channel) {
+        synchronized (lock) {
+            for (final Map.Entry<Long, List<SPPNioChannel>> entry : learned.entrySet()) {
+                final List<SPPNioChannel> channels = entry.getValue();
+                if (channels.contains(channel)) {
+                    if (channels.size() == 1) {
+                        learned.remove(entry.getKey());
+                    } else {
+                        final List<SPPNioChannel> rest = new ArrayList<>(channels);
+                        rest.remove(channel);
+                        learned.put(entry.getKey(), Collections.unmodifiableList(rest));
+                    }
+                }
+            }
+        }
+        for (final StaticRoute route : staticRoutes) {
+            if (route.channel == channel) {
+                route.channel = null;
+            }
+        }
+    }
+
+    /**
+     * Learns the source of a packet received through a connection.
+     */
+    void learn(final SPPHeaderView view, final SpacePacket packet, final SPPNioChannel channel) {
+        if (!view.wrap(packet)) {
+            return;
+        }
+        final int qualifier = view.getFromApidQualifier();
+        final int apid = view.getFromApid();
+        final int identifier = view.getSourceIdentifier();
+        if (learn(key(qualifier, apid, identifier < 0 ? NO_IDENTIFIER : identifier), channel)) {
+            LOGGER.log(Level.FINE, "SPP URI {0}/{1}/{2} is reachable through {3}", new Object[]{
+                qualifier, apid, identifier, channel.getRemoteAddress()});
+        }
+        learn(key(qualifier, apid, ANY_IDENTIFIER), channel);
+    }
+
+    /**
+     * @return True if the route is new.
+     */
+    private boolean learn(final Long key, final SPPNioChannel channel) {
+        final List<SPPNioChannel> channels = learned.get(key);
+        if (null != channels && channels.contains(channel)) {
+            return false;
+        }
+        synchronized (lock) {
+            final List<SPPNioChannel> current = learned.get(key);
+            final List<SPPNioChannel> added = null == current ? new ArrayList<SPPNioChannel>(1)
+                : new ArrayList<>(current);
+            if (added.contains(channel)) {
+                return false;
+            }
+            added.add(channel);
+            learned.put(key, Collections.unmodifiableList(added));
+            return true;
+        }
+    }
+
+    /**
+     * @return The connections the destination of a packet is reachable
+     * through, or null if it is unknown.
+     */
+    List<SPPNioChannel> lookup(final SPPHeaderView view, final SpacePacket packet) {
+        if (!view.wrap(packet)) {
+            return null;
+        }
+        final int qualifier = view.getToApidQualifier();
+        final int apid = view.getToApid();
+        final int identifier = view.getDestinationIdentifier();
+        List<SPPNioChannel> channels = learned.get(key(qualifier, apid, identifier < 0 ? NO_IDENTIFIER
+            : identifier));
+        if (null == channels) {
+            channels = learned.get(key(qualifier, apid, ANY_IDENTIFIER));
+        }
+        if (null != channels) {
+            return channels;
+        }
+        for (final StaticRoute route : staticRoutes) {
+            final SPPNioChannel channel = route.channel;
+            if (null != channel && route.apids.inRange(apid)) {
+                return Collections.singletonList(channel);
+            }
+        }
+        return null;
+    }
+
+    private static Long key(final int apidQualifier, final int apid, final int identifier) {
+        return ((long) apidQualifier << 20) | ((long) apid << 9) | identifier;
+    }
+
+    private static final class StaticRoute {
+
+        private final APIDRange apids;
+        private final InetAddress host;
+        private volatile SPPNioChannel channel;
+
+        private StaticRoute(final APIDRange apids, final InetAddress host) {
+            this.apids = apids;
+            this.host = host;
+        }
+    }
+}
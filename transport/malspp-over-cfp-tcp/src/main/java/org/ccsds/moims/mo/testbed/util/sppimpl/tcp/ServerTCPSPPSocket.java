@@ -32,33 +32,93 @@
  ****************************************************************************** */
 package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import org.ccsds.moims.mo.testbed.util.spp.SPPSocket;
+import org.ccsds.moims.mo.testbed.util.spp.SPPBatchSocket;
 import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPFrameDecoder;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPWriter;
+
+import de.dlr.gsoc.mo.malspp.transport.SPPHeaderView;
 
 import fr.dyade.aaa.common.Daemon;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.logging.Level;
 
-public class ServerTCPSPPSocket implements SPPSocket {
+/**
+ * TCP server side of the Space Packet socket. All client connections are
+ * served by a single selector thread. Every sent Space Packet is encoded once
+ * and offered to all clients, each of which has its own write queue bounded
+ * in octets, so that a slow client does not hold up the others. When the
+ * queue of a client is full, the Space Packet is dropped for that client or
+ * the client is disconnected, depending on the slow consumer policy. A client
+ * whose queue does not drain at all for the write timeout is disconnected
+ * under either policy.
+ *
+ * Unless routing is switched off, a Space Packet is only sent to the clients
+ * its destination SPP URI is reachable through, as learned from the sources
+ * of the packets received from the clients or given by static routes. Space
+ * Packets to unknown destinations are sent to all clients.
+ */
+public class ServerTCPSPPSocket implements SPPBatchSocket {
 
     private static final java.util.logging.Logger LOGGER = java.util.logging.Logger.getLogger(ServerTCPSPPSocket.class
         .getName());
 
     private static final int MAX_ERROR_COUNT = 10;
+    private static final long SELECT_TIMEOUT = 100;
+    private static final int MAX_POOLED_BUFFERS = 8;
 
     public final static String PORT_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.port";
+    public final static String MAX_QUEUED_BYTES_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.maxQueuedBytes";
+    public final static String SLOW_CONSUMER_POLICY_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.slowConsumerPolicy";
+    public final static String WRITE_TIMEOUT_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.writeTimeout";
+    public final static String ROUTING_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.routing";
+    public final static String ROUTES_PROP = "org.ccsds.moims.mo.malspp.test.sppimpl.tcp.routes";
+    public final static int DEFAULT_MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+    public final static long DEFAULT_WRITE_TIMEOUT = 10000;
+
+    /**
+     * What to do with a client whose write queue is full.
+     */
+    public enum SlowConsumerPolicy {
+        /**
+         * Drop the Space Packet for this client only.
+         */
+        DROP,
+        /**
+         * Close the connection to the client.
+         */
+        DISCONNECT
+    }
+
     private int port;
-    private ServerSocket listenerSocket;
+    private ServerSocketChannel listenerChannel;
+    private Selector selector;
     private boolean tcpNoDelay;
-    private final List<SPPChannel> channels = new ArrayList<>();
-    private AcceptorDaemon readerDaemon;
+    private int maxQueuedBytes;
+    private SlowConsumerPolicy slowConsumerPolicy;
+    private long writeTimeoutNanos;
+    private SPPRoutingTable routes;
+    private final List<SPPNioChannel> channels = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<SPPNioChannel> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final SPPBufferPool readBuffers = new SPPBufferPool(MAX_POOLED_BUFFERS);
+    private SelectorDaemon readerDaemon;
+
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final SPPWriter encoder = new SPPWriter(encoded);
 
     private final LinkedBlockingQueue<SpacePacket> input = new LinkedBlockingQueue<>();
 
@@ -69,34 +129,38 @@ public class ServerTCPSPPSocket implements SPPSocket {
     public void init(final Map properties) throws Exception {
         final String portS = (String) properties.get(PORT_PROP);
         port = Integer.parseInt(portS);
+        final String maxQueuedBytesS = (String) properties.get(MAX_QUEUED_BYTES_PROP);
+        maxQueuedBytes = null != maxQueuedBytesS ? Integer.parseInt(maxQueuedBytesS) : DEFAULT_MAX_QUEUED_BYTES;
+        final String policyS = (String) properties.get(SLOW_CONSUMER_POLICY_PROP);
+        slowConsumerPolicy = null != policyS ? SlowConsumerPolicy.valueOf(policyS.trim().toUpperCase())
+            : SlowConsumerPolicy.DROP;
+        final String writeTimeoutS = (String) properties.get(WRITE_TIMEOUT_PROP);
+        writeTimeoutNanos = 1000000 * (null != writeTimeoutS ? Long.parseLong(writeTimeoutS) : DEFAULT_WRITE_TIMEOUT);
+        final String routingS = (String) properties.get(ROUTING_PROP);
+        if (null == routingS || Boolean.parseBoolean(routingS)) {
+            routes = new SPPRoutingTable((String) properties.get(ROUTES_PROP));
+        }
         listen(port);
     }
 
     private void listen(final int port) throws Exception {
         LOGGER.log(Level.FINE, "listen({0})", new Object[]{port});
-        listenerSocket = new ServerSocket(port);
-        readerDaemon = new AcceptorDaemon();
+        selector = Selector.open();
+        listenerChannel = ServerSocketChannel.open();
+        listenerChannel.socket().bind(new InetSocketAddress(port));
+        listenerChannel.configureBlocking(false);
+        listenerChannel.register(selector, SelectionKey.OP_ACCEPT);
+        readerDaemon = new SelectorDaemon();
         readerDaemon.start();
     }
 
     @Override
     public void close() throws Exception {
-        closeClientChannels();
         if (readerDaemon != null) {
             readerDaemon.stop();
         }
     }
 
-    private void closeClientChannels() {
-        synchronized (channels) {
-            for (final SPPChannel channel : channels) {
-                if (channel != null) {
-                    channel.close();
-                }
-            }
-        }
-    }
-
     @Override
     public SpacePacket receive() throws Exception {
         final SpacePacket packet = input.take();
@@ -107,17 +171,138 @@ public class ServerTCPSPPSocket implements SPPSocket {
     @Override
     public void send(final SpacePacket packet) throws IOException {
         LOGGER.log(Level.FINE, "send({0})", packet);
-        synchronized (channels) {
-            if (channels.isEmpty()) {
-                throw new IOException("SPP send called, but no connection established!");
+        if (channels.isEmpty()) {
+            throw new IOException("SPP send called, but no connection established!");
+        }
+        final List<SPPNioChannel> route = null != routes ? routes.lookup(new SPPHeaderView(), packet) : null;
+        // encoded once for all clients; the copy also frees the packet body
+        // for reuse by the caller as soon as send() returns
+        final byte[] frame;
+        synchronized (encoder) {
+            encoded.reset();
+            encoder.send(packet);
+            frame = encoded.toByteArray();
+        }
+        send(route, frame);
+    }
+
+    /**
+     * Sends the Space Packets encoded back to back as a single frame, if they
+     * all go the same way, otherwise one by one.
+     */
+    @Override
+    public void send(final SpacePacket[] packets) throws IOException {
+        LOGGER.log(Level.FINE, "send({0} packets)", packets.length);
+        if (channels.isEmpty()) {
+            throw new IOException("SPP send called, but no connection established!");
+        }
+        if (packets.length == 0) {
+            return;
+        }
+        List<SPPNioChannel> route = null;
+        if (null != routes) {
+            final SPPHeaderView view = new SPPHeaderView();
+            route = routes.lookup(view, packets[0]);
+            for (int i = 1; i < packets.length; i++) {
+                if (!Objects.equals(routes.lookup(view, packets[i]), route)) {
+                    for (final SpacePacket packet : packets) {
+                        send(packet);
+                    }
+                    return;
+                }
             }
-            for (final SPPChannel channel : channels) {
-                if (channel != null) {
-                    channel.send(packet);
+        }
+        final byte[] frame;
+        synchronized (encoder) {
+            encoded.reset();
+            encoder.send(packets);
+            frame = encoded.toByteArray();
+        }
+        send(route, frame);
+    }
+
+    /**
+     * Offers encoded Space Packets to the clients of the route, or to all
+     * clients if there is none or none of them is connected anymore.
+     */
+    private void send(final List<SPPNioChannel> route, final byte[] frame) {
+        boolean wakeup = false;
+        boolean routed = false;
+        if (null != route) {
+            for (final SPPNioChannel channel : route) {
+                if (channels.contains(channel)) {
+                    wakeup |= offer(channel, frame);
+                    routed = true;
                 }
             }
         }
+        if (!routed) {
+            for (final SPPNioChannel channel : channels) {
+                wakeup |= offer(channel, frame);
+            }
+        }
+        if (wakeup) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Offers an encoded Space Packet to a client and applies the slow
+     * consumer policy.
+     *
+     * @return True if the selector has to be woken up.
+     */
+    private boolean offer(final SPPNioChannel channel, final byte[] frame) {
+        final SPPNioChannel.Offer offer;
+        try {
+            offer = channel.offer(frame);
+        } catch (final IOException ex) {
+            LOGGER.log(Level.WARNING, "Error when sending to " + channel.getRemoteAddress() +
+                ". Closing the client connection.", ex);
+            disconnect(channel);
+            return true;
+        }
+        if (offer == SPPNioChannel.Offer.PENDING) {
+            pendingWrites.add(channel);
+            return true;
+        }
+        if (offer == SPPNioChannel.Offer.FULL) {
+            if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+                LOGGER.log(Level.WARNING, "Write queue of {0} is full. Closing the client connection.",
+                    channel.getRemoteAddress());
+                disconnect(channel);
+                return true;
+            }
+            if (channel.startDropping()) {
+                LOGGER.log(Level.WARNING, "Write queue of {0} is full. Dropping packets for it ({1} so far).",
+                    new Object[]{channel.getRemoteAddress(), channel.getDroppedCount()});
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Takes the channel out of the set of channels to send to. It is closed by
+     * the selector thread.
+     */
+    private void disconnect(final SPPNioChannel channel) {
+        if (channels.remove(channel)) {
+            pendingWrites.add(channel);
+        }
+    }
+
+    /**
+     * @return Number of connected clients.
+     */
+    int getClientCount() {
+        return channels.size();
+    }
 
+    /**
+     * @return A decoder for the Space Packets received from a new client.
+     */
+    SPPFrameDecoder createDecoder() {
+        return new SPPFrameDecoder();
     }
 
     @Override
@@ -126,101 +311,154 @@ public class ServerTCPSPPSocket implements SPPSocket {
 
     }
 
-    class AcceptorDaemon extends Daemon {
-
-        private Socket clientSocket;
-
-        private SpacePacket packet;
+    class SelectorDaemon extends Daemon {
 
-        protected AcceptorDaemon() {
-            super("AcceptorDaemon", null);
+        protected SelectorDaemon() {
+            super("SelectorDaemon", null);
         }
 
         @Override
         public final void run() {
+            canStop = true;
             int errorCount = 0;
-            while (running) {
-                if (errorCount >= MAX_ERROR_COUNT) {
-                    LOGGER.log(Level.SEVERE, "errorCount >= {0}. Stopping the server.", MAX_ERROR_COUNT);
-                    break;
-                }
-                try {
-                    LOGGER.log(Level.INFO, "Listening for a client connection on {0}", listenerSocket
-                        .getLocalSocketAddress());
-                    clientSocket = listenerSocket.accept();
-                } catch (final IOException ex) {
-                    LOGGER.log(Level.SEVERE, "Error when accepting the client connection", ex);
-                    errorCount++;
-                    continue;
-                }
-                SPPChannel newChannel = null;
-                try {
-                    clientSocket.setTcpNoDelay(tcpNoDelay);
-                    clientSocket.setSoLinger(true, 1000);
-                    newChannel = new SPPChannel(clientSocket);
-                } catch (final IOException ex) {
-                    LOGGER.log(Level.SEVERE, "Error when configuring the client connection", ex);
-                    errorCount++;
-                    continue;
+            LOGGER.log(Level.INFO, "Listening for client connections on {0}", listenerChannel.socket()
+                .getLocalSocketAddress());
+            try {
+                while (running) {
+                    if (errorCount >= MAX_ERROR_COUNT) {
+                        LOGGER.log(Level.SEVERE, "errorCount >= {0}. Stopping the server.", MAX_ERROR_COUNT);
+                        break;
+                    }
+                    try {
+                        selector.select(SELECT_TIMEOUT);
+                    } catch (final IOException ex) {
+                        LOGGER.log(Level.SEVERE, "Error when selecting the ready connections", ex);
+                        errorCount++;
+                        continue;
+                    }
+                    processPendingWrites();
+                    final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        final SelectionKey key = it.next();
+                        it.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                accept();
+                                errorCount = 0;
+                            } catch (final IOException ex) {
+                                LOGGER.log(Level.SEVERE, "Error when accepting the client connection", ex);
+                                errorCount++;
+                            }
+                        } else {
+                            process(key, (SPPNioChannel) key.attachment());
+                        }
+                    }
+                    closeStalledChannels();
                 }
-                errorCount = 0;
-                LOGGER.log(Level.INFO, "Accepted connection from: {0}", clientSocket.getRemoteSocketAddress());
-                synchronized (channels) {
-                    channels.add(newChannel);
+            } finally {
+                for (final SPPNioChannel channel : channels) {
+                    closeChannel(channel);
                 }
-                new ClientThread(newChannel).start();
+                shutdown();
+                finish();
             }
-            shutdown();
-            finish();
         }
 
-        private class ClientThread extends Thread {
+        private void accept() throws IOException {
+            final SocketChannel clientChannel = listenerChannel.accept();
+            if (null == clientChannel) {
+                return;
+            }
+            try {
+                clientChannel.configureBlocking(false);
+                clientChannel.socket().setTcpNoDelay(tcpNoDelay);
+                final SelectionKey key = clientChannel.register(selector, SelectionKey.OP_READ);
+                final SPPNioChannel channel = new SPPNioChannel(clientChannel, key, maxQueuedBytes, createDecoder());
+                key.attach(channel);
+                channels.add(channel);
+                if (null != routes) {
+                    routes.connected(channel);
+                }
+                LOGGER.log(Level.INFO, "Accepted connection from: {0}", channel.getRemoteAddress());
+            } catch (final IOException ex) {
+                clientChannel.close();
+                throw ex;
+            }
+        }
 
-            protected SPPChannel channel;
+        private void processPendingWrites() {
+            SPPNioChannel channel;
+            while (null != (channel = pendingWrites.poll())) {
+                if (!channels.contains(channel)) {
+                    closeChannel(channel);
+                } else if (channel.isOpen()) {
+                    channel.interestWrite();
+                }
+            }
+        }
 
-            public ClientThread(final SPPChannel channel) {
-                this.channel = channel;
+        private void process(final SelectionKey key, final SPPNioChannel channel) {
+            try {
+                if (key.isReadable()) {
+                    channel.read(readBuffers, input, routes);
+                }
+                if (key.isValid() && key.isWritable()) {
+                    channel.flush();
+                }
+            } catch (final IOException ex) {
+                LOGGER.log(Level.WARNING, "Error on the connection from " + channel.getRemoteAddress() +
+                    ". Closing the client connection.", ex);
+                closeChannel(channel);
             }
+        }
 
-            public void run() {
-                try {
-                    while (running) {
-                        canStop = true;
-                        packet = channel.receive();
-                        if (packet == null) {
-                            continue;
-                        }
-                        input.offer(packet);
-                    }
-                } catch (final IOException ex) {
-                    LOGGER.log(Level.WARNING, this.getName() +
-                        ", error during packet receive. Closing the client connection.", ex);
-
-                } finally {
-                    if (channel != null) {
-                        synchronized (channels) {
-                            channels.remove(channel);
-                        }
-                        channel.close();
-                        channel = null;
-                    }
+        private void closeStalledChannels() {
+            if (writeTimeoutNanos <= 0) {
+                return;
+            }
+            final long now = System.nanoTime();
+            for (final SPPNioChannel channel : channels) {
+                if (channel.isStalled(now, writeTimeoutNanos)) {
+                    LOGGER.log(Level.WARNING, "No write progress to {0} for {1} ms. Closing the client connection.",
+                        new Object[]{channel.getRemoteAddress(), writeTimeoutNanos / 1000000});
+                    closeChannel(channel);
                 }
             }
         }
 
+        private void closeChannel(final SPPNioChannel channel) {
+            channels.remove(channel);
+            if (null != routes) {
+                routes.disconnected(channel);
+            }
+            channel.close(readBuffers);
+        }
+
         @Override
         protected void close() {
-            if (listenerSocket != null) {
+            if (listenerChannel != null) {
                 try {
-                    listenerSocket.close();
+                    listenerChannel.close();
                 } catch (final IOException e) {
                 }
             }
+            if (selector != null) {
+                selector.wakeup();
+            }
         }
 
         @Override
         protected void shutdown() {
             close();
+            if (selector != null) {
+                try {
+                    selector.close();
+                } catch (final IOException e) {
+                }
+            }
         }
     }
 
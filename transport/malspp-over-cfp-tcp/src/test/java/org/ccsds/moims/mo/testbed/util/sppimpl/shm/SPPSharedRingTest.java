@@ -0,0 +1,196 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPSharedRingTest {
+
+    private static final int CAPACITY = 4096;
+    private static final int QUALIFIER = 247;
+    private static final int APID = 100;
+    private static final int RECORD_OVERHEAD = 4 + 8; // length field, APID qualifier and primary header
+    private File file;
+    private SPPSharedRing producer;
+    private SPPSharedRing consumer;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("spp", ".ring");
+        producer = SPPSharedRing.create(file, CAPACITY);
+        producer.attachProducer();
+        consumer = SPPSharedRing.open(file);
+        consumer.attachConsumer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        producer.close();
+        consumer.close();
+        file.delete();
+    }
+
+    private static SpacePacket packet(final int seq, final int dataLength) {
+        final byte[] body = new byte[dataLength + 3];
+        for (int i = 0; i < dataLength; i++) {
+            body[3 + i] = (byte) (seq * 31 + i);
+        }
+        return new SpacePacket(new SpacePacketHeader(0, 1, 1, APID, 3, seq & 0x3FFF), QUALIFIER, body, 3,
+            dataLength);
+    }
+
+    private static void assertPacket(final int seq, final int dataLength, final SpacePacket packet) {
+        assertNotNull(packet);
+        assertEquals(QUALIFIER, packet.getApidQualifier());
+        assertEquals(APID, packet.getHeader().getApid());
+        assertEquals(1, packet.getHeader().getPacketType());
+        assertEquals(1, packet.getHeader().getSecondaryHeaderFlag());
+        assertEquals(3, packet.getHeader().getSequenceFlags());
+        assertEquals(seq & 0x3FFF, packet.getHeader().getSequenceCount());
+        assertEquals(dataLength, packet.getLength());
+        for (int i = 0; i < dataLength; i++) {
+            assertEquals((byte) (seq * 31 + i), packet.getBody()[packet.getOffset() + i]);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertTrue(consumer.isEmpty());
+        assertNull(consumer.poll());
+        assertEquals(0, consumer.getUsed());
+        assertTrue(producer.offer(packet(1, 20)));
+        assertFalse(consumer.isEmpty());
+        assertPacket(1, 20, consumer.poll());
+        assertTrue(consumer.isEmpty());
+        assertNull(consumer.poll());
+        assertEquals(0, producer.getUsed());
+    }
+
+    @Test
+    public void testFull() throws IOException {
+        // records of 512 octets fill the ring exactly
+        final int dataLength = 512 - RECORD_OVERHEAD;
+        for (int i = 0; i < CAPACITY / 512; i++) {
+            assertTrue(producer.offer(packet(i, dataLength)));
+        }
+        assertEquals(CAPACITY, producer.getUsed());
+        assertFalse(producer.offer(packet(99, 1)));
+        assertPacket(0, dataLength, consumer.poll());
+        // room for one more record, which goes to the start of the ring
+        assertTrue(producer.offer(packet(8, dataLength)));
+        assertFalse(producer.offer(packet(99, 1)));
+        for (int i = 1; i <= CAPACITY / 512; i++) {
+            assertPacket(i, dataLength, consumer.poll());
+        }
+        assertNull(consumer.poll());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTooLarge() throws IOException {
+        producer.offer(packet(1, CAPACITY));
+    }
+
+    @Test
+    public void testWrapAround() throws IOException {
+        // 3 records of 1000 octets leave 1096 octets before the end of the mapping
+        for (int i = 0; i < 3; i++) {
+            assertTrue(producer.offer(packet(i, 1000 - RECORD_OVERHEAD)));
+            assertPacket(i, 1000 - RECORD_OVERHEAD, consumer.poll());
+        }
+        assertTrue(producer.offer(packet(3, 1000 - RECORD_OVERHEAD)));
+        // does not fit into the remaining 96 octets, so it is written at the start after padding
+        assertTrue(producer.offer(packet(4, 200 - RECORD_OVERHEAD)));
+        assertEquals(1000 + 96 + 200, producer.getUsed());
+        assertPacket(3, 1000 - RECORD_OVERHEAD, consumer.poll());
+        assertPacket(4, 200 - RECORD_OVERHEAD, consumer.poll());
+        assertTrue(consumer.isEmpty());
+    }
+
+    @Test
+    public void testExactlyRemainingSpace() throws IOException {
+        // 4 records of 1000 octets leave 96 octets before the end of the mapping
+        for (int i = 0; i < 4; i++) {
+            assertTrue(producer.offer(packet(i, 1000 - RECORD_OVERHEAD)));
+            assertPacket(i, 1000 - RECORD_OVERHEAD, consumer.poll());
+        }
+        // fills them without padding, the next record starts at the beginning
+        assertTrue(producer.offer(packet(4, 96 - RECORD_OVERHEAD)));
+        assertEquals(96, producer.getUsed());
+        assertTrue(producer.offer(packet(5, 40)));
+        assertEquals(96 + 56, producer.getUsed());
+        assertPacket(4, 96 - RECORD_OVERHEAD, consumer.poll());
+        assertPacket(5, 40, consumer.poll());
+        assertTrue(consumer.isEmpty());
+    }
+
+    @Test
+    public void testReattach() throws IOException {
+        assertTrue(producer.offer(packet(1, 10)));
+        assertTrue(producer.offer(packet(2, 10)));
+        assertPacket(1, 10, consumer.poll());
+        consumer.close();
+        // a restarted consumer continues at the stored head
+        consumer = SPPSharedRing.open(file);
+        consumer.attachConsumer();
+        assertPacket(2, 10, consumer.poll());
+        assertNull(consumer.poll());
+    }
+
+    @Test(timeout = 30000)
+    public void testProducerAndConsumerThreads() throws Exception {
+        final int count = 100000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        while (!producer.offer(packet(i, i % 300))) {
+                            Thread.yield();
+                        }
+                    }
+                } catch (final Throwable ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        thread.start();
+        for (int i = 0; i < count; i++) {
+            SpacePacket packet;
+            while (null == (packet = consumer.poll())) {
+                assertNull(error.get());
+                Thread.yield();
+            }
+            assertPacket(i, i % 300, packet);
+        }
+        thread.join();
+        assertNull(error.get());
+        assertTrue(consumer.isEmpty());
+    }
+}
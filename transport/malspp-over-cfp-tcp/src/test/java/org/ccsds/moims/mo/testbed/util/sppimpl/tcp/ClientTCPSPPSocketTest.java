@@ -0,0 +1,342 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ClientTCPSPPSocketTest {
+
+    private static final int APID = 100;
+    private static final int DATA_LENGTH = 94; // frames of 100 octets
+    private static final int FRAME_LENGTH = 6 + DATA_LENGTH;
+
+    static {
+        System.setProperty("org.ccsds.moims.mo.malspp.crcenabled", "false");
+    }
+
+    private int port;
+    private Socket reserved;
+    private ServerSocket server;
+    private ClientTCPSPPSocket client;
+
+    @Before
+    public void setUp() throws IOException {
+        reserve();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (null != client) {
+            client.close();
+        }
+        if (null != server) {
+            server.close();
+        }
+        if (null != reserved) {
+            reserved.close();
+        }
+    }
+
+    private ClientTCPSPPSocket connect(final String policy, final int spoolSize) throws Exception {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(ClientTCPSPPSocket.HOSTNAME, "localhost");
+        properties.put(ClientTCPSPPSocket.PORT, String.valueOf(port));
+        properties.put(ClientTCPSPPSocket.RETRYTIME, "50");
+        properties.put(ClientTCPSPPSocket.RECONNECT_MIN_DELAY, "10");
+        properties.put(ClientTCPSPPSocket.SPOOL_SIZE, String.valueOf(spoolSize));
+        properties.put(ClientTCPSPPSocket.SPOOL_OVERFLOW_POLICY, policy);
+        properties.put(ClientTCPSPPSocket.JMX, "false");
+        client = new ClientTCPSPPSocket();
+        client.init(properties);
+        // detects connections closed by the server
+        final ClientTCPSPPSocket socket = client;
+        final Thread receiver = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    while (null != socket.receive() || socket.isConnected()) {
+                    }
+                } catch (final Exception ex) {
+                }
+            }
+        };
+        receiver.setDaemon(true);
+        receiver.start();
+        return client;
+    }
+
+    /**
+     * Binds the port without listening on it, so connecting to it is refused.
+     * The port is in the ephemeral range; leaving it unbound would let a
+     * reconnecting client occasionally connect to itself.
+     */
+    private void reserve() throws IOException {
+        reserved = new Socket();
+        reserved.setReuseAddress(true);
+        reserved.bind(new InetSocketAddress("localhost", port));
+        port = reserved.getLocalPort();
+    }
+
+    private void listen() throws IOException {
+        reserved.close();
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress("localhost", port));
+    }
+
+    private static SpacePacket packet(final int n) {
+        final SpacePacketHeader header = new SpacePacketHeader();
+        header.setApid(APID);
+        header.setSequenceCount(n & 0x3FFF);
+        header.setSequenceFlags(3);
+        final byte[] data = new byte[DATA_LENGTH];
+        ByteBuffer.wrap(data).putInt(n);
+        return new SpacePacket(header, data, 0, data.length);
+    }
+
+    /**
+     * @return The numbers of the next Space Packets read from the connection.
+     */
+    private static int[] read(final Socket connection, final int count) throws IOException {
+        final DataInputStream in = new DataInputStream(connection.getInputStream());
+        final int[] numbers = new int[count];
+        final byte[] frame = new byte[FRAME_LENGTH];
+        for (int i = 0; i < count; i++) {
+            in.readFully(frame);
+            assertEquals(DATA_LENGTH - 1, ((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF));
+            numbers[i] = ByteBuffer.wrap(frame, 6, 4).getInt();
+        }
+        return numbers;
+    }
+
+    private static void await(final Condition condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+
+        boolean holds();
+    }
+
+    @Test(timeout = 10000)
+    public void testOrderAfterReconnect() throws Exception {
+        listen();
+        final ClientTCPSPPSocket socket = connect("block", 100 * FRAME_LENGTH);
+        try (Socket first = server.accept()) {
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return socket.isConnected();
+                }
+            });
+            for (int i = 0; i < 5; i++) {
+                socket.send(packet(i));
+            }
+            assertArrayEquals(new int[]{0, 1, 2, 3, 4}, read(first, 5));
+            server.close();
+            reserve();
+        }
+        await(new Condition() {
+            @Override
+            public boolean holds() {
+                return !socket.isConnected();
+            }
+        });
+        for (int i = 5; i < 10; i++) {
+            socket.send(packet(i));
+        }
+        socket.send(new SpacePacket[]{packet(10), packet(11)});
+        assertEquals(6, socket.getSpoolDepth()); // the batch is spooled as one
+        assertEquals(7 * FRAME_LENGTH, socket.getSpooledBytes());
+
+        listen();
+        try (Socket second = server.accept()) {
+            assertArrayEquals(new int[]{5, 6, 7, 8, 9, 10, 11}, read(second, 7));
+            socket.send(packet(12));
+            assertArrayEquals(new int[]{12}, read(second, 1));
+            assertEquals(0, socket.getSpoolDepth());
+            assertEquals(0, socket.getSpooledBytes());
+            assertEquals(1, socket.getReconnectCount());
+            assertEquals(0, socket.getDroppedCount());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testDropOldest() throws Exception {
+        final ClientTCPSPPSocket socket = connect("drop_oldest", 3 * FRAME_LENGTH);
+        for (int i = 0; i < 5; i++) {
+            socket.send(packet(i));
+        }
+        assertEquals(3, socket.getSpoolDepth());
+        assertEquals(2, socket.getDroppedCount());
+
+        listen();
+        try (Socket connection = server.accept()) {
+            assertArrayEquals(new int[]{2, 3, 4}, read(connection, 3));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFail() throws Exception {
+        final ClientTCPSPPSocket socket = connect("fail", 3 * FRAME_LENGTH);
+        for (int i = 0; i < 3; i++) {
+            socket.send(packet(i));
+        }
+        try {
+            socket.send(packet(3));
+            fail("spool overflow not reported");
+        } catch (final IOException ex) {
+            // expected
+        }
+        assertEquals(3, socket.getSpoolDepth());
+        assertEquals(0, socket.getDroppedCount());
+
+        listen();
+        try (Socket connection = server.accept()) {
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return socket.isConnected();
+                }
+            });
+            socket.send(packet(4));
+            assertArrayEquals(new int[]{0, 1, 2, 4}, read(connection, 4));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testBlockUntilReconnected() throws Exception {
+        final ClientTCPSPPSocket socket = connect("block", 3 * FRAME_LENGTH);
+        for (int i = 0; i < 3; i++) {
+            socket.send(packet(i));
+        }
+        final Thread sender = send(socket, 3, new AtomicReference<Exception>());
+        Thread.sleep(100);
+        assertTrue(sender.isAlive());
+        assertEquals(3, socket.getSpoolDepth());
+
+        listen();
+        try (Socket connection = server.accept()) {
+            assertArrayEquals(new int[]{0, 1, 2, 3}, read(connection, 4));
+        }
+        sender.join();
+    }
+
+    @Test(timeout = 10000)
+    public void testCloseDuringBlockedSend() throws Exception {
+        final ClientTCPSPPSocket socket = connect("block", 3 * FRAME_LENGTH);
+        for (int i = 0; i < 3; i++) {
+            socket.send(packet(i));
+        }
+        final AtomicReference<Exception> error = new AtomicReference<>();
+        final Thread sender = send(socket, 3, error);
+        Thread.sleep(100);
+        assertTrue(sender.isAlive());
+
+        socket.close();
+        sender.join(2000);
+        assertFalse(sender.isAlive());
+        assertTrue(error.get() instanceof IOException);
+        assertEquals(0, socket.getSpoolDepth());
+        client = null;
+    }
+
+    @Test(timeout = 20000)
+    public void testCloseWhileSendingSpool() throws Exception {
+        // more than the socket buffers hold, so writing the spool blocks on a server that does not read
+        final int batches = 320;
+        final SpacePacket[] batch = new SpacePacket[1000];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = packet(i);
+        }
+        final ClientTCPSPPSocket socket = connect("fail", batches * batch.length * FRAME_LENGTH + FRAME_LENGTH);
+        for (int i = 0; i < batches; i++) {
+            socket.send(batch);
+        }
+        assertEquals(batches, socket.getSpoolDepth());
+
+        listen();
+        try (Socket connection = server.accept()) {
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return socket.getSpoolDepth() < batches;
+                }
+            });
+            Thread.sleep(100);
+            assertFalse(socket.isConnected());
+            assertTrue(socket.getSpoolDepth() > 0);
+            // sends are spooled behind the rest of the spool meanwhile
+            socket.send(packet(0));
+
+            final AtomicReference<Exception> error = new AtomicReference<>();
+            final Thread closer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        socket.close();
+                    } catch (final Exception ex) {
+                        error.set(ex);
+                    }
+                }
+            };
+            closer.start();
+            closer.join(2000);
+            assertFalse(closer.isAlive());
+            assertNull(error.get());
+            assertEquals(0, socket.getSpoolDepth());
+            client = null;
+        }
+    }
+
+    private static Thread send(final ClientTCPSPPSocket socket, final int n, final AtomicReference<Exception> error) {
+        final Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    socket.send(packet(n));
+                } catch (final Exception ex) {
+                    error.set(ex);
+                }
+            }
+        };
+        sender.start();
+        return sender;
+    }
+}
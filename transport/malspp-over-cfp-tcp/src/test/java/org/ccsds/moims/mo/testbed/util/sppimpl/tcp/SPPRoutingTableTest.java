@@ -0,0 +1,111 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import de.dlr.gsoc.mo.malspp.transport.SPPHeaderView;
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SPPRoutingTableTest {
+
+    private static final int QUALIFIER = 247;
+    private static final int LOCAL_APID = 10;
+    private final SPPHeaderView view = new SPPHeaderView();
+    private SocketChannel socketA;
+    private SocketChannel socketB;
+    private SPPNioChannel a;
+    private SPPNioChannel b;
+
+    @Before
+    public void setUp() throws IOException {
+        socketA = SocketChannel.open();
+        socketB = SocketChannel.open();
+        a = new SPPNioChannel(socketA, null, 1000, null);
+        b = new SPPNioChannel(socketB, null, 1000, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        socketA.close();
+        socketB.close();
+    }
+
+    /**
+     * @return A TM Space Packet from the primary to the secondary APID, with
+     * the given source and destination identifiers, -1 for none.
+     */
+    private static SpacePacket packet(final int from, final int sourceId, final int to, final int destinationId) {
+        final byte[] data = new byte[23];
+        data[0] = (byte) (0b001 << 5 | 3); // version 1, SDU 3
+        data[8] = (byte) (to >> 8 & 0x07);
+        data[9] = (byte) to;
+        data[10] = (byte) (QUALIFIER >> 8);
+        data[11] = (byte) QUALIFIER;
+        int idx = 21;
+        if (sourceId >= 0) {
+            data[20] |= (byte) 0b10000000;
+            data[idx++] = (byte) sourceId;
+        }
+        if (destinationId >= 0) {
+            data[20] |= (byte) 0b01000000;
+            data[idx++] = (byte) destinationId;
+        }
+        return new SpacePacket(new SpacePacketHeader(0, 0, 1, from, 0b11, 0), QUALIFIER, data, 0, idx);
+    }
+
+    @Test
+    public void testSameApid() throws Exception {
+        final SPPRoutingTable routes = new SPPRoutingTable(null);
+        routes.learn(view, packet(100, -1, LOCAL_APID, -1), a);
+        routes.learn(view, packet(100, -1, LOCAL_APID, -1), b);
+        routes.learn(view, packet(100, -1, LOCAL_APID, -1), a);
+        assertEquals(Arrays.asList(a, b), routes.lookup(view, packet(LOCAL_APID, -1, 100, -1)));
+        assertNull(routes.lookup(view, packet(LOCAL_APID, -1, 101, -1)));
+
+        // the route through the connection still open is kept
+        routes.disconnected(a);
+        assertEquals(Arrays.asList(b), routes.lookup(view, packet(LOCAL_APID, -1, 100, -1)));
+        routes.disconnected(b);
+        assertNull(routes.lookup(view, packet(LOCAL_APID, -1, 100, -1)));
+    }
+
+    @Test
+    public void testIdentifiers() throws Exception {
+        final SPPRoutingTable routes = new SPPRoutingTable(null);
+        routes.learn(view, packet(100, 1, LOCAL_APID, -1), a);
+        routes.learn(view, packet(100, 2, LOCAL_APID, -1), b);
+        assertEquals(Arrays.asList(a), routes.lookup(view, packet(LOCAL_APID, -1, 100, 1)));
+        assertEquals(Arrays.asList(b), routes.lookup(view, packet(LOCAL_APID, -1, 100, 2)));
+        // identifier not seen or not given: all connections of the APID
+        assertEquals(Arrays.asList(a, b), routes.lookup(view, packet(LOCAL_APID, -1, 100, 3)));
+        assertEquals(Arrays.asList(a, b), routes.lookup(view, packet(LOCAL_APID, -1, 100, -1)));
+
+        routes.disconnected(a);
+        assertEquals(Arrays.asList(b), routes.lookup(view, packet(LOCAL_APID, -1, 100, 1)));
+    }
+}
@@ -0,0 +1,317 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2015      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under European Space Agency Public License (ESA-PL) Weak Copyleft – v2.4
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.testbed.util.sppimpl.tcp;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacket;
+import org.ccsds.moims.mo.testbed.util.spp.SpacePacketHeader;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPApidWhitelist;
+import org.ccsds.moims.mo.testbed.util.sppimpl.util.SPPFrameDecoder;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ServerTCPSPPSocketTest {
+
+    private static final int APID = 100;
+    private static final SPPApidWhitelist PROCESSED_APIDS;
+
+    static {
+        System.setProperty("org.ccsds.moims.mo.malspp.crcenabled", "false");
+        System.setProperty("org.ccsds.moims.mo.malspp.whitelist.watch", "false");
+        try {
+            final File f = File.createTempFile("apids", ".txt");
+            f.deleteOnExit();
+            try (Writer w = new FileWriter(f)) {
+                w.write(APID + "\n");
+            }
+            PROCESSED_APIDS = SPPApidWhitelist.get(f.getPath());
+        } catch (final IOException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private int port;
+    private ServerTCPSPPSocket server;
+    private final List<Socket> clients = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (final Socket client : clients) {
+            client.close();
+        }
+        if (null != server) {
+            server.close();
+        }
+    }
+
+    private ServerTCPSPPSocket listen(final String policy, final int maxQueuedBytes) throws Exception {
+        try (ServerSocket free = new ServerSocket(0)) {
+            port = free.getLocalPort();
+        }
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(ServerTCPSPPSocket.PORT_PROP, String.valueOf(port));
+        properties.put(ServerTCPSPPSocket.MAX_QUEUED_BYTES_PROP, String.valueOf(maxQueuedBytes));
+        properties.put(ServerTCPSPPSocket.SLOW_CONSUMER_POLICY_PROP, policy);
+        properties.put(ServerTCPSPPSocket.WRITE_TIMEOUT_PROP, "0");
+        server = new ServerTCPSPPSocket() {
+            @Override
+            SPPFrameDecoder createDecoder() {
+                return new SPPFrameDecoder(false, PROCESSED_APIDS, PROCESSED_APIDS);
+            }
+        };
+        server.init(properties);
+        return server;
+    }
+
+    private Socket connect(final int receiveBufferSize) throws Exception {
+        final Socket client = new Socket();
+        clients.add(client);
+        if (receiveBufferSize > 0) {
+            client.setReceiveBufferSize(receiveBufferSize);
+        }
+        client.connect(new InetSocketAddress("localhost", port));
+        int open = 0;
+        for (final Socket c : clients) {
+            open += c.isClosed() ? 0 : 1;
+        }
+        final int count = open;
+        await(new Condition() {
+            @Override
+            public boolean holds() {
+                return server.getClientCount() == count;
+            }
+        });
+        return client;
+    }
+
+    private static byte[] frame(final int n, final int dataLength) {
+        final ByteBuffer b = ByteBuffer.allocate(6 + dataLength);
+        b.putShort((short) APID);
+        b.putShort((short) (0xC000 | (n & 0x3FFF)));
+        b.putShort((short) (dataLength - 1));
+        b.putInt(n);
+        return b.array();
+    }
+
+    private static SpacePacket packet(final int n, final int dataLength) {
+        final SpacePacketHeader header = new SpacePacketHeader();
+        header.setApid(APID);
+        header.setSequenceCount(n & 0x3FFF);
+        header.setSequenceFlags(3);
+        final byte[] data = new byte[dataLength];
+        ByteBuffer.wrap(data).putInt(n);
+        return new SpacePacket(header, data, 0, data.length);
+    }
+
+    private static int number(final SpacePacket packet) {
+        assertEquals(APID, packet.getHeader().getApid());
+        return ByteBuffer.wrap(packet.getBody(), packet.getOffset(), 4).getInt();
+    }
+
+    /**
+     * @return The number of the next Space Packet read from the connection, -1 at the end of the
+     * stream.
+     */
+    private static int read(final DataInputStream in, final int dataLength) throws IOException {
+        final byte[] frame = new byte[6 + dataLength];
+        final int first = in.read();
+        if (first < 0) {
+            return -1;
+        }
+        frame[0] = (byte) first;
+        in.readFully(frame, 1, frame.length - 1);
+        assertEquals(dataLength - 1, ((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF));
+        return ByteBuffer.wrap(frame, 6, 4).getInt();
+    }
+
+    private static void await(final Condition condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds()) {
+            assertTrue("timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private interface Condition {
+
+        boolean holds();
+    }
+
+    @Test(timeout = 10000)
+    public void testPartialReads() throws Exception {
+        listen("drop", 100000);
+        final OutputStream out = connect(0).getOutputStream();
+        final byte[] frames = new byte[2 * 106];
+        System.arraycopy(frame(1, 100), 0, frames, 0, 106);
+        System.arraycopy(frame(2, 100), 0, frames, 106, 106);
+        // partial header, rest of the header with part of the packet data field, the rest of the
+        // first frame with part of the second one, the rest; each read by a selector wakeup
+        final int[] splits = new int[]{0, 3, 8, 150, frames.length};
+        for (int i = 1; i < splits.length; i++) {
+            out.write(frames, splits[i - 1], splits[i] - splits[i - 1]);
+            out.flush();
+            Thread.sleep(150);
+        }
+        assertEquals(1, number(server.receive()));
+        assertEquals(2, number(server.receive()));
+    }
+
+    @Test(timeout = 10000)
+    public void testSeveralFramesInOneRead() throws Exception {
+        listen("drop", 100000);
+        final OutputStream out = connect(0).getOutputStream();
+        final byte[] frames = new byte[5 * 56];
+        for (int i = 0; i < 5; i++) {
+            System.arraycopy(frame(i, 50), 0, frames, i * 56, 56);
+        }
+        out.write(frames);
+        out.flush();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, number(server.receive()));
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testDropForSlowConsumer() throws Exception {
+        final int count = sendToFastAndSlowConsumer("drop");
+        // the slow client stays connected and gets the first Space Packets in order, but not all
+        final DataInputStream slow = new DataInputStream(clients.get(1).getInputStream());
+        clients.get(1).setSoTimeout(1000);
+        int received = 0;
+        try {
+            int n;
+            while ((n = read(slow, 60000)) >= 0) {
+                assertEquals(received, n);
+                received++;
+            }
+            fail("slow client disconnected");
+        } catch (final SocketTimeoutException ex) {
+            // nothing more to read
+        }
+        assertTrue(received > 0);
+        assertTrue(received < count);
+        assertEquals(2, server.getClientCount());
+    }
+
+    @Test(timeout = 60000)
+    public void testDisconnectSlowConsumer() throws Exception {
+        final int count = sendToFastAndSlowConsumer("disconnect");
+        assertEquals(1, server.getClientCount());
+        // the queued octets may be cut off by closing the connection
+        final InputStream slow = clients.get(1).getInputStream();
+        clients.get(1).setSoTimeout(5000);
+        final byte[] buffer = new byte[65536];
+        long received = 0;
+        try {
+            int n;
+            while ((n = slow.read(buffer)) >= 0) {
+                received += n;
+            }
+        } catch (final SocketException ex) {
+            // connection reset
+        }
+        assertTrue(received < count * 60006L);
+    }
+
+    /**
+     * Sends Space Packets to a client reading them as they come and to a client with a small
+     * receive buffer not reading at all. Each Space Packet is sent after the previous one has
+     * reached the fast client, so only the write queue of the slow client fills up.
+     *
+     * @return The number of Space Packets sent.
+     */
+    private int sendToFastAndSlowConsumer(final String policy) throws Exception {
+        final int count = 300;
+        listen(policy, 4 * 60006);
+        final DataInputStream fast = new DataInputStream(connect(0).getInputStream());
+        connect(4096);
+        final AtomicInteger received = new AtomicInteger();
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        assertEquals(i, read(fast, 60000));
+                        received.incrementAndGet();
+                    }
+                } catch (final IOException ex) {
+                    // test fails
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < count; i++) {
+            server.send(packet(i, 60000));
+            final int sent = i + 1;
+            await(new Condition() {
+                @Override
+                public boolean holds() {
+                    return received.get() == sent;
+                }
+            });
+        }
+        reader.join();
+        return count;
+    }
+
+    @Test(timeout = 10000)
+    public void testClientDisconnect() throws Exception {
+        listen("drop", 100000);
+        final Socket client = connect(0);
+        client.getOutputStream().write(frame(7, 20));
+        assertEquals(7, number(server.receive()));
+        client.close();
+        await(new Condition() {
+            @Override
+            public boolean holds() {
+                return server.getClientCount() == 0;
+            }
+        });
+        try {
+            server.send(packet(8, 20));
+            fail("sent without a client");
+        } catch (final IOException ex) {
+            // expected
+        }
+        // a new client is served as before
+        final Socket other = connect(0);
+        server.send(packet(9, 20));
+        assertEquals(9, read(new DataInputStream(other.getInputStream()), 20));
+    }
+}